@@ -52,6 +52,8 @@ public class AuthorizationServer {
     protected DBManager db = DBManagerFactory.getInstance();
     protected ScopeService scopeService = new ScopeService();
     protected ClientCredentialsService clientCredentialsService = new ClientCredentialsService();
+    protected TokenReuseService tokenReuseService = TokenReuseService.getInstance();
+    protected TokenQuotaService quotaService = TokenQuotaService.getInstance();
 
     protected Class<IUserAuthentication> userAuthenticationClass;
     protected Class<ICustomGrantTypeHandler> userCustomGrantTypeHandler;
@@ -96,7 +98,7 @@ public class AuthorizationServer {
     }
 
 	private AccessToken handleAuthorizationCodeGrantType(TokenRequest tokenRequest) throws OAuthException {	
-		AuthCode authCode = findAuthCode(tokenRequest);
+		AuthCode authCode = consumeAuthCode(tokenRequest);
 		// TODO: REVISIT: Move client_id check to db query
 		if (authCode != null) {
 			if (!tokenRequest.getClientId().equals(authCode.getClientId())) {
@@ -105,7 +107,6 @@ public class AuthorizationServer {
 			if (authCode.getRedirectUri() != null && !tokenRequest.getRedirectUri().equals(authCode.getRedirectUri())) {
 				throw new OAuthException(new TokenError(TokenErrorTypes.INVALID_REDIRECT_URI, tokenRequest.getState()), HttpResponseStatus.BAD_REQUEST);
 			} else {
-				// invalidate the auth code
                 AccessToken accessToken = new AccessToken(TOKEN_TYPE_BEARER, getExpiresIn(TokenRequest.PASSWORD,authCode.getScope()),
 						authCode.getScope(), getExpiresIn(TokenRequest.REFRESH_TOKEN, authCode.getScope()));
 				accessToken.setUserId(authCode.getUserId());
@@ -132,14 +133,15 @@ public class AuthorizationServer {
                     } else {
                         validScope = accessToken.getScope();
                     }
-                    db.updateAccessTokenValidStatus(accessToken.getToken(), false);
                     AccessToken newAccessToken = new AccessToken(TOKEN_TYPE_BEARER, getExpiresIn(TokenRequest.PASSWORD,
                             validScope), validScope, accessToken.getRefreshToken(), getExpiresIn(TokenRequest.REFRESH_TOKEN, validScope));
                     newAccessToken.setUserId(accessToken.getUserId());
                     newAccessToken.setDetails(accessToken.getDetails());
                     newAccessToken.setClientId(accessToken.getClientId());
-                    db.storeAccessToken(newAccessToken);
-                    db.removeAccessToken(accessToken.getToken());
+                    // fails if a concurrent request already refreshed the same token
+                    if (!db.rotateAccessToken(accessToken.getToken(), newAccessToken)) {
+                        throw new OAuthException(new TokenError(TokenErrorTypes.INVALID_REFRESH_TOKEN, tokenRequest.getState()), HttpResponseStatus.BAD_REQUEST);
+                    }
                     return newAccessToken;
                 } else {
                     db.removeAccessToken(accessToken.getToken());
@@ -157,6 +159,10 @@ public class AuthorizationServer {
 			throw new OAuthException(new TokenError(TokenErrorTypes.INVALID_SCOPE, tokenRequest.getState()), HttpResponseStatus.BAD_REQUEST);
 		}
 
+        AccessToken reusableToken = tokenReuseService.findReusableToken(tokenRequest.getClientId(), scope);
+        if (reusableToken != null) {
+            return reusableToken;
+        }
         AccessToken accessToken = new AccessToken(TOKEN_TYPE_BEARER, getExpiresIn(TokenRequest.CLIENT_CREDENTIALS, scope),
 				scope, false, getExpiresIn(TokenRequest.REFRESH_TOKEN, scope));
 		accessToken.setClientId(tokenRequest.getClientId());
@@ -165,6 +171,7 @@ public class AuthorizationServer {
 			accessToken.setDetails(applicationDetails);
 		}
 		db.storeAccessToken(accessToken);
+        tokenReuseService.tokenIssued(accessToken);
         return accessToken;
     }
 
@@ -239,6 +246,10 @@ public class AuthorizationServer {
         if (!clientCredentialsService.isActiveClient(tokenRequest.getClientId(), tokenRequest.getClientSecret())) {
             throw new OAuthException(new TokenError(TokenErrorTypes.INVALID_CLIENT_CREDENTIALS, tokenRequest.getState()), HttpResponseStatus.BAD_REQUEST);
         }
+        long retryAfter = quotaService.tryConsume(tokenRequest.getClientId());
+        if (retryAfter > 0) {
+            throw new QuotaExceededException(retryAfter);
+        }
 
         AccessToken accessToken = null;
         if (TokenRequest.AUTHORIZATION_CODE.equals(tokenRequest.getGrantType())) {
@@ -313,8 +324,9 @@ public class AuthorizationServer {
         return clientCredentials;
     }
 
-    protected AuthCode findAuthCode(TokenRequest tokenRequest) {
-        return db.findAuthCode(tokenRequest.getCode(), tokenRequest.getRedirectUri());
+    // the auth code can be exchanged only once, it is invalidated when it is found
+    protected AuthCode consumeAuthCode(TokenRequest tokenRequest) {
+        return db.consumeAuthCode(tokenRequest.getCode(), tokenRequest.getRedirectUri());
     }
 
     public AccessToken isValidToken(String token) {
@@ -370,6 +382,7 @@ public class AuthorizationServer {
             }
             if (clientId.equals(accessToken.getClientId())) {
                 db.removeAccessToken(accessToken.getToken());
+                tokenReuseService.tokenRevoked(accessToken);
                 log.debug("access token {} set status invalid", token);
                 return true;
             } else {
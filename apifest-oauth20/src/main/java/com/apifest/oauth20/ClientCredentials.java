@@ -18,7 +18,9 @@ package com.apifest.oauth20;
 
 import java.io.Serializable;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.codehaus.jackson.annotate.JsonIgnore;
 import org.codehaus.jackson.annotate.JsonProperty;
@@ -228,4 +230,22 @@ public class ClientCredentials implements Serializable {
         return creds;
     }
 
+    /**
+     * Splits the space-separated scope of a client application, used to index the client applications by scope.
+     *
+     * @param scope the scope of a client application, may be null
+     * @return the distinct scope names
+     */
+    public static Set<String> scopeNames(String scope) {
+        Set<String> names = new LinkedHashSet<String>();
+        if (scope != null) {
+            for (String name : scope.split(" ")) {
+                if (name.length() > 0) {
+                    names.add(name);
+                }
+            }
+        }
+        return names;
+    }
+
 }
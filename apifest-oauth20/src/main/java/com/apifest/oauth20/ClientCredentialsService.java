@@ -34,6 +34,12 @@ public class ClientCredentialsService {
     public static final String CLIENT_APP_UPDATED = "{\"status\":\"client application updated\"}";
     public static final String CLIENT_APP_REMOVED = "{\"status\":\"client application removed\"}";
 
+    static {
+        Response.registerBodies(REGISTER_APP_NAME_OR_SCOPE_OR_URI_IS_NULL, CANNOT_REGISTER_APP, CANNOT_UPDATE_APP,
+                CANNOT_DELETE_APP, UPDATE_APP_MANDATORY_PARAM_MISSING, ALREADY_REGISTERED_APP, CLIENT_APP_DOES_NOT_EXIST,
+                INACTIVE_CLIENT_CREDENTIALS, INVALID_CLIENT_CREDENTIALS, CLIENT_APP_UPDATED, CLIENT_APP_REMOVED);
+    }
+
     protected DBManager db = DBManagerFactory.getInstance();
 
     /**
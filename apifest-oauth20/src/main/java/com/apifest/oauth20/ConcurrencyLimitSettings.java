@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static com.apifest.oauth20.utils.PropertiesUtils.getInt;
+
+import java.util.Properties;
+
+/**
+ * Holds the adaptive concurrency limit loaded from the <code>oauth20.concurrency.*</code> properties. The limit starts
+ * at <code>oauth20.concurrency.limit</code> (0 disables it) and moves between the min and the max depending on the
+ * time taken to serve the requests.
+ *
+ * @author Edouard De Oliveira
+ */
+public class ConcurrencyLimitSettings {
+
+    public static final String LIMIT_PROPERTY = "oauth20.concurrency.limit";
+    public static final String MIN_LIMIT_PROPERTY = "oauth20.concurrency.limit.min";
+    public static final String MAX_LIMIT_PROPERTY = "oauth20.concurrency.limit.max";
+    public static final String LATENCY_PROPERTY = "oauth20.concurrency.latency";
+    public static final String ADMIN_SHARE_PROPERTY = "oauth20.concurrency.admin.share";
+    public static final String RETRY_AFTER_PROPERTY = "oauth20.concurrency.retry.after";
+
+    private int limit;
+    private int minLimit = 4;
+    private int maxLimit = 200;
+
+    // in milliseconds, a request served slower makes the limit decrease
+    private int latency = 250;
+
+    // percentage of the limit the admin requests may use
+    private int adminShare = 50;
+
+    // in seconds
+    private int retryAfter = 1;
+
+    public boolean isEnabled() {
+        return limit > 0;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public ConcurrencyLimitSettings setLimit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public ConcurrencyLimitSettings setMinLimit(int minLimit) {
+        this.minLimit = minLimit;
+        return this;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public ConcurrencyLimitSettings setMaxLimit(int maxLimit) {
+        this.maxLimit = maxLimit;
+        return this;
+    }
+
+    public int getLatency() {
+        return latency;
+    }
+
+    public ConcurrencyLimitSettings setLatency(int latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    public int getAdminShare() {
+        return adminShare;
+    }
+
+    public ConcurrencyLimitSettings setAdminShare(int adminShare) {
+        this.adminShare = adminShare;
+        return this;
+    }
+
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    public ConcurrencyLimitSettings setRetryAfter(int retryAfter) {
+        this.retryAfter = retryAfter;
+        return this;
+    }
+
+    public static ConcurrencyLimitSettings load(Properties props) {
+        ConcurrencyLimitSettings settings = new ConcurrencyLimitSettings();
+        settings.setLimit(getInt(props, LIMIT_PROPERTY, 0));
+        settings.setMinLimit(Math.max(1, getInt(props, MIN_LIMIT_PROPERTY, settings.getMinLimit())));
+        settings.setMaxLimit(Math.max(settings.getMinLimit(), getInt(props, MAX_LIMIT_PROPERTY, settings.getMaxLimit())));
+        settings.setLatency(getInt(props, LATENCY_PROPERTY, settings.getLatency()));
+        settings.setAdminShare(getInt(props, ADMIN_SHARE_PROPERTY, settings.getAdminShare()));
+        settings.setRetryAfter(getInt(props, RETRY_AFTER_PROPERTY, settings.getRetryAfter()));
+        return settings;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of requests served at the same time, so that a slow DB does not make all the requests queue
+ * up. The limit follows an additive increase, multiplicative decrease rule on the time taken to serve a request,
+ * which is mostly spent waiting for the DB: it grows by one every limit requests served faster than
+ * {@link ConcurrencyLimitSettings#getLatency()} while at least half of it is used, and is cut by
+ * {@link #BACKOFF} when a request is slower. The admin requests may only use
+ * {@link ConcurrencyLimitSettings#getAdminShare()} percent of the limit, so that they are rejected first.
+ *
+ * @author Edouard De Oliveira
+ */
+public class ConcurrencyLimiter {
+
+    protected static Logger log = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+    private static volatile ConcurrencyLimiter instance;
+
+    public enum Priority {
+        /** token issuance and validation */
+        CRITICAL,
+        /** administration of the client apps, scopes and tokens */
+        ADMIN
+    }
+
+    protected static final double BACKOFF = 0.9;
+
+    // the limit is kept in thousandths, so that it can grow by a fraction of a request
+    private static final long SCALE = 1000;
+
+    private final ConcurrencyLimitSettings settings;
+    private final long latencyNanos;
+    private final AtomicLong limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong lastDecrease;
+
+    public ConcurrencyLimiter(ConcurrencyLimitSettings settings) {
+        this.settings = settings;
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(settings.getLatency());
+        this.limit = new AtomicLong(settings.getLimit() * SCALE);
+        this.lastDecrease = new AtomicLong(System.nanoTime() - latencyNanos - 1);
+    }
+
+    public static ConcurrencyLimiter getInstance() {
+        if (instance == null) {
+            synchronized (ConcurrencyLimiter.class) {
+                if (instance == null) {
+                    OAuthServerContext ctx = OAuthServer.getContext();
+                    ConcurrencyLimitSettings settings = (ctx != null && ctx.getConcurrencyLimitSettings() != null)
+                            ? ctx.getConcurrencyLimitSettings() : new ConcurrencyLimitSettings();
+                    instance = new ConcurrencyLimiter(settings);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Counts a request in flight if the limit of its priority is not reached, {@link #release(Priority, long)} must then be
+     * called once it is served.
+     *
+     * @param priority the priority of the request
+     * @return false if the request should be rejected
+     */
+    public boolean tryAcquire(Priority priority) {
+        if (!settings.isEnabled()) {
+            return true;
+        }
+        long allowed = limit.get() / SCALE;
+        if (priority == Priority.ADMIN) {
+            allowed = Math.max(1, allowed * settings.getAdminShare() / 100);
+        }
+        while (true) {
+            int current = inFlight.get();
+            if (current >= allowed) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Counts a request as served and adapts the limit to the time it took. Only the critical requests adapt the limit,
+     * so that slow administration requests cannot cut it.
+     *
+     * @param priority the priority of the request
+     * @param elapsedNanos the time taken to serve the request
+     */
+    public void release(Priority priority, long elapsedNanos) {
+        if (!settings.isEnabled()) {
+            return;
+        }
+        int served = inFlight.getAndDecrement();
+        if (priority != Priority.CRITICAL) {
+            return;
+        }
+        if (elapsedNanos > latencyNanos) {
+            long now = System.nanoTime();
+            long last = lastDecrease.get();
+            // the requests slowed down by the same cause only cut the limit once
+            if (now - last > latencyNanos && lastDecrease.compareAndSet(last, now)) {
+                long current = limit.get();
+                long decreased = Math.max(settings.getMinLimit() * SCALE, (long) (current * BACKOFF));
+                if (limit.compareAndSet(current, decreased)) {
+                    log.debug("concurrency limit decreased to {}", decreased / SCALE);
+                }
+            }
+        } else {
+            long current = limit.get();
+            if (served * 2 * SCALE >= current && current < settings.getMaxLimit() * SCALE) {
+                long increased = Math.min(settings.getMaxLimit() * SCALE, current + SCALE * SCALE / current);
+                limit.compareAndSet(current, increased);
+            }
+        }
+    }
+
+    public long getRetryAfter() {
+        return settings.getRetryAfter();
+    }
+
+    public int getLimit() {
+        return (int) (limit.get() / SCALE);
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
@@ -20,17 +20,32 @@
 package com.apifest.oauth20;
 
 import com.apifest.oauth20.OAuthServerContext.OAuthServerContextBuilder;
+import com.apifest.oauth20.persistence.CacheInvalidationBus;
+import com.apifest.oauth20.persistence.CacheSettings;
+import com.apifest.oauth20.persistence.CachingDBManager;
 import com.apifest.oauth20.persistence.DBManager;
+import com.apifest.oauth20.persistence.ShardedDBManager;
+import com.apifest.oauth20.persistence.file.FileDBManager;
+import com.apifest.oauth20.persistence.file.FileStoreSettings;
 import com.apifest.oauth20.persistence.hazelcast.HazelcastDBManager;
+import com.apifest.oauth20.persistence.hazelcast.HazelcastInvalidationBus;
+import com.apifest.oauth20.persistence.hazelcast.HazelcastSettings;
+import com.apifest.oauth20.persistence.inmemory.InMemoryDBManager;
 import com.apifest.oauth20.persistence.mongodb.MongoDBManager;
 import com.apifest.oauth20.persistence.redis.RedisDBManager;
+import com.apifest.oauth20.persistence.redis.RedisInvalidationBus;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class DBManagerFactory {
 
 	public static final String REDIS_DB = "redis";
 	public static final String MONGO_DB = "mongodb";
+	public static final String INMEMORY_DB = "inmemory";
+	public static final String FILE_DB = "file";
 	public static final String DEFAULT_DB = "hazelcast";
 
     private static final ReentrantLock lock = new ReentrantLock();
@@ -45,7 +60,9 @@ public class DBManagerFactory {
                 getInstance(ctx.getDatabaseType(), ctx.getRedisMaster(),
                         ctx.getRedisSentinels(), ctx.getRedisPassword(), ctx.getMongoDBUri(),
                         ctx.getHazelcastClusterName(), ctx.getHazelcastPassword(),
-                        ctx.getHost(), ctx.getHazelcastClusterMembers(), ctx.useEmbeddedHazelcast());
+                        ctx.getHost(), ctx.getHazelcastClusterMembers(), ctx.useEmbeddedHazelcast(),
+                        ctx.getHazelcastSettings(), ctx.getCacheSettings(), ctx.getFileStoreSettings(),
+                        ctx.getShards());
             }
             return dbManager;
         } finally {
@@ -57,10 +74,17 @@ public class DBManagerFactory {
         getInstance(builder.getDatabaseType(), builder.getRedisMaster(),
                         builder.getRedisSentinels(), builder.getRedisPassword(), builder.getMongoDBUri(),
                         builder.getHazelcastClusterName(), builder.getHazelcastPassword(),
-                        builder.getHost(), builder.getHazelcastClusterMembers(), builder.useEmbeddedHazelcast());
+                        builder.getHost(), builder.getHazelcastClusterMembers(), builder.useEmbeddedHazelcast(),
+                        builder.getHazelcastSettings(), builder.getCacheSettings(), builder.getFileStoreSettings(),
+                        builder.getShards());
 
+        DBManager db = (dbManager instanceof CachingDBManager) ? ((CachingDBManager) dbManager).getDelegate() : dbManager;
         if ("mongodb".equalsIgnoreCase(builder.getDatabaseType())) {
-            ((MongoDBManager) dbManager).addIndexes();
+            List<DBManager> shards = (db instanceof ShardedDBManager) ? ((ShardedDBManager) db).getShards()
+                    : Collections.singletonList(db);
+            for (DBManager shard : shards) {
+                ((MongoDBManager) shard).addIndexes();
+            }
         }
 
         return dbManager;
@@ -68,18 +92,30 @@ public class DBManagerFactory {
 
     private static DBManager getInstance(String dbType, String redisMaster, String redisSentinels, String redisPassword,
                                          String mongoDBUri, String hazelcastClusterName, String hazelcastPassword,
-                                         String host, String hazelcastClusterMembers, boolean useEmbeddedHazelcast) {
+                                         String host, String hazelcastClusterMembers, boolean useEmbeddedHazelcast,
+                                         HazelcastSettings hazelcastSettings, CacheSettings cacheSettings,
+                                         FileStoreSettings fileStoreSettings, List<OAuthServerContext> shards) {
         lock.lock();
         try {
             if (dbManager == null) {
 
-                if (REDIS_DB.equalsIgnoreCase(dbType)) {
-                    dbManager = new RedisDBManager(redisMaster, redisSentinels, redisPassword);
-                } else if (MONGO_DB.equalsIgnoreCase(dbType)) {
-                    dbManager = new MongoDBManager(mongoDBUri);
+                if (shards != null && shards.size() > 1) {
+                    List<DBManager> shardManagers = new ArrayList<DBManager>(shards.size());
+                    for (OAuthServerContext shard : shards) {
+                        shardManagers.add(createDBManager(shard.getDatabaseType(), shard.getRedisMaster(),
+                                shard.getRedisSentinels(), shard.getRedisPassword(), shard.getMongoDBUri(),
+                                shard.getHazelcastClusterName(), shard.getHazelcastPassword(),
+                                shard.getHost(), shard.getHazelcastClusterMembers(), shard.useEmbeddedHazelcast(),
+                                shard.getHazelcastSettings(), shard.getFileStoreSettings()));
+                    }
+                    dbManager = new ShardedDBManager(shardManagers);
                 } else {
-                    dbManager = new HazelcastDBManager(hazelcastClusterName, hazelcastPassword,
-                            host, hazelcastClusterMembers, useEmbeddedHazelcast);
+                    dbManager = createDBManager(dbType, redisMaster, redisSentinels, redisPassword, mongoDBUri,
+                            hazelcastClusterName, hazelcastPassword, host, hazelcastClusterMembers, useEmbeddedHazelcast,
+                            hazelcastSettings, fileStoreSettings);
+                }
+                if (cacheSettings != null && cacheSettings.isEnabled()) {
+                    dbManager = new CachingDBManager(dbManager, cacheSettings, createInvalidationBus(dbManager));
                 }
             }
             return dbManager;
@@ -87,4 +123,37 @@ public class DBManagerFactory {
             lock.unlock();
         }
     }
+
+    private static DBManager createDBManager(String dbType, String redisMaster, String redisSentinels, String redisPassword,
+                                             String mongoDBUri, String hazelcastClusterName, String hazelcastPassword,
+                                             String host, String hazelcastClusterMembers, boolean useEmbeddedHazelcast,
+                                             HazelcastSettings hazelcastSettings, FileStoreSettings fileStoreSettings) {
+        if (REDIS_DB.equalsIgnoreCase(dbType)) {
+            return new RedisDBManager(redisMaster, redisSentinels, redisPassword);
+        } else if (MONGO_DB.equalsIgnoreCase(dbType)) {
+            return new MongoDBManager(mongoDBUri);
+        } else if (INMEMORY_DB.equalsIgnoreCase(dbType)) {
+            return new InMemoryDBManager();
+        } else if (FILE_DB.equalsIgnoreCase(dbType)) {
+            return new FileDBManager(fileStoreSettings != null ? fileStoreSettings : new FileStoreSettings());
+        } else {
+            return new HazelcastDBManager(hazelcastClusterName, hazelcastPassword,
+                    host, hazelcastClusterMembers, useEmbeddedHazelcast,
+                    hazelcastSettings != null ? hazelcastSettings : new HazelcastSettings());
+        }
+    }
+
+    // clients and scopes are pinned on the first shard, so are the cache invalidations
+    // MongoDB has no pub/sub, cached entries are reloaded once their TTL expires
+    private static CacheInvalidationBus createInvalidationBus(DBManager db) {
+        if (db instanceof ShardedDBManager) {
+            db = ((ShardedDBManager) db).getShards().get(0);
+        }
+        if (db instanceof HazelcastDBManager) {
+            return new HazelcastInvalidationBus(((HazelcastDBManager) db).getHazelcastInstance());
+        } else if (db instanceof RedisDBManager) {
+            return new RedisInvalidationBus(((RedisDBManager) db).getPool());
+        }
+        return null;
+    }
 }
@@ -17,7 +17,9 @@
 package com.apifest.oauth20;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -36,6 +38,7 @@ import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
@@ -80,7 +83,17 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
 
     protected AuthorizationServer auth;
 
+    protected TokenRateLimiter rateLimiter = TokenRateLimiter.getInstance();
+
+    protected ConcurrencyLimiter concurrencyLimiter = ConcurrencyLimiter.getInstance();
+
+    // the routes served by the listener of this handler, all of them when null
+    protected ConcurrencyLimiter.Priority plane;
+
     protected SubnetRange allowedIPs;
+    // a handler is created per channel, its remote address is checked once against the whitelist
+    private Boolean remoteAddressAllowed;
+    private InetAddress remoteAddress;
     private boolean productionMode = false;
 	private Map<String, String> serverCredentials;
 
@@ -95,16 +108,43 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
 		this.productionMode = productionMode;
 	}
 
+	protected void setPlane(ConcurrencyLimiter.Priority plane) {
+		this.plane = plane;
+	}
+
 	private void checkSecurityRestrictions(ChannelHandlerContext ctx, String rawUri, HttpRequest req) throws RestrictedAccessException {
 		checkSecurityRestrictions(true, ctx, rawUri, req);
 	}
 	
+	private boolean isRemoteAddressAllowed(ChannelHandlerContext ctx) {
+		if (remoteAddressAllowed == null) {
+			SocketAddress remoteAddress = ctx.getChannel().getRemoteAddress();
+			remoteAddressAllowed = allowedIPs == null || (remoteAddress instanceof InetSocketAddress
+					&& allowedIPs.inRange(((InetSocketAddress) remoteAddress).getAddress()));
+		}
+		return remoteAddressAllowed;
+	}
+
+	private static String getRemoteHostAddress(ChannelHandlerContext ctx) {
+		return ((InetSocketAddress) ctx.getChannel().getRemoteAddress()).getAddress().getHostAddress();
+	}
+
+	@Override
+	public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+		SocketAddress address = ctx.getChannel().getRemoteAddress();
+		if (address instanceof InetSocketAddress) {
+			remoteAddress = ((InetSocketAddress) address).getAddress();
+		}
+		if (productionMode) {
+			isRemoteAddressAllowed(ctx);
+		}
+		super.channelConnected(ctx, e);
+	}
+
 	private void checkSecurityRestrictions(boolean checkAuth, ChannelHandlerContext ctx, String rawUri, HttpRequest req) throws RestrictedAccessException {
 		if (productionMode) {
-			String addr = ((InetSocketAddress) ctx.getChannel().getRemoteAddress()).getAddress().getHostAddress();
-			
-			if (allowedIPs != null && !allowedIPs.inRange(addr)) {
-                log.info("Unauthorized access to "+rawUri+" from ip "+addr+" (not in allowed range) ...");
+			if (!isRemoteAddressAllowed(ctx)) {
+                log.info("Unauthorized access to "+rawUri+" from ip "+getRemoteHostAddress(ctx)+" (not in allowed range) ...");
 				HttpResponse unauthorizedResponse = Response.createResponse(HttpResponseStatus.FORBIDDEN, "Unauthorized access");
 				throw new RestrictedAccessException(unauthorizedResponse);
 			}
@@ -112,14 +152,14 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
 			if (checkAuth) {
 				String authHeader = req.headers().get(HttpHeaders.Names.AUTHORIZATION);
 				if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-					log.info("Unauthorized access (invalid auth) to "+rawUri+" from "+addr+" ...");
+					log.info("Unauthorized access (invalid auth) to "+rawUri+" from "+getRemoteHostAddress(ctx)+" ...");
 					throw new RestrictedAccessException(Response.createUnauthorizedResponse());
 				}
 				else {
 					String tokenParam = authHeader.substring(7);
 					AccessToken token = auth.isValidToken(tokenParam);
 					if (token == null || !token.isValid()) {
-						log.info("Unauthorized access (invalid token) to "+rawUri+" from "+addr+" ...");
+						log.info("Unauthorized access (invalid token) to "+rawUri+" from "+getRemoteHostAddress(ctx)+" ...");
 						throw new RestrictedAccessException(Response.createUnauthorizedResponse());				
 					}
 				}
@@ -149,85 +189,21 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
             }
 
             HttpResponse response;
-            try {
-            	if (ADMIN_LOGIN_URI.equals(rawUri) && method.equals(HttpMethod.POST)) {
-            		checkSecurityRestrictions(false, ctx, rawUri, req);
-            		response = handleLogin(req);
-            	} 
-            	// APPLICATION URI's 
-            	else if (APPLICATION_URI.equals(rawUri)) {
-            		if (method.equals(HttpMethod.GET)) {
-		            	checkSecurityRestrictions(ctx, rawUri, req);
-		                response = handleGetAllClientApplications(req);
-            		} else if (method.equals(HttpMethod.POST)) {
-		    			checkSecurityRestrictions(ctx, rawUri, req); 
-		                response = handleRegister(req);
-		            } else {
-		            	response = Response.createNotFoundResponse();
-		            }
-	            } else if (rawUri.startsWith(APPLICATION_URI)) {
-	            	if (method.equals(HttpMethod.GET)) {
-		            	checkSecurityRestrictions(ctx, rawUri, req);
-		                response = handleGetClientApplication(req);
-	            	} else if (method.equals(HttpMethod.PUT)) {
-		            	checkSecurityRestrictions(ctx, rawUri, req);
-		                response = handleUpdateClientApplication(req);
-                    } else if (method.equals(HttpMethod.DELETE)) {
-                        checkSecurityRestrictions(ctx, rawUri, req);
-                        response = handleDeleteClientApplication(req);
-                    } else {
-		            	response = Response.createNotFoundResponse();
-		            }
-	            } else if (AUTH_CODE_URI.equals(rawUri) && method.equals(HttpMethod.GET)) {
-	                response = handleAuthorize(req);
-	            } 
-	            // ACCESS TOKEN URI's
-	            else if (ACCESS_TOKEN_URI.equals(rawUri)) {
-	            	if (method.equals(HttpMethod.GET)) {
-		            	checkSecurityRestrictions(ctx, rawUri, req);
-		                response = handleGetAccessTokens(req);
-	            	} else if (method.equals(HttpMethod.POST))
-	            		response = handleToken(req);
-		            else {
-		            	response = Response.createNotFoundResponse();
-		            }
-	            } else if (ACCESS_TOKEN_VALIDATE_URI.equals(rawUri) && method.equals(HttpMethod.GET)) {
-	            	// restrict IP access only, this is a server to server call ?!
-	            	checkSecurityRestrictions(false, ctx, rawUri, req);
-	                response = handleTokenValidate(req);
-	            } else if (ACCESS_TOKEN_REVOKE_URI.equals(rawUri) && method.equals(HttpMethod.POST)) {
-	            	checkSecurityRestrictions(ctx, rawUri, req);
-	                response = handleTokenRevoke(req);
-	            } 
-	            // SCOPE URI's
-	            else if (OAUTH_CLIENT_SCOPE_URI.equals(rawUri)) {
-	            	if (method.equals(HttpMethod.GET)) {
-	            		checkSecurityRestrictions(ctx, rawUri, req);
-	            		response = handleGetAllScopes(req);
-	            	} else if (method.equals(HttpMethod.POST)) {
-		            	checkSecurityRestrictions(ctx, rawUri, req);
-		                response = handleRegisterScope(req);
-		            } else {
-		            	response = Response.createNotFoundResponse();
-		            }
-	            } else if (rawUri.startsWith(OAUTH_CLIENT_SCOPE_URI)) {
-	            	if (method.equals(HttpMethod.GET)) {
-		            	checkSecurityRestrictions(ctx, rawUri, req);
-		                response = handleGetScope(req);
-		            } else if (method.equals(HttpMethod.PUT)) {
-		            	checkSecurityRestrictions(ctx, rawUri, req);
-		                response = handleUpdateScope(req);
-		            } else if (method.equals(HttpMethod.DELETE)) {
-		            	checkSecurityRestrictions(ctx, rawUri, req);
-		                response = handleDeleteScope(req);
-		            } else {
-		            	response = Response.createNotFoundResponse();
-		            }
-	            } else {
-	            	response = Response.createNotFoundResponse();
-	            }
-            } catch (RestrictedAccessException raex) {
-            	response = raex.getResponse();
+            ConcurrencyLimiter.Priority priority = getPriority(method, rawUri);
+            if (plane != null && plane != priority) {
+                response = Response.createNotFoundResponse();
+            } else if (!concurrencyLimiter.tryAcquire(priority)) {
+                log.info("{} {} rejected, concurrency limit of {} reached", method, rawUri, concurrencyLimiter.getLimit());
+                response = Response.createServiceUnavailableResponse(concurrencyLimiter.getRetryAfter());
+            } else {
+                long started = System.nanoTime();
+                try {
+                    response = route(ctx, req, method, rawUri);
+                } catch (RestrictedAccessException raex) {
+                    response = raex.getResponse();
+                } finally {
+                    concurrencyLimiter.release(priority, System.nanoTime() - started);
+                }
             }
             invokeResponseEventHandlers(req, response);
             ChannelFuture future = channel.write(response);
@@ -240,6 +216,96 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
         }
     }
 
+    // token issuance and validation keep their capacity when the admin requests are rejected
+    protected ConcurrencyLimiter.Priority getPriority(HttpMethod method, String rawUri) {
+        if ((ACCESS_TOKEN_URI.equals(rawUri) && method.equals(HttpMethod.POST))
+                || ((ACCESS_TOKEN_VALIDATE_URI.equals(rawUri) || AUTH_CODE_URI.equals(rawUri)) && method.equals(HttpMethod.GET))) {
+            return ConcurrencyLimiter.Priority.CRITICAL;
+        }
+        return ConcurrencyLimiter.Priority.ADMIN;
+    }
+
+    protected HttpResponse route(ChannelHandlerContext ctx, HttpRequest req, HttpMethod method, String rawUri) throws RestrictedAccessException {
+        HttpResponse response;
+        if (ADMIN_LOGIN_URI.equals(rawUri) && method.equals(HttpMethod.POST)) {
+            checkSecurityRestrictions(false, ctx, rawUri, req);
+            response = handleLogin(req);
+        }
+        // APPLICATION URI's
+        else if (APPLICATION_URI.equals(rawUri)) {
+            if (method.equals(HttpMethod.GET)) {
+                checkSecurityRestrictions(ctx, rawUri, req);
+                response = handleGetAllClientApplications(req);
+            } else if (method.equals(HttpMethod.POST)) {
+                checkSecurityRestrictions(ctx, rawUri, req);
+                response = handleRegister(req);
+            } else {
+                response = Response.createNotFoundResponse();
+            }
+        } else if (rawUri.startsWith(APPLICATION_URI)) {
+            if (method.equals(HttpMethod.GET)) {
+                checkSecurityRestrictions(ctx, rawUri, req);
+                response = handleGetClientApplication(req);
+            } else if (method.equals(HttpMethod.PUT)) {
+                checkSecurityRestrictions(ctx, rawUri, req);
+                response = handleUpdateClientApplication(req);
+            } else if (method.equals(HttpMethod.DELETE)) {
+                checkSecurityRestrictions(ctx, rawUri, req);
+                response = handleDeleteClientApplication(req);
+            } else {
+                response = Response.createNotFoundResponse();
+            }
+        } else if (AUTH_CODE_URI.equals(rawUri) && method.equals(HttpMethod.GET)) {
+            response = handleAuthorize(req);
+        }
+        // ACCESS TOKEN URI's
+        else if (ACCESS_TOKEN_URI.equals(rawUri)) {
+            if (method.equals(HttpMethod.GET)) {
+                checkSecurityRestrictions(ctx, rawUri, req);
+                response = handleGetAccessTokens(req);
+            } else if (method.equals(HttpMethod.POST)) {
+                response = handleToken(req);
+            } else {
+                response = Response.createNotFoundResponse();
+            }
+        } else if (ACCESS_TOKEN_VALIDATE_URI.equals(rawUri) && method.equals(HttpMethod.GET)) {
+            // restrict IP access only, this is a server to server call ?!
+            checkSecurityRestrictions(false, ctx, rawUri, req);
+            response = handleTokenValidate(req);
+        } else if (ACCESS_TOKEN_REVOKE_URI.equals(rawUri) && method.equals(HttpMethod.POST)) {
+            checkSecurityRestrictions(ctx, rawUri, req);
+            response = handleTokenRevoke(req);
+        }
+        // SCOPE URI's
+        else if (OAUTH_CLIENT_SCOPE_URI.equals(rawUri)) {
+            if (method.equals(HttpMethod.GET)) {
+                checkSecurityRestrictions(ctx, rawUri, req);
+                response = handleGetAllScopes(req);
+            } else if (method.equals(HttpMethod.POST)) {
+                checkSecurityRestrictions(ctx, rawUri, req);
+                response = handleRegisterScope(req);
+            } else {
+                response = Response.createNotFoundResponse();
+            }
+        } else if (rawUri.startsWith(OAUTH_CLIENT_SCOPE_URI)) {
+            if (method.equals(HttpMethod.GET)) {
+                checkSecurityRestrictions(ctx, rawUri, req);
+                response = handleGetScope(req);
+            } else if (method.equals(HttpMethod.PUT)) {
+                checkSecurityRestrictions(ctx, rawUri, req);
+                response = handleUpdateScope(req);
+            } else if (method.equals(HttpMethod.DELETE)) {
+                checkSecurityRestrictions(ctx, rawUri, req);
+                response = handleDeleteScope(req);
+            } else {
+                response = Response.createNotFoundResponse();
+            }
+        } else {
+            response = Response.createNotFoundResponse();
+        }
+        return response;
+    }
+
     protected HttpResponse handleGetClientApplication(HttpRequest req) {
         HttpResponse response = null;
         Matcher m = APPLICATION_PATTERN.matcher(req.getUri());
@@ -341,7 +407,15 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
             TokenRequest tokenRequest = null;
             try {
 				tokenRequest = new TokenRequest(request);
+                // rejected before any DB access
+                long retryAfter = rateLimiter.tryAcquire(tokenRequest.getClientId(), remoteAddress);
+                if (retryAfter > 0) {
+                    log.info("too many token requests from client {} at {}", tokenRequest.getClientId(), remoteAddress);
+                    return Response.createTooManyRequestsResponse(retryAfter);
+                }
                 AccessToken accessToken = auth.issueAccessToken(request, tokenRequest);
+                // the client is authenticated, its own rate limit may be read
+                rateLimiter.clientAuthenticated(tokenRequest.getClientId());
                 CSRFAccessToken csrfToken = 
                 	new CSRFAccessToken(accessToken, tokenRequest.getState());
 					
@@ -352,6 +426,9 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
                     response = Response.createOkResponse(jsonString);
                     accessTokensLog.debug("token {}", jsonString);
                 }
+            } catch (QuotaExceededException ex) {
+                log.info("token quota of client {} exceeded", tokenRequest.getClientId());
+                response = Response.createTooManyRequestsResponse(ex.getMessage(), ex.getRetryAfter());
             } catch (OAuthException ex) {
                 response = Response.createOAuthExceptionResponse(ex);
                 invokeExceptionHandler(ex, request);
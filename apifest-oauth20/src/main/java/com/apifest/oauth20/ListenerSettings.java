@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static com.apifest.oauth20.utils.PropertiesUtils.getInt;
+import static com.apifest.oauth20.utils.PropertiesUtils.getString;
+
+import java.util.Properties;
+
+/**
+ * Holds the thread pools and request size limit of a listener. The token listener reads them from the
+ * <code>oauth20.workers</code>, <code>oauth20.executor.threads</code> and <code>oauth20.max.content.length</code>
+ * properties, the admin listener from the same properties under <code>oauth20.admin.</code> with its own
+ * <code>oauth20.admin.host</code> and <code>oauth20.admin.port</code> (0 keeps the admin routes on the token listener).
+ *
+ * @author Edouard De Oliveira
+ */
+public class ListenerSettings {
+
+    public static final String DEFAULT_PREFIX = "oauth20.";
+    public static final String ADMIN_PREFIX = "oauth20.admin.";
+
+    public static final String HOST_PROPERTY = "host";
+    public static final String PORT_PROPERTY = "port";
+    public static final String BACKLOG_PROPERTY = "backlog";
+    public static final String WORKERS_PROPERTY = "workers";
+    public static final String EXECUTOR_THREADS_PROPERTY = "executor.threads";
+    public static final String MAX_CONTENT_LENGTH_PROPERTY = "max.content.length";
+
+    private String host;
+    private int port;
+
+    // connections queued by the kernel until they are accepted, 50 when left to the JDK
+    private int backlog = 1024;
+
+    // 0 uses the Netty default of twice the number of cores
+    private int workers;
+
+    // 0 runs the requests on the I/O workers
+    private int executorThreads;
+
+    // in bytes, maximum size of an aggregated request
+    private int maxContentLength = 4096;
+
+    public boolean isEnabled() {
+        return port > 0;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public ListenerSettings setHost(String host) {
+        this.host = host;
+        return this;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public ListenerSettings setPort(int port) {
+        this.port = port;
+        return this;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public ListenerSettings setBacklog(int backlog) {
+        this.backlog = backlog;
+        return this;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public ListenerSettings setWorkers(int workers) {
+        this.workers = workers;
+        return this;
+    }
+
+    public int getExecutorThreads() {
+        return executorThreads;
+    }
+
+    public ListenerSettings setExecutorThreads(int executorThreads) {
+        this.executorThreads = executorThreads;
+        return this;
+    }
+
+    public int getMaxContentLength() {
+        return maxContentLength;
+    }
+
+    public ListenerSettings setMaxContentLength(int maxContentLength) {
+        this.maxContentLength = maxContentLength;
+        return this;
+    }
+
+    /**
+     * Loads the listener properties starting with the given prefix, the host defaults to the given one.
+     */
+    public static ListenerSettings load(Properties props, String prefix, String defaultHost) {
+        ListenerSettings settings = new ListenerSettings();
+        settings.setHost(getString(props, prefix + HOST_PROPERTY, defaultHost));
+        settings.setPort(getInt(props, prefix + PORT_PROPERTY, 0));
+        settings.setBacklog(Math.max(1, getInt(props, prefix + BACKLOG_PROPERTY, settings.getBacklog())));
+        settings.setWorkers(Math.max(0, getInt(props, prefix + WORKERS_PROPERTY, 0)));
+        settings.setExecutorThreads(Math.max(0, getInt(props, prefix + EXECUTOR_THREADS_PROPERTY, 0)));
+        settings.setMaxContentLength(getInt(props, prefix + MAX_CONTENT_LENGTH_PROPERTY, settings.getMaxContentLength()));
+        return settings;
+    }
+}
@@ -27,11 +27,15 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.security.KeyStore;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 import javax.net.ssl.KeyManagerFactory;
@@ -41,6 +45,7 @@ import javax.net.ssl.SSLEngine;
 import com.apifest.oauth20.OAuthServerContext.OAuthServerContextBuilder;
 import com.apifest.oauth20.utils.MDCLogHandler;
 import com.apifest.oauth20.utils.MDCThreadPoolExecutor;
+import com.apifest.oauth20.utils.PropertiesUtils;
 import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.ChannelPipeline;
@@ -50,8 +55,13 @@ import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
 import org.jboss.netty.handler.codec.http.HttpChunkAggregator;
 import org.jboss.netty.handler.codec.http.HttpRequestDecoder;
 import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
+import org.jboss.netty.handler.ssl.OpenSsl;
+import org.jboss.netty.handler.ssl.OpenSslServerContext;
 import org.jboss.netty.handler.ssl.SslContext;
 import org.jboss.netty.handler.ssl.SslHandler;
+import org.jboss.netty.handler.ssl.SslProvider;
 import org.jboss.netty.handler.ssl.util.SelfSignedCertificate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,8 +70,12 @@ import com.apifest.oauth20.api.GrantType;
 import com.apifest.oauth20.api.ICustomGrantTypeHandler;
 import com.apifest.oauth20.api.IUserAuthentication;
 import com.apifest.oauth20.persistence.DBManager;
+import com.apifest.oauth20.persistence.CacheSettings;
+import com.apifest.oauth20.persistence.file.FileStoreSettings;
 import com.apifest.oauth20.persistence.hazelcast.HazelcastConfigFactory;
+import com.apifest.oauth20.persistence.hazelcast.HazelcastSettings;
 import com.apifest.oauth20.security.GuestUserAuthentication;
+import com.apifest.oauth20.security.SessionTicketKeys;
 import com.apifest.oauth20.security.SslRequiredHandler;
 import com.apifest.oauth20.security.SubnetRange;
 import com.hazelcast.config.GroupConfig;
@@ -86,10 +100,14 @@ public final class OAuthServer {
 
     public static final String OAUTH2_SERVER_CLIENT_NAME = "Oauth2Server";
 
+    public static final String SHARDS_PROPERTY = "oauth20.shards";
+    public static final String SHARD_PREFIX = "oauth20.shard.";
+
     private static final ReentrantLock lock = new ReentrantLock();
 
     private static SslContext sslCtx;
     private static SSLContext jdkSslContext;
+    private static String[] jdkCipherSuites;
     private static SelfSignedCertificate ssc;
 
     protected static OAuthServerContext context;
@@ -111,15 +129,32 @@ public final class OAuthServer {
         context = builder.build();
         log.info("Successfully initialized "+context.getDatabaseType()+" database");
 
-        ChannelFactory factory = new NioServerSocketChannelFactory(MDCThreadPoolExecutor.newCachedThreadPool(),
-                MDCThreadPoolExecutor.newCachedThreadPool());
-
         if (context.isHttps()) {
         	log.info("Setting up secured https only mode ...");
         } else {
         	log.info("Setting up default unsecured http mode ...");
         }
 
+        ListenerSettings adminListener = context.getAdminListenerSettings();
+        if (adminListener.isEnabled()) {
+            // the admin routes get their own port and thread pools, the token routes are not slowed down by them
+            bind(context.getHost(), context.getPortInt(), context.getListenerSettings(), ConcurrencyLimiter.Priority.CRITICAL);
+            bind(adminListener.getHost(), adminListener.getPort(), adminListener, ConcurrencyLimiter.Priority.ADMIN);
+        } else {
+            bind(context.getHost(), context.getPortInt(), context.getListenerSettings(), null);
+        }
+    }
+
+    private static void bind(String host, int port, final ListenerSettings settings, final ConcurrencyLimiter.Priority plane) {
+        int workers = (settings.getWorkers() > 0) ? settings.getWorkers() : Runtime.getRuntime().availableProcessors() * 2;
+        // a single boss thread accepts the connections of the bound port
+        ChannelFactory factory = new NioServerSocketChannelFactory(MDCThreadPoolExecutor.newCachedThreadPool(),
+                MDCThreadPoolExecutor.newCachedThreadPool(), workers);
+
+        // the requests are served out of the I/O workers when an executor is set, it is shared by the channels
+        final ExecutionHandler executionHandler = (settings.getExecutorThreads() > 0)
+                ? new ExecutionHandler(new OrderedMemoryAwareThreadPoolExecutor(settings.getExecutorThreads(), 0, 0)) : null;
+
         ServerBootstrap bootstrap = new ServerBootstrap(factory);
         bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
 
@@ -135,26 +170,36 @@ public final class OAuthServer {
                     } else {
                         SSLEngine engine = jdkSslContext.createSSLEngine();
                         engine.setUseClientMode(false);
+                        if (jdkCipherSuites != null) {
+                            engine.setEnabledCipherSuites(jdkCipherSuites);
+                        }
                         pipeline.addLast("sslRequiredHandler", new SslRequiredHandler(new SslHandler(engine)));
                     }
                 }
                 pipeline.addLast("decoder", new HttpRequestDecoder());
-                pipeline.addLast("aggregator", new HttpChunkAggregator(4096));
+                pipeline.addLast("aggregator", new HttpChunkAggregator(settings.getMaxContentLength()));
                 pipeline.addLast("encoder", new HttpResponseEncoder());
+                if (executionHandler != null) {
+                    pipeline.addLast("executor", executionHandler);
+                }
 
                 HttpRequestHandler handler = new HttpRequestHandler(context.getUserAuthenticationClass(), context.getCustomGrantTypeHandler());
                 handler.setContext(context.getServerCredentials(), context.getAllowedIPs(), context.isProductionMode());
+                handler.setPlane(plane);
                 pipeline.addLast("handler", handler);
                 return pipeline;
             }
         });
 
+        bootstrap.setOption("backlog", settings.getBacklog());
+        bootstrap.setOption("reuseAddress", true);
         bootstrap.setOption("child.tcpNoDelay", true);
         bootstrap.setOption("child.keepAlive", true);
         bootstrap.setOption("child.soLinger", -1);
 
-        bootstrap.bind(new InetSocketAddress(context.getHost(), context.getPortInt()));
-        log.info("ApiFest OAuth 2.0 Server started at " + context.getHost() + ":" + context.getPortInt());
+        bootstrap.bind(new InetSocketAddress(host, port));
+        String routes = (plane == null) ? "" : (plane == ConcurrencyLimiter.Priority.ADMIN ? " (admin routes)" : " (token routes)");
+        log.info("ApiFest OAuth 2.0 Server started at " + host + ":" + port + routes);
     }
 
     protected static boolean loadConfig(OAuthServerContextBuilder builder) {
@@ -287,39 +332,79 @@ public final class OAuthServer {
         return null;
     }
 
+    private static void setupDatabase(Properties props, OAuthServerContextBuilder builder) {
+        builder.setDatabaseType(props.getProperty("oauth20.database", DBManagerFactory.DEFAULT_DB));
+
+        if (DBManagerFactory.REDIS_DB.equalsIgnoreCase(builder.getDatabaseType())) {
+            builder.setRedisMaster(props.getProperty("redis.master"));
+            builder.setRedisSentinels(props.getProperty("redis.sentinels"));
+            builder.setRedisPassword(props.getProperty("redis.password"));
+        } else if (DBManagerFactory.MONGO_DB.equalsIgnoreCase(builder.getDatabaseType())) {
+            String mongoDBUri = props.getProperty("mongodb.uri");
+            if (mongoDBUri == null || mongoDBUri.length() == 0) {
+                mongoDBUri = "mongodb://localhost";
+            }
+            builder.setMongoDBUri(mongoDBUri);
+        } else if (DBManagerFactory.FILE_DB.equalsIgnoreCase(builder.getDatabaseType())) {
+            builder.setFileStoreSettings(FileStoreSettings.load(props));
+        } else if (!DBManagerFactory.INMEMORY_DB.equalsIgnoreCase(builder.getDatabaseType())) {
+            builder.setHazelcastClusterName(props.getProperty("hazelcast.cluster.name", HazelcastConfigFactory.HAZELCAST_GROUP_NAME));
+            builder.setHazelcastPassword(props.getProperty("hazelcast.password", GroupConfig.DEFAULT_GROUP_PASSWORD));
+            builder.setHazelcastClusterMembers(props.getProperty("hazelcast.cluster.members"));
+            builder.setHazelcastSettings(HazelcastSettings.load(props));
+        }
+    }
+
+    // each shard uses the same type of DB, its properties are overridden by the ones prefixed with oauth20.shard.<index>.
+    private static void setupShards(Properties props, OAuthServerContextBuilder builder) {
+        int shardCount = PropertiesUtils.getInt(props, SHARDS_PROPERTY, 1);
+        if (shardCount <= 1) {
+            return;
+        }
+        List<OAuthServerContext> shards = new ArrayList<OAuthServerContext>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            Properties shardProps = new Properties();
+            shardProps.putAll(props);
+            String prefix = SHARD_PREFIX + i + ".";
+            for (String name : props.stringPropertyNames()) {
+                if (name.startsWith(prefix)) {
+                    shardProps.setProperty(name.substring(prefix.length()), props.getProperty(name));
+                }
+            }
+            OAuthServerContextBuilder shardBuilder = new OAuthServerContextBuilder();
+            shardBuilder.setHost(builder.getHost());
+            setupDatabase(shardProps, shardBuilder);
+            shards.add(shardBuilder.build());
+        }
+        builder.setShards(shards);
+    }
+
     protected static Properties setupProperties(InputStream in, OAuthServerContextBuilder builder) {
         Properties props = new Properties();
         try {
             props.load(in);
             setHostAndPort(props, builder);
+            builder.setListenerSettings(ListenerSettings.load(props, ListenerSettings.DEFAULT_PREFIX, builder.getHost()));
+            builder.setAdminListenerSettings(ListenerSettings.load(props, ListenerSettings.ADMIN_PREFIX, builder.getHost()));
 
-            builder.setDatabaseType(props.getProperty("oauth20.database", DBManagerFactory.DEFAULT_DB));
-
-            if (DBManagerFactory.REDIS_DB.equalsIgnoreCase(builder.getDatabaseType())) {
-                builder.setRedisMaster(props.getProperty("redis.master"));
-                builder.setRedisSentinels(props.getProperty("redis.sentinels"));
-                builder.setRedisPassword(props.getProperty("redis.password"));
-            } else if (DBManagerFactory.MONGO_DB.equalsIgnoreCase(builder.getDatabaseType())) {
-                String mongoDBUri = props.getProperty("mongodb.uri");
-                if (mongoDBUri == null || mongoDBUri.length() == 0) {
-                    mongoDBUri = "mongodb://localhost";
-                }
-                builder.setMongoDBUri(mongoDBUri);
-            } else {
-                builder.setHazelcastClusterName(props.getProperty("hazelcast.cluster.name", HazelcastConfigFactory.HAZELCAST_GROUP_NAME));
-                builder.setHazelcastPassword(props.getProperty("hazelcast.password", GroupConfig.DEFAULT_GROUP_PASSWORD));
-                builder.setHazelcastClusterMembers(props.getProperty("hazelcast.cluster.members"));
-            }
+            setupDatabase(props, builder);
+            setupShards(props, builder);
+            builder.setCacheSettings(CacheSettings.load(props));
+            builder.setTokenReuseSettings(TokenReuseSettings.load(props));
+            builder.setRateLimitSettings(RateLimitSettings.load(props));
+            builder.setQuotaSettings(QuotaSettings.load(props));
+            builder.setConcurrencyLimitSettings(ConcurrencyLimitSettings.load(props));
 
             String mode = (String) props.get("oauth20.production.mode");
             builder.setProductionMode(Boolean.parseBoolean(mode));
 
             Boolean https = Boolean.parseBoolean((String) props.get("oauth20.https"));
 
+            builder.setSslSettings(SslSettings.load(props));
             if (https) {
                 configureSSL((String) props.get("oauth20.keystore.path"),
                         (String) props.get("oauth20.keystore.password"),
-                        (String) props.get("oauth20.keystore.algorithm"));
+                        (String) props.get("oauth20.keystore.algorithm"), builder.getSslSettings());
             }
             builder.setHttps(https);
 
@@ -404,8 +489,25 @@ public final class OAuthServer {
         }
     }
 
-    protected static void configureSSL(String keystorePath, String password, String algorithm) throws IOException {
-    	if (keystorePath != null) {
+    protected static void configureSSL(String keystorePath, String password, String algorithm, SslSettings settings) throws IOException {
+        // OpenSSL when available unless an engine is set
+        SslProvider provider = (settings.getProvider() == null) ? SslContext.defaultServerProvider() : settings.getProvider();
+        if (provider == SslProvider.OPENSSL && !OpenSsl.isAvailable()) {
+            log.warn("OpenSSL engine not available, using the JDK engine", OpenSsl.unavailabilityCause());
+            provider = SslProvider.JDK;
+        }
+        List<String> ciphers = settings.getCiphers().isEmpty() ? null : settings.getCiphers();
+        if (settings.getCertificatePath() != null && settings.getKeyPath() != null) {
+            try {
+                sslCtx = SslContext.newServerContext(provider, null, new File(settings.getCertificatePath()), new File(settings.getKeyPath()),
+                        settings.getKeyPassword(), ciphers, null, settings.getSessionCacheSize(), settings.getSessionTimeout());
+            } catch (Exception e) {
+                throw new IOException("Unable to load certificate", e);
+            }
+        } else if (keystorePath != null) {
+            if (settings.getProvider() == SslProvider.OPENSSL) {
+                log.warn("OpenSSL engine requires oauth20.ssl.certificate.path and oauth20.ssl.key.path, using the JDK engine");
+            }
     		try {
 	    		String alg = algorithm == null ? "JKS" : algorithm;
 	    		char[] pwd = password == null ? null : password.toCharArray();
@@ -417,17 +519,46 @@ public final class OAuthServer {
 	    		
 	    		jdkSslContext = SSLContext.getInstance("TLS");
 	    		jdkSslContext.init(kmf.getKeyManagers(), null, null);
+                if (settings.getSessionCacheSize() > 0) {
+                    jdkSslContext.getServerSessionContext().setSessionCacheSize(settings.getSessionCacheSize());
+                }
+                if (settings.getSessionTimeout() > 0) {
+                    jdkSslContext.getServerSessionContext().setSessionTimeout(settings.getSessionTimeout());
+                }
+                jdkCipherSuites = (ciphers == null) ? null : ciphers.toArray(new String[ciphers.size()]);
     		} catch (Exception e) {
 				throw new IOException("Unable to load certificate", e);
 			}
     	} else {
             try {
                 buildSelfSignedCertificate();
-                sslCtx = SslContext.newServerContext(ssc.certificate(), ssc.privateKey());
+                sslCtx = SslContext.newServerContext(provider, null, ssc.certificate(), ssc.privateKey(), null, ciphers, null,
+                        settings.getSessionCacheSize(), settings.getSessionTimeout());
             } catch (Exception e) {
             	throw new IOException("Unable to create self signed certificate", e);
 			}
     	}
+
+        if (settings.getTicketKeyRotation() > 0) {
+            if (sslCtx instanceof OpenSslServerContext) {
+                scheduleTicketKeyRotation((OpenSslServerContext) sslCtx, settings.getTicketKeyRotation());
+            } else {
+                log.warn("Session tickets are only issued by the OpenSSL engine");
+            }
+        }
+    }
+
+    private static void scheduleTicketKeyRotation(OpenSslServerContext context, int rotation) {
+        SessionTicketKeys keys = new SessionTicketKeys(context);
+        keys.run();
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ssl-ticket-keys");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }).scheduleAtFixedRate(keys, rotation, rotation, TimeUnit.SECONDS);
     }
 
     protected static void setHostAndPort(Properties props, OAuthServerContext.OAuthServerContextBuilder builder) {
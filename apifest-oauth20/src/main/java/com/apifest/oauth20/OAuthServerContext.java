@@ -18,8 +18,12 @@ package com.apifest.oauth20;
 
 import com.apifest.oauth20.api.ICustomGrantTypeHandler;
 import com.apifest.oauth20.api.IUserAuthentication;
+import com.apifest.oauth20.persistence.CacheSettings;
+import com.apifest.oauth20.persistence.file.FileStoreSettings;
+import com.apifest.oauth20.persistence.hazelcast.HazelcastSettings;
 import com.apifest.oauth20.security.SubnetRange;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -44,6 +48,17 @@ public final class OAuthServerContext {
     private String hazelcastClusterName;
     private String hazelcastClusterMembers;
     private String hazelcastPassword;
+    private HazelcastSettings hazelcastSettings;
+    private CacheSettings cacheSettings;
+    private FileStoreSettings fileStoreSettings;
+    private List<OAuthServerContext> shards;
+    private TokenReuseSettings tokenReuseSettings;
+    private RateLimitSettings rateLimitSettings;
+    private QuotaSettings quotaSettings;
+    private ConcurrencyLimitSettings concurrencyLimitSettings;
+    private ListenerSettings listenerSettings;
+    private ListenerSettings adminListenerSettings;
+    private SslSettings sslSettings;
 
     private boolean https;
     private boolean productionMode;
@@ -52,7 +67,7 @@ public final class OAuthServerContext {
 
     private OAuthServerContext(String host, int portInt, String databaseType, String mongoDBUri, String redisSentinels, String redisMaster, String redisPassword,
                               String hazelcastClusterName, String hazelcastClusterMembers, String hazelcastPassword,
-                              boolean https, boolean productionMode, SubnetRange allowedIPs, Map<String, String> serverCredentials,
+                              HazelcastSettings hazelcastSettings, CacheSettings cacheSettings, FileStoreSettings fileStoreSettings, List<OAuthServerContext> shards, TokenReuseSettings tokenReuseSettings, RateLimitSettings rateLimitSettings, QuotaSettings quotaSettings, ConcurrencyLimitSettings concurrencyLimitSettings, ListenerSettings listenerSettings, ListenerSettings adminListenerSettings, SslSettings sslSettings, boolean https, boolean productionMode, SubnetRange allowedIPs, Map<String, String> serverCredentials,
                               String customGrantType, Class<ICustomGrantTypeHandler> customGrantTypeHandler, Class<IUserAuthentication> userAuthenticationClass) {
         this.customGrantType = customGrantType;
         this.customGrantTypeHandler = customGrantTypeHandler;
@@ -66,6 +81,17 @@ public final class OAuthServerContext {
         this.hazelcastClusterName = hazelcastClusterName;
         this.hazelcastClusterMembers = hazelcastClusterMembers;
         this.hazelcastPassword = hazelcastPassword;
+        this.hazelcastSettings = hazelcastSettings;
+        this.cacheSettings = cacheSettings;
+        this.fileStoreSettings = fileStoreSettings;
+        this.shards = shards;
+        this.tokenReuseSettings = tokenReuseSettings;
+        this.rateLimitSettings = rateLimitSettings;
+        this.quotaSettings = quotaSettings;
+        this.concurrencyLimitSettings = concurrencyLimitSettings;
+        this.listenerSettings = listenerSettings;
+        this.adminListenerSettings = adminListenerSettings;
+        this.sslSettings = sslSettings;
         this.https = https;
         this.productionMode = productionMode;
         this.allowedIPs = allowedIPs;
@@ -125,6 +151,50 @@ public final class OAuthServerContext {
         return hazelcastPassword;
     }
 
+    public HazelcastSettings getHazelcastSettings() {
+        return hazelcastSettings;
+    }
+
+    public CacheSettings getCacheSettings() {
+        return cacheSettings;
+    }
+
+    public FileStoreSettings getFileStoreSettings() {
+        return fileStoreSettings;
+    }
+
+    public List<OAuthServerContext> getShards() {
+        return shards;
+    }
+
+    public TokenReuseSettings getTokenReuseSettings() {
+        return tokenReuseSettings;
+    }
+
+    public RateLimitSettings getRateLimitSettings() {
+        return rateLimitSettings;
+    }
+
+    public QuotaSettings getQuotaSettings() {
+        return quotaSettings;
+    }
+
+    public ConcurrencyLimitSettings getConcurrencyLimitSettings() {
+        return concurrencyLimitSettings;
+    }
+
+    public ListenerSettings getListenerSettings() {
+        return listenerSettings;
+    }
+
+    public ListenerSettings getAdminListenerSettings() {
+        return adminListenerSettings;
+    }
+
+    public SslSettings getSslSettings() {
+        return sslSettings;
+    }
+
     public boolean isHttps() {
         return https;
     }
@@ -161,6 +231,17 @@ public final class OAuthServerContext {
         private String hazelcastClusterName;
         private String hazelcastClusterMembers;
         private String hazelcastPassword;
+        private HazelcastSettings hazelcastSettings;
+        private CacheSettings cacheSettings;
+        private FileStoreSettings fileStoreSettings;
+        private List<OAuthServerContext> shards;
+        private TokenReuseSettings tokenReuseSettings;
+        private RateLimitSettings rateLimitSettings;
+        private QuotaSettings quotaSettings;
+        private ConcurrencyLimitSettings concurrencyLimitSettings;
+        private ListenerSettings listenerSettings;
+        private ListenerSettings adminListenerSettings;
+        private SslSettings sslSettings;
 
         private boolean https;
         private boolean productionMode;
@@ -235,6 +316,61 @@ public final class OAuthServerContext {
             return this;
         }
 
+        public OAuthServerContextBuilder setHazelcastSettings(HazelcastSettings hazelcastSettings) {
+            this.hazelcastSettings = hazelcastSettings;
+            return this;
+        }
+
+        public OAuthServerContextBuilder setCacheSettings(CacheSettings cacheSettings) {
+            this.cacheSettings = cacheSettings;
+            return this;
+        }
+
+        public OAuthServerContextBuilder setFileStoreSettings(FileStoreSettings fileStoreSettings) {
+            this.fileStoreSettings = fileStoreSettings;
+            return this;
+        }
+
+        public OAuthServerContextBuilder setShards(List<OAuthServerContext> shards) {
+            this.shards = shards;
+            return this;
+        }
+
+        public OAuthServerContextBuilder setTokenReuseSettings(TokenReuseSettings tokenReuseSettings) {
+            this.tokenReuseSettings = tokenReuseSettings;
+            return this;
+        }
+
+        public OAuthServerContextBuilder setRateLimitSettings(RateLimitSettings rateLimitSettings) {
+            this.rateLimitSettings = rateLimitSettings;
+            return this;
+        }
+
+        public OAuthServerContextBuilder setQuotaSettings(QuotaSettings quotaSettings) {
+            this.quotaSettings = quotaSettings;
+            return this;
+        }
+
+        public OAuthServerContextBuilder setConcurrencyLimitSettings(ConcurrencyLimitSettings concurrencyLimitSettings) {
+            this.concurrencyLimitSettings = concurrencyLimitSettings;
+            return this;
+        }
+
+        public OAuthServerContextBuilder setListenerSettings(ListenerSettings listenerSettings) {
+            this.listenerSettings = listenerSettings;
+            return this;
+        }
+
+        public OAuthServerContextBuilder setAdminListenerSettings(ListenerSettings adminListenerSettings) {
+            this.adminListenerSettings = adminListenerSettings;
+            return this;
+        }
+
+        public OAuthServerContextBuilder setSslSettings(SslSettings sslSettings) {
+            this.sslSettings = sslSettings;
+            return this;
+        }
+
         public OAuthServerContextBuilder setHttps(boolean https) {
             this.https = https;
             return this;
@@ -303,6 +439,50 @@ public final class OAuthServerContext {
             return hazelcastPassword;
         }
 
+        public HazelcastSettings getHazelcastSettings() {
+            return hazelcastSettings;
+        }
+
+        public CacheSettings getCacheSettings() {
+            return cacheSettings;
+        }
+
+        public FileStoreSettings getFileStoreSettings() {
+            return fileStoreSettings;
+        }
+
+        public List<OAuthServerContext> getShards() {
+            return shards;
+        }
+
+        public TokenReuseSettings getTokenReuseSettings() {
+            return tokenReuseSettings;
+        }
+
+        public RateLimitSettings getRateLimitSettings() {
+            return rateLimitSettings;
+        }
+
+        public QuotaSettings getQuotaSettings() {
+            return quotaSettings;
+        }
+
+        public ConcurrencyLimitSettings getConcurrencyLimitSettings() {
+            return concurrencyLimitSettings;
+        }
+
+        public ListenerSettings getListenerSettings() {
+            return listenerSettings;
+        }
+
+        public ListenerSettings getAdminListenerSettings() {
+            return adminListenerSettings;
+        }
+
+        public SslSettings getSslSettings() {
+            return sslSettings;
+        }
+
         public boolean useEmbeddedHazelcast() {
             return hazelcastClusterName != null && !(hazelcastClusterName.isEmpty());
         }
@@ -310,7 +490,7 @@ public final class OAuthServerContext {
         public OAuthServerContext build() {
             return new OAuthServerContext(host, portInt, databaseType, mongoDBUri, redisSentinels, redisMaster, redisPassword,
                                             hazelcastClusterName, hazelcastClusterMembers, hazelcastPassword,
-                                            https, productionMode, allowedIPs, serverCredentials,
+                                            hazelcastSettings, cacheSettings, fileStoreSettings, shards, tokenReuseSettings, rateLimitSettings, quotaSettings, concurrencyLimitSettings, listenerSettings, adminListenerSettings, sslSettings, https, productionMode, allowedIPs, serverCredentials,
                                             customGrantType, customGrantTypeHandler, userAuthenticationClass);
         }
     }
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+
+/**
+ * Thrown when the token quota of a client application is used up, holds the delay before the quota is renewed.
+ *
+ * @author Edouard De Oliveira
+ */
+public class QuotaExceededException extends OAuthException {
+
+    private static final long serialVersionUID = -2436015209671524877L;
+
+    private final long retryAfter;
+
+    public QuotaExceededException(long retryAfter) {
+        super(Response.QUOTA_EXCEEDED, HttpResponseStatus.TOO_MANY_REQUESTS);
+        this.retryAfter = retryAfter;
+    }
+
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
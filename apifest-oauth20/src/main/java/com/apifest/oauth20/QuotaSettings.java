@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static com.apifest.oauth20.utils.PropertiesUtils.getInt;
+import static com.apifest.oauth20.utils.PropertiesUtils.getLong;
+
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Holds the cluster-wide token quotas loaded from the <code>oauth20.quota.*</code> properties, in tokens per client
+ * application per minute and per day (0 disables the quota). The quotas of a client application can be overridden
+ * with the <code>quota_minute</code> and <code>quota_day</code> keys of its application details.
+ *
+ * @author Edouard De Oliveira
+ */
+public class QuotaSettings {
+
+    public static final String MINUTE_PROPERTY = "oauth20.quota.minute";
+    public static final String DAY_PROPERTY = "oauth20.quota.day";
+    public static final String LEASE_SIZE_PROPERTY = "oauth20.quota.lease.size";
+
+    public static final String MINUTE_DETAIL = "quota_minute";
+    public static final String DAY_DETAIL = "quota_day";
+
+    private long minute;
+    private long day;
+
+    // tokens reserved at once by a node, at most as many may be left unused by each node per window
+    private int leaseSize = 10;
+
+    public boolean isEnabled() {
+        return minute > 0 || day > 0;
+    }
+
+    /**
+     * Returns the quotas of a client application, from its application details if set.
+     *
+     * @param applicationDetails the application details of the client application, may be null
+     * @return the quotas per minute and per day, 0 when not limited
+     */
+    public long[] getClientQuotas(Map<String, String> applicationDetails) {
+        long[] quotas = new long[] { minute, day };
+        if (applicationDetails != null) {
+            quotas[0] = parse(applicationDetails.get(MINUTE_DETAIL), minute);
+            quotas[1] = parse(applicationDetails.get(DAY_DETAIL), day);
+        }
+        return quotas;
+    }
+
+    public long getMinute() {
+        return minute;
+    }
+
+    public QuotaSettings setMinute(long minute) {
+        this.minute = minute;
+        return this;
+    }
+
+    public long getDay() {
+        return day;
+    }
+
+    public QuotaSettings setDay(long day) {
+        this.day = day;
+        return this;
+    }
+
+    public int getLeaseSize() {
+        return leaseSize;
+    }
+
+    public QuotaSettings setLeaseSize(int leaseSize) {
+        this.leaseSize = leaseSize;
+        return this;
+    }
+
+    private static long parse(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public static QuotaSettings load(Properties props) {
+        QuotaSettings settings = new QuotaSettings();
+        settings.setMinute(getLong(props, MINUTE_PROPERTY, 0L));
+        settings.setDay(getLong(props, DAY_PROPERTY, 0L));
+        settings.setLeaseSize(Math.max(1, getInt(props, LEASE_SIZE_PROPERTY, settings.getLeaseSize())));
+        return settings;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static com.apifest.oauth20.utils.PropertiesUtils.getInt;
+
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Holds the token issuance rate limits loaded from the <code>oauth20.rate.limit.*</code> properties, in requests
+ * per second with a burst of as many requests (0 disables the limit). The limit of a client application can be
+ * overridden with the <code>rate_limit</code> and <code>rate_limit_burst</code> keys of its application details.
+ *
+ * @author Edouard De Oliveira
+ */
+public class RateLimitSettings {
+
+    public static final String CLIENT_RATE_PROPERTY = "oauth20.rate.limit.client";
+    public static final String CLIENT_BURST_PROPERTY = "oauth20.rate.limit.client.burst";
+    public static final String IP_RATE_PROPERTY = "oauth20.rate.limit.ip";
+    public static final String IP_BURST_PROPERTY = "oauth20.rate.limit.ip.burst";
+    public static final String MAX_KEYS_PROPERTY = "oauth20.rate.limit.max.keys";
+
+    public static final String RATE_DETAIL = "rate_limit";
+    public static final String BURST_DETAIL = "rate_limit_burst";
+
+    private int clientRate;
+    private int clientBurst;
+    private int ipRate;
+    private int ipBurst;
+
+    // number of clients and of addresses tracked, the idle ones are dropped beyond
+    private int maxKeys = 100000;
+
+    /**
+     * Returns the rate and the burst of a client application, from its application details if set.
+     *
+     * @param applicationDetails the application details of the client application, may be null
+     * @return the rate in requests per second (0 when not limited) and the burst
+     */
+    public int[] getClientLimit(Map<String, String> applicationDetails) {
+        int rate = clientRate;
+        int burst = clientBurst;
+        if (applicationDetails != null && applicationDetails.get(RATE_DETAIL) != null) {
+            rate = parse(applicationDetails.get(RATE_DETAIL), rate);
+            burst = parse(applicationDetails.get(BURST_DETAIL), 0);
+        }
+        return new int[] { rate, burst > 0 ? burst : Math.max(rate, 1) };
+    }
+
+    public int getClientRate() {
+        return clientRate;
+    }
+
+    public RateLimitSettings setClientRate(int clientRate) {
+        this.clientRate = clientRate;
+        return this;
+    }
+
+    public int getClientBurst() {
+        return clientBurst > 0 ? clientBurst : Math.max(clientRate, 1);
+    }
+
+    public RateLimitSettings setClientBurst(int clientBurst) {
+        this.clientBurst = clientBurst;
+        return this;
+    }
+
+    public int getIpRate() {
+        return ipRate;
+    }
+
+    public RateLimitSettings setIpRate(int ipRate) {
+        this.ipRate = ipRate;
+        return this;
+    }
+
+    public int getIpBurst() {
+        return ipBurst > 0 ? ipBurst : Math.max(ipRate, 1);
+    }
+
+    public RateLimitSettings setIpBurst(int ipBurst) {
+        this.ipBurst = ipBurst;
+        return this;
+    }
+
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+
+    public RateLimitSettings setMaxKeys(int maxKeys) {
+        this.maxKeys = maxKeys;
+        return this;
+    }
+
+    private static int parse(String value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public static RateLimitSettings load(Properties props) {
+        RateLimitSettings settings = new RateLimitSettings();
+        settings.setClientRate(getInt(props, CLIENT_RATE_PROPERTY, 0));
+        settings.setClientBurst(getInt(props, CLIENT_BURST_PROPERTY, 0));
+        settings.setIpRate(getInt(props, IP_RATE_PROPERTY, 0));
+        settings.setIpBurst(getInt(props, IP_BURST_PROPERTY, 0));
+        settings.setMaxKeys(getInt(props, MAX_KEYS_PROPERTY, settings.getMaxKeys()));
+        return settings;
+    }
+}
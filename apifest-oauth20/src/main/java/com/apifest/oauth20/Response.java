@@ -16,6 +16,9 @@
 
 package com.apifest.oauth20;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
@@ -41,6 +44,28 @@ public final class Response {
     public static final String NOT_FOUND = "{\"error\":\"not found\"}";
     public static final String UNSUPPORTED_MEDIA_TYPE = "{\"error\": \"unsupported media type\"}";
     public static final String MANDATORY_PARAM_MISSING = "{\"error\": \"mandatory parameter %s is missing\"}";
+    public static final String TOO_MANY_REQUESTS = "{\"error\":\"too many requests\"}";
+    public static final String QUOTA_EXCEEDED = "{\"error\":\"quota exceeded\"}";
+    public static final String SERVICE_UNAVAILABLE = "{\"error\":\"service unavailable\"}";
+
+    private static final String UNAUTHORIZED = new TokenError(TokenErrorTypes.UNAUTHORIZED_CLIENT).toString();
+
+    // constant bodies encoded once, each response reads a read-only duplicate of the same bytes
+    private static final Map<String, ChannelBuffer> encodedBodies = new ConcurrentHashMap<String, ChannelBuffer>();
+
+    static {
+        registerBodies(NOT_FOUND, UNSUPPORTED_MEDIA_TYPE, TOO_MANY_REQUESTS, QUOTA_EXCEEDED, SERVICE_UNAVAILABLE, UNAUTHORIZED);
+    }
+
+    /**
+     * Encodes the given constant messages once, the responses created with one of them as message share its bytes.
+     */
+    public static void registerBodies(String... messages) {
+        for (String message : messages) {
+            encodedBodies.put(message, ChannelBuffers.unmodifiableBuffer(
+                    ChannelBuffers.wrappedBuffer(message.getBytes(CharsetUtil.UTF_8))));
+        }
+    }
 
     public static HttpResponse createBadRequestResponse() {
         return createBadRequestResponse(null);
@@ -68,7 +93,25 @@ public final class Response {
     }
 
     public static HttpResponse createUnauthorizedResponse() {
-        return createResponse(HttpResponseStatus.UNAUTHORIZED, new TokenError(TokenErrorTypes.UNAUTHORIZED_CLIENT).toString());
+        return createResponse(HttpResponseStatus.UNAUTHORIZED, UNAUTHORIZED);
+    }
+
+    public static HttpResponse createTooManyRequestsResponse(long retryAfter) {
+        return createTooManyRequestsResponse(Response.TOO_MANY_REQUESTS, retryAfter);
+    }
+
+    public static HttpResponse createTooManyRequestsResponse(String message, long retryAfter) {
+        return createRetryAfterResponse(HttpResponseStatus.TOO_MANY_REQUESTS, message, retryAfter);
+    }
+
+    public static HttpResponse createServiceUnavailableResponse(long retryAfter) {
+        return createRetryAfterResponse(HttpResponseStatus.SERVICE_UNAVAILABLE, Response.SERVICE_UNAVAILABLE, retryAfter);
+    }
+
+    private static HttpResponse createRetryAfterResponse(HttpResponseStatus status, String message, long retryAfter) {
+        HttpResponse response = createResponse(status, message);
+        response.headers().set(HttpHeaders.Names.RETRY_AFTER, retryAfter);
+        return response;
     }
 
     public static HttpResponse createResponse(HttpResponseStatus status, String message) {
@@ -79,9 +122,11 @@ public final class Response {
         headers.set(HttpHeaders.Names.PRAGMA, HttpHeaders.Values.NO_CACHE);
 
         if (message != null) {
-            ChannelBuffer buf = ChannelBuffers.copiedBuffer(message.getBytes(CharsetUtil.UTF_8));
+            ChannelBuffer buf = encodedBodies.get(message);
+            // the bytes of a new message are wrapped as encoded, not copied
+            buf = (buf != null) ? buf.duplicate() : ChannelBuffers.wrappedBuffer(message.getBytes(CharsetUtil.UTF_8));
             response.setContent(buf);
-            headers.set(HttpHeaders.Names.CONTENT_LENGTH, buf.array().length);
+            headers.set(HttpHeaders.Names.CONTENT_LENGTH, buf.readableBytes());
         } else {
             headers.set(HttpHeaders.Names.CONTENT_LENGTH, 0);
         }
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Interns the scope names to small ints, so that a space-separated list of scopes is held as a bitset and the
+ * expires_in of each grant type as a table indexed by scope id. Checking the requested scopes and resolving their
+ * expires_in then scan the request string in place, with no allocation and no DB access.
+ * The scopes are reloaded from the DB after a local change and every reload interval, to pick up the changes made
+ * on other nodes.
+ *
+ * @author Edouard De Oliveira
+ */
+public class ScopeRegistry {
+
+    protected static Logger log = LoggerFactory.getLogger(ScopeRegistry.class);
+
+    static final int CLIENT_CREDENTIALS = 0;
+    static final int PASSWORD = 1;
+    static final int REFRESH_TOKEN = 2;
+
+    private static final char SPACE = ' ';
+    private static final int MAX_CACHED_BITSETS = 10000;
+    private static final long DEFAULT_RELOAD_INTERVAL = 60000;
+
+    private static volatile ScopeRegistry instance;
+
+    private final long reloadIntervalMillis;
+    private final ReentrantLock reloadLock = new ReentrantLock();
+    private volatile Snapshot snapshot;
+    private volatile boolean stale;
+
+    // ids are never reused, so the cached bitsets stay valid across reloads
+    private volatile Names names = new Names(16);
+
+    // space-separated scopes of a client app -> bitset of their ids
+    private final ConcurrentMap<String, long[]> bitsets = new ConcurrentHashMap<String, long[]>();
+
+    public ScopeRegistry(long reloadIntervalMillis) {
+        this.reloadIntervalMillis = reloadIntervalMillis;
+    }
+
+    public static ScopeRegistry getInstance() {
+        if (instance == null) {
+            synchronized (ScopeRegistry.class) {
+                if (instance == null) {
+                    OAuthServerContext ctx = OAuthServer.getContext();
+                    long reloadInterval = (ctx != null && ctx.getCacheSettings() != null)
+                            ? ctx.getCacheSettings().getTtl() * 1000L : DEFAULT_RELOAD_INTERVAL;
+                    instance = new ScopeRegistry(reloadInterval);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Checks that each of the space-separated scopes is one of the allowed scopes.
+     */
+    public boolean allowed(String scope, String allowedScopes) {
+        long[] allowed = getBitset(allowedScopes);
+        Names current = names;
+        int count = 0;
+        int length = scope.length();
+        int start = 0;
+        while (start < length) {
+            int end = scope.indexOf(SPACE, start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                int id = current.lookup(scope, start, end);
+                if (id < 0 || !isSet(allowed, id)) {
+                    return false;
+                }
+                count++;
+            }
+            start = end + 1;
+        }
+        return count > 0;
+    }
+
+    /**
+     * Returns the minimum expires_in of the space-separated scopes for the given grant type or
+     * Integer.MAX_VALUE if none of them is registered.
+     */
+    public int getExpiresIn(String tokenGrantType, String scope) {
+        int[] table = getSnapshot().expiresIn[grantTypeIndex(tokenGrantType)];
+        Names current = names;
+        int expiresIn = Integer.MAX_VALUE;
+        int length = scope.length();
+        int start = 0;
+        while (start < length) {
+            int end = scope.indexOf(SPACE, start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                int id = current.lookup(scope, start, end);
+                if (id >= 0 && id < table.length) {
+                    expiresIn = Math.min(expiresIn, table[id]);
+                }
+            }
+            start = end + 1;
+        }
+        return expiresIn;
+    }
+
+    /**
+     * Reloads the scopes from the DB on next access.
+     */
+    public void invalidate() {
+        stale = true;
+    }
+
+    private static int grantTypeIndex(String tokenGrantType) {
+        if (TokenRequest.CLIENT_CREDENTIALS.equals(tokenGrantType)) {
+            return CLIENT_CREDENTIALS;
+        } else if (TokenRequest.PASSWORD.equals(tokenGrantType)) {
+            return PASSWORD;
+        }
+        return REFRESH_TOKEN;
+    }
+
+    private static boolean isSet(long[] bitset, int id) {
+        int word = id >>> 6;
+        return word < bitset.length && (bitset[word] & (1L << id)) != 0;
+    }
+
+    private long[] getBitset(String scopes) {
+        long[] bitset = bitsets.get(scopes);
+        if (bitset != null) {
+            return bitset;
+        }
+        bitset = new long[0];
+        for (String name : scopes.split(String.valueOf(SPACE))) {
+            if (name.length() > 0) {
+                int id = intern(name);
+                if ((id >>> 6) >= bitset.length) {
+                    long[] grown = new long[(id >>> 6) + 1];
+                    System.arraycopy(bitset, 0, grown, 0, bitset.length);
+                    bitset = grown;
+                }
+                bitset[id >>> 6] |= 1L << id;
+            }
+        }
+        if (bitsets.size() >= MAX_CACHED_BITSETS) {
+            bitsets.clear();
+        }
+        bitsets.put(scopes, bitset);
+        return bitset;
+    }
+
+    private int intern(String name) {
+        int id = names.lookup(name, 0, name.length());
+        if (id >= 0) {
+            return id;
+        }
+        synchronized (this) {
+            Names current = names;
+            id = current.lookup(name, 0, name.length());
+            if (id < 0) {
+                // copy on write, readers scan the previous table without locking
+                Names updated = current.copy();
+                id = updated.add(name);
+                names = updated;
+            }
+            return id;
+        }
+    }
+
+    private Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            reloadLock.lock();
+            try {
+                if (snapshot == null) {
+                    reload();
+                }
+                return snapshot;
+            } finally {
+                reloadLock.unlock();
+            }
+        }
+        if ((stale || System.currentTimeMillis() - current.loadedAt > reloadIntervalMillis) && reloadLock.tryLock()) {
+            // a single thread reloads, the others keep using the previous snapshot
+            try {
+                reload();
+            } catch (RuntimeException e) {
+                log.error("cannot reload scopes", e);
+            } finally {
+                reloadLock.unlock();
+            }
+        }
+        return snapshot;
+    }
+
+    private void reload() {
+        stale = false;
+        long loadedAt = System.currentTimeMillis();
+        List<Scope> scopes = DBManagerFactory.getInstance().getAllScopes();
+        int size = 0;
+        int[] ids = new int[scopes.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = intern(scopes.get(i).getScope());
+            size = Math.max(size, ids[i] + 1);
+        }
+        int[][] expiresIn = new int[3][size];
+        for (int[] table : expiresIn) {
+            Arrays.fill(table, Integer.MAX_VALUE);
+        }
+        for (int i = 0; i < ids.length; i++) {
+            Scope scope = scopes.get(i);
+            expiresIn[CLIENT_CREDENTIALS][ids[i]] = valueOf(scope.getCcExpiresIn());
+            expiresIn[PASSWORD][ids[i]] = valueOf(scope.getPassExpiresIn());
+            expiresIn[REFRESH_TOKEN][ids[i]] = valueOf(scope.getRefreshExpiresIn());
+        }
+        snapshot = new Snapshot(expiresIn, loadedAt);
+    }
+
+    private static int valueOf(Integer expiresIn) {
+        return (expiresIn != null) ? expiresIn : Integer.MAX_VALUE;
+    }
+
+    private static final class Snapshot {
+        private final int[][] expiresIn;
+        private final long loadedAt;
+
+        private Snapshot(int[][] expiresIn, long loadedAt) {
+            this.expiresIn = expiresIn;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    /**
+     * Open addressing table of the interned names, looked up by a region of a string so that no substring is created.
+     */
+    private static final class Names {
+        private final String[] keys;
+        private final int[] ids;
+        private int count;
+
+        private Names(int capacity) {
+            keys = new String[capacity];
+            ids = new int[capacity];
+        }
+
+        private static int hash(String s, int start, int end) {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + s.charAt(i);
+            }
+            return h ^ (h >>> 16);
+        }
+
+        private int lookup(String s, int start, int end) {
+            int length = end - start;
+            int mask = keys.length - 1;
+            for (int i = hash(s, start, end) & mask; keys[i] != null; i = (i + 1) & mask) {
+                if (keys[i].length() == length && keys[i].regionMatches(0, s, start, length)) {
+                    return ids[i];
+                }
+            }
+            return -1;
+        }
+
+        private Names copy() {
+            int capacity = (count + 1) * 2 > keys.length ? keys.length * 2 : keys.length;
+            Names copy = new Names(capacity);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    copy.put(keys[i], ids[i]);
+                }
+            }
+            copy.count = count;
+            return copy;
+        }
+
+        private int add(String name) {
+            int id = count++;
+            put(name, id);
+            return id;
+        }
+
+        private void put(String name, int id) {
+            int mask = keys.length - 1;
+            int i = hash(name, 0, name.length()) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = name;
+            ids[i] = id;
+        }
+    }
+}
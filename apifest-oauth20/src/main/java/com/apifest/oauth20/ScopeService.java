@@ -18,7 +18,6 @@ package com.apifest.oauth20;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -34,7 +33,6 @@ import org.jboss.netty.util.CharsetUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.apifest.oauth20.persistence.DBManager;
 /**
  * Responsible for storing and loading OAuth20 scopes.
  *
@@ -63,6 +61,15 @@ public class ScopeService {
 
     private static final String SPACE = " ";
 
+    static {
+        Response.registerBodies(MANDATORY_FIELDS_FOR_SCOPE_REGISTER_ERROR, MANDATORY_FIELDS_FOR_SCOPE_UPDATE_ERROR,
+                INVALID_SCOPE_NAME_ERROR, INVALID_SCOPE_ERROR, SCOPE_DOES_NOT_EXIST_ERROR, SCOPE_STORED_OK_MESSAGE,
+                SCOPE_STORED_NOK_MESSAGE, SCOPE_UPDATED_OK_MESSAGE, SCOPE_UPDATED_NOK_MESSAGE, SCOPE_NOT_EXISTS_MESSAGE,
+                SCOPE_ALREADY_EXISTS_MESSAGE, SCOPE_DELETED_OK_MESSAGE, SCOPE_DELETED_NOK_MESSAGE, SCOPE_USED_BY_APP_MESSAGE);
+    }
+
+    protected ScopeRegistry scopeRegistry = ScopeRegistry.getInstance();
+
     /**
      * Register an oauth scope. If the scope already exists, returns an error.
      *
@@ -91,6 +98,7 @@ public class ScopeService {
                         // store in the DB, if already exists such a scope, overwrites it
                         boolean ok = DBManagerFactory.getInstance().storeScope(scope);
                         if (ok) {
+                            scopeRegistry.invalidate();
                             return SCOPE_STORED_OK_MESSAGE;
                         } else {
                             return SCOPE_STORED_NOK_MESSAGE;
@@ -183,16 +191,7 @@ public class ScopeService {
      * @return <code>true<code> if the scope is allowed, otherwise <code>false</code>>
      */
     public boolean scopeAllowed(String scope, String allowedScopes) {
-        String [] allScopes = allowedScopes.split(SPACE);
-        List<String> allowedList = Arrays.asList(allScopes);
-        String [] scopes = scope.split(SPACE);
-        int allowedCount = 0;
-        for(String s : scopes) {
-            if (allowedList.contains(s)) {
-                allowedCount++;
-            }
-        }
-        return (allowedCount == scopes.length);
+        return scopeRegistry.allowed(scope, allowedScopes);
     }
 
     /**
@@ -203,25 +202,10 @@ public class ScopeService {
      * @return minimum value of given scope/s expires_in
      */
     public int getExpiresIn(String tokenGrantType, String scope) {
-        int expiresIn = Integer.MAX_VALUE;
-        List<Scope> scopes = loadScopes(scope);
-        boolean ccGrantType = TokenRequest.CLIENT_CREDENTIALS.equals(tokenGrantType);
-        if (ccGrantType) {
-            for (Scope s : scopes) {
-                expiresIn = Math.min(s.getCcExpiresIn(), expiresIn);
-            }
-        } else if (TokenRequest.PASSWORD.equals(tokenGrantType)) {
-            for (Scope s : scopes) {
-                expiresIn = Math.min(s.getPassExpiresIn(), expiresIn);
-            }
-        } else {
-            // refresh_token
-            for (Scope s : scopes) {
-                expiresIn = Math.min(s.getRefreshExpiresIn(), expiresIn);
-            }
-        }
-        if (scopes.size() == 0 || expiresIn == Integer.MAX_VALUE) {
-            expiresIn = (ccGrantType) ? OAuthServer.DEFAULT_CC_EXPIRES_IN : OAuthServer.DEFAULT_PASSWORD_EXPIRES_IN;
+        int expiresIn = scopeRegistry.getExpiresIn(tokenGrantType, scope);
+        if (expiresIn == Integer.MAX_VALUE) {
+            expiresIn = (TokenRequest.CLIENT_CREDENTIALS.equals(tokenGrantType)) ? OAuthServer.DEFAULT_CC_EXPIRES_IN
+                    : OAuthServer.DEFAULT_PASSWORD_EXPIRES_IN;
         }
         return expiresIn;
     }
@@ -251,6 +235,7 @@ public class ScopeService {
                         setScopeEmptyValues(scope, foundScope);
                         boolean ok = DBManagerFactory.getInstance().storeScope(scope);
                         if (ok) {
+                            scopeRegistry.invalidate();
                             responseMsg = SCOPE_UPDATED_OK_MESSAGE;
                         } else {
                             responseMsg = SCOPE_UPDATED_NOK_MESSAGE;
@@ -293,6 +278,7 @@ public class ScopeService {
                 return SCOPE_USED_BY_APP_MESSAGE;
             } else {
                 if (DBManagerFactory.getInstance().deleteScope(scopeName)) {
+                    scopeRegistry.invalidate();
                     return SCOPE_DELETED_OK_MESSAGE;
                 } else {
                     return SCOPE_DELETED_NOK_MESSAGE;
@@ -323,13 +309,7 @@ public class ScopeService {
     }
 
     protected boolean checkForClientAppByScope(String scopeName) {
-        List<ClientCredentials> allApps = DBManagerFactory.getInstance().getAllApplications();
-        for (ClientCredentials app : allApps) {
-            if (app.getScope().contains(scopeName)) {
-                return true;
-            }
-        }
-        return false;
+        return DBManagerFactory.getInstance().isScopeUsed(scopeName);
     }
 
     protected void setScopeEmptyValues(Scope scope, Scope foundScope) {
@@ -349,16 +329,6 @@ public class ScopeService {
         }
     }
 
-    protected List<Scope> loadScopes(String scope) {
-        String [] scopes = scope.split(SPACE);
-        List<Scope> loadedScopes = new ArrayList<Scope>();
-        DBManager db = DBManagerFactory.getInstance();
-        for (String name : scopes) {
-            loadedScopes.add(db.findScope(name));
-        }
-        return loadedScopes;
-    }
-
     protected String getScopes(String clientId) throws OAuthException {
         ClientCredentials credentials = DBManagerFactory.getInstance().findClientCredentials(clientId);
         String jsonString;
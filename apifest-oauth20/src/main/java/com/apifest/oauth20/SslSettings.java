@@ -0,0 +1,155 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static com.apifest.oauth20.utils.PropertiesUtils.getEnum;
+import static com.apifest.oauth20.utils.PropertiesUtils.getInt;
+import static com.apifest.oauth20.utils.PropertiesUtils.getString;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.jboss.netty.handler.ssl.SslProvider;
+
+/**
+ * Holds the TLS tuning loaded from the <code>oauth20.ssl.*</code> properties: the engine (JDK or OpenSSL), the PEM
+ * certificate and key it uses instead of the keystore, the enabled cipher suites and the session resumption settings.
+ * Session tickets are only issued by the OpenSSL engine, their keys are rotated every
+ * <code>oauth20.ssl.ticket.key.rotation</code> seconds (0 disables the tickets).
+ *
+ * @author Edouard De Oliveira
+ */
+public class SslSettings {
+
+    public static final String PROVIDER_PROPERTY = "oauth20.ssl.provider";
+    public static final String CERTIFICATE_PATH_PROPERTY = "oauth20.ssl.certificate.path";
+    public static final String KEY_PATH_PROPERTY = "oauth20.ssl.key.path";
+    public static final String KEY_PASSWORD_PROPERTY = "oauth20.ssl.key.password";
+    public static final String CIPHERS_PROPERTY = "oauth20.ssl.ciphers";
+    public static final String SESSION_CACHE_SIZE_PROPERTY = "oauth20.ssl.session.cache.size";
+    public static final String SESSION_TIMEOUT_PROPERTY = "oauth20.ssl.session.timeout";
+    public static final String TICKET_KEY_ROTATION_PROPERTY = "oauth20.ssl.ticket.key.rotation";
+
+    // OpenSSL when available if not set
+    private SslProvider provider;
+    private String certificatePath;
+    private String keyPath;
+    private String keyPassword;
+
+    // the engine defaults when empty
+    private List<String> ciphers = new ArrayList<String>();
+
+    // number of sessions kept for resumption, 0 uses the engine default
+    private int sessionCacheSize;
+
+    // in seconds, 0 uses the engine default
+    private int sessionTimeout;
+
+    // in seconds
+    private int ticketKeyRotation;
+
+    public SslProvider getProvider() {
+        return provider;
+    }
+
+    public SslSettings setProvider(SslProvider provider) {
+        this.provider = provider;
+        return this;
+    }
+
+    public String getCertificatePath() {
+        return certificatePath;
+    }
+
+    public SslSettings setCertificatePath(String certificatePath) {
+        this.certificatePath = certificatePath;
+        return this;
+    }
+
+    public String getKeyPath() {
+        return keyPath;
+    }
+
+    public SslSettings setKeyPath(String keyPath) {
+        this.keyPath = keyPath;
+        return this;
+    }
+
+    public String getKeyPassword() {
+        return keyPassword;
+    }
+
+    public SslSettings setKeyPassword(String keyPassword) {
+        this.keyPassword = keyPassword;
+        return this;
+    }
+
+    public List<String> getCiphers() {
+        return ciphers;
+    }
+
+    public SslSettings setCiphers(List<String> ciphers) {
+        this.ciphers = ciphers;
+        return this;
+    }
+
+    public int getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    public SslSettings setSessionCacheSize(int sessionCacheSize) {
+        this.sessionCacheSize = sessionCacheSize;
+        return this;
+    }
+
+    public int getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    public SslSettings setSessionTimeout(int sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+        return this;
+    }
+
+    public int getTicketKeyRotation() {
+        return ticketKeyRotation;
+    }
+
+    public SslSettings setTicketKeyRotation(int ticketKeyRotation) {
+        this.ticketKeyRotation = ticketKeyRotation;
+        return this;
+    }
+
+    public static SslSettings load(Properties props) {
+        SslSettings settings = new SslSettings();
+        settings.setProvider(getEnum(props, PROVIDER_PROPERTY, SslProvider.class, null));
+        settings.setCertificatePath(getString(props, CERTIFICATE_PATH_PROPERTY, null));
+        settings.setKeyPath(getString(props, KEY_PATH_PROPERTY, null));
+        settings.setKeyPassword(getString(props, KEY_PASSWORD_PROPERTY, null));
+        String ciphers = getString(props, CIPHERS_PROPERTY, "");
+        for (String cipher : ciphers.split(",")) {
+            if (cipher.trim().length() > 0) {
+                settings.getCiphers().add(cipher.trim());
+            }
+        }
+        settings.setSessionCacheSize(Math.max(0, getInt(props, SESSION_CACHE_SIZE_PROPERTY, 0)));
+        settings.setSessionTimeout(Math.max(0, getInt(props, SESSION_TIMEOUT_PROPERTY, 0)));
+        settings.setTicketKeyRotation(Math.max(0, getInt(props, TICKET_KEY_ROTATION_PROPERTY, 0)));
+        return settings;
+    }
+}
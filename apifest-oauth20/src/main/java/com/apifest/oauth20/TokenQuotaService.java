@@ -0,0 +1,231 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.apifest.oauth20.persistence.DBManager;
+
+/**
+ * Enforces the token quotas of the client applications over all the nodes. The tokens of a minute or a day are
+ * counted in a counter shared through the DB, from which each node leases chunks of
+ * {@link QuotaSettings#getLeaseSize()} tokens. A token request only takes a token from the local lease; the next
+ * chunk is leased in the background when half of the current one is used, so that the DB is only hit once per
+ * chunk and almost never while a request waits.
+ *
+ * @author Edouard De Oliveira
+ */
+public class TokenQuotaService {
+
+    protected static Logger log = LoggerFactory.getLogger(TokenQuotaService.class);
+
+    private static volatile TokenQuotaService instance;
+
+    private static final int MINUTE = 0;
+    private static final int DAY = 1;
+    private static final long[] WINDOW_MILLIS = { TimeUnit.MINUTES.toMillis(1), TimeUnit.DAYS.toMillis(1) };
+    private static final String[] WINDOW_NAMES = { ":m:", ":d:" };
+    private static final String COUNTER_PREFIX = "quota:";
+
+    // a counter outlives its window, so that a node with a clock late by less than that still finds it
+    private static final int COUNTER_GRACE_SECONDS = 60;
+
+    // the lease of a client without quota for the window
+    private static final long UNLIMITED = Long.MAX_VALUE / 2;
+
+    protected DBManager db = DBManagerFactory.getInstance();
+
+    private final QuotaSettings settings;
+    private final Executor executor;
+
+    // client id + window -> lease of the current window
+    private final ConcurrentMap<String, Lease> leases = new ConcurrentHashMap<String, Lease>();
+
+    public TokenQuotaService(QuotaSettings settings) {
+        this(settings, Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "token-quota-lease");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+    }
+
+    // used in tests
+    TokenQuotaService(QuotaSettings settings, Executor executor) {
+        this.settings = settings;
+        this.executor = executor;
+    }
+
+    public static TokenQuotaService getInstance() {
+        if (instance == null) {
+            synchronized (TokenQuotaService.class) {
+                if (instance == null) {
+                    OAuthServerContext ctx = OAuthServer.getContext();
+                    QuotaSettings settings = (ctx != null && ctx.getQuotaSettings() != null)
+                            ? ctx.getQuotaSettings() : new QuotaSettings();
+                    instance = new TokenQuotaService(settings);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Takes a token from the quotas per minute and per day of a client application.
+     *
+     * @param clientId the client application id
+     * @return 0 if a token may be issued, otherwise the number of seconds until the end of the exhausted quota
+     */
+    public long tryConsume(String clientId) {
+        if (!settings.isEnabled()) {
+            return 0L;
+        }
+        long now = now();
+        long retryAfter = tryConsume(clientId, MINUTE, now);
+        return (retryAfter > 0) ? retryAfter : tryConsume(clientId, DAY, now);
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    private long tryConsume(String clientId, int window, long now) {
+        final Lease lease = getLease(clientId, window, now);
+        while (true) {
+            if (lease.take()) {
+                if (lease.isLow() && lease.leasing.compareAndSet(false, true)) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                synchronized (lease) {
+                                    if (lease.isLow()) {
+                                        reserve(lease, now());
+                                    }
+                                }
+                            } finally {
+                                lease.leasing.set(false);
+                            }
+                        }
+                    });
+                }
+                return 0L;
+            }
+            if (lease.exhausted) {
+                return Math.max(1L, (lease.end - now + 999) / 1000);
+            }
+            // no token left, which only happens on the first request of a window or when the requests outpace the
+            // background leases
+            synchronized (lease) {
+                if (lease.remaining.get() <= 0 && !lease.exhausted) {
+                    reserve(lease, now);
+                }
+            }
+        }
+    }
+
+    private Lease getLease(String clientId, int window, long now) {
+        String leaseKey = clientId + WINDOW_NAMES[window];
+        long index = now / WINDOW_MILLIS[window];
+        Lease lease = leases.get(leaseKey);
+        while (lease == null || lease.index < index) {
+            Lease created = new Lease(clientId, window, index);
+            boolean stored = (lease == null) ? leases.putIfAbsent(leaseKey, created) == null
+                    : leases.replace(leaseKey, lease, created);
+            lease = stored ? created : leases.get(leaseKey);
+        }
+        return lease;
+    }
+
+    // leases a chunk of the quota of the window from the shared counter, the quota is read again each time
+    private void reserve(Lease lease, long now) {
+        try {
+            ClientCredentials creds = db.findClientCredentials(lease.clientId);
+            long quota = settings.getClientQuotas(creds != null ? creds.getApplicationDetails() : null)[lease.window];
+            if (quota <= 0) {
+                lease.remaining.set(UNLIMITED);
+                return;
+            }
+            long chunk = Math.min(settings.getLeaseSize(), quota);
+            int expiresIn = (int) ((lease.end - now) / 1000) + COUNTER_GRACE_SECONDS;
+            long total = db.incrementCounter(lease.key, chunk, expiresIn);
+            long granted = Math.min(chunk, quota - (total - chunk));
+            if (granted > 0) {
+                lease.remaining.addAndGet(granted);
+            }
+            if (granted < chunk) {
+                lease.exhausted = true;
+            }
+        } catch (RuntimeException e) {
+            // the quota is not enforced while the DB cannot be reached
+            log.error("cannot lease quota {}", lease.key, e);
+            lease.remaining.addAndGet(settings.getLeaseSize());
+        }
+    }
+
+    /**
+     * Tokens leased by this node from the quota of a client application for a minute or a day.
+     */
+    private final class Lease {
+        private final String clientId;
+        private final int window;
+        private final long index;
+        private final long end;
+        private final String key;
+        private final AtomicLong remaining = new AtomicLong();
+        private final AtomicBoolean leasing = new AtomicBoolean();
+
+        // set once the shared counter has reached the quota, no more tokens are leased until the window ends
+        private volatile boolean exhausted;
+
+        private Lease(String clientId, int window, long index) {
+            this.clientId = clientId;
+            this.window = window;
+            this.index = index;
+            this.end = (index + 1) * WINDOW_MILLIS[window];
+            this.key = COUNTER_PREFIX + clientId + WINDOW_NAMES[window] + index;
+        }
+
+        private boolean take() {
+            while (true) {
+                long current = remaining.get();
+                if (current <= 0) {
+                    return false;
+                }
+                if (remaining.compareAndSet(current, current - 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private boolean isLow() {
+            return !exhausted && remaining.get() <= settings.getLeaseSize() / 2;
+        }
+    }
+}
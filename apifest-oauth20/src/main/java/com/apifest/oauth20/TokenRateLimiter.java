@@ -0,0 +1,286 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the token requests per client application and per remote address before any DB access.
+ * Each key has its own token bucket, kept as the theoretical arrival time of the next request and updated with a
+ * compare-and-set, so that concurrent requests never block each other. A client application starts with the default
+ * limit, the limit set in its application details is applied once it has been authenticated.
+ *
+ * @author Edouard De Oliveira
+ */
+public class TokenRateLimiter {
+
+    protected static Logger log = LoggerFactory.getLogger(TokenRateLimiter.class);
+
+    private static volatile TokenRateLimiter instance;
+
+    // the limit set in the application details of a client is read again after this delay
+    private static final long CLIENT_LIMIT_TTL = TimeUnit.SECONDS.toNanos(60);
+
+    // a full map is swept at most once per interval
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final RateLimitSettings settings;
+    private final Bucket ipLimit;
+    private final Bucket clientLimit;
+    private final BucketMap<String> clientBuckets = new BucketMap<String>("client");
+    private final BucketMap<InetAddress> ipBuckets = new BucketMap<InetAddress>("address");
+
+    public TokenRateLimiter(RateLimitSettings settings) {
+        this.settings = settings;
+        this.ipLimit = new Bucket(settings.getIpRate(), settings.getIpBurst(), 0L);
+        this.clientLimit = new Bucket(settings.getClientRate(), settings.getClientBurst(), 0L);
+    }
+
+    public static TokenRateLimiter getInstance() {
+        if (instance == null) {
+            synchronized (TokenRateLimiter.class) {
+                if (instance == null) {
+                    OAuthServerContext ctx = OAuthServer.getContext();
+                    RateLimitSettings settings = (ctx != null && ctx.getRateLimitSettings() != null)
+                            ? ctx.getRateLimitSettings() : new RateLimitSettings();
+                    instance = new TokenRateLimiter(settings);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Takes a token from the bucket of the remote address, then from the bucket of the client application.
+     *
+     * @param clientId the client application id, not limited if null
+     * @param remoteAddress the remote address of the request, not limited if null
+     * @return 0 if the request is allowed, otherwise the number of seconds after which it may be retried
+     */
+    public long tryAcquire(String clientId, InetAddress remoteAddress) {
+        long now = now();
+        if (remoteAddress != null && ipLimit.isLimited()) {
+            long wait = ipBuckets.get(remoteAddress, ipLimit, now).tryAcquire(now);
+            if (wait > 0) {
+                return toSeconds(wait);
+            }
+        }
+        if (clientId != null) {
+            // the default limit applies until the own limit of the client is known
+            Bucket bucket = clientLimit.isLimited() ? clientBuckets.get(clientId, clientLimit, now)
+                    : clientBuckets.buckets.get(clientId);
+            long wait = (bucket != null) ? bucket.tryAcquire(now) : 0L;
+            if (wait > 0) {
+                return toSeconds(wait);
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * Applies the limit set in the application details of a client once it has been authenticated, and reads it
+     * again after a minute. Unknown client ids never cause a DB access. The limit of the client applies even when
+     * no default client limit is set.
+     *
+     * @param clientId the authenticated client application id
+     */
+    public void clientAuthenticated(String clientId) {
+        if (clientId == null) {
+            return;
+        }
+        long now = now();
+        Bucket bucket = clientBuckets.buckets.get(clientId);
+        if (bucket != null && bucket.configured && now - bucket.loadedAt <= CLIENT_LIMIT_TTL) {
+            return;
+        }
+        // kept even when not limited, so that the client is not read again before the delay
+        Bucket loaded = loadClientBucket(clientId, bucket, now);
+        if (bucket != null) {
+            clientBuckets.buckets.replace(clientId, bucket, loaded);
+        } else {
+            clientBuckets.add(clientId, loaded, now);
+        }
+    }
+
+    protected long now() {
+        return System.nanoTime();
+    }
+
+    protected Bucket loadClientBucket(String clientId, Bucket previous, long now) {
+        int[] limit;
+        try {
+            ClientCredentials creds = DBManagerFactory.getInstance().findClientCredentials(clientId);
+            limit = settings.getClientLimit(creds != null ? creds.getApplicationDetails() : null);
+        } catch (RuntimeException e) {
+            log.error("cannot load the rate limit of client {}", clientId, e);
+            limit = new int[] { settings.getClientRate(), settings.getClientBurst() };
+        }
+        Bucket bucket = new Bucket(limit[0], limit[1], now);
+        if (previous != null) {
+            bucket.arrival.set(previous.arrival.get());
+        }
+        return bucket;
+    }
+
+    /**
+     * Buckets of one kind of key, at most <code>oauth20.rate.limit.max.keys</code> of them. When the map is full,
+     * the buckets that are full again are dropped; while none is, the new keys share one bucket with the default
+     * limit, so that the keys being limited are never reset.
+     */
+    private final class BucketMap<K> {
+        private final String name;
+        private final ConcurrentMap<K, Bucket> buckets = new ConcurrentHashMap<K, Bucket>();
+        private final AtomicBoolean sweeping = new AtomicBoolean();
+        private volatile boolean swept;
+        private volatile long sweptAt;
+        private volatile Bucket overflow;
+
+        private BucketMap(String name) {
+            this.name = name;
+        }
+
+        private Bucket get(K key, Bucket limit, long now) {
+            Bucket bucket = buckets.get(key);
+            if (bucket != null) {
+                return bucket;
+            }
+            if (buckets.size() >= settings.getMaxKeys()) {
+                sweep(now);
+                if (buckets.size() >= settings.getMaxKeys()) {
+                    return getOverflow(limit, now);
+                }
+            }
+            bucket = new Bucket(limit, now);
+            Bucket existing = buckets.putIfAbsent(key, bucket);
+            return (existing != null) ? existing : bucket;
+        }
+
+        // not tracked while the map is full of active buckets
+        private void add(K key, Bucket bucket, long now) {
+            if (buckets.size() >= settings.getMaxKeys()) {
+                sweep(now);
+                if (buckets.size() >= settings.getMaxKeys()) {
+                    return;
+                }
+            }
+            buckets.putIfAbsent(key, bucket);
+        }
+
+        private Bucket getOverflow(Bucket limit, long now) {
+            Bucket bucket = overflow;
+            if (bucket == null) {
+                synchronized (this) {
+                    if (overflow == null) {
+                        log.warn("rate limit of {} {} keys reached, the new keys share the default limit",
+                                settings.getMaxKeys(), name);
+                        overflow = new Bucket(limit, now);
+                    }
+                    bucket = overflow;
+                }
+            }
+            return bucket;
+        }
+
+        // drops the buckets that are full again, i.e. of the keys idle for long enough to have no effect
+        private void sweep(long now) {
+            if ((swept && now - sweptAt < SWEEP_INTERVAL) || !sweeping.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                sweptAt = now;
+                swept = true;
+                Iterator<Bucket> it = buckets.values().iterator();
+                while (it.hasNext()) {
+                    if (it.next().isIdle(now)) {
+                        it.remove();
+                    }
+                }
+            } finally {
+                sweeping.set(false);
+            }
+        }
+    }
+
+    private static long toSeconds(long nanos) {
+        return Math.max(1L, (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Token bucket of a key, as in the generic cell rate algorithm: a request is allowed if the theoretical
+     * arrival time of the next request is less than the burst ahead of now.
+     */
+    protected static final class Bucket {
+        // nanos between two requests at the rate, 0 when not limited
+        private final long interval;
+        private final long tolerance;
+        private final long loadedAt;
+        // false while the bucket has the default limit
+        private final boolean configured;
+        private final AtomicLong arrival;
+
+        Bucket(int rate, int burst, long loadedAt) {
+            this.interval = (rate > 0) ? TimeUnit.SECONDS.toNanos(1) / rate : 0L;
+            this.tolerance = interval * burst;
+            this.loadedAt = loadedAt;
+            this.configured = true;
+            this.arrival = new AtomicLong(loadedAt);
+        }
+
+        Bucket(Bucket limit, long now) {
+            this.interval = limit.interval;
+            this.tolerance = limit.tolerance;
+            this.loadedAt = now;
+            this.configured = false;
+            this.arrival = new AtomicLong(now);
+        }
+
+        boolean isLimited() {
+            return interval > 0;
+        }
+
+        boolean isIdle(long now) {
+            return arrival.get() - now <= 0;
+        }
+
+        // returns 0 if allowed, otherwise the nanos to wait
+        long tryAcquire(long now) {
+            if (interval == 0) {
+                return 0L;
+            }
+            while (true) {
+                long current = arrival.get();
+                long next = ((current - now > 0) ? current : now) + interval;
+                long wait = next - now - tolerance;
+                if (wait > 0) {
+                    return wait;
+                }
+                if (arrival.compareAndSet(current, next)) {
+                    return 0L;
+                }
+            }
+        }
+    }
+}
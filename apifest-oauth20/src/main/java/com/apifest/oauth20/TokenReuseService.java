@@ -0,0 +1,167 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.apifest.oauth20.persistence.DBManager;
+
+/**
+ * Returns a still valid access token to the client applications asking for client_credentials tokens far more often
+ * than they expire, instead of issuing and storing a new one each time. The tokens found or issued are kept in a
+ * local cache for {@link TokenReuseSettings#getCacheTtl()} seconds, so that most requests do not hit the DB.
+ *
+ * @author Edouard De Oliveira
+ */
+public class TokenReuseService {
+
+    private static volatile TokenReuseService instance;
+
+    protected DBManager db = DBManagerFactory.getInstance();
+
+    private final TokenReuseSettings settings;
+    private final ConcurrentMap<String, CachedToken> cache = new ConcurrentHashMap<String, CachedToken>();
+
+    public TokenReuseService(TokenReuseSettings settings) {
+        this.settings = settings;
+    }
+
+    public static TokenReuseService getInstance() {
+        if (instance == null) {
+            synchronized (TokenReuseService.class) {
+                if (instance == null) {
+                    OAuthServerContext ctx = OAuthServer.getContext();
+                    TokenReuseSettings settings = (ctx != null && ctx.getTokenReuseSettings() != null)
+                            ? ctx.getTokenReuseSettings() : new TokenReuseSettings();
+                    instance = new TokenReuseService(settings);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the valid client_credentials token of the client application for the given scope if the policy
+     * allows reusing it and it does not expire within {@link TokenReuseSettings#getMinRemaining()} seconds.
+     *
+     * @param clientId the client application id
+     * @param scope the scope of the token
+     * @return a copy of the token with expires_in set to its remaining lifetime or null
+     */
+    public AccessToken findReusableToken(String clientId, String scope) {
+        if (!settings.isEnabled() || !settings.isReused(clientId, scope)) {
+            return null;
+        }
+        String key = clientId + " " + scope;
+        long now = System.currentTimeMillis();
+        AccessToken accessToken = getCached(key, now);
+        if (accessToken != null && !accessToken.isValid()) {
+            tokenRevoked(accessToken);
+            accessToken = null;
+        }
+        if (accessToken == null) {
+            accessToken = db.findClientAccessToken(clientId, scope);
+            // some backends also return the revoked tokens
+            if (accessToken == null || !accessToken.isValid()) {
+                return null;
+            }
+            putCached(key, accessToken, now);
+        }
+        if (accessToken.getCreated() == null) {
+            return null;
+        }
+        long remaining = (accessToken.getCreated() + Long.parseLong(accessToken.getExpiresIn()) * 1000L - now) / 1000L;
+        if (remaining < settings.getMinRemaining()) {
+            return null;
+        }
+        return copy(accessToken, String.valueOf(remaining));
+    }
+
+    public void tokenIssued(AccessToken accessToken) {
+        if (settings.isEnabled() && settings.isReused(accessToken.getClientId(), accessToken.getScope())) {
+            putCached(accessToken.getClientId() + " " + accessToken.getScope(), accessToken, System.currentTimeMillis());
+        }
+    }
+
+    // tokens revoked on other nodes are dropped once their cache entry expires
+    public void tokenRevoked(AccessToken accessToken) {
+        String key = accessToken.getClientId() + " " + accessToken.getScope();
+        CachedToken entry = cache.get(key);
+        if (entry != null && entry.accessToken.getToken().equals(accessToken.getToken())) {
+            cache.remove(key, entry);
+        }
+    }
+
+    private AccessToken getCached(String key, long now) {
+        CachedToken entry = cache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= now) {
+            cache.remove(key, entry);
+            return null;
+        }
+        return entry.accessToken;
+    }
+
+    private void putCached(String key, AccessToken accessToken, long now) {
+        if (settings.getCacheTtl() <= 0) {
+            return;
+        }
+        if (cache.size() >= settings.getCacheMaxSize()) {
+            Iterator<CachedToken> it = cache.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().expiresAt <= now) {
+                    it.remove();
+                }
+            }
+            if (cache.size() >= settings.getCacheMaxSize()) {
+                return;
+            }
+        }
+        cache.put(key, new CachedToken(accessToken, now + settings.getCacheTtl() * 1000L));
+    }
+
+    private static AccessToken copy(AccessToken source, String expiresIn) {
+        AccessToken accessToken = new AccessToken();
+        accessToken.setToken(source.getToken());
+        accessToken.setRefreshToken(source.getRefreshToken());
+        accessToken.setExpiresIn(expiresIn);
+        accessToken.setType(source.getType());
+        accessToken.setScope(source.getScope());
+        accessToken.setValid(source.isValid());
+        accessToken.setClientId(source.getClientId());
+        accessToken.setCodeId(source.getCodeId());
+        accessToken.setUserId(source.getUserId());
+        accessToken.setDetails(source.getDetails());
+        accessToken.setCreated(source.getCreated());
+        accessToken.setRefreshExpiresIn(source.getRefreshExpiresIn());
+        return accessToken;
+    }
+
+    private static final class CachedToken {
+        private final AccessToken accessToken;
+        private final long expiresAt;
+
+        private CachedToken(AccessToken accessToken, long expiresAt) {
+            this.accessToken = accessToken;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static com.apifest.oauth20.utils.PropertiesUtils.getInt;
+import static com.apifest.oauth20.utils.PropertiesUtils.getString;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Holds the client_credentials token reuse policy loaded from the <code>oauth20.token.reuse.*</code> properties.
+ * Tokens are reused only for the listed client applications (* for all of them) or when all the requested scopes
+ * are listed.
+ *
+ * @author Edouard De Oliveira
+ */
+public class TokenReuseSettings {
+
+    public static final String CLIENTS_PROPERTY = "oauth20.token.reuse.clients";
+    public static final String SCOPES_PROPERTY = "oauth20.token.reuse.scopes";
+    public static final String MIN_REMAINING_PROPERTY = "oauth20.token.reuse.min.remaining";
+    public static final String CACHE_TTL_PROPERTY = "oauth20.token.reuse.cache.ttl";
+    public static final String CACHE_MAX_SIZE_PROPERTY = "oauth20.token.reuse.cache.max.size";
+
+    public static final String ALL_CLIENTS = "*";
+
+    private Set<String> clients = Collections.emptySet();
+    private Set<String> scopes = Collections.emptySet();
+
+    // in seconds, a token expiring sooner is not reused
+    private int minRemaining = 300;
+
+    // in seconds, bounds how long a token revoked on another node may still be reused
+    private int cacheTtl = 10;
+    private int cacheMaxSize = 10000;
+
+    public boolean isEnabled() {
+        return !clients.isEmpty() || !scopes.isEmpty();
+    }
+
+    public boolean isReused(String clientId, String scope) {
+        if (clients.contains(ALL_CLIENTS) || clients.contains(clientId)) {
+            return true;
+        }
+        if (scopes.isEmpty() || scope == null || scope.isEmpty()) {
+            return false;
+        }
+        for (String name : scope.split(" ")) {
+            if (!scopes.contains(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Set<String> getClients() {
+        return clients;
+    }
+
+    public TokenReuseSettings setClients(Set<String> clients) {
+        this.clients = clients;
+        return this;
+    }
+
+    public Set<String> getScopes() {
+        return scopes;
+    }
+
+    public TokenReuseSettings setScopes(Set<String> scopes) {
+        this.scopes = scopes;
+        return this;
+    }
+
+    public int getMinRemaining() {
+        return minRemaining;
+    }
+
+    public TokenReuseSettings setMinRemaining(int minRemaining) {
+        this.minRemaining = minRemaining;
+        return this;
+    }
+
+    public int getCacheTtl() {
+        return cacheTtl;
+    }
+
+    public TokenReuseSettings setCacheTtl(int cacheTtl) {
+        this.cacheTtl = cacheTtl;
+        return this;
+    }
+
+    public int getCacheMaxSize() {
+        return cacheMaxSize;
+    }
+
+    public TokenReuseSettings setCacheMaxSize(int cacheMaxSize) {
+        this.cacheMaxSize = cacheMaxSize;
+        return this;
+    }
+
+    private static Set<String> split(String value) {
+        Set<String> values = new HashSet<String>();
+        if (value != null) {
+            for (String item : value.split(",")) {
+                if (item.trim().length() > 0) {
+                    values.add(item.trim());
+                }
+            }
+        }
+        return values;
+    }
+
+    public static TokenReuseSettings load(Properties props) {
+        TokenReuseSettings settings = new TokenReuseSettings();
+        settings.setClients(split(getString(props, CLIENTS_PROPERTY, null)));
+        settings.setScopes(split(getString(props, SCOPES_PROPERTY, null)));
+        settings.setMinRemaining(getInt(props, MIN_REMAINING_PROPERTY, settings.getMinRemaining()));
+        settings.setCacheTtl(getInt(props, CACHE_TTL_PROPERTY, settings.getCacheTtl()));
+        settings.setCacheMaxSize(getInt(props, CACHE_MAX_SIZE_PROPERTY, settings.getCacheMaxSize()));
+        return settings;
+    }
+}
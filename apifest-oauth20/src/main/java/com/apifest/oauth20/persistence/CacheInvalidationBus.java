@@ -0,0 +1,32 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence;
+
+/**
+ * Broadcasts the keys of the cached entries modified on one node to the other nodes of the cluster.
+ *
+ * @author Edouard De Oliveira
+ */
+public interface CacheInvalidationBus {
+
+    /**
+     * Notifies all nodes, including this one, that the entry with the given key has changed.
+     */
+    void publish(String key);
+
+    void subscribe(CacheInvalidationListener listener);
+}
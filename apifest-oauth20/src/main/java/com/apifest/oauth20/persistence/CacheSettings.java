@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence;
+
+import static com.apifest.oauth20.utils.PropertiesUtils.getBoolean;
+import static com.apifest.oauth20.utils.PropertiesUtils.getInt;
+
+import java.util.Properties;
+
+/**
+ * Holds the options of the client credentials and scopes cache loaded from the <code>oauth20.cache.*</code> properties.
+ *
+ * @author Edouard De Oliveira
+ */
+public class CacheSettings {
+
+    public static final String ENABLED_PROPERTY = "oauth20.cache.enabled";
+    public static final String TTL_PROPERTY = "oauth20.cache.ttl";
+    public static final String MAX_SIZE_PROPERTY = "oauth20.cache.max.size";
+
+    private boolean enabled = false;
+
+    // in seconds, bounds how long an entry may be stale when an invalidation is lost
+    private int ttl = 60;
+    private int maxSize = 10000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public CacheSettings setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        return this;
+    }
+
+    public int getTtl() {
+        return ttl;
+    }
+
+    public CacheSettings setTtl(int ttl) {
+        this.ttl = ttl;
+        return this;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public CacheSettings setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    public static CacheSettings load(Properties props) {
+        CacheSettings settings = new CacheSettings();
+        settings.setEnabled(getBoolean(props, ENABLED_PROPERTY, settings.isEnabled()));
+        settings.setTtl(getInt(props, TTL_PROPERTY, settings.getTtl()));
+        settings.setMaxSize(getInt(props, MAX_SIZE_PROPERTY, settings.getMaxSize()));
+        return settings;
+    }
+}
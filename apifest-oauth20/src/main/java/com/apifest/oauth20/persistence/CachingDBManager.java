@@ -0,0 +1,309 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.apifest.oauth20.AccessToken;
+import com.apifest.oauth20.AuthCode;
+import com.apifest.oauth20.ClientCredentials;
+import com.apifest.oauth20.Scope;
+
+/**
+ * Caches the client credentials and scopes read from the wrapped {@link DBManager}. These are read several times
+ * per token request but rarely change. Local writes invalidate the cached entry and are broadcast through the
+ * {@link CacheInvalidationBus} so that the other nodes drop it too; the TTL bounds staleness when no bus is
+ * available or an invalidation is lost.
+ *
+ * @author Edouard De Oliveira
+ */
+public class CachingDBManager implements DBManager, CacheInvalidationListener {
+
+    protected static Logger log = LoggerFactory.getLogger(CachingDBManager.class);
+
+    protected static final String CLIENT_KEY_PREFIX = "client:";
+    protected static final String SCOPE_KEY_PREFIX = "scope:";
+
+    private final DBManager delegate;
+    private final CacheInvalidationBus invalidationBus;
+    private final long ttlMillis;
+    private final int maxSize;
+
+    private final ConcurrentMap<String, CachedEntry> cache = new ConcurrentHashMap<String, CachedEntry>();
+
+    // incremented on each invalidation, so that a value loaded concurrently with an invalidation is not cached
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public CachingDBManager(DBManager delegate, CacheSettings settings, CacheInvalidationBus invalidationBus) {
+        this.delegate = delegate;
+        this.invalidationBus = invalidationBus;
+        this.ttlMillis = settings.getTtl() * 1000L;
+        this.maxSize = settings.getMaxSize();
+        if (invalidationBus != null) {
+            invalidationBus.subscribe(this);
+        }
+    }
+
+    public DBManager getDelegate() {
+        return delegate;
+    }
+
+    private Object getCached(String key) {
+        CachedEntry entry = cache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.currentTimeMillis())) {
+            cache.remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    private void putCached(String key, Object value, long version) {
+        if (value == null || ttlMillis <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (cache.size() >= maxSize) {
+            removeExpired(now);
+            if (cache.size() >= maxSize) {
+                return;
+            }
+        }
+        CachedEntry entry = new CachedEntry(value, now + ttlMillis);
+        cache.put(key, entry);
+        if (invalidations.get() != version) {
+            cache.remove(key, entry);
+        }
+    }
+
+    private void removeExpired(long now) {
+        Iterator<CachedEntry> it = cache.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().isExpired(now)) {
+                it.remove();
+            }
+        }
+    }
+
+    private void invalidateAndPublish(String key) {
+        invalidate(key);
+        if (invalidationBus != null) {
+            try {
+                invalidationBus.publish(key);
+            } catch (RuntimeException e) {
+                log.error("cannot publish cache invalidation of " + key, e);
+            }
+        }
+    }
+
+    @Override
+    public void invalidate(String key) {
+        invalidations.incrementAndGet();
+        cache.remove(key);
+    }
+
+    @Override
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        cache.clear();
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#validClient(java.lang.String, java.lang.String)
+     */
+    @Override
+    public boolean validClient(String clientId, String clientSecret) {
+        ClientCredentials clientCredentials = findClientCredentials(clientId);
+        return ((clientCredentials != null)
+                && (clientCredentials.getSecret() != null && clientCredentials.getSecret().equals(clientSecret))
+                && (clientCredentials.getStatus() == ClientCredentials.ACTIVE_STATUS));
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findClientCredentials(java.lang.String)
+     */
+    @Override
+    public ClientCredentials findClientCredentials(String clientId) {
+        String key = CLIENT_KEY_PREFIX + clientId;
+        ClientCredentials clientCredentials = (ClientCredentials) getCached(key);
+        if (clientCredentials == null) {
+            long version = invalidations.get();
+            clientCredentials = delegate.findClientCredentials(clientId);
+            putCached(key, clientCredentials, version);
+        }
+        return clientCredentials;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findScope(java.lang.String)
+     */
+    @Override
+    public Scope findScope(String scopeName) {
+        String key = SCOPE_KEY_PREFIX + scopeName;
+        Scope scope = (Scope) getCached(key);
+        if (scope == null) {
+            long version = invalidations.get();
+            scope = delegate.findScope(scopeName);
+            putCached(key, scope, version);
+        }
+        return scope;
+    }
+
+    @Override
+    public void storeClientCredentials(ClientCredentials clientCreds) {
+        delegate.storeClientCredentials(clientCreds);
+        invalidateAndPublish(CLIENT_KEY_PREFIX + clientCreds.getId());
+    }
+
+    @Override
+    public boolean updateClientApp(String clientId, String scope, String description, Integer status,
+            Map<String, String> applicationDetails) {
+        boolean updated = delegate.updateClientApp(clientId, scope, description, status, applicationDetails);
+        invalidateAndPublish(CLIENT_KEY_PREFIX + clientId);
+        return updated;
+    }
+
+    @Override
+    public boolean deleteClientApp(String clientId) {
+        boolean deleted = delegate.deleteClientApp(clientId);
+        invalidateAndPublish(CLIENT_KEY_PREFIX + clientId);
+        return deleted;
+    }
+
+    @Override
+    public boolean storeScope(Scope scope) {
+        boolean stored = delegate.storeScope(scope);
+        invalidateAndPublish(SCOPE_KEY_PREFIX + scope.getScope());
+        return stored;
+    }
+
+    @Override
+    public boolean deleteScope(String scopeName) {
+        boolean deleted = delegate.deleteScope(scopeName);
+        invalidateAndPublish(SCOPE_KEY_PREFIX + scopeName);
+        return deleted;
+    }
+
+    @Override
+    public ClientCredentials findClientCredentialsByName(String clientName) {
+        return delegate.findClientCredentialsByName(clientName);
+    }
+
+    @Override
+    public List<Scope> getAllScopes() {
+        return delegate.getAllScopes();
+    }
+
+    @Override
+    public List<ClientCredentials> getAllApplications() {
+        return delegate.getAllApplications();
+    }
+
+    @Override
+    public boolean isScopeUsed(String scopeName) {
+        return delegate.isScopeUsed(scopeName);
+    }
+
+    @Override
+    public void storeAuthCode(AuthCode authCode) {
+        delegate.storeAuthCode(authCode);
+    }
+
+    @Override
+    public void updateAuthCodeValidStatus(String authCode, boolean valid) {
+        delegate.updateAuthCodeValidStatus(authCode, valid);
+    }
+
+    @Override
+    public AuthCode findAuthCode(String authCode, String redirectUri) {
+        return delegate.findAuthCode(authCode, redirectUri);
+    }
+
+    @Override
+    public void storeAccessToken(AccessToken accessToken) {
+        delegate.storeAccessToken(accessToken);
+    }
+
+    @Override
+    public AccessToken findAccessTokenByRefreshToken(String refreshToken, String clientId) {
+        return delegate.findAccessTokenByRefreshToken(refreshToken, clientId);
+    }
+
+    @Override
+    public void updateAccessTokenValidStatus(String accessToken, boolean valid) {
+        delegate.updateAccessTokenValidStatus(accessToken, valid);
+    }
+
+    @Override
+    public AccessToken findAccessToken(String accessToken) {
+        return delegate.findAccessToken(accessToken);
+    }
+
+    @Override
+    public List<AccessToken> getAccessTokenByUserIdAndClientApp(String userId, String clientId) {
+        return delegate.getAccessTokenByUserIdAndClientApp(userId, clientId);
+    }
+
+    @Override
+    public void removeAccessToken(String accessToken) {
+        delegate.removeAccessToken(accessToken);
+    }
+
+    @Override
+    public boolean rotateAccessToken(String oldAccessToken, AccessToken newAccessToken) {
+        return delegate.rotateAccessToken(oldAccessToken, newAccessToken);
+    }
+
+    @Override
+    public AuthCode consumeAuthCode(String authCode, String redirectUri) {
+        return delegate.consumeAuthCode(authCode, redirectUri);
+    }
+
+    @Override
+    public AccessToken findClientAccessToken(String clientId, String scope) {
+        return delegate.findClientAccessToken(clientId, scope);
+    }
+
+    @Override
+    public long incrementCounter(String key, long delta, int expiresIn) {
+        return delegate.incrementCounter(key, delta, expiresIn);
+    }
+
+    private static final class CachedEntry {
+        private final Object value;
+        private final long expiresAt;
+
+        CachedEntry(Object value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
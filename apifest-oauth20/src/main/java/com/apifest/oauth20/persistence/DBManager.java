@@ -167,6 +167,15 @@ public interface DBManager {
      */
     List<ClientCredentials> getAllApplications();
 
+    /**
+     * Checks whether a scope is used by a client application with a lookup in an index of the client
+     * applications by scope, kept up to date when a client application is stored, updated or deleted.
+     *
+     * @param scopeName the name of the scope
+     * @return <code>true</code> if at least one client application is registered with the scope
+     */
+    boolean isScopeUsed(String scopeName);
+
     /**
      * Deletes an oauth20 scope.
      * @param scopeName the name of the scope to be deleted
@@ -190,4 +199,45 @@ public interface DBManager {
      */
     void removeAccessToken(String accessToken);
 
+    /**
+     * Replaces an access token by a new one in a single atomic operation, used when a token is refreshed.
+     * The old token is removed only if it is still valid, so that only one of several concurrent refreshes succeeds.
+     *
+     * @param oldAccessToken the access token to be replaced
+     * @param newAccessToken the access token that will be stored in the DB
+     * @return true if the old token was valid and has been replaced, otherwise false and the new token is not stored
+     */
+    boolean rotateAccessToken(String oldAccessToken, AccessToken newAccessToken);
+
+    /**
+     * Loads a valid auth code and removes it in a single atomic operation, so that an auth code
+     * can be exchanged for an access token only once.
+     *
+     * @param authCode the auth code
+     * @param redirectUri the redirect URI the auth code was issued for
+     * @return the auth code or null if it does not exist, is not valid or was issued for another redirect URI
+     */
+    AuthCode consumeAuthCode(String authCode, String redirectUri);
+
+    /**
+     * Loads the valid access token issued last to a client application for the given scope with the
+     * client_credentials grant, i.e. without user and refresh token.
+     *
+     * @param clientId the client application id
+     * @param scope the scope of the access token
+     * @return the access token or null if there is none
+     */
+    AccessToken findClientAccessToken(String clientId, String scope);
+
+    /**
+     * Adds a value to a counter shared by all the nodes in a single atomic operation, used to lease chunks of
+     * the token quotas. A missing counter starts at 0 and is kept at least the given time.
+     *
+     * @param key the counter key
+     * @param delta the value to add
+     * @param expiresIn the minimum lifetime of a new counter, in seconds
+     * @return the value of the counter after the addition
+     */
+    long incrementCounter(String key, long delta, int expiresIn);
+
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Counters kept in the heap of a single node, for the DBManagers that do not share their data with other nodes.
+ * An expired counter starts again from 0; the expired counters are removed whenever the number of counters doubles.
+ *
+ * @author Edouard De Oliveira
+ */
+public class ExpiringCounters {
+
+    private static final int MIN_SWEEP_SIZE = 1024;
+
+    private final Map<String, long[]> counters = new HashMap<String, long[]>();
+    private int sweepSize = MIN_SWEEP_SIZE;
+
+    /**
+     * @see DBManager#incrementCounter(String, long, int)
+     */
+    public synchronized long increment(String key, long delta, int expiresIn, long now) {
+        // value, expiration time in millis
+        long[] counter = counters.get(key);
+        if (counter == null || counter[1] <= now) {
+            if (counters.size() >= sweepSize) {
+                removeExpired(now);
+                sweepSize = Math.max(MIN_SWEEP_SIZE, counters.size() * 2);
+            }
+            counter = new long[] { 0L, now + expiresIn * 1000L };
+            counters.put(key, counter);
+        }
+        counter[0] += delta;
+        return counter[0];
+    }
+
+    public synchronized void removeExpired(long now) {
+        Iterator<long[]> it = counters.values().iterator();
+        while (it.hasNext()) {
+            if (it.next()[1] <= now) {
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return counters.size();
+    }
+}
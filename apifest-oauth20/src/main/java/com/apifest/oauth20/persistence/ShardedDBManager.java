@@ -0,0 +1,379 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.apifest.oauth20.AccessToken;
+import com.apifest.oauth20.AuthCode;
+import com.apifest.oauth20.ClientCredentials;
+import com.apifest.oauth20.Scope;
+import com.apifest.oauth20.utils.RandomGenerator;
+
+/**
+ * DBManager spreading the access tokens and auth codes across several backends of the same type. Each token is
+ * placed by a consistent hash of its value, so that adding a shard only moves a fraction of the tokens. An access
+ * token with a refresh token is generated again until it lands on the shard of its refresh token, so that lookups by
+ * refresh token go to a single shard. Clients and scopes are pinned on the first shard. Lookups by user and client
+ * cannot be routed by the token value and are sent to all the shards in parallel.
+ *
+ * @author Edouard De Oliveira
+ */
+public class ShardedDBManager implements DBManager {
+
+    // points per shard on the hash ring, smooths the distribution of the tokens
+    static final int VIRTUAL_NODES = 160;
+
+    private final List<DBManager> shards;
+    private final TreeMap<Long, DBManager> ring = new TreeMap<Long, DBManager>();
+    private final ExecutorService executor;
+
+    public ShardedDBManager(List<DBManager> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("at least one shard is required");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<DBManager>(shards));
+        for (int i = 0; i < shards.size(); i++) {
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+                ring.put(hash("shard-" + i + "-" + v), shards.get(i));
+            }
+        }
+        final AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(shards.size(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "shard-query-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public List<DBManager> getShards() {
+        return shards;
+    }
+
+    DBManager getShard(String key) {
+        SortedMap<Long, DBManager> tail = ring.tailMap(hash(key));
+        return tail.isEmpty() ? ring.firstEntry().getValue() : tail.get(tail.firstKey());
+    }
+
+    private DBManager getPrimary() {
+        return shards.get(0);
+    }
+
+    // 64-bit FNV-1a followed by the MurmurHash3 finalizer to spread similar keys over the ring
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private interface ShardQuery<T> {
+        T query(DBManager shard);
+    }
+
+    private <T> List<T> queryAll(final ShardQuery<T> query) {
+        List<Future<T>> futures = new ArrayList<Future<T>>(shards.size());
+        for (final DBManager shard : shards) {
+            futures.add(executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return query.query(shard);
+                }
+            }));
+        }
+        List<T> results = new ArrayList<T>(shards.size());
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while querying the shards", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException("cannot query the shards", e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#validClient(java.lang.String, java.lang.String)
+     */
+    @Override
+    public boolean validClient(String clientId, String clientSecret) {
+        return getPrimary().validClient(clientId, clientSecret);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#storeClientCredentials(com.apifest.oauth20.ClientCredentials)
+     */
+    @Override
+    public void storeClientCredentials(ClientCredentials clientCreds) {
+        getPrimary().storeClientCredentials(clientCreds);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#storeAuthCode(com.apifest.oauth20.AuthCode)
+     */
+    @Override
+    public void storeAuthCode(AuthCode authCode) {
+        getShard(authCode.getCode()).storeAuthCode(authCode);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#updateAuthCodeValidStatus(java.lang.String, boolean)
+     */
+    @Override
+    public void updateAuthCodeValidStatus(String authCode, boolean valid) {
+        getShard(authCode).updateAuthCodeValidStatus(authCode, valid);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#storeAccessToken(com.apifest.oauth20.AccessToken)
+     */
+    @Override
+    public void storeAccessToken(AccessToken accessToken) {
+        String refreshToken = accessToken.getRefreshToken();
+        if (refreshToken == null || refreshToken.isEmpty()) {
+            getShard(accessToken.getToken()).storeAccessToken(accessToken);
+            return;
+        }
+        DBManager shard = getShard(refreshToken);
+        // the token has not been handed out yet, like in rotateAccessToken
+        while (getShard(accessToken.getToken()) != shard) {
+            accessToken.setToken(RandomGenerator.generateRandomString());
+        }
+        shard.storeAccessToken(accessToken);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findAccessTokenByRefreshToken(java.lang.String, java.lang.String)
+     */
+    @Override
+    public AccessToken findAccessTokenByRefreshToken(String refreshToken, String clientId) {
+        return getShard(refreshToken).findAccessTokenByRefreshToken(refreshToken, clientId);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#updateAccessTokenValidStatus(java.lang.String, boolean)
+     */
+    @Override
+    public void updateAccessTokenValidStatus(String accessToken, boolean valid) {
+        getShard(accessToken).updateAccessTokenValidStatus(accessToken, valid);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findAccessToken(java.lang.String)
+     */
+    @Override
+    public AccessToken findAccessToken(String accessToken) {
+        return getShard(accessToken).findAccessToken(accessToken);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findAuthCode(java.lang.String, java.lang.String)
+     */
+    @Override
+    public AuthCode findAuthCode(String authCode, String redirectUri) {
+        return getShard(authCode).findAuthCode(authCode, redirectUri);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findClientCredentials(java.lang.String)
+     */
+    @Override
+    public ClientCredentials findClientCredentials(String clientId) {
+        return getPrimary().findClientCredentials(clientId);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findClientCredentialsByName(java.lang.String)
+     */
+    @Override
+    public ClientCredentials findClientCredentialsByName(String clientName) {
+        return getPrimary().findClientCredentialsByName(clientName);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#storeScope(com.apifest.oauth20.Scope)
+     */
+    @Override
+    public boolean storeScope(Scope scope) {
+        return getPrimary().storeScope(scope);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#getAllScopes()
+     */
+    @Override
+    public List<Scope> getAllScopes() {
+        return getPrimary().getAllScopes();
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findScope(java.lang.String)
+     */
+    @Override
+    public Scope findScope(String scopeName) {
+        return getPrimary().findScope(scopeName);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#updateClientApp(java.lang.String, java.lang.String, java.lang.String, java.lang.Integer, java.util.Map)
+     */
+    @Override
+    public boolean updateClientApp(String clientId, String scope, String description, Integer status,
+            Map<String, String> applicationDetails) {
+        return getPrimary().updateClientApp(clientId, scope, description, status, applicationDetails);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#deleteClientApp(java.lang.String)
+     */
+    @Override
+    public boolean deleteClientApp(String clientId) {
+        return getPrimary().deleteClientApp(clientId);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#getAllApplications()
+     */
+    @Override
+    public List<ClientCredentials> getAllApplications() {
+        return getPrimary().getAllApplications();
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#isScopeUsed(java.lang.String)
+     */
+    @Override
+    public boolean isScopeUsed(String scopeName) {
+        return getPrimary().isScopeUsed(scopeName);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#deleteScope(java.lang.String)
+     */
+    @Override
+    public boolean deleteScope(String scopeName) {
+        return getPrimary().deleteScope(scopeName);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#getAccessTokenByUserIdAndClientApp(java.lang.String, java.lang.String)
+     */
+    @Override
+    public List<AccessToken> getAccessTokenByUserIdAndClientApp(final String userId, final String clientId) {
+        List<List<AccessToken>> results = queryAll(new ShardQuery<List<AccessToken>>() {
+            @Override
+            public List<AccessToken> query(DBManager shard) {
+                return shard.getAccessTokenByUserIdAndClientApp(userId, clientId);
+            }
+        });
+        List<AccessToken> tokens = new ArrayList<AccessToken>();
+        for (List<AccessToken> result : results) {
+            if (result != null) {
+                tokens.addAll(result);
+            }
+        }
+        return tokens;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#removeAccessToken(java.lang.String)
+     */
+    @Override
+    public void removeAccessToken(String accessToken) {
+        getShard(accessToken).removeAccessToken(accessToken);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#rotateAccessToken(java.lang.String, com.apifest.oauth20.AccessToken)
+     */
+    @Override
+    public boolean rotateAccessToken(String oldAccessToken, AccessToken newAccessToken) {
+        DBManager shard = getShard(oldAccessToken);
+        // the new token has not been handed out yet, so it is regenerated until it lives on the shard of the old one
+        // and the rotation stays atomic on a single backend
+        while (getShard(newAccessToken.getToken()) != shard) {
+            newAccessToken.setToken(RandomGenerator.generateRandomString());
+        }
+        return shard.rotateAccessToken(oldAccessToken, newAccessToken);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#consumeAuthCode(java.lang.String, java.lang.String)
+     */
+    @Override
+    public AuthCode consumeAuthCode(String authCode, String redirectUri) {
+        return getShard(authCode).consumeAuthCode(authCode, redirectUri);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findClientAccessToken(java.lang.String, java.lang.String)
+     */
+    @Override
+    public AccessToken findClientAccessToken(final String clientId, final String scope) {
+        // client tokens are spread by token value, keep the one issued last
+        List<AccessToken> tokens = queryAll(new ShardQuery<AccessToken>() {
+            @Override
+            public AccessToken query(DBManager shard) {
+                return shard.findClientAccessToken(clientId, scope);
+            }
+        });
+        AccessToken latest = null;
+        for (AccessToken token : tokens) {
+            if (token != null && (latest == null || token.getCreated() > latest.getCreated())) {
+                latest = token;
+            }
+        }
+        return latest;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#incrementCounter(java.lang.String, long, int)
+     */
+    @Override
+    public long incrementCounter(String key, long delta, int expiresIn) {
+        return getShard(key).incrementCounter(key, delta, expiresIn);
+    }
+
+}
@@ -0,0 +1,745 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.apifest.oauth20.AccessToken;
+import com.apifest.oauth20.AuthCode;
+import com.apifest.oauth20.ClientCredentials;
+import com.apifest.oauth20.Scope;
+import com.apifest.oauth20.persistence.DBManager;
+import com.apifest.oauth20.persistence.ExpiringCounters;
+
+/**
+ * Embedded durable DBManager storing every change as a record appended to memory-mapped segment files. The
+ * location of the latest record of each entry is kept in in-memory indexes that are rebuilt by replaying the
+ * segments on startup, so a write is a sequential append and a lookup a single read from the mapped file.
+ * Writes are forced to disk in batches every <code>file.store.fsync.interval</code> milliseconds; sealed
+ * segments holding mostly removed or expired records are compacted in the background.
+ *
+ * @author Edouard De Oliveira
+ */
+public class FileDBManager implements DBManager {
+
+    protected static Logger log = LoggerFactory.getLogger(FileDBManager.class);
+
+    private final FileStoreSettings settings;
+    private final SegmentLog segmentLog;
+
+    private final ConcurrentMap<String, Location> accessTokens = new ConcurrentHashMap<String, Location>();
+    private final ConcurrentMap<String, Location> authCodes = new ConcurrentHashMap<String, Location>();
+    private final ConcurrentMap<String, Location> clients = new ConcurrentHashMap<String, Location>();
+    private final ConcurrentMap<String, Location> scopes = new ConcurrentHashMap<String, Location>();
+
+    private final ConcurrentMap<String, String> clientIdsByName = new ConcurrentHashMap<String, String>();
+
+    // refresh token + client id -> access token
+    private final ConcurrentMap<String, String> accessTokensByRefreshToken = new ConcurrentHashMap<String, String>();
+
+    // user id + client id -> access tokens
+    private final ConcurrentMap<String, Set<String>> accessTokensByUser = new ConcurrentHashMap<String, Set<String>>();
+
+    // client id + scope -> access token issued last with the client_credentials grant
+    private final ConcurrentMap<String, String> accessTokensByClient = new ConcurrentHashMap<String, String>();
+
+    // scope -> ids of the client apps registered with it, changed with the client apps under the segment log lock
+    private final ConcurrentMap<String, Set<String>> clientIdsByScope = new ConcurrentHashMap<String, Set<String>>();
+
+    // quota counters are not written to the segments, they start again from 0 on restart
+    private final ExpiringCounters counters = new ExpiringCounters();
+
+    private ScheduledExecutorService executor;
+
+    public FileDBManager(FileStoreSettings settings) {
+        this(settings, true);
+    }
+
+    // background flush and compaction are not scheduled in tests
+    FileDBManager(FileStoreSettings settings, boolean scheduleTasks) {
+        this.settings = settings;
+        this.segmentLog = new SegmentLog(new File(settings.getDir()), settings.getSegmentSize());
+        final long now = System.currentTimeMillis();
+        try {
+            segmentLog.open(new SegmentLog.Replay() {
+                @Override
+                public void apply(Segment segment, LogRecord record) {
+                    replay(segment, record, now);
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot open file store in " + settings.getDir(), e);
+        }
+        rebuildSecondaryIndexes();
+        log.info("file store opened in {}, {} access tokens, {} clients", settings.getDir(), accessTokens.size(),
+                clients.size());
+        if (scheduleTasks) {
+            scheduleTasks();
+        }
+    }
+
+    private void replay(Segment segment, LogRecord record, long now) {
+        ConcurrentMap<String, Location> index = index(record.type);
+        String key = RecordCodec.readKey(record.payload);
+        long expiresAt = RecordCodec.readExpiresAt(record.payload);
+        if (record.op == LogRecord.PUT && expiresAt > now) {
+            index.put(key, new Location(segment, record.offset, expiresAt));
+        } else {
+            index.remove(key);
+        }
+    }
+
+    private void rebuildSecondaryIndexes() {
+        for (Location location : accessTokens.values()) {
+            addAccessTokenIndexes(readAccessToken(location));
+        }
+        for (Map.Entry<String, Location> entry : clients.entrySet()) {
+            ClientCredentials clientCreds = readClientCredentials(entry.getValue());
+            if (clientCreds.getName() != null) {
+                clientIdsByName.put(clientCreds.getName(), entry.getKey());
+            }
+            indexClientScope(entry.getKey(), null, clientCreds.getScope());
+        }
+    }
+
+    private void scheduleTasks() {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "file-store");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        if (settings.getFsyncInterval() > 0) {
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        segmentLog.flush();
+                    } catch (Exception e) {
+                        log.error("cannot flush file store", e);
+                    }
+                }
+            }, settings.getFsyncInterval(), settings.getFsyncInterval(), TimeUnit.MILLISECONDS);
+        }
+        if (settings.getCompactionInterval() > 0) {
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compact();
+                    } catch (Exception e) {
+                        log.error("cannot compact file store", e);
+                    }
+                }
+            }, settings.getCompactionInterval(), settings.getCompactionInterval(), TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stops the background tasks and forces the pending writes to disk.
+     */
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        segmentLog.flush();
+    }
+
+    SegmentLog getSegmentLog() {
+        return segmentLog;
+    }
+
+    private ConcurrentMap<String, Location> index(byte type) {
+        switch (type) {
+            case LogRecord.ACCESS_TOKEN_TYPE:
+                return accessTokens;
+            case LogRecord.AUTH_CODE_TYPE:
+                return authCodes;
+            case LogRecord.CLIENT_CREDENTIALS_TYPE:
+                return clients;
+            case LogRecord.SCOPE_TYPE:
+                return scopes;
+            default:
+                throw new IllegalStateException("unknown record type " + type);
+        }
+    }
+
+    private Location append(byte type, byte op, byte[] payload, long expiresAt) {
+        Location location = segmentLog.append(type, op, payload, expiresAt);
+        if (settings.getFsyncInterval() <= 0) {
+            location.segment.force();
+        }
+        return location;
+    }
+
+    private void put(byte type, String key, byte[] payload, long expiresAt) {
+        synchronized (segmentLog) {
+            index(type).put(key, append(type, LogRecord.PUT, payload, expiresAt));
+        }
+    }
+
+    private Location delete(byte type, String key) {
+        synchronized (segmentLog) {
+            Location location = index(type).remove(key);
+            if (location != null) {
+                append(type, LogRecord.DELETE, RecordCodec.encodeKey(key, location.expiresAt), location.expiresAt);
+            }
+            return location;
+        }
+    }
+
+    private static Location live(Location location) {
+        return (location != null && !location.isExpired(System.currentTimeMillis())) ? location : null;
+    }
+
+    private static AccessToken readAccessToken(Location location) {
+        return RecordCodec.decodeAccessToken(location.segment.read(location.offset).payload);
+    }
+
+    private static AuthCode readAuthCode(Location location) {
+        return RecordCodec.decodeAuthCode(location.segment.read(location.offset).payload);
+    }
+
+    private static ClientCredentials readClientCredentials(Location location) {
+        return RecordCodec.decodeClientCredentials(location.segment.read(location.offset).payload);
+    }
+
+    private static Scope readScope(Location location) {
+        return RecordCodec.decodeScope(location.segment.read(location.offset).payload);
+    }
+
+    private static boolean hasText(String value) {
+        return value != null && !value.isEmpty();
+    }
+
+    private static boolean equal(String s1, String s2) {
+        return (s1 == null) ? s2 == null : s1.equals(s2);
+    }
+
+    private void addAccessTokenIndexes(AccessToken accessToken) {
+        if (hasText(accessToken.getRefreshToken())) {
+            accessTokensByRefreshToken.put(accessToken.getRefreshToken() + accessToken.getClientId(),
+                    accessToken.getToken());
+        }
+        if (hasText(accessToken.getUserId())) {
+            addUserToken(accessToken.getUserId() + accessToken.getClientId(), accessToken.getToken());
+        }
+        if (isClientToken(accessToken)) {
+            accessTokensByClient.put(accessToken.getClientId() + " " + accessToken.getScope(), accessToken.getToken());
+        }
+    }
+
+    private void removeAccessTokenIndexes(AccessToken accessToken) {
+        if (hasText(accessToken.getRefreshToken())) {
+            // a refreshed token reuses the refresh token, so remove the mapping only if it still points to this token
+            accessTokensByRefreshToken.remove(accessToken.getRefreshToken() + accessToken.getClientId(),
+                    accessToken.getToken());
+        }
+        if (hasText(accessToken.getUserId())) {
+            removeUserToken(accessToken.getUserId() + accessToken.getClientId(), accessToken.getToken());
+        }
+        if (isClientToken(accessToken)) {
+            accessTokensByClient.remove(accessToken.getClientId() + " " + accessToken.getScope(), accessToken.getToken());
+        }
+    }
+
+    // a set is only changed under its lock, so that a token is never added to a set removed once empty
+    private void addUserToken(String userKey, String token) {
+        while (true) {
+            Set<String> tokens = accessTokensByUser.get(userKey);
+            if (tokens == null) {
+                Set<String> newTokens = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                tokens = accessTokensByUser.putIfAbsent(userKey, newTokens);
+                if (tokens == null) {
+                    tokens = newTokens;
+                }
+            }
+            synchronized (tokens) {
+                if (accessTokensByUser.get(userKey) == tokens) {
+                    tokens.add(token);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void removeUserToken(String userKey, String token) {
+        Set<String> tokens = accessTokensByUser.get(userKey);
+        if (tokens != null) {
+            synchronized (tokens) {
+                tokens.remove(token);
+                if (tokens.isEmpty()) {
+                    accessTokensByUser.remove(userKey, tokens);
+                }
+            }
+        }
+    }
+
+    // empty sets are removed, so that a scope is in use as long as it has a set
+    private void indexClientScope(String clientId, String oldScope, String newScope) {
+        Set<String> oldNames = ClientCredentials.scopeNames(oldScope);
+        Set<String> newNames = ClientCredentials.scopeNames(newScope);
+        for (String name : oldNames) {
+            Set<String> clientIds = clientIdsByScope.get(name);
+            if (!newNames.contains(name) && clientIds != null) {
+                clientIds.remove(clientId);
+                if (clientIds.isEmpty()) {
+                    clientIdsByScope.remove(name);
+                }
+            }
+        }
+        for (String name : newNames) {
+            Set<String> clientIds = clientIdsByScope.get(name);
+            if (clientIds == null) {
+                clientIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                clientIdsByScope.put(name, clientIds);
+            }
+            clientIds.add(clientId);
+        }
+    }
+
+    // issued with the client_credentials grant
+    private static boolean isClientToken(AccessToken accessToken) {
+        return !hasText(accessToken.getUserId()) && !hasText(accessToken.getRefreshToken());
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#validClient(java.lang.String, java.lang.String)
+     */
+    @Override
+    public boolean validClient(String clientId, String clientSecret) {
+        ClientCredentials clientCredentials = findClientCredentials(clientId);
+        return ((clientCredentials != null)
+                && (clientCredentials.getSecret() != null && clientCredentials.getSecret().equals(clientSecret))
+                && (clientCredentials.getStatus() == ClientCredentials.ACTIVE_STATUS));
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#storeClientCredentials(com.apifest.oauth20.ClientCredentials)
+     */
+    @Override
+    public void storeClientCredentials(ClientCredentials clientCreds) {
+        synchronized (segmentLog) {
+            Location previous = clients.get(clientCreds.getId());
+            String previousScope = (previous != null) ? readClientCredentials(previous).getScope() : null;
+            put(LogRecord.CLIENT_CREDENTIALS_TYPE, clientCreds.getId(), RecordCodec.encodeClientCredentials(clientCreds),
+                    Long.MAX_VALUE);
+            indexClientScope(clientCreds.getId(), previousScope, clientCreds.getScope());
+        }
+        if (clientCreds.getName() != null) {
+            clientIdsByName.put(clientCreds.getName(), clientCreds.getId());
+        }
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#storeAuthCode(com.apifest.oauth20.AuthCode)
+     */
+    @Override
+    public void storeAuthCode(AuthCode authCode) {
+        long expiresAt = System.currentTimeMillis() + AuthCode.EXPIRES_IN_SEC * 1000L;
+        put(LogRecord.AUTH_CODE_TYPE, authCode.getCode(), RecordCodec.encodeAuthCode(authCode, expiresAt), expiresAt);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#updateAuthCodeValidStatus(java.lang.String, boolean)
+     */
+    @Override
+    public void updateAuthCodeValidStatus(String authCode, boolean valid) {
+        synchronized (segmentLog) {
+            Location location = authCodes.get(authCode);
+            if (location != null) {
+                AuthCode code = readAuthCode(location);
+                code.setValid(valid);
+                put(LogRecord.AUTH_CODE_TYPE, authCode, RecordCodec.encodeAuthCode(code, location.expiresAt),
+                        location.expiresAt);
+            }
+        }
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#storeAccessToken(com.apifest.oauth20.AccessToken)
+     */
+    @Override
+    public void storeAccessToken(AccessToken accessToken) {
+        String ttl = hasText(accessToken.getRefreshExpiresIn()) ? accessToken.getRefreshExpiresIn()
+                : accessToken.getExpiresIn();
+        long expiresAt = System.currentTimeMillis() + Long.parseLong(ttl) * 1000L;
+        put(LogRecord.ACCESS_TOKEN_TYPE, accessToken.getToken(), RecordCodec.encodeAccessToken(accessToken, expiresAt),
+                expiresAt);
+        addAccessTokenIndexes(accessToken);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findAccessTokenByRefreshToken(java.lang.String, java.lang.String)
+     */
+    @Override
+    public AccessToken findAccessTokenByRefreshToken(String refreshToken, String clientId) {
+        String token = accessTokensByRefreshToken.get(refreshToken + clientId);
+        if (token == null) {
+            return null;
+        }
+        AccessToken accessToken = findAccessToken(token);
+        if (accessToken == null || !equal(accessToken.getRefreshToken(), refreshToken)
+                || !equal(accessToken.getClientId(), clientId)) {
+            return null;
+        }
+        return accessToken;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findClientAccessToken(java.lang.String, java.lang.String)
+     */
+    @Override
+    public AccessToken findClientAccessToken(String clientId, String scope) {
+        String token = accessTokensByClient.get(clientId + " " + scope);
+        if (token == null) {
+            return null;
+        }
+        AccessToken accessToken = findAccessToken(token);
+        if (accessToken == null || !accessToken.isValid()) {
+            return null;
+        }
+        return accessToken;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#incrementCounter(java.lang.String, long, int)
+     */
+    @Override
+    public long incrementCounter(String key, long delta, int expiresIn) {
+        return counters.increment(key, delta, expiresIn, System.currentTimeMillis());
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#updateAccessTokenValidStatus(java.lang.String, boolean)
+     */
+    @Override
+    public void updateAccessTokenValidStatus(String accessToken, boolean valid) {
+        synchronized (segmentLog) {
+            Location location = accessTokens.get(accessToken);
+            if (location != null) {
+                AccessToken token = readAccessToken(location);
+                token.setValid(valid);
+                put(LogRecord.ACCESS_TOKEN_TYPE, accessToken, RecordCodec.encodeAccessToken(token, location.expiresAt),
+                        location.expiresAt);
+            }
+        }
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findAccessToken(java.lang.String)
+     */
+    @Override
+    public AccessToken findAccessToken(String accessToken) {
+        Location location = live(accessTokens.get(accessToken));
+        return (location != null) ? readAccessToken(location) : null;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findAuthCode(java.lang.String, java.lang.String)
+     */
+    @Override
+    public AuthCode findAuthCode(String authCode, String redirectUri) {
+        Location location = live(authCodes.get(authCode));
+        if (location == null) {
+            return null;
+        }
+        AuthCode code = readAuthCode(location);
+        return (code.isValid() && equal(code.getRedirectUri(), redirectUri)) ? code : null;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#consumeAuthCode(java.lang.String, java.lang.String)
+     */
+    @Override
+    public AuthCode consumeAuthCode(String authCode, String redirectUri) {
+        synchronized (segmentLog) {
+            AuthCode code = findAuthCode(authCode, redirectUri);
+            if (code != null) {
+                delete(LogRecord.AUTH_CODE_TYPE, authCode);
+            }
+            return code;
+        }
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findClientCredentials(java.lang.String)
+     */
+    @Override
+    public ClientCredentials findClientCredentials(String clientId) {
+        Location location = clients.get(clientId);
+        return (location != null) ? readClientCredentials(location) : null;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findClientCredentialsByName(java.lang.String)
+     */
+    @Override
+    public ClientCredentials findClientCredentialsByName(String clientName) {
+        String clientId = clientIdsByName.get(clientName);
+        return (clientId != null) ? findClientCredentials(clientId) : null;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#storeScope(com.apifest.oauth20.Scope)
+     */
+    @Override
+    public boolean storeScope(Scope scope) {
+        put(LogRecord.SCOPE_TYPE, scope.getScope(), RecordCodec.encodeScope(scope), Long.MAX_VALUE);
+        return true;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#getAllScopes()
+     */
+    @Override
+    public List<Scope> getAllScopes() {
+        List<Scope> scopesList = new ArrayList<Scope>();
+        for (Location location : scopes.values()) {
+            scopesList.add(readScope(location));
+        }
+        return scopesList;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findScope(java.lang.String)
+     */
+    @Override
+    public Scope findScope(String scopeName) {
+        Location location = scopes.get(scopeName);
+        return (location != null) ? readScope(location) : null;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#updateClientApp(java.lang.String, java.lang.String, java.lang.String, java.lang.Integer, java.util.Map)
+     */
+    @Override
+    public boolean updateClientApp(String clientId, String scope, String description, Integer status,
+            Map<String, String> applicationDetails) {
+        synchronized (segmentLog) {
+            Location location = clients.get(clientId);
+            if (location == null) {
+                return false;
+            }
+            ClientCredentials clientCreds = readClientCredentials(location);
+            String previousScope = clientCreds.getScope();
+            if (scope != null && scope.length() > 0) {
+                clientCreds.setScope(scope);
+            }
+            if (description != null && description.length() > 0) {
+                clientCreds.setDescr(description);
+            }
+            if (status != null) {
+                clientCreds.setStatus(status);
+            }
+            if (applicationDetails != null) {
+                clientCreds.setApplicationDetails(applicationDetails);
+            }
+            put(LogRecord.CLIENT_CREDENTIALS_TYPE, clientId, RecordCodec.encodeClientCredentials(clientCreds),
+                    Long.MAX_VALUE);
+            indexClientScope(clientId, previousScope, clientCreds.getScope());
+            return true;
+        }
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#deleteClientApp(java.lang.String)
+     */
+    @Override
+    public boolean deleteClientApp(String clientId) {
+        ClientCredentials clientCreds;
+        synchronized (segmentLog) {
+            Location location = delete(LogRecord.CLIENT_CREDENTIALS_TYPE, clientId);
+            if (location == null) {
+                return false;
+            }
+            clientCreds = readClientCredentials(location);
+            indexClientScope(clientId, clientCreds.getScope(), null);
+        }
+        if (clientCreds.getName() != null) {
+            clientIdsByName.remove(clientCreds.getName(), clientId);
+        }
+        return true;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#getAllApplications()
+     */
+    @Override
+    public List<ClientCredentials> getAllApplications() {
+        List<ClientCredentials> appsList = new ArrayList<ClientCredentials>();
+        for (Location location : clients.values()) {
+            appsList.add(readClientCredentials(location));
+        }
+        return appsList;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#isScopeUsed(java.lang.String)
+     */
+    @Override
+    public boolean isScopeUsed(String scopeName) {
+        return clientIdsByScope.containsKey(scopeName);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#deleteScope(java.lang.String)
+     */
+    @Override
+    public boolean deleteScope(String scopeName) {
+        return delete(LogRecord.SCOPE_TYPE, scopeName) != null;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#getAccessTokenByUserIdAndClientApp(java.lang.String, java.lang.String)
+     */
+    @Override
+    public List<AccessToken> getAccessTokenByUserIdAndClientApp(String userId, String clientId) {
+        List<AccessToken> accessTokensList = new ArrayList<AccessToken>();
+        Set<String> tokens = accessTokensByUser.get(userId + clientId);
+        if (tokens != null) {
+            for (String token : tokens) {
+                AccessToken accessToken = findAccessToken(token);
+                if (accessToken != null && accessToken.isValid()) {
+                    accessTokensList.add(accessToken);
+                }
+            }
+        }
+        return accessTokensList;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#removeAccessToken(java.lang.String)
+     */
+    @Override
+    public void removeAccessToken(String accessToken) {
+        Location location = delete(LogRecord.ACCESS_TOKEN_TYPE, accessToken);
+        if (location != null) {
+            removeAccessTokenIndexes(readAccessToken(location));
+        }
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#rotateAccessToken(java.lang.String, com.apifest.oauth20.AccessToken)
+     */
+    @Override
+    public boolean rotateAccessToken(String oldAccessToken, AccessToken newAccessToken) {
+        Location location;
+        synchronized (segmentLog) {
+            location = live(accessTokens.get(oldAccessToken));
+            if (location == null || !readAccessToken(location).isValid()) {
+                return false;
+            }
+            delete(LogRecord.ACCESS_TOKEN_TYPE, oldAccessToken);
+            storeAccessToken(newAccessToken);
+        }
+        // the refresh token mapping already points to the new token and is kept
+        removeAccessTokenIndexes(readAccessToken(location));
+        return true;
+    }
+
+    /**
+     * Drops the expired entries from the indexes, then rewrites the sealed segments whose share of live bytes is
+     * below the compaction threshold and deletes them.
+     */
+    void compact() {
+        long now = System.currentTimeMillis();
+        removeExpired(accessTokens, now);
+        removeExpired(authCodes, now);
+
+        // a delete record may only be dropped when no older segment can hold a put for the same key
+        boolean oldest = true;
+        for (Segment segment : segmentLog.getSealedSegments()) {
+            long live = liveBytes(segment, now);
+            if (live * 100 < (long) segment.getPosition() * settings.getCompactionThreshold()) {
+                rewrite(segment, oldest, now);
+            } else {
+                oldest = false;
+            }
+        }
+    }
+
+    private void removeExpired(ConcurrentMap<String, Location> index, long now) {
+        for (Map.Entry<String, Location> entry : index.entrySet()) {
+            Location location = entry.getValue();
+            if (location.isExpired(now) && index.remove(entry.getKey(), location) && index == accessTokens) {
+                removeAccessTokenIndexes(readAccessToken(location));
+            }
+        }
+    }
+
+    private boolean isLive(Segment segment, LogRecord record, long now) {
+        ConcurrentMap<String, Location> index = index(record.type);
+        String key = RecordCodec.readKey(record.payload);
+        if (record.op == LogRecord.PUT) {
+            Location location = index.get(key);
+            return location != null && location.isAt(segment, record.offset) && !location.isExpired(now);
+        }
+        return !index.containsKey(key) && RecordCodec.readExpiresAt(record.payload) > now;
+    }
+
+    private long liveBytes(Segment segment, long now) {
+        long live = 0;
+        int offset = 0;
+        while (offset < segment.getPosition()) {
+            LogRecord record = segment.read(offset);
+            if (isLive(segment, record, now)) {
+                live += record.size();
+            }
+            offset += record.size();
+        }
+        return live;
+    }
+
+    private void rewrite(Segment segment, boolean dropDeletes, long now) {
+        int offset = 0;
+        int copied = 0;
+        while (offset < segment.getPosition()) {
+            LogRecord record = segment.read(offset);
+            synchronized (segmentLog) {
+                if ((record.op == LogRecord.PUT || !dropDeletes) && isLive(segment, record, now)) {
+                    long expiresAt = RecordCodec.readExpiresAt(record.payload);
+                    Location location = append(record.type, record.op, record.payload, expiresAt);
+                    if (record.op == LogRecord.PUT) {
+                        index(record.type).put(RecordCodec.readKey(record.payload), location);
+                    }
+                    copied++;
+                }
+            }
+            offset += record.size();
+        }
+        segmentLog.remove(segment);
+        log.debug("compacted segment {}, {} records copied", segment.getFile(), copied);
+    }
+}
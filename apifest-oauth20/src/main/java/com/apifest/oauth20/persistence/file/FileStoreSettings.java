@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.file;
+
+import static com.apifest.oauth20.utils.PropertiesUtils.getInt;
+import static com.apifest.oauth20.utils.PropertiesUtils.getString;
+
+import java.util.Properties;
+
+/**
+ * Holds the options of the file store loaded from the <code>file.store.*</code> properties.
+ *
+ * @author Edouard De Oliveira
+ */
+public class FileStoreSettings {
+
+    public static final String DIR_PROPERTY = "file.store.dir";
+    public static final String SEGMENT_SIZE_PROPERTY = "file.store.segment.size";
+    public static final String FSYNC_INTERVAL_PROPERTY = "file.store.fsync.interval";
+    public static final String COMPACTION_INTERVAL_PROPERTY = "file.store.compaction.interval";
+    public static final String COMPACTION_THRESHOLD_PROPERTY = "file.store.compaction.threshold";
+
+    private String dir = "apifest-data";
+
+    // in bytes, the size of each memory-mapped segment file
+    private int segmentSize = 64 * 1024 * 1024;
+
+    // in milliseconds, 0 forces the segment to disk on every write
+    private int fsyncInterval = 1000;
+
+    // in seconds, 0 to disable
+    private int compactionInterval = 300;
+
+    // sealed segments with a smaller percentage of live bytes are rewritten
+    private int compactionThreshold = 50;
+
+    public String getDir() {
+        return dir;
+    }
+
+    public FileStoreSettings setDir(String dir) {
+        this.dir = dir;
+        return this;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public FileStoreSettings setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+        return this;
+    }
+
+    public int getFsyncInterval() {
+        return fsyncInterval;
+    }
+
+    public FileStoreSettings setFsyncInterval(int fsyncInterval) {
+        this.fsyncInterval = fsyncInterval;
+        return this;
+    }
+
+    public int getCompactionInterval() {
+        return compactionInterval;
+    }
+
+    public FileStoreSettings setCompactionInterval(int compactionInterval) {
+        this.compactionInterval = compactionInterval;
+        return this;
+    }
+
+    public int getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    public FileStoreSettings setCompactionThreshold(int compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+        return this;
+    }
+
+    public static FileStoreSettings load(Properties props) {
+        FileStoreSettings settings = new FileStoreSettings();
+        settings.setDir(getString(props, DIR_PROPERTY, settings.getDir()));
+        settings.setSegmentSize(getInt(props, SEGMENT_SIZE_PROPERTY, settings.getSegmentSize()));
+        settings.setFsyncInterval(getInt(props, FSYNC_INTERVAL_PROPERTY, settings.getFsyncInterval()));
+        settings.setCompactionInterval(getInt(props, COMPACTION_INTERVAL_PROPERTY, settings.getCompactionInterval()));
+        settings.setCompactionThreshold(getInt(props, COMPACTION_THRESHOLD_PROPERTY, settings.getCompactionThreshold()));
+        return settings;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.file;
+
+/**
+ * Position of the latest record of an entry, kept in the in-memory indexes.
+ *
+ * @author Edouard De Oliveira
+ */
+final class Location {
+
+    final Segment segment;
+    final int offset;
+    final long expiresAt;
+
+    Location(Segment segment, int offset, long expiresAt) {
+        this.segment = segment;
+        this.offset = offset;
+        this.expiresAt = expiresAt;
+    }
+
+    boolean isExpired(long now) {
+        return now >= expiresAt;
+    }
+
+    boolean isAt(Segment segment, int offset) {
+        return this.segment == segment && this.offset == offset;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.file;
+
+/**
+ * A record read from a segment: a put or a delete of one entry of the given type.
+ *
+ * @author Edouard De Oliveira
+ */
+final class LogRecord {
+
+    static final byte ACCESS_TOKEN_TYPE = 1;
+    static final byte AUTH_CODE_TYPE = 2;
+    static final byte CLIENT_CREDENTIALS_TYPE = 3;
+    static final byte SCOPE_TYPE = 4;
+
+    static final byte PUT = 0;
+    static final byte DELETE = 1;
+
+    final int offset;
+    final byte type;
+    final byte op;
+    final byte[] payload;
+
+    LogRecord(int offset, byte type, byte op, byte[] payload) {
+        this.offset = offset;
+        this.type = type;
+        this.op = op;
+        this.payload = payload;
+    }
+
+    int size() {
+        return Segment.HEADER_SIZE + payload.length;
+    }
+}
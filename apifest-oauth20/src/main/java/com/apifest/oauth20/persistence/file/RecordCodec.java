@@ -0,0 +1,298 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.apifest.oauth20.AccessToken;
+import com.apifest.oauth20.AuthCode;
+import com.apifest.oauth20.ClientCredentials;
+import com.apifest.oauth20.Scope;
+
+/**
+ * Encodes the entries stored in the segments. Every payload starts with the key of the entry and its expiry time
+ * so that the indexes can be rebuilt without decoding the whole entry.
+ *
+ * @author Edouard De Oliveira
+ */
+final class RecordCodec {
+
+    private RecordCodec() {
+    }
+
+    static String readKey(byte[] payload) {
+        try {
+            return input(payload).readUTF();
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot decode record", e);
+        }
+    }
+
+    static long readExpiresAt(byte[] payload) {
+        try {
+            DataInputStream in = input(payload);
+            in.readUTF();
+            return in.readLong();
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot decode record", e);
+        }
+    }
+
+    static byte[] encodeKey(String key, long expiresAt) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(key);
+            out.writeLong(expiresAt);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot encode record", e);
+        }
+    }
+
+    static byte[] encodeAccessToken(AccessToken token, long expiresAt) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(token.getToken());
+            out.writeLong(expiresAt);
+            writeString(out, token.getRefreshToken());
+            writeString(out, token.getExpiresIn());
+            writeString(out, token.getRefreshExpiresIn());
+            writeString(out, token.getType());
+            writeString(out, token.getScope());
+            writeString(out, token.getClientId());
+            writeString(out, token.getCodeId());
+            writeString(out, token.getUserId());
+            writeStringMap(out, token.getDetails());
+            out.writeLong((token.getCreated() != null) ? token.getCreated() : System.currentTimeMillis());
+            out.writeBoolean(token.isValid());
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot encode access token", e);
+        }
+    }
+
+    static AccessToken decodeAccessToken(byte[] payload) {
+        try {
+            DataInputStream in = input(payload);
+            AccessToken token = new AccessToken();
+            token.setToken(in.readUTF());
+            in.readLong();
+            token.setRefreshToken(readString(in));
+            token.setExpiresIn(readString(in));
+            token.setRefreshExpiresIn(readString(in));
+            token.setType(readString(in));
+            token.setScope(readString(in));
+            token.setClientId(readString(in));
+            token.setCodeId(readString(in));
+            token.setUserId(readString(in));
+            token.setDetails(readStringMap(in));
+            token.setCreated(in.readLong());
+            token.setValid(in.readBoolean());
+            return token;
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot decode access token", e);
+        }
+    }
+
+    static byte[] encodeAuthCode(AuthCode authCode, long expiresAt) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(authCode.getCode());
+            out.writeLong(expiresAt);
+            writeString(out, authCode.getId());
+            writeString(out, authCode.getClientId());
+            writeString(out, authCode.getRedirectUri());
+            writeString(out, authCode.getState());
+            writeString(out, authCode.getScope());
+            writeString(out, authCode.getType());
+            writeString(out, authCode.getUserId());
+            writeLong(out, authCode.getCreated());
+            out.writeBoolean(authCode.isValid());
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot encode auth code", e);
+        }
+    }
+
+    static AuthCode decodeAuthCode(byte[] payload) {
+        try {
+            DataInputStream in = input(payload);
+            AuthCode authCode = new AuthCode();
+            authCode.setCode(in.readUTF());
+            in.readLong();
+            authCode.setId(readString(in));
+            authCode.setClientId(readString(in));
+            authCode.setRedirectUri(readString(in));
+            authCode.setState(readString(in));
+            authCode.setScope(readString(in));
+            authCode.setType(readString(in));
+            authCode.setUserId(readString(in));
+            authCode.setCreated(readLong(in));
+            authCode.setValid(in.readBoolean());
+            return authCode;
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot decode auth code", e);
+        }
+    }
+
+    static byte[] encodeClientCredentials(ClientCredentials clientCreds) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(clientCreds.getId());
+            out.writeLong(Long.MAX_VALUE);
+            writeString(out, clientCreds.getSecret());
+            writeString(out, clientCreds.getName());
+            writeString(out, clientCreds.getUri());
+            writeString(out, clientCreds.getDescr());
+            out.writeInt(clientCreds.getType());
+            out.writeInt(clientCreds.getStatus());
+            writeLong(out, clientCreds.getCreated());
+            writeString(out, clientCreds.getScope());
+            writeStringMap(out, clientCreds.getApplicationDetails());
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot encode client credentials", e);
+        }
+    }
+
+    static ClientCredentials decodeClientCredentials(byte[] payload) {
+        try {
+            DataInputStream in = input(payload);
+            ClientCredentials clientCreds = new ClientCredentials();
+            clientCreds.setId(in.readUTF());
+            in.readLong();
+            clientCreds.setSecret(readString(in));
+            clientCreds.setName(readString(in));
+            clientCreds.setUri(readString(in));
+            clientCreds.setDescr(readString(in));
+            clientCreds.setType(in.readInt());
+            clientCreds.setStatus(in.readInt());
+            clientCreds.setCreated(readLong(in));
+            clientCreds.setScope(readString(in));
+            clientCreds.setApplicationDetails(readStringMap(in));
+            return clientCreds;
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot decode client credentials", e);
+        }
+    }
+
+    static byte[] encodeScope(Scope scope) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(scope.getScope());
+            out.writeLong(Long.MAX_VALUE);
+            writeString(out, scope.getDescription());
+            writeInt(out, scope.getCcExpiresIn());
+            writeInt(out, scope.getPassExpiresIn());
+            writeInt(out, scope.getRefreshExpiresIn());
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot encode scope", e);
+        }
+    }
+
+    static Scope decodeScope(byte[] payload) {
+        try {
+            DataInputStream in = input(payload);
+            Scope scope = new Scope();
+            scope.setScope(in.readUTF());
+            in.readLong();
+            scope.setDescription(readString(in));
+            scope.setCcExpiresIn(readInt(in));
+            Integer passExpiresIn = readInt(in);
+            if (passExpiresIn != null) {
+                scope.setPassExpiresIn(passExpiresIn);
+            }
+            scope.setRefreshExpiresIn(readInt(in));
+            return scope;
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot decode scope", e);
+        }
+    }
+
+    private static DataInputStream input(byte[] payload) {
+        return new DataInputStream(new ByteArrayInputStream(payload));
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeLong(DataOutputStream out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    private static Long readLong(DataInputStream in) throws IOException {
+        return in.readBoolean() ? Long.valueOf(in.readLong()) : null;
+    }
+
+    private static void writeInt(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static Integer readInt(DataInputStream in) throws IOException {
+        return in.readBoolean() ? Integer.valueOf(in.readInt()) : null;
+    }
+
+    private static void writeStringMap(DataOutputStream out, Map<String, String> map) throws IOException {
+        if (map == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            out.writeUTF(entry.getKey());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    private static Map<String, String> readStringMap(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        Map<String, String> map = new HashMap<String, String>(size * 2);
+        for (int i = 0; i < size; i++) {
+            map.put(in.readUTF(), readString(in));
+        }
+        return map;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Memory-mapped, append-only segment file. Each record is written as
+ * <code>length (int) | crc32 (int) | type (byte) | op (byte) | payload</code>; the file is zero-filled on creation
+ * so a zero length marks the end of the written records. Appends are done by a single writer, reads may happen
+ * from any thread.
+ *
+ * @author Edouard De Oliveira
+ */
+final class Segment {
+
+    static final int HEADER_SIZE = 10;
+
+    private final long id;
+    private final File file;
+    private final MappedByteBuffer buffer;
+
+    // guarded by the SegmentLog lock
+    private int position;
+
+    private volatile boolean dirty;
+
+    private Segment(long id, File file, MappedByteBuffer buffer) {
+        this.id = id;
+        this.file = file;
+        this.buffer = buffer;
+    }
+
+    static Segment create(File file, long id, int size) throws IOException {
+        return map(file, id, size);
+    }
+
+    static Segment open(File file, long id) throws IOException {
+        return map(file, id, file.length());
+    }
+
+    private static Segment map(File file, long id, long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(size);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new Segment(id, file, buffer);
+        } finally {
+            // the mapping stays valid once the channel is closed
+            raf.close();
+        }
+    }
+
+    long getId() {
+        return id;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    int getPosition() {
+        return position;
+    }
+
+    void setPosition(int position) {
+        this.position = position;
+    }
+
+    int getCapacity() {
+        return buffer.capacity();
+    }
+
+    boolean hasRoom(int payloadLength) {
+        return position + HEADER_SIZE + payloadLength <= buffer.capacity();
+    }
+
+    /**
+     * Appends a record and returns its offset. The payload is written before the header so that a torn write is
+     * either seen as the end of the segment or rejected by its checksum.
+     */
+    int append(byte type, byte op, byte[] payload) {
+        int offset = position;
+        ByteBuffer buf = buffer.duplicate();
+        buf.position(offset + HEADER_SIZE);
+        buf.put(payload);
+        buf.position(offset);
+        buf.putInt(payload.length);
+        buf.putInt(checksum(type, op, payload));
+        buf.put(type);
+        buf.put(op);
+        position = offset + HEADER_SIZE + payload.length;
+        dirty = true;
+        return offset;
+    }
+
+    /**
+     * Reads the record written at the given offset, the checksum is only verified on recovery.
+     */
+    LogRecord read(int offset) {
+        ByteBuffer buf = buffer.duplicate();
+        buf.position(offset);
+        int length = buf.getInt();
+        buf.getInt();
+        byte type = buf.get();
+        byte op = buf.get();
+        byte[] payload = new byte[length];
+        buf.get(payload);
+        return new LogRecord(offset, type, op, payload);
+    }
+
+    /**
+     * Reads and verifies the record at the given offset.
+     *
+     * @return the record or null if the end of the segment is reached or the record is corrupted
+     */
+    LogRecord readChecked(int offset) {
+        if (offset + HEADER_SIZE > buffer.capacity()) {
+            return null;
+        }
+        ByteBuffer buf = buffer.duplicate();
+        buf.position(offset);
+        int length = buf.getInt();
+        if (length <= 0 || offset + HEADER_SIZE + length > buffer.capacity()) {
+            return null;
+        }
+        int crc = buf.getInt();
+        byte type = buf.get();
+        byte op = buf.get();
+        byte[] payload = new byte[length];
+        buf.get(payload);
+        if (crc != checksum(type, op, payload)) {
+            return null;
+        }
+        return new LogRecord(offset, type, op, payload);
+    }
+
+    /**
+     * Returns true if every byte after the given offset is zero.
+     */
+    boolean isClear(int offset) {
+        for (int i = offset; i < buffer.capacity(); i++) {
+            if (buffer.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Zeroes any byte left after the given offset by a torn write, so that later appends cannot be followed by
+     * stale data. Returns true if some bytes had to be cleared.
+     */
+    boolean clearTail(int offset) {
+        boolean cleared = false;
+        for (int i = offset; i < buffer.capacity(); i++) {
+            if (buffer.get(i) != 0) {
+                buffer.put(i, (byte) 0);
+                cleared = true;
+            }
+        }
+        if (cleared) {
+            dirty = true;
+        }
+        return cleared;
+    }
+
+    void force() {
+        if (dirty) {
+            dirty = false;
+            buffer.force();
+        }
+    }
+
+    boolean delete() {
+        // the mapping is released by the GC, readers holding a location to this segment can still read it
+        return file.delete();
+    }
+
+    static int checksum(byte type, byte op, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(op);
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+}
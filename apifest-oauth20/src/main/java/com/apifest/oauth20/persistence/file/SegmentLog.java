@@ -0,0 +1,178 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ordered list of segment files. Records are appended to the last (active) segment, a new segment is created
+ * when it is full. Segments are replayed in order on startup to rebuild the indexes.
+ *
+ * @author Edouard De Oliveira
+ */
+class SegmentLog {
+
+    interface Replay {
+        void apply(Segment segment, LogRecord record);
+    }
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.log");
+
+    protected static Logger log = LoggerFactory.getLogger(SegmentLog.class);
+
+    private final File dir;
+    private final int segmentSize;
+
+    // guarded by this
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private Segment active;
+
+    SegmentLog(File dir, int segmentSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Replays the existing segments in order and opens the last one for appending. Only the last segment may end
+     * with a torn record, a corrupted record in a sealed segment fails the opening instead of losing the records
+     * after it.
+     */
+    synchronized void open(Replay replay) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create directory " + dir.getAbsolutePath());
+        }
+        List<Segment> existing = listSegments();
+        for (int i = 0; i < existing.size(); i++) {
+            Segment segment = existing.get(i);
+            int offset = 0;
+            LogRecord record;
+            while ((record = segment.readChecked(offset)) != null) {
+                replay.apply(segment, record);
+                offset += record.size();
+            }
+            // a segment is forced before the next one is created, so the end of a sealed segment is zeroed
+            if (i < existing.size() - 1 && !segment.isClear(offset)) {
+                throw new IOException("corrupted record at offset " + offset + " of sealed segment "
+                        + segment.getFile().getAbsolutePath() + ", restore it from a backup or remove it");
+            }
+            segment.setPosition(offset);
+            segments.add(segment);
+        }
+        if (segments.isEmpty()) {
+            active = createSegment(1);
+        } else {
+            active = segments.get(segments.size() - 1);
+            if (active.clearTail(active.getPosition())) {
+                log.warn("incomplete record found at offset {} of {}, discarded", active.getPosition(), active.getFile());
+                active.force();
+            }
+        }
+    }
+
+    private List<Segment> listSegments() throws IOException {
+        List<Segment> list = new ArrayList<Segment>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+                if (matcher.matches()) {
+                    list.add(Segment.open(file, Long.parseLong(matcher.group(1))));
+                }
+            }
+        }
+        Collections.sort(list, new Comparator<Segment>() {
+            @Override
+            public int compare(Segment s1, Segment s2) {
+                return (s1.getId() < s2.getId()) ? -1 : ((s1.getId() == s2.getId()) ? 0 : 1);
+            }
+        });
+        return list;
+    }
+
+    private Segment createSegment(long id) throws IOException {
+        Segment segment = Segment.create(new File(dir, String.format("segment-%020d.log", id)), id, segmentSize);
+        segments.add(segment);
+        return segment;
+    }
+
+    /**
+     * Appends a record to the active segment, rolling to a new segment if it is full.
+     */
+    synchronized Location append(byte type, byte op, byte[] payload, long expiresAt) {
+        if (Segment.HEADER_SIZE + payload.length > segmentSize) {
+            throw new IllegalArgumentException("record of " + payload.length + " bytes does not fit in a segment");
+        }
+        if (!active.hasRoom(payload.length)) {
+            active.force();
+            try {
+                active = createSegment(active.getId() + 1);
+            } catch (IOException e) {
+                throw new IllegalStateException("cannot create a new segment in " + dir.getAbsolutePath(), e);
+            }
+        }
+        int offset = active.append(type, op, payload);
+        return new Location(active, offset, expiresAt);
+    }
+
+    /**
+     * Forces the pending writes of the active segment to disk.
+     */
+    void flush() {
+        Segment segment;
+        synchronized (this) {
+            segment = active;
+        }
+        segment.force();
+    }
+
+    /**
+     * Returns the segments that are no longer appended to, oldest first.
+     */
+    synchronized List<Segment> getSealedSegments() {
+        return new ArrayList<Segment>(segments.subList(0, segments.size() - 1));
+    }
+
+    synchronized List<Segment> getSegments() {
+        return new ArrayList<Segment>(segments);
+    }
+
+    /**
+     * Deletes a sealed segment once its live records have been copied, the copies are flushed first.
+     */
+    void remove(Segment segment) {
+        flush();
+        synchronized (this) {
+            if (segment == active) {
+                throw new IllegalArgumentException("cannot remove the active segment");
+            }
+            segments.remove(segment);
+        }
+        if (!segment.delete()) {
+            log.warn("cannot delete segment {}", segment.getFile());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.hazelcast;
+
+import java.io.IOException;
+
+import com.hazelcast.core.PartitionAware;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+
+/**
+ * Key of the access token map. The tokens of a user for a client application share the same partition key,
+ * so they are stored on the same partition and can be listed by a single member.
+ *
+ * @author Edouard De Oliveira
+ */
+public class AccessTokenKey implements PartitionAware<String>, IdentifiedDataSerializable {
+
+    private String token;
+    private String partitionKey;
+
+    public AccessTokenKey() {
+    }
+
+    public AccessTokenKey(String token, String partitionKey) {
+        this.token = token;
+        this.partitionKey = partitionKey;
+    }
+
+    public static AccessTokenKey of(PersistentAccessToken accessToken) {
+        return new AccessTokenKey(accessToken.getToken(),
+                partitionKey(accessToken.getUserId(), accessToken.getClientId(), accessToken.getToken()));
+    }
+
+    /**
+     * Tokens not issued to a user (client_credentials grant) are spread by token value,
+     * otherwise all the tokens of a busy client application would end up on a single partition.
+     */
+    public static String partitionKey(String userId, String clientId, String token) {
+        if (userId == null || userId.isEmpty()) {
+            return token;
+        }
+        return userId + clientId;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    @Override
+    public String getPartitionKey() {
+        return partitionKey;
+    }
+
+    @Override
+    public int getFactoryId() {
+        return PersistentDataSerializableFactory.FACTORY_ID;
+    }
+
+    @Override
+    public int getId() {
+        return PersistentDataSerializableFactory.ACCESS_TOKEN_KEY_TYPE;
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+        out.writeUTF(token);
+        out.writeUTF(partitionKey);
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+        token = in.readUTF();
+        partitionKey = in.readUTF();
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (token == null) ? 0 : token.hashCode();
+        return 31 * result + ((partitionKey == null) ? 0 : partitionKey.hashCode());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof AccessTokenKey)) {
+            return false;
+        }
+        AccessTokenKey other = (AccessTokenKey) obj;
+        return (token == null ? other.token == null : token.equals(other.token))
+                && (partitionKey == null ? other.partitionKey == null : partitionKey.equals(other.partitionKey));
+    }
+
+    @Override
+    public String toString() {
+        return token + "@" + partitionKey;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apifest.oauth20.persistence.hazelcast;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.hazelcast.map.EntryBackupProcessor;
+import com.hazelcast.map.EntryProcessor;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+
+/**
+ * Removes an access token being refreshed if it is still valid. Entry processors on a key are serialized by the
+ * partition owner, so only one of several concurrent refreshes of the same token gets true.
+ *
+ * @author Edouard De Oliveira
+ */
+public class AccessTokenRotateProcessor implements EntryProcessor<AccessTokenKey, PersistentAccessToken>,
+        EntryBackupProcessor<AccessTokenKey, PersistentAccessToken>, IdentifiedDataSerializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public Object process(Map.Entry<AccessTokenKey, PersistentAccessToken> entry) {
+        PersistentAccessToken value = entry.getValue();
+        if (value == null || !value.isValid()) {
+            return Boolean.FALSE;
+        }
+        entry.setValue(null);
+        return Boolean.TRUE;
+    }
+
+    @Override
+    public void processBackup(Map.Entry<AccessTokenKey, PersistentAccessToken> entry) {
+        process(entry);
+    }
+
+    @Override
+    public EntryBackupProcessor<AccessTokenKey, PersistentAccessToken> getBackupProcessor() {
+        return this;
+    }
+
+    @Override
+    public int getFactoryId() {
+        return PersistentDataSerializableFactory.FACTORY_ID;
+    }
+
+    @Override
+    public int getId() {
+        return PersistentDataSerializableFactory.ACCESS_TOKEN_ROTATE_PROCESSOR_TYPE;
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+    }
+}
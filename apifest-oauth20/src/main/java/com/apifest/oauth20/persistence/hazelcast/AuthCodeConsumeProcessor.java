@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apifest.oauth20.persistence.hazelcast;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.hazelcast.map.EntryBackupProcessor;
+import com.hazelcast.map.EntryProcessor;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+
+/**
+ * Removes a valid auth code issued for the given redirect URI and returns it. The checks and the removal run
+ * on the partition owner, so an auth code exchanged twice concurrently is returned only once.
+ *
+ * @author Edouard De Oliveira
+ */
+public class AuthCodeConsumeProcessor implements EntryProcessor<String, PersistentAuthCode>,
+        EntryBackupProcessor<String, PersistentAuthCode>, IdentifiedDataSerializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String redirectUri;
+
+    public AuthCodeConsumeProcessor() {
+    }
+
+    public AuthCodeConsumeProcessor(String redirectUri) {
+        this.redirectUri = redirectUri;
+    }
+
+    @Override
+    public Object process(Map.Entry<String, PersistentAuthCode> entry) {
+        PersistentAuthCode value = entry.getValue();
+        if (value == null || !value.isValid()) {
+            return null;
+        }
+        String storedRedirectUri = value.getRedirectUri();
+        if (storedRedirectUri == null ? redirectUri != null : !storedRedirectUri.equals(redirectUri)) {
+            return null;
+        }
+        entry.setValue(null);
+        return value;
+    }
+
+    @Override
+    public void processBackup(Map.Entry<String, PersistentAuthCode> entry) {
+        process(entry);
+    }
+
+    @Override
+    public EntryBackupProcessor<String, PersistentAuthCode> getBackupProcessor() {
+        return this;
+    }
+
+    @Override
+    public int getFactoryId() {
+        return PersistentDataSerializableFactory.FACTORY_ID;
+    }
+
+    @Override
+    public int getId() {
+        return PersistentDataSerializableFactory.AUTH_CODE_CONSUME_PROCESSOR_TYPE;
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+        out.writeUTF(redirectUri);
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+        redirectUri = in.readUTF();
+    }
+}
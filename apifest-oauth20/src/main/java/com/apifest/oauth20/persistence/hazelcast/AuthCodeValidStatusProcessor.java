@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.hazelcast;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.hazelcast.map.EntryBackupProcessor;
+import com.hazelcast.map.EntryProcessor;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+
+/**
+ * Sets the valid status of a stored auth code on the partition owner (and its backups) so that the auth code
+ * does not travel to the caller and back. Updating the entry in place keeps its remaining time to live.
+ *
+ * @author Edouard De Oliveira
+ */
+public class AuthCodeValidStatusProcessor implements EntryProcessor<String, PersistentAuthCode>,
+        EntryBackupProcessor<String, PersistentAuthCode>, IdentifiedDataSerializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean valid;
+
+    public AuthCodeValidStatusProcessor() {
+    }
+
+    public AuthCodeValidStatusProcessor(boolean valid) {
+        this.valid = valid;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    @Override
+    public Object process(Map.Entry<String, PersistentAuthCode> entry) {
+        PersistentAuthCode value = entry.getValue();
+        if (value == null) {
+            return Boolean.FALSE;
+        }
+        value.setValid(valid);
+        entry.setValue(value);
+        return Boolean.TRUE;
+    }
+
+    @Override
+    public void processBackup(Map.Entry<String, PersistentAuthCode> entry) {
+        process(entry);
+    }
+
+    @Override
+    public EntryBackupProcessor<String, PersistentAuthCode> getBackupProcessor() {
+        return this;
+    }
+
+    @Override
+    public int getFactoryId() {
+        return PersistentDataSerializableFactory.FACTORY_ID;
+    }
+
+    @Override
+    public int getId() {
+        return PersistentDataSerializableFactory.AUTH_CODE_VALID_STATUS_PROCESSOR_TYPE;
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+        out.writeBoolean(valid);
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+        valid = in.readBoolean();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.hazelcast;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.hazelcast.map.EntryBackupProcessor;
+import com.hazelcast.map.EntryProcessor;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+
+/**
+ * Updates the scope, description, status and application details of a stored client application on the
+ * partition owner (and its backups). Null or empty values leave the corresponding field unchanged.
+ *
+ * @author Edouard De Oliveira
+ */
+public class ClientAppUpdateProcessor implements EntryProcessor<String, PersistentClientCredentials>,
+        EntryBackupProcessor<String, PersistentClientCredentials>, IdentifiedDataSerializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String scope;
+    private String description;
+    private Integer status;
+    private Map<String, String> applicationDetails;
+
+    public ClientAppUpdateProcessor() {
+    }
+
+    public ClientAppUpdateProcessor(String scope, String description, Integer status,
+            Map<String, String> applicationDetails) {
+        this.scope = scope;
+        this.description = description;
+        this.status = status;
+        this.applicationDetails = applicationDetails;
+    }
+
+    @Override
+    public Object process(Map.Entry<String, PersistentClientCredentials> entry) {
+        PersistentClientCredentials clientCredentials = entry.getValue();
+        if (clientCredentials == null) {
+            return Boolean.FALSE;
+        }
+        if (scope != null && scope.length() > 0) {
+            clientCredentials.setScope(scope);
+        }
+        if (description != null && description.length() > 0) {
+            clientCredentials.setDescr(description);
+        }
+        if (status != null) {
+            clientCredentials.setStatus(status);
+        }
+        if (applicationDetails != null) {
+            clientCredentials.setApplicationDetails(applicationDetails);
+        }
+        entry.setValue(clientCredentials);
+        return Boolean.TRUE;
+    }
+
+    @Override
+    public void processBackup(Map.Entry<String, PersistentClientCredentials> entry) {
+        process(entry);
+    }
+
+    @Override
+    public EntryBackupProcessor<String, PersistentClientCredentials> getBackupProcessor() {
+        return this;
+    }
+
+    @Override
+    public int getFactoryId() {
+        return PersistentDataSerializableFactory.FACTORY_ID;
+    }
+
+    @Override
+    public int getId() {
+        return PersistentDataSerializableFactory.CLIENT_APP_UPDATE_PROCESSOR_TYPE;
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+        out.writeUTF(scope);
+        out.writeUTF(description);
+        PersistentDataSerializableFactory.writeNullableInt(out, status);
+        PersistentDataSerializableFactory.writeStringMap(out, applicationDetails);
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+        scope = in.readUTF();
+        description = in.readUTF();
+        status = PersistentDataSerializableFactory.readNullableInt(in);
+        applicationDetails = PersistentDataSerializableFactory.readStringMap(in);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apifest.oauth20.persistence.hazelcast;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.hazelcast.map.EntryBackupProcessor;
+import com.hazelcast.map.EntryProcessor;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+
+/**
+ * Adds a value to an existing counter on the partition owner and returns the new value, or null if the counter
+ * does not exist. The entry is updated in place, so that the ttl set when it was created is kept.
+ *
+ * @author Edouard De Oliveira
+ */
+public class CounterIncrementProcessor implements EntryProcessor<String, Long>, EntryBackupProcessor<String, Long>,
+        IdentifiedDataSerializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long delta;
+
+    public CounterIncrementProcessor() {
+    }
+
+    public CounterIncrementProcessor(long delta) {
+        this.delta = delta;
+    }
+
+    @Override
+    public Object process(Map.Entry<String, Long> entry) {
+        Long value = entry.getValue();
+        if (value == null) {
+            return null;
+        }
+        value = value + delta;
+        entry.setValue(value);
+        return value;
+    }
+
+    @Override
+    public void processBackup(Map.Entry<String, Long> entry) {
+        process(entry);
+    }
+
+    @Override
+    public EntryBackupProcessor<String, Long> getBackupProcessor() {
+        return this;
+    }
+
+    @Override
+    public int getFactoryId() {
+        return PersistentDataSerializableFactory.FACTORY_ID;
+    }
+
+    @Override
+    public int getId() {
+        return PersistentDataSerializableFactory.COUNTER_INCREMENT_PROCESSOR_TYPE;
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+        out.writeLong(delta);
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+        delta = in.readLong();
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.hazelcast;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hazelcast.core.EntryAdapter;
+import com.hazelcast.core.EntryEvent;
+
+/**
+ * Logs the entries evicted from a map, either because their TTL expired or because the map reached its max size.
+ * Registered as a local listener so that each member only logs the entries it owns.
+ *
+ * @author Edouard De Oliveira
+ */
+public class EvictionLogListener extends EntryAdapter<Object, Object> {
+
+    protected static Logger log = LoggerFactory.getLogger(EvictionLogListener.class);
+
+    private final String mapName;
+
+    public EvictionLogListener(String mapName) {
+        this.mapName = mapName;
+    }
+
+    @Override
+    public void entryEvicted(EntryEvent<Object, Object> event) {
+        log.debug("{} evicted from {}", event.getKey(), mapName);
+    }
+}
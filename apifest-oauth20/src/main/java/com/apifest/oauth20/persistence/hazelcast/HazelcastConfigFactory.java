@@ -18,6 +18,7 @@ package com.apifest.oauth20.persistence.hazelcast;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -31,12 +32,13 @@ import com.hazelcast.client.config.ClientNetworkConfig;
 import com.hazelcast.config.Config;
 import com.hazelcast.config.ExecutorConfig;
 import com.hazelcast.config.GroupConfig;
-import com.hazelcast.config.InMemoryFormat;
 import com.hazelcast.config.InterfacesConfig;
 import com.hazelcast.config.JoinConfig;
 import com.hazelcast.config.MapConfig;
 import com.hazelcast.config.MaxSizeConfig;
+import com.hazelcast.config.NearCacheConfig;
 import com.hazelcast.config.NetworkConfig;
+import com.hazelcast.config.SerializationConfig;
 import com.hazelcast.config.TcpIpConfig;
 import com.hazelcast.config.MapConfig.EvictionPolicy;
 import com.hazelcast.config.MaxSizeConfig.MaxSizePolicy;
@@ -58,6 +60,12 @@ public class HazelcastConfigFactory {
     protected static final String APIFEST_CLIENT_MAP = "APIFEST_CLIENT";
     protected static final String APIFEST_AUTH_CODE_MAP = "APIFEST_AUTH_CODE";
     protected static final String APIFEST_ACCESS_TOKEN_MAP = "APIFEST_ACCESS_TOKEN";
+    protected static final String APIFEST_ACCESS_TOKEN_ROUTE_MAP = "APIFEST_ACCESS_TOKEN_ROUTE";
+    protected static final String APIFEST_REFRESH_TOKEN_MAP = "APIFEST_REFRESH_TOKEN";
+    protected static final String APIFEST_CLIENT_TOKEN_MAP = "APIFEST_CLIENT_TOKEN";
+    protected static final String APIFEST_SCOPE_CLIENTS_MULTIMAP = "APIFEST_SCOPE_CLIENTS";
+    protected static final String APIFEST_COUNTER_MAP = "APIFEST_COUNTER";
+    protected static final String APIFEST_EXECUTOR = "APIFEST_EXECUTOR";
 
     private HazelcastConfigFactory() {
     }
@@ -66,28 +74,72 @@ public class HazelcastConfigFactory {
     	return buildConfig(HAZELCAST_GROUP_NAME, groupPassword, null, null);
     }
     
-    public static Config buildConfig(String groupName, String groupPassword, String hostname, String clusterMembers) {    	
+    public static Config buildConfig(String groupName, String groupPassword, String hostname, String clusterMembers) {
+        return buildConfig(groupName, groupPassword, hostname, clusterMembers, new HazelcastSettings());
+    }
+
+    public static Config buildConfig(String groupName, String groupPassword, String hostname, String clusterMembers,
+                                     HazelcastSettings settings) {
     	Config config = createConfiguration(hostname, clusterMembers);
         
         GroupConfig groupConfig = new GroupConfig(groupName, groupPassword);
         config.setGroupConfig(groupConfig);
-        config.setMapConfigs(createMapConfigs());
+        config.setMapConfigs(createMapConfigs(settings));
+        addSerializationFactory(config.getSerializationConfig());
     	
         return config;
     }
     
     public static ClientConfig buildClientConfig(String groupName, String groupPassword, String clusterMembers) {
+        return buildClientConfig(groupName, groupPassword, clusterMembers, new HazelcastSettings());
+    }
+
+    public static ClientConfig buildClientConfig(String groupName, String groupPassword, String clusterMembers,
+                                                 HazelcastSettings settings) {
     	ClientConfig config = createClientConfiguration(clusterMembers);
         
         GroupConfig groupConfig = new GroupConfig(groupName, groupPassword);
         config.setGroupConfig(groupConfig);
+        addSerializationFactory(config.getSerializationConfig());
+        for (String mapName : getNearCachedMaps(settings)) {
+            config.addNearCacheConfig(mapName, createNearCacheConfig(settings));
+        }
         return config;
     }
 
+    /**
+     * Returns the names of the maps that are fronted by a near cache.
+     */
+    public static List<String> getNearCachedMaps(HazelcastSettings settings) {
+        List<String> maps = new ArrayList<String>();
+        if (settings.isNearCacheEnabled()) {
+            maps.add(APIFEST_CLIENT_MAP);
+            maps.add(APIFEST_SCOPE_MAP);
+            if (settings.isNearCacheAccessTokens()) {
+                maps.add(APIFEST_ACCESS_TOKEN_MAP);
+                maps.add(APIFEST_ACCESS_TOKEN_ROUTE_MAP);
+            }
+        }
+        return maps;
+    }
+
+    private static NearCacheConfig createNearCacheConfig(HazelcastSettings settings) {
+        NearCacheConfig nearCacheConfig = new NearCacheConfig();
+        nearCacheConfig.setMaxSize(settings.getNearCacheMaxSize());
+        nearCacheConfig.setTimeToLiveSeconds(settings.getNearCacheTtl());
+        nearCacheConfig.setEvictionPolicy(settings.getNearCacheEvictionPolicy());
+        nearCacheConfig.setInvalidateOnChange(settings.isNearCacheInvalidateOnChange());
+        nearCacheConfig.setInMemoryFormat(settings.getInMemoryFormat());
+        return nearCacheConfig;
+    }
+
+    private static void addSerializationFactory(SerializationConfig serializationConfig) {
+        serializationConfig.addDataSerializableFactory(PersistentDataSerializableFactory.FACTORY_ID,
+                new PersistentDataSerializableFactory());
+    }
+
 	public static void addIndexes(HazelcastInstance instance) {
     	instance.getMap(APIFEST_CLIENT_MAP).addIndex("name", false);
-    	instance.getMap(APIFEST_AUTH_CODE_MAP).addIndex("codeURI", false);
-    	instance.getMap(APIFEST_ACCESS_TOKEN_MAP).addIndex("refreshTokenByClient", false);
     	instance.getMap(APIFEST_ACCESS_TOKEN_MAP).addIndex("accessTokenByUserIdAndClient", false);
     }
 
@@ -112,26 +164,42 @@ public class HazelcastConfigFactory {
         return config;
     }
     
-    private static Map<String, MapConfig> createMapConfigs() {
+    private static Map<String, MapConfig> createMapConfigs(HazelcastSettings settings) {
         Map<String, MapConfig> configs = new HashMap<String, MapConfig>();
-        MapConfig accTokenConfig = createMapConfig(APIFEST_ACCESS_TOKEN_MAP);
-        MapConfig scopeConfig = createMapConfig(APIFEST_SCOPE_MAP);
-        MapConfig clientConfig = createMapConfig(APIFEST_CLIENT_MAP);
-        MapConfig authCodeConfig = createMapConfig(APIFEST_AUTH_CODE_MAP);
+        MapConfig accTokenConfig = createMapConfig(APIFEST_ACCESS_TOKEN_MAP, settings);
+        MapConfig scopeConfig = createMapConfig(APIFEST_SCOPE_MAP, settings);
+        MapConfig clientConfig = createMapConfig(APIFEST_CLIENT_MAP, settings);
+        MapConfig authCodeConfig = createMapConfig(APIFEST_AUTH_CODE_MAP, settings);
+        MapConfig refreshTokenConfig = createMapConfig(APIFEST_REFRESH_TOKEN_MAP, settings);
+        MapConfig accTokenRouteConfig = createMapConfig(APIFEST_ACCESS_TOKEN_ROUTE_MAP, settings);
+        MapConfig clientTokenConfig = createMapConfig(APIFEST_CLIENT_TOKEN_MAP, settings);
         configs.put(accTokenConfig.getName(), accTokenConfig);
         configs.put(scopeConfig.getName(), scopeConfig);
         configs.put(clientConfig.getName(), clientConfig);
         configs.put(authCodeConfig.getName(), authCodeConfig);
+        configs.put(refreshTokenConfig.getName(), refreshTokenConfig);
+        configs.put(accTokenRouteConfig.getName(), accTokenRouteConfig);
+        configs.put(clientTokenConfig.getName(), clientTokenConfig);
+        for (String mapName : getNearCachedMaps(settings)) {
+            configs.get(mapName).setNearCacheConfig(createNearCacheConfig(settings));
+        }
         return configs;
     }
 
-    private static MapConfig createMapConfig(String mapName) {
+    private static MapConfig createMapConfig(String mapName, HazelcastSettings settings) {
         MapConfig mapConfig = new MapConfig(mapName);
-        mapConfig.setInMemoryFormat(InMemoryFormat.OBJECT);
+        mapConfig.setInMemoryFormat(settings.getInMemoryFormat());
         mapConfig.setBackupCount(1);
-        mapConfig.setEvictionPolicy(EvictionPolicy.NONE);
-        mapConfig.setMaxSizeConfig(new MaxSizeConfig(0, MaxSizePolicy.PER_NODE));
-        mapConfig.setEvictionPercentage(0);
+        MapEvictionSettings evictionSettings = settings.getMapEvictionSettings(mapName);
+        if (evictionSettings.isBounded()) {
+            mapConfig.setEvictionPolicy(evictionSettings.getEvictionPolicy());
+            mapConfig.setMaxSizeConfig(new MaxSizeConfig(evictionSettings.getMaxSize(), evictionSettings.getMaxSizePolicy()));
+            mapConfig.setEvictionPercentage(evictionSettings.getEvictionPercentage());
+        } else {
+            mapConfig.setEvictionPolicy(EvictionPolicy.NONE);
+            mapConfig.setMaxSizeConfig(new MaxSizeConfig(0, MaxSizePolicy.PER_NODE));
+            mapConfig.setEvictionPercentage(0);
+        }
         mapConfig.setMergePolicy("com.hazelcast.map.merge.PutIfAbsentMapMergePolicy");
         return mapConfig;
     }
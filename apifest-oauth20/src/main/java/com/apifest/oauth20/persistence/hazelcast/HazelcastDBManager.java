@@ -17,16 +17,30 @@
 package com.apifest.oauth20.persistence.hazelcast;
 
 import static com.apifest.oauth20.persistence.hazelcast.HazelcastConfigFactory.APIFEST_ACCESS_TOKEN_MAP;
+import static com.apifest.oauth20.persistence.hazelcast.HazelcastConfigFactory.APIFEST_ACCESS_TOKEN_ROUTE_MAP;
 import static com.apifest.oauth20.persistence.hazelcast.HazelcastConfigFactory.APIFEST_AUTH_CODE_MAP;
 import static com.apifest.oauth20.persistence.hazelcast.HazelcastConfigFactory.APIFEST_CLIENT_MAP;
+import static com.apifest.oauth20.persistence.hazelcast.HazelcastConfigFactory.APIFEST_CLIENT_TOKEN_MAP;
+import static com.apifest.oauth20.persistence.hazelcast.HazelcastConfigFactory.APIFEST_COUNTER_MAP;
+import static com.apifest.oauth20.persistence.hazelcast.HazelcastConfigFactory.APIFEST_EXECUTOR;
+import static com.apifest.oauth20.persistence.hazelcast.HazelcastConfigFactory.APIFEST_REFRESH_TOKEN_MAP;
+import static com.apifest.oauth20.persistence.hazelcast.HazelcastConfigFactory.APIFEST_SCOPE_CLIENTS_MULTIMAP;
 import static com.apifest.oauth20.persistence.hazelcast.HazelcastConfigFactory.APIFEST_SCOPE_MAP;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.apifest.oauth20.AccessToken;
 import com.apifest.oauth20.AuthCode;
 import com.apifest.oauth20.ClientCredentials;
@@ -38,6 +52,7 @@ import com.hazelcast.config.Config;
 import com.hazelcast.core.Hazelcast;
 import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.core.IMap;
+import com.hazelcast.core.MultiMap;
 import com.hazelcast.query.EntryObject;
 import com.hazelcast.query.Predicate;
 import com.hazelcast.query.PredicateBuilder;
@@ -49,19 +64,61 @@ import com.hazelcast.query.PredicateBuilder;
  */
 public class HazelcastDBManager implements DBManager {
 
+    protected static Logger log = LoggerFactory.getLogger(HazelcastDBManager.class);
+
     private HazelcastInstance instance;
+    private ScheduledExecutorService statsExecutor;
 
     public HazelcastDBManager(String name, String pwd, String host, String members, boolean embedded) {
+        this(name, pwd, host, members, embedded, new HazelcastSettings());
+    }
+
+    public HazelcastDBManager(String name, String pwd, String host, String members, boolean embedded,
+                              HazelcastSettings settings) {
 		if (embedded) {
-			Config config = HazelcastConfigFactory.buildConfig(name, pwd, host, members);
+			Config config = HazelcastConfigFactory.buildConfig(name, pwd, host, members, settings);
 			instance = Hazelcast.newHazelcastInstance(config);
 			
 			HazelcastConfigFactory.addIndexes(instance);
+			addEvictionListeners();
 		} else {			
-			ClientConfig clientConfig = HazelcastConfigFactory.buildClientConfig(name, pwd, members);
+			ClientConfig clientConfig = HazelcastConfigFactory.buildClientConfig(name, pwd, members, settings);
 			
 			instance = HazelcastClient.newHazelcastClient(clientConfig);
 		}
+        scheduleNearCacheStats(settings);
+    }
+
+    private void addEvictionListeners() {
+        for (String mapName : new String[] { APIFEST_ACCESS_TOKEN_MAP, APIFEST_REFRESH_TOKEN_MAP, APIFEST_AUTH_CODE_MAP }) {
+            instance.<Object, Object>getMap(mapName).addLocalEntryListener(new EvictionLogListener(mapName));
+        }
+    }
+
+    public HazelcastInstance getHazelcastInstance() {
+        return instance;
+    }
+
+    // used in tests
+    HazelcastDBManager(HazelcastInstance instance) {
+        this.instance = instance;
+    }
+
+    private void scheduleNearCacheStats(HazelcastSettings settings) {
+        List<String> nearCachedMaps = HazelcastConfigFactory.getNearCachedMaps(settings);
+        int interval = settings.getNearCacheStatsInterval();
+        if (interval > 0 && !nearCachedMaps.isEmpty()) {
+            statsExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "hazelcast-near-cache-stats");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            statsExecutor.scheduleAtFixedRate(new NearCacheStatsReporter(instance, nearCachedMaps),
+                    interval, interval, TimeUnit.SECONDS);
+        }
     }
 
     private IMap<String, PersistentScope> getScopesContainer() {
@@ -72,14 +129,66 @@ public class HazelcastDBManager implements DBManager {
         return instance.getMap(APIFEST_CLIENT_MAP);
     }
 
+    // scope -> ids of the client apps registered with it
+    private MultiMap<String, String> getScopeClientsContainer() {
+        return instance.getMultiMap(APIFEST_SCOPE_CLIENTS_MULTIMAP);
+    }
+
     private IMap<String, PersistentAuthCode> getAuthCodeContainer() {
         return instance.getMap(APIFEST_AUTH_CODE_MAP);
     }
 
-    private IMap<String, PersistentAccessToken> getAccessTokenContainer() {
+    private IMap<AccessTokenKey, PersistentAccessToken> getAccessTokenContainer() {
         return instance.getMap(APIFEST_ACCESS_TOKEN_MAP);
     }
 
+    // access token -> partition key of its entry in the access token map
+    private IMap<String, String> getAccessTokenRouteContainer() {
+        return instance.getMap(APIFEST_ACCESS_TOKEN_ROUTE_MAP);
+    }
+
+    // refresh token + client id -> access token key, so that refresh token lookups hit a single partition
+    private IMap<String, AccessTokenKey> getRefreshTokenContainer() {
+        return instance.getMap(APIFEST_REFRESH_TOKEN_MAP);
+    }
+
+    // client id + scope -> key of the access token issued last with the client_credentials grant
+    private IMap<String, AccessTokenKey> getClientTokenContainer() {
+        return instance.getMap(APIFEST_CLIENT_TOKEN_MAP);
+    }
+
+    // quota counters, with the ttl set when they are created
+    private IMap<String, Long> getCounterContainer() {
+        return instance.getMap(APIFEST_COUNTER_MAP);
+    }
+
+    private AccessTokenKey findAccessTokenKey(String accessToken) {
+        String partitionKey = getAccessTokenRouteContainer().get(accessToken);
+        return (partitionKey != null) ? new AccessTokenKey(accessToken, partitionKey) : null;
+    }
+
+    private static boolean hasRefreshToken(PersistentAccessToken token) {
+        return token.getRefreshToken() != null && !token.getRefreshToken().isEmpty();
+    }
+
+    private static boolean isClientToken(PersistentAccessToken token) {
+        return (token.getUserId() == null || token.getUserId().isEmpty()) && !hasRefreshToken(token);
+    }
+
+    // the multimap keeps a set of values per key and drops a key with its last value
+    private void indexClientScope(String clientId, String oldScope, String newScope) {
+        MultiMap<String, String> scopeClients = getScopeClientsContainer();
+        Set<String> newNames = ClientCredentials.scopeNames(newScope);
+        for (String name : ClientCredentials.scopeNames(oldScope)) {
+            if (!newNames.contains(name)) {
+                scopeClients.remove(name, clientId);
+            }
+        }
+        for (String name : newNames) {
+            scopeClients.put(name, clientId);
+        }
+    }
+
     /*
      * @see com.apifest.oauth20.persistence.DBManager#validClient(java.lang.String, java.lang.String)
      */
@@ -96,17 +205,18 @@ public class HazelcastDBManager implements DBManager {
      */
     @Override
     public void storeClientCredentials(ClientCredentials clientCreds) {
-        getClientCredentialsContainer().put(clientCreds.getId(),
+        PersistentClientCredentials previous = getClientCredentialsContainer().put(clientCreds.getId(),
                 PersistenceTransformations.toPersistentClientCredentials(clientCreds));
+        indexClientScope(clientCreds.getId(), (previous != null) ? previous.getScope() : null, clientCreds.getScope());
     }
 
     /*
      * @see com.apifest.oauth20.persistence.DBManager#storeAuthCode(com.apifest.oauth20.AuthCode)
      */
-    // TODO: Set expiration time for auth code
     @Override
     public void storeAuthCode(AuthCode authCode) {
-        getAuthCodeContainer().put(authCode.getCode(), PersistenceTransformations.toPersistentAuthCode(authCode));
+        getAuthCodeContainer().put(authCode.getCode(), PersistenceTransformations.toPersistentAuthCode(authCode),
+                AuthCode.EXPIRES_IN_SEC, TimeUnit.SECONDS);
     }
 
     /*
@@ -114,9 +224,7 @@ public class HazelcastDBManager implements DBManager {
      */
     @Override
     public void updateAuthCodeValidStatus(String authCode, boolean valid) {
-        PersistentAuthCode persistentAuthCode = getAuthCodeContainer().get(authCode);
-        persistentAuthCode.setValid(valid);
-        getAuthCodeContainer().put(authCode, persistentAuthCode);
+        getAuthCodeContainer().executeOnKey(authCode, new AuthCodeValidStatusProcessor(valid));
     }
 
     /*
@@ -125,23 +233,51 @@ public class HazelcastDBManager implements DBManager {
     @Override
     public void storeAccessToken(AccessToken accessToken) {
         Long tokenExpiration = (accessToken.getRefreshExpiresIn() != null && !accessToken.getRefreshExpiresIn().isEmpty()) ? Long.valueOf(accessToken.getRefreshExpiresIn()) : Long.valueOf(accessToken.getExpiresIn());
-        getAccessTokenContainer().put(accessToken.getToken(), PersistenceTransformations.toPersistentAccessToken(accessToken),
-                tokenExpiration, TimeUnit.SECONDS);
+        PersistentAccessToken persistentAccessToken = PersistenceTransformations.toPersistentAccessToken(accessToken);
+        AccessTokenKey key = AccessTokenKey.of(persistentAccessToken);
+        getAccessTokenContainer().put(key, persistentAccessToken, tokenExpiration, TimeUnit.SECONDS);
+        getAccessTokenRouteContainer().put(key.getToken(), key.getPartitionKey(), tokenExpiration, TimeUnit.SECONDS);
+        if (hasRefreshToken(persistentAccessToken)) {
+            getRefreshTokenContainer().put(persistentAccessToken.getRefreshTokenByClient(), key,
+                    tokenExpiration, TimeUnit.SECONDS);
+        }
+        if (isClientToken(persistentAccessToken)) {
+            getClientTokenContainer().put(accessToken.getClientId() + " " + accessToken.getScope(), key,
+                    tokenExpiration, TimeUnit.SECONDS);
+        }
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findClientAccessToken(java.lang.String, java.lang.String)
+     */
+    @Override
+    public AccessToken findClientAccessToken(String clientId, String scope) {
+        AccessTokenKey key = getClientTokenContainer().get(clientId + " " + scope);
+        if (key == null) {
+            return null;
+        }
+        PersistentAccessToken tokenStored = getAccessTokenContainer().get(key);
+        if (tokenStored == null || !tokenStored.isValid()) {
+            return null;
+        }
+        return PersistenceTransformations.toAccessToken(tokenStored);
     }
 
     /*
      * @see com.apifest.oauth20.persistence.DBManager#findAccessTokenByRefreshToken(java.lang.String, java.lang.String)
      */
     @Override
-    @SuppressWarnings("unchecked")
     public AccessToken findAccessTokenByRefreshToken(String refreshToken, String clientId) {
-        EntryObject eo = new PredicateBuilder().getEntryObject();
-        Predicate<String, String> predicate = eo.get("refreshTokenByClient").equal(refreshToken + clientId);
-        Collection<PersistentAccessToken> values = getAccessTokenContainer().values(predicate);
-        if (values.isEmpty()) {
+        String refreshTokenByClient = refreshToken + clientId;
+        AccessTokenKey key = getRefreshTokenContainer().get(refreshTokenByClient);
+        if (key == null) {
+            return null;
+        }
+        PersistentAccessToken tokenStored = getAccessTokenContainer().get(key);
+        if (tokenStored == null || !refreshTokenByClient.equals(tokenStored.getRefreshTokenByClient())) {
             return null;
         }
-        return PersistenceTransformations.toAccessToken(values.iterator().next());
+        return PersistenceTransformations.toAccessToken(tokenStored);
     }
 
     /*
@@ -149,9 +285,11 @@ public class HazelcastDBManager implements DBManager {
      */
     @Override
     public void updateAccessTokenValidStatus(String accessToken, boolean valid) {
-        PersistentAccessToken persistentAccessToken = getAccessTokenContainer().get(accessToken);
-        persistentAccessToken.setValid(valid);
-        getAccessTokenContainer().put(accessToken, persistentAccessToken, Long.valueOf(persistentAccessToken.getRefreshExpiresIn()), TimeUnit.SECONDS);
+        // updated in place on the partition owner, so the remaining TTL of the entry is kept
+        AccessTokenKey key = findAccessTokenKey(accessToken);
+        if (key != null) {
+            getAccessTokenContainer().executeOnKey(key, new AccessTokenValidStatusProcessor(valid));
+        }
     }
 
     /*
@@ -159,7 +297,8 @@ public class HazelcastDBManager implements DBManager {
      */
     @Override
     public AccessToken findAccessToken(String accessToken) {
-        PersistentAccessToken tokenStored = getAccessTokenContainer().get(accessToken);
+        AccessTokenKey key = findAccessTokenKey(accessToken);
+        PersistentAccessToken tokenStored = (key != null) ? getAccessTokenContainer().get(key) : null;
         if (tokenStored != null) {
             return PersistenceTransformations.toAccessToken(tokenStored);
         } else {
@@ -171,15 +310,45 @@ public class HazelcastDBManager implements DBManager {
      * @see com.apifest.oauth20.persistence.DBManager#findAuthCode(java.lang.String, java.lang.String)
      */
     @Override
-    @SuppressWarnings("unchecked")
     public AuthCode findAuthCode(String authCode, String redirectUri) {
-        EntryObject eo = new PredicateBuilder().getEntryObject();
-        Predicate<String, String> predicate = eo.get("codeURI").equal(authCode + redirectUri + true);
-        Collection<PersistentAuthCode> values = getAuthCodeContainer().values(predicate);
-        if (values.isEmpty()) {
+        // auth codes are keyed by code, so a single partition get is enough
+        PersistentAuthCode authCodeStored = getAuthCodeContainer().get(authCode);
+        if (authCodeStored == null || !authCodeStored.isValid()) {
             return null;
         }
-        return PersistenceTransformations.toAuthCode(values.iterator().next());
+        String storedRedirectUri = authCodeStored.getRedirectUri();
+        if (storedRedirectUri == null ? redirectUri != null : !storedRedirectUri.equals(redirectUri)) {
+            return null;
+        }
+        return PersistenceTransformations.toAuthCode(authCodeStored);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#consumeAuthCode(java.lang.String, java.lang.String)
+     */
+    @Override
+    public AuthCode consumeAuthCode(String authCode, String redirectUri) {
+        PersistentAuthCode consumed = (PersistentAuthCode) getAuthCodeContainer().executeOnKey(authCode,
+                new AuthCodeConsumeProcessor(redirectUri));
+        return (consumed != null) ? PersistenceTransformations.toAuthCode(consumed) : null;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#incrementCounter(java.lang.String, long, int)
+     */
+    @Override
+    public long incrementCounter(String key, long delta, int expiresIn) {
+        IMap<String, Long> counters = getCounterContainer();
+        while (true) {
+            if (counters.putIfAbsent(key, delta, expiresIn, TimeUnit.SECONDS) == null) {
+                return delta;
+            }
+            // null if the counter expired in between
+            Long value = (Long) counters.executeOnKey(key, new CounterIncrementProcessor(delta));
+            if (value != null) {
+                return value;
+            }
+        }
     }
 
     /*
@@ -225,21 +394,15 @@ public class HazelcastDBManager implements DBManager {
      */
     @Override
     public boolean updateClientApp(String clientId, String scope, String description, Integer status, Map<String, String> applicationDetails) {
-        PersistentClientCredentials clientCredentials = getClientCredentialsContainer().get(clientId);
-        if (scope != null && scope.length() > 0) {
-            clientCredentials.setScope(scope);
-        }
-        if (description != null && description.length() > 0) {
-            clientCredentials.setDescr(description);
+        boolean scopeChanged = scope != null && scope.length() > 0;
+        PersistentClientCredentials previous = scopeChanged ? getClientCredentialsContainer().get(clientId) : null;
+        Object updated = getClientCredentialsContainer().executeOnKey(clientId,
+                new ClientAppUpdateProcessor(scope, description, status, applicationDetails));
+        if (Boolean.TRUE.equals(updated) && scopeChanged) {
+            // a concurrent update may leave a scope indexed that is no longer used, never the reverse
+            indexClientScope(clientId, (previous != null) ? previous.getScope() : null, scope);
         }
-        if (status != null) {
-            clientCredentials.setStatus(status);
-        }
-        if (applicationDetails != null) {
-            clientCredentials.setApplicationDetails(applicationDetails);
-        }
-        getClientCredentialsContainer().put(clientId, clientCredentials);
-        return true;
+        return Boolean.TRUE.equals(updated);
     }
 
     /*
@@ -248,6 +411,9 @@ public class HazelcastDBManager implements DBManager {
     @Override
     public boolean deleteClientApp(String clientId) {
         PersistentClientCredentials cc = getClientCredentialsContainer().remove(clientId);
+        if (cc != null) {
+            indexClientScope(clientId, cc.getScope(), null);
+        }
         return cc != null;
     }
 
@@ -265,6 +431,21 @@ public class HazelcastDBManager implements DBManager {
         return appsList;
     }
 
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#isScopeUsed(java.lang.String)
+     */
+    @Override
+    public boolean isScopeUsed(String scopeName) {
+        MultiMap<String, String> scopeClients = getScopeClientsContainer();
+        if (scopeClients.size() == 0) {
+            // index the client apps stored before the index existed
+            for (ClientCredentials clientCreds : getAllApplications()) {
+                indexClientScope(clientCreds.getId(), null, clientCreds.getScope());
+            }
+        }
+        return scopeClients.containsKey(scopeName);
+    }
+
     /*
      * @see com.apifest.oauth20.persistence.DBManager#deleteScope(java.lang.String)
      */
@@ -281,17 +462,33 @@ public class HazelcastDBManager implements DBManager {
     @SuppressWarnings("unchecked")
     public List<AccessToken> getAccessTokenByUserIdAndClientApp(String userId, String clientId) {
         List<AccessToken> accessTokens = new ArrayList<AccessToken>();
-        EntryObject eo = new PredicateBuilder().getEntryObject();
-        Predicate<String, String> predicate = eo.get("accessTokenByUserIdAndClient").equal(userId + clientId + true);
-        Collection<PersistentAccessToken> values = getAccessTokenContainer().values(predicate);
-        if (!values.isEmpty()) {
-            for (PersistentAccessToken token : values) {
-                accessTokens.add(PersistenceTransformations.toAccessToken(token));
-            }
+        for (PersistentAccessToken token : findUserAccessTokens(userId, clientId)) {
+            accessTokens.add(PersistenceTransformations.toAccessToken(token));
         }
         return accessTokens;
     }
 
+    @SuppressWarnings("unchecked")
+    private Collection<PersistentAccessToken> findUserAccessTokens(String userId, String clientId) {
+        if (userId != null && !userId.isEmpty()) {
+            // the tokens of a user are colocated, so only the owner of their partition has to be queried
+            String partitionKey = AccessTokenKey.partitionKey(userId, clientId, null);
+            try {
+                return instance.getExecutorService(APIFEST_EXECUTOR)
+                        .submitToKeyOwner(new UserAccessTokensTask(userId, clientId), partitionKey).get().getTokens();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("cannot list access tokens on partition owner", e);
+            } catch (ExecutionException e) {
+                log.error("cannot list access tokens on partition owner", e.getCause());
+            }
+        }
+        EntryObject eo = new PredicateBuilder().getEntryObject();
+        Predicate<AccessTokenKey, PersistentAccessToken> predicate = eo.get("accessTokenByUserIdAndClient")
+                .equal(userId + clientId + true);
+        return getAccessTokenContainer().values(predicate);
+    }
+
     /*
      * @see com.apifest.oauth20.persistence.DBManager#findClientCredentialsByName(java.lang.String)
      */
@@ -312,7 +509,35 @@ public class HazelcastDBManager implements DBManager {
      */	
     @Override
     public void removeAccessToken(String accessToken) {
-        getAccessTokenContainer().remove(accessToken);
+        String partitionKey = getAccessTokenRouteContainer().remove(accessToken);
+        if (partitionKey == null) {
+            return;
+        }
+        AccessTokenKey key = new AccessTokenKey(accessToken, partitionKey);
+        PersistentAccessToken removed = getAccessTokenContainer().remove(key);
+        if (removed != null && hasRefreshToken(removed)) {
+            // a refreshed token reuses the refresh token, so remove the mapping only if it still points to this token
+            getRefreshTokenContainer().remove(removed.getRefreshTokenByClient(), key);
+        }
+        if (removed != null && isClientToken(removed)) {
+            getClientTokenContainer().remove(removed.getClientId() + " " + removed.getScope(), key);
+        }
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#rotateAccessToken(java.lang.String, com.apifest.oauth20.AccessToken)
+     */
+    @Override
+    public boolean rotateAccessToken(String oldAccessToken, AccessToken newAccessToken) {
+        AccessTokenKey key = findAccessTokenKey(oldAccessToken);
+        if (key == null
+                || !Boolean.TRUE.equals(getAccessTokenContainer().executeOnKey(key, new AccessTokenRotateProcessor()))) {
+            return false;
+        }
+        getAccessTokenRouteContainer().remove(oldAccessToken, key.getPartitionKey());
+        // overwrites the refresh token mapping of the old token
+        storeAccessToken(newAccessToken);
+        return true;
     }
 
 }
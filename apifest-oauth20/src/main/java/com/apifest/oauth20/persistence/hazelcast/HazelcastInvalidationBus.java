@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.hazelcast;
+
+import com.apifest.oauth20.persistence.CacheInvalidationBus;
+import com.apifest.oauth20.persistence.CacheInvalidationListener;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.Message;
+import com.hazelcast.core.MessageListener;
+
+/**
+ * Broadcasts cache invalidations through a Hazelcast topic.
+ *
+ * @author Edouard De Oliveira
+ */
+public class HazelcastInvalidationBus implements CacheInvalidationBus {
+
+    protected static final String APIFEST_CACHE_INVALIDATION_TOPIC = "APIFEST_CACHE_INVALIDATION";
+
+    private final ITopic<String> topic;
+
+    public HazelcastInvalidationBus(HazelcastInstance instance) {
+        this.topic = instance.getTopic(APIFEST_CACHE_INVALIDATION_TOPIC);
+    }
+
+    @Override
+    public void publish(String key) {
+        topic.publish(key);
+    }
+
+    @Override
+    public void subscribe(final CacheInvalidationListener listener) {
+        topic.addMessageListener(new MessageListener<String>() {
+            @Override
+            public void onMessage(Message<String> message) {
+                listener.invalidate(message.getMessageObject());
+            }
+        });
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.hazelcast;
+
+import static com.apifest.oauth20.persistence.hazelcast.HazelcastConfigFactory.APIFEST_ACCESS_TOKEN_MAP;
+import static com.apifest.oauth20.persistence.hazelcast.HazelcastConfigFactory.APIFEST_ACCESS_TOKEN_ROUTE_MAP;
+import static com.apifest.oauth20.persistence.hazelcast.HazelcastConfigFactory.APIFEST_AUTH_CODE_MAP;
+import static com.apifest.oauth20.persistence.hazelcast.HazelcastConfigFactory.APIFEST_CLIENT_MAP;
+import static com.apifest.oauth20.persistence.hazelcast.HazelcastConfigFactory.APIFEST_REFRESH_TOKEN_MAP;
+import static com.apifest.oauth20.persistence.hazelcast.HazelcastConfigFactory.APIFEST_CLIENT_TOKEN_MAP;
+import static com.apifest.oauth20.persistence.hazelcast.HazelcastConfigFactory.APIFEST_SCOPE_MAP;
+import static com.apifest.oauth20.utils.PropertiesUtils.getBoolean;
+import static com.apifest.oauth20.utils.PropertiesUtils.getEnum;
+import static com.apifest.oauth20.utils.PropertiesUtils.getInt;
+import static com.apifest.oauth20.utils.PropertiesUtils.getString;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import com.hazelcast.config.InMemoryFormat;
+
+/**
+ * Holds the tuning options of the Hazelcast maps loaded from the <code>hazelcast.*</code> properties.
+ *
+ * @author Edouard De Oliveira
+ */
+public class HazelcastSettings {
+
+    public static final String IN_MEMORY_FORMAT_PROPERTY = "hazelcast.in.memory.format";
+    public static final String NEAR_CACHE_ENABLED_PROPERTY = "hazelcast.near.cache.enabled";
+    public static final String NEAR_CACHE_ACCESS_TOKENS_PROPERTY = "hazelcast.near.cache.access.tokens";
+    public static final String NEAR_CACHE_MAX_SIZE_PROPERTY = "hazelcast.near.cache.max.size";
+    public static final String NEAR_CACHE_TTL_PROPERTY = "hazelcast.near.cache.ttl";
+    public static final String NEAR_CACHE_EVICTION_POLICY_PROPERTY = "hazelcast.near.cache.eviction.policy";
+    public static final String NEAR_CACHE_INVALIDATE_ON_CHANGE_PROPERTY = "hazelcast.near.cache.invalidate.on.change";
+    public static final String NEAR_CACHE_STATS_INTERVAL_PROPERTY = "hazelcast.near.cache.stats.interval";
+    public static final String ACCESS_TOKENS_PREFIX = "hazelcast.access.tokens";
+    public static final String AUTH_CODES_PREFIX = "hazelcast.auth.codes";
+    public static final String CLIENTS_PREFIX = "hazelcast.clients";
+    public static final String SCOPES_PREFIX = "hazelcast.scopes";
+
+    private InMemoryFormat inMemoryFormat = InMemoryFormat.BINARY;
+
+    // near cache for the client and scope maps, optionally for the access token map
+    private boolean nearCacheEnabled = true;
+    private boolean nearCacheAccessTokens = false;
+    private int nearCacheMaxSize = 10000;
+    private int nearCacheTtl = 300;
+    private String nearCacheEvictionPolicy = "LRU";
+    private boolean nearCacheInvalidateOnChange = true;
+
+    // interval in seconds between two near cache stats reports, 0 to disable
+    private int nearCacheStatsInterval = 60;
+
+    // max size and eviction policy by map name, maps not listed are unbounded
+    private Map<String, MapEvictionSettings> mapEvictionSettings = new HashMap<String, MapEvictionSettings>();
+
+    public InMemoryFormat getInMemoryFormat() {
+        return inMemoryFormat;
+    }
+
+    public HazelcastSettings setInMemoryFormat(InMemoryFormat inMemoryFormat) {
+        this.inMemoryFormat = inMemoryFormat;
+        return this;
+    }
+
+    public boolean isNearCacheEnabled() {
+        return nearCacheEnabled;
+    }
+
+    public HazelcastSettings setNearCacheEnabled(boolean nearCacheEnabled) {
+        this.nearCacheEnabled = nearCacheEnabled;
+        return this;
+    }
+
+    public boolean isNearCacheAccessTokens() {
+        return nearCacheAccessTokens;
+    }
+
+    public HazelcastSettings setNearCacheAccessTokens(boolean nearCacheAccessTokens) {
+        this.nearCacheAccessTokens = nearCacheAccessTokens;
+        return this;
+    }
+
+    public int getNearCacheMaxSize() {
+        return nearCacheMaxSize;
+    }
+
+    public HazelcastSettings setNearCacheMaxSize(int nearCacheMaxSize) {
+        this.nearCacheMaxSize = nearCacheMaxSize;
+        return this;
+    }
+
+    public int getNearCacheTtl() {
+        return nearCacheTtl;
+    }
+
+    public HazelcastSettings setNearCacheTtl(int nearCacheTtl) {
+        this.nearCacheTtl = nearCacheTtl;
+        return this;
+    }
+
+    public String getNearCacheEvictionPolicy() {
+        return nearCacheEvictionPolicy;
+    }
+
+    public HazelcastSettings setNearCacheEvictionPolicy(String nearCacheEvictionPolicy) {
+        this.nearCacheEvictionPolicy = nearCacheEvictionPolicy;
+        return this;
+    }
+
+    public boolean isNearCacheInvalidateOnChange() {
+        return nearCacheInvalidateOnChange;
+    }
+
+    public HazelcastSettings setNearCacheInvalidateOnChange(boolean nearCacheInvalidateOnChange) {
+        this.nearCacheInvalidateOnChange = nearCacheInvalidateOnChange;
+        return this;
+    }
+
+    public int getNearCacheStatsInterval() {
+        return nearCacheStatsInterval;
+    }
+
+    public HazelcastSettings setNearCacheStatsInterval(int nearCacheStatsInterval) {
+        this.nearCacheStatsInterval = nearCacheStatsInterval;
+        return this;
+    }
+
+    public MapEvictionSettings getMapEvictionSettings(String mapName) {
+        MapEvictionSettings evictionSettings = mapEvictionSettings.get(mapName);
+        return (evictionSettings != null) ? evictionSettings : new MapEvictionSettings();
+    }
+
+    public HazelcastSettings setMapEvictionSettings(String mapName, MapEvictionSettings evictionSettings) {
+        mapEvictionSettings.put(mapName, evictionSettings);
+        return this;
+    }
+
+    public static HazelcastSettings load(Properties props) {
+        HazelcastSettings settings = new HazelcastSettings();
+        settings.setInMemoryFormat(getEnum(props, IN_MEMORY_FORMAT_PROPERTY, InMemoryFormat.class,
+                settings.getInMemoryFormat()));
+        settings.setNearCacheEnabled(getBoolean(props, NEAR_CACHE_ENABLED_PROPERTY, settings.isNearCacheEnabled()));
+        settings.setNearCacheAccessTokens(getBoolean(props, NEAR_CACHE_ACCESS_TOKENS_PROPERTY, settings.isNearCacheAccessTokens()));
+        settings.setNearCacheMaxSize(getInt(props, NEAR_CACHE_MAX_SIZE_PROPERTY, settings.getNearCacheMaxSize()));
+        settings.setNearCacheTtl(getInt(props, NEAR_CACHE_TTL_PROPERTY, settings.getNearCacheTtl()));
+        settings.setNearCacheEvictionPolicy(getString(props, NEAR_CACHE_EVICTION_POLICY_PROPERTY,
+                settings.getNearCacheEvictionPolicy()).toUpperCase());
+        settings.setNearCacheInvalidateOnChange(getBoolean(props, NEAR_CACHE_INVALIDATE_ON_CHANGE_PROPERTY,
+                settings.isNearCacheInvalidateOnChange()));
+        settings.setNearCacheStatsInterval(getInt(props, NEAR_CACHE_STATS_INTERVAL_PROPERTY, settings.getNearCacheStatsInterval()));
+
+        // the route, refresh token and client token mappings live as long as their access token
+        MapEvictionSettings accessTokens = MapEvictionSettings.load(props, ACCESS_TOKENS_PREFIX);
+        settings.setMapEvictionSettings(APIFEST_ACCESS_TOKEN_MAP, accessTokens);
+        settings.setMapEvictionSettings(APIFEST_ACCESS_TOKEN_ROUTE_MAP, accessTokens);
+        settings.setMapEvictionSettings(APIFEST_REFRESH_TOKEN_MAP, accessTokens);
+        settings.setMapEvictionSettings(APIFEST_CLIENT_TOKEN_MAP, accessTokens);
+        settings.setMapEvictionSettings(APIFEST_AUTH_CODE_MAP, MapEvictionSettings.load(props, AUTH_CODES_PREFIX));
+        settings.setMapEvictionSettings(APIFEST_CLIENT_MAP, MapEvictionSettings.load(props, CLIENTS_PREFIX));
+        settings.setMapEvictionSettings(APIFEST_SCOPE_MAP, MapEvictionSettings.load(props, SCOPES_PREFIX));
+        return settings;
+    }
+}
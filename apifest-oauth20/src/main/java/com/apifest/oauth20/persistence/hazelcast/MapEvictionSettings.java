@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.hazelcast;
+
+import static com.apifest.oauth20.utils.PropertiesUtils.getEnum;
+import static com.apifest.oauth20.utils.PropertiesUtils.getInt;
+
+import java.util.Properties;
+
+import com.hazelcast.config.MapConfig.EvictionPolicy;
+import com.hazelcast.config.MaxSizeConfig.MaxSizePolicy;
+
+/**
+ * Bounds the memory used by a Hazelcast map. Loaded from the <code>&lt;prefix&gt;.max.size</code>,
+ * <code>&lt;prefix&gt;.max.size.policy</code>, <code>&lt;prefix&gt;.eviction.policy</code> and
+ * <code>&lt;prefix&gt;.eviction.percentage</code> properties; a max size of 0 means unbounded.
+ *
+ * @author Edouard De Oliveira
+ */
+public class MapEvictionSettings {
+
+    private int maxSize = 0;
+    private MaxSizePolicy maxSizePolicy = MaxSizePolicy.PER_NODE;
+    private EvictionPolicy evictionPolicy = EvictionPolicy.NONE;
+    private int evictionPercentage = 25;
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public MapEvictionSettings setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    public MaxSizePolicy getMaxSizePolicy() {
+        return maxSizePolicy;
+    }
+
+    public MapEvictionSettings setMaxSizePolicy(MaxSizePolicy maxSizePolicy) {
+        this.maxSizePolicy = maxSizePolicy;
+        return this;
+    }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    public MapEvictionSettings setEvictionPolicy(EvictionPolicy evictionPolicy) {
+        this.evictionPolicy = evictionPolicy;
+        return this;
+    }
+
+    public int getEvictionPercentage() {
+        return evictionPercentage;
+    }
+
+    public MapEvictionSettings setEvictionPercentage(int evictionPercentage) {
+        this.evictionPercentage = evictionPercentage;
+        return this;
+    }
+
+    public boolean isBounded() {
+        return maxSize > 0 && evictionPolicy != EvictionPolicy.NONE;
+    }
+
+    public static MapEvictionSettings load(Properties props, String prefix) {
+        MapEvictionSettings settings = new MapEvictionSettings();
+        settings.setMaxSize(getInt(props, prefix + ".max.size", settings.getMaxSize()));
+        settings.setMaxSizePolicy(getEnum(props, prefix + ".max.size.policy", MaxSizePolicy.class,
+                settings.getMaxSizePolicy()));
+        // a max size without eviction policy would never be enforced, so evict the least recently used entries
+        EvictionPolicy defaultPolicy = (settings.getMaxSize() > 0) ? EvictionPolicy.LRU : settings.getEvictionPolicy();
+        settings.setEvictionPolicy(getEnum(props, prefix + ".eviction.policy", EvictionPolicy.class, defaultPolicy));
+        settings.setEvictionPercentage(getInt(props, prefix + ".eviction.percentage", settings.getEvictionPercentage()));
+        return settings;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.hazelcast;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.monitor.NearCacheStats;
+
+/**
+ * Periodically reports the hit ratio of the near cached maps to the <code>metrics</code> logger.
+ *
+ * @author Edouard De Oliveira
+ */
+public class NearCacheStatsReporter implements Runnable {
+
+    protected static Logger metricsLog = LoggerFactory.getLogger("metrics");
+
+    private final HazelcastInstance instance;
+    private final List<String> mapNames;
+
+    public NearCacheStatsReporter(HazelcastInstance instance, List<String> mapNames) {
+        this.instance = instance;
+        this.mapNames = mapNames;
+    }
+
+    @Override
+    public void run() {
+        for (String mapName : mapNames) {
+            try {
+                NearCacheStats stats = instance.getMap(mapName).getLocalMapStats().getNearCacheStats();
+                if (stats != null) {
+                    metricsLog.info("near cache {} - entries: {}, hits: {}, misses: {}, hit ratio: {}",
+                            new Object[] { mapName, stats.getOwnedEntryCount(), stats.getHits(), stats.getMisses(),
+                                    String.format("%.3f", hitRatio(stats.getHits(), stats.getMisses())) });
+                }
+            } catch (RuntimeException e) {
+                metricsLog.warn("cannot read near cache stats of " + mapName, e);
+            }
+        }
+    }
+
+    public static double hitRatio(long hits, long misses) {
+        long total = hits + misses;
+        return (total == 0) ? 0d : (double) hits / total;
+    }
+}
@@ -64,7 +64,7 @@ public class PersistenceTransformations {
             clientCredentials.setScope(persistentClientCredentials.getScope());
             clientCredentials.setDescr(persistentClientCredentials.getDescr());
             clientCredentials.setUri(persistentClientCredentials.getUri());
-            clientCredentials.setId(persistentClientCredentials.getId());
+            clientCredentials.setId(persistentClientCredentials.getClientId());
             clientCredentials.setSecret(persistentClientCredentials.getSecret());
             clientCredentials.setStatus(persistentClientCredentials.getStatus());
             clientCredentials.setType(persistentClientCredentials.getType());
@@ -80,7 +80,7 @@ public class PersistenceTransformations {
         persistentClientCredentials.setScope(clientCredentials.getScope());
         persistentClientCredentials.setDescr(clientCredentials.getDescr());
         persistentClientCredentials.setUri(clientCredentials.getUri());
-        persistentClientCredentials.setId(clientCredentials.getId());
+        persistentClientCredentials.setClientId(clientCredentials.getId());
         persistentClientCredentials.setSecret(clientCredentials.getSecret());
         persistentClientCredentials.setStatus(clientCredentials.getStatus());
         persistentClientCredentials.setType(clientCredentials.getType());
@@ -94,7 +94,7 @@ public class PersistenceTransformations {
         persistentAuthCode.setClientId(authCode.getClientId());
         persistentAuthCode.setCode(authCode.getCode());
         persistentAuthCode.setCreated(authCode.getCreated());
-        persistentAuthCode.setId(authCode.getId());
+        persistentAuthCode.setCodeId(authCode.getId());
         persistentAuthCode.setRedirectUri(authCode.getRedirectUri());
         persistentAuthCode.setScope(authCode.getScope());
         persistentAuthCode.setState(authCode.getState());
@@ -111,7 +111,7 @@ public class PersistenceTransformations {
             authCode.setClientId(persistentAuthCode.getClientId());
             authCode.setCode(persistentAuthCode.getCode());
             authCode.setCreated(persistentAuthCode.getCreated());
-            authCode.setId(persistentAuthCode.getId());
+            authCode.setId(persistentAuthCode.getCodeId());
             authCode.setRedirectUri(persistentAuthCode.getRedirectUri());
             authCode.setScope(persistentAuthCode.getScope());
             authCode.setState(persistentAuthCode.getState());
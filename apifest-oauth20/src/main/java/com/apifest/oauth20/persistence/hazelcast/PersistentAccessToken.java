@@ -16,16 +16,18 @@
 
 package com.apifest.oauth20.persistence.hazelcast;
 
-import java.io.Serializable;
+import java.io.IOException;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
 
 /**
  *
  * @author Apostol Terziev
  *
  */
-public class PersistentAccessToken implements Serializable {
-
-    private static final long serialVersionUID = -1079204531513602561L;
+public class PersistentAccessToken implements IdentifiedDataSerializable {
 
     private String token = "";
     private String refreshToken = "";
@@ -143,4 +145,46 @@ public class PersistentAccessToken implements Serializable {
     public String getAccessTokenByUserIdAndClient() {
         return this.userId + this.getClientId() + this.isValid();
     }
+
+    @Override
+    public int getFactoryId() {
+        return PersistentDataSerializableFactory.FACTORY_ID;
+    }
+
+    @Override
+    public int getId() {
+        return PersistentDataSerializableFactory.ACCESS_TOKEN_TYPE;
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+        out.writeUTF(token);
+        out.writeUTF(refreshToken);
+        out.writeUTF(expiresIn);
+        out.writeUTF(type);
+        out.writeUTF(scope);
+        out.writeBoolean(valid);
+        out.writeUTF(clientId);
+        out.writeUTF(codeId);
+        out.writeUTF(userId);
+        PersistentDataSerializableFactory.writeNullableLong(out, created);
+        out.writeUTF(details);
+        out.writeUTF(refreshExpiresIn);
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+        token = in.readUTF();
+        refreshToken = in.readUTF();
+        expiresIn = in.readUTF();
+        type = in.readUTF();
+        scope = in.readUTF();
+        valid = in.readBoolean();
+        clientId = in.readUTF();
+        codeId = in.readUTF();
+        userId = in.readUTF();
+        created = PersistentDataSerializableFactory.readNullableLong(in);
+        details = in.readUTF();
+        refreshExpiresIn = in.readUTF();
+    }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.hazelcast;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+
+/**
+ * List of access tokens returned by the member owning the tokens of a user.
+ *
+ * @author Edouard De Oliveira
+ */
+public class PersistentAccessTokens implements IdentifiedDataSerializable {
+
+    private List<PersistentAccessToken> tokens = new ArrayList<PersistentAccessToken>();
+
+    public List<PersistentAccessToken> getTokens() {
+        return tokens;
+    }
+
+    public void add(PersistentAccessToken token) {
+        tokens.add(token);
+    }
+
+    @Override
+    public int getFactoryId() {
+        return PersistentDataSerializableFactory.FACTORY_ID;
+    }
+
+    @Override
+    public int getId() {
+        return PersistentDataSerializableFactory.ACCESS_TOKENS_TYPE;
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+        out.writeInt(tokens.size());
+        for (PersistentAccessToken token : tokens) {
+            token.writeData(out);
+        }
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+        int size = in.readInt();
+        tokens = new ArrayList<PersistentAccessToken>(size);
+        for (int i = 0; i < size; i++) {
+            PersistentAccessToken token = new PersistentAccessToken();
+            token.readData(in);
+            tokens.add(token);
+        }
+    }
+}
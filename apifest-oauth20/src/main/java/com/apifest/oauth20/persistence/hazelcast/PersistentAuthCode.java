@@ -16,7 +16,11 @@
 
 package com.apifest.oauth20.persistence.hazelcast;
 
-import java.io.Serializable;
+import java.io.IOException;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
 
 /**
  *
@@ -24,11 +28,9 @@ import java.io.Serializable;
  * @author Apostol Terziev
  *
  */
-public class PersistentAuthCode implements Serializable {
-
-    private static final long serialVersionUID = -681166606726368667L;
+public class PersistentAuthCode implements IdentifiedDataSerializable {
 
-    private String id;
+    private String codeId;
     private String code;
     private String clientId;
     private String redirectUri;
@@ -39,12 +41,12 @@ public class PersistentAuthCode implements Serializable {
     private String userId;
     private Long created;
 
-    public String getId() {
-        return id;
+    public String getCodeId() {
+        return codeId;
     }
 
-    public void setId(String id) {
-        this.id = id;
+    public void setCodeId(String codeId) {
+        this.codeId = codeId;
     }
 
     public String getCode() {
@@ -122,4 +124,42 @@ public class PersistentAuthCode implements Serializable {
     public String getCodeURI() {
         return this.getCode() + this.getRedirectUri() + this.isValid();
     }
+
+    @Override
+    public int getFactoryId() {
+        return PersistentDataSerializableFactory.FACTORY_ID;
+    }
+
+    @Override
+    public int getId() {
+        return PersistentDataSerializableFactory.AUTH_CODE_TYPE;
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+        out.writeUTF(codeId);
+        out.writeUTF(code);
+        out.writeUTF(clientId);
+        out.writeUTF(redirectUri);
+        out.writeUTF(state);
+        out.writeUTF(scope);
+        out.writeUTF(type);
+        out.writeBoolean(valid);
+        out.writeUTF(userId);
+        PersistentDataSerializableFactory.writeNullableLong(out, created);
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+        codeId = in.readUTF();
+        code = in.readUTF();
+        clientId = in.readUTF();
+        redirectUri = in.readUTF();
+        state = in.readUTF();
+        scope = in.readUTF();
+        type = in.readUTF();
+        valid = in.readBoolean();
+        userId = in.readUTF();
+        created = PersistentDataSerializableFactory.readNullableLong(in);
+    }
 }
@@ -16,20 +16,22 @@
 
 package com.apifest.oauth20.persistence.hazelcast;
 
-import java.io.Serializable;
+import java.io.IOException;
 import java.util.Map;
 
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+
 /**
  *
  *
  * @author Apostol Terziev
  *
  */
-public class PersistentClientCredentials implements Serializable {
-
-    private static final long serialVersionUID = -8401953802028482268L;
+public class PersistentClientCredentials implements IdentifiedDataSerializable {
 
-    private String id = "";
+    private String clientId = "";
 
     private String secret = "";
 
@@ -52,12 +54,12 @@ public class PersistentClientCredentials implements Serializable {
 
     private Map<String, String> applicationDetails = null;
 
-    public String getId() {
-        return id;
+    public String getClientId() {
+        return clientId;
     }
 
-    public void setId(String id) {
-        this.id = id;
+    public void setClientId(String clientId) {
+        this.clientId = clientId;
     }
 
     public String getSecret() {
@@ -132,4 +134,41 @@ public class PersistentClientCredentials implements Serializable {
         this.applicationDetails = applicationDetails;
     }
 
+    @Override
+    public int getFactoryId() {
+        return PersistentDataSerializableFactory.FACTORY_ID;
+    }
+
+    @Override
+    public int getId() {
+        return PersistentDataSerializableFactory.CLIENT_CREDENTIALS_TYPE;
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+        out.writeUTF(clientId);
+        out.writeUTF(secret);
+        out.writeUTF(scope);
+        out.writeUTF(name);
+        PersistentDataSerializableFactory.writeNullableLong(out, created);
+        out.writeUTF(uri);
+        out.writeUTF(descr);
+        out.writeInt(type);
+        out.writeInt(status);
+        PersistentDataSerializableFactory.writeStringMap(out, applicationDetails);
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+        clientId = in.readUTF();
+        secret = in.readUTF();
+        scope = in.readUTF();
+        name = in.readUTF();
+        created = PersistentDataSerializableFactory.readNullableLong(in);
+        uri = in.readUTF();
+        descr = in.readUTF();
+        type = in.readInt();
+        status = in.readInt();
+        applicationDetails = PersistentDataSerializableFactory.readStringMap(in);
+    }
 }
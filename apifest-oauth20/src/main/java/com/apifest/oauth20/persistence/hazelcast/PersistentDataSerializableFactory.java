@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.hazelcast;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.DataSerializableFactory;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+
+/**
+ * Creates the persistent entities stored in the Hazelcast maps and the entry processors that update them. Registered on both members and clients so that
+ * entries are (de)serialized field by field instead of going through java serialization.
+ *
+ * @author Edouard De Oliveira
+ */
+public class PersistentDataSerializableFactory implements DataSerializableFactory {
+
+    public static final int FACTORY_ID = 20140;
+
+    public static final int SCOPE_TYPE = 1;
+    public static final int CLIENT_CREDENTIALS_TYPE = 2;
+    public static final int AUTH_CODE_TYPE = 3;
+    public static final int ACCESS_TOKEN_TYPE = 4;
+    public static final int ACCESS_TOKEN_VALID_STATUS_PROCESSOR_TYPE = 5;
+    public static final int AUTH_CODE_VALID_STATUS_PROCESSOR_TYPE = 6;
+    public static final int CLIENT_APP_UPDATE_PROCESSOR_TYPE = 7;
+    public static final int ACCESS_TOKEN_KEY_TYPE = 8;
+    public static final int ACCESS_TOKENS_TYPE = 9;
+    public static final int USER_ACCESS_TOKENS_TASK_TYPE = 10;
+    public static final int ACCESS_TOKEN_ROTATE_PROCESSOR_TYPE = 11;
+    public static final int AUTH_CODE_CONSUME_PROCESSOR_TYPE = 12;
+    public static final int COUNTER_INCREMENT_PROCESSOR_TYPE = 13;
+
+    @Override
+    public IdentifiedDataSerializable create(int typeId) {
+        switch (typeId) {
+            case SCOPE_TYPE:
+                return new PersistentScope();
+            case CLIENT_CREDENTIALS_TYPE:
+                return new PersistentClientCredentials();
+            case AUTH_CODE_TYPE:
+                return new PersistentAuthCode();
+            case ACCESS_TOKEN_TYPE:
+                return new PersistentAccessToken();
+            case ACCESS_TOKEN_VALID_STATUS_PROCESSOR_TYPE:
+                return new AccessTokenValidStatusProcessor();
+            case AUTH_CODE_VALID_STATUS_PROCESSOR_TYPE:
+                return new AuthCodeValidStatusProcessor();
+            case CLIENT_APP_UPDATE_PROCESSOR_TYPE:
+                return new ClientAppUpdateProcessor();
+            case ACCESS_TOKEN_KEY_TYPE:
+                return new AccessTokenKey();
+            case ACCESS_TOKENS_TYPE:
+                return new PersistentAccessTokens();
+            case USER_ACCESS_TOKENS_TASK_TYPE:
+                return new UserAccessTokensTask();
+            case ACCESS_TOKEN_ROTATE_PROCESSOR_TYPE:
+                return new AccessTokenRotateProcessor();
+            case AUTH_CODE_CONSUME_PROCESSOR_TYPE:
+                return new AuthCodeConsumeProcessor();
+            case COUNTER_INCREMENT_PROCESSOR_TYPE:
+                return new CounterIncrementProcessor();
+            default:
+                return null;
+        }
+    }
+
+    static void writeNullableLong(ObjectDataOutput out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    static Long readNullableLong(ObjectDataInput in) throws IOException {
+        return in.readBoolean() ? Long.valueOf(in.readLong()) : null;
+    }
+
+    static void writeNullableInt(ObjectDataOutput out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    static Integer readNullableInt(ObjectDataInput in) throws IOException {
+        return in.readBoolean() ? Integer.valueOf(in.readInt()) : null;
+    }
+
+    static void writeStringMap(ObjectDataOutput out, Map<String, String> map) throws IOException {
+        if (map == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+    }
+
+    static Map<String, String> readStringMap(ObjectDataInput in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        Map<String, String> map = new HashMap<String, String>(size * 2);
+        for (int i = 0; i < size; i++) {
+            map.put(in.readUTF(), in.readUTF());
+        }
+        return map;
+    }
+}
@@ -16,7 +16,11 @@
 
 package com.apifest.oauth20.persistence.hazelcast;
 
-import java.io.Serializable;
+import java.io.IOException;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
 
 /**
  *
@@ -24,9 +28,7 @@ import java.io.Serializable;
  * @author Apostol Terziev
  *
  */
-public class PersistentScope implements Serializable {
-
-    private static final long serialVersionUID = 1688430665652348239L;
+public class PersistentScope implements IdentifiedDataSerializable {
 
     private String scope;
 
@@ -78,4 +80,31 @@ public class PersistentScope implements Serializable {
         this.refreshExpiresIn = refreshExpiresIn;
     }
 
+    @Override
+    public int getFactoryId() {
+        return PersistentDataSerializableFactory.FACTORY_ID;
+    }
+
+    @Override
+    public int getId() {
+        return PersistentDataSerializableFactory.SCOPE_TYPE;
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+        out.writeUTF(scope);
+        out.writeUTF(description);
+        PersistentDataSerializableFactory.writeNullableInt(out, ccExpiresIn);
+        PersistentDataSerializableFactory.writeNullableInt(out, passExpiresIn);
+        PersistentDataSerializableFactory.writeNullableInt(out, refreshExpiresIn);
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+        scope = in.readUTF();
+        description = in.readUTF();
+        ccExpiresIn = PersistentDataSerializableFactory.readNullableInt(in);
+        passExpiresIn = PersistentDataSerializableFactory.readNullableInt(in);
+        refreshExpiresIn = PersistentDataSerializableFactory.readNullableInt(in);
+    }
 }
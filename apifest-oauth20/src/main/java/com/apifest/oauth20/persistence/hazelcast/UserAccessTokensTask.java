@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.hazelcast;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.HazelcastInstanceAware;
+import com.hazelcast.core.IMap;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+import com.hazelcast.query.EntryObject;
+import com.hazelcast.query.Predicate;
+import com.hazelcast.query.PredicateBuilder;
+
+/**
+ * Lists the valid access tokens of a user for a client application. Submitted to the owner of the user's
+ * partition key, where all of these tokens are stored, so that only the local entries have to be queried.
+ *
+ * @author Edouard De Oliveira
+ */
+public class UserAccessTokensTask implements Callable<PersistentAccessTokens>, HazelcastInstanceAware,
+        IdentifiedDataSerializable {
+
+    private String userId;
+    private String clientId;
+    private transient HazelcastInstance instance;
+
+    public UserAccessTokensTask() {
+    }
+
+    public UserAccessTokensTask(String userId, String clientId) {
+        this.userId = userId;
+        this.clientId = clientId;
+    }
+
+    @Override
+    public void setHazelcastInstance(HazelcastInstance instance) {
+        this.instance = instance;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public PersistentAccessTokens call() throws Exception {
+        IMap<AccessTokenKey, PersistentAccessToken> tokens = instance.getMap(HazelcastConfigFactory.APIFEST_ACCESS_TOKEN_MAP);
+        EntryObject eo = new PredicateBuilder().getEntryObject();
+        Predicate<AccessTokenKey, PersistentAccessToken> predicate = eo.get("accessTokenByUserIdAndClient")
+                .equal(userId + clientId + true);
+        PersistentAccessTokens result = new PersistentAccessTokens();
+        for (AccessTokenKey key : tokens.localKeySet(predicate)) {
+            PersistentAccessToken token = tokens.get(key);
+            if (token != null) {
+                result.add(token);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int getFactoryId() {
+        return PersistentDataSerializableFactory.FACTORY_ID;
+    }
+
+    @Override
+    public int getId() {
+        return PersistentDataSerializableFactory.USER_ACCESS_TOKENS_TASK_TYPE;
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+        out.writeUTF(userId);
+        out.writeUTF(clientId);
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+        userId = in.readUTF();
+        clientId = in.readUTF();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.inmemory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.apifest.oauth20.AccessToken;
+
+/**
+ * Stored copy of an access token. Only the valid flag can change once stored.
+ *
+ * @author Edouard De Oliveira
+ */
+final class AccessTokenRecord {
+
+    final String token;
+    final String refreshToken;
+    final String expiresIn;
+    final String refreshExpiresIn;
+    final String type;
+    final String scope;
+    final String clientId;
+    final String codeId;
+    final String userId;
+    final Map<String, String> details;
+    final long created;
+    final long expiresAt;
+    volatile boolean valid;
+
+    AccessTokenRecord(AccessToken accessToken, long expiresAt) {
+        this.token = accessToken.getToken();
+        this.refreshToken = accessToken.getRefreshToken();
+        this.expiresIn = accessToken.getExpiresIn();
+        this.refreshExpiresIn = accessToken.getRefreshExpiresIn();
+        this.type = accessToken.getType();
+        this.scope = accessToken.getScope();
+        this.clientId = accessToken.getClientId();
+        this.codeId = accessToken.getCodeId();
+        this.userId = accessToken.getUserId();
+        this.details = (accessToken.getDetails() != null) ? new HashMap<String, String>(accessToken.getDetails()) : null;
+        this.created = (accessToken.getCreated() != null) ? accessToken.getCreated() : System.currentTimeMillis();
+        this.expiresAt = expiresAt;
+        this.valid = accessToken.isValid();
+    }
+
+    boolean hasRefreshToken() {
+        return refreshToken != null && !refreshToken.isEmpty();
+    }
+
+    boolean hasUserId() {
+        return userId != null && !userId.isEmpty();
+    }
+
+    // issued with the client_credentials grant
+    boolean isClientToken() {
+        return !hasUserId() && !hasRefreshToken();
+    }
+
+    AccessToken toAccessToken() {
+        AccessToken accessToken = new AccessToken();
+        accessToken.setToken(token);
+        accessToken.setRefreshToken(refreshToken);
+        accessToken.setExpiresIn(expiresIn);
+        accessToken.setRefreshExpiresIn(refreshExpiresIn);
+        accessToken.setType(type);
+        accessToken.setScope(scope);
+        accessToken.setClientId(clientId);
+        accessToken.setCodeId(codeId);
+        accessToken.setUserId(userId);
+        accessToken.setDetails((details != null) ? new HashMap<String, String>(details) : null);
+        accessToken.setCreated(created);
+        accessToken.setValid(valid);
+        return accessToken;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.inmemory;
+
+import com.apifest.oauth20.AuthCode;
+
+/**
+ * Stored copy of an auth code. Only the valid flag can change once stored.
+ *
+ * @author Edouard De Oliveira
+ */
+final class AuthCodeRecord {
+
+    final String id;
+    final String code;
+    final String clientId;
+    final String redirectUri;
+    final String state;
+    final String scope;
+    final String type;
+    final String userId;
+    final Long created;
+    final long expiresAt;
+    volatile boolean valid;
+
+    AuthCodeRecord(AuthCode authCode, long expiresAt) {
+        this.id = authCode.getId();
+        this.code = authCode.getCode();
+        this.clientId = authCode.getClientId();
+        this.redirectUri = authCode.getRedirectUri();
+        this.state = authCode.getState();
+        this.scope = authCode.getScope();
+        this.type = authCode.getType();
+        this.userId = authCode.getUserId();
+        this.created = authCode.getCreated();
+        this.expiresAt = expiresAt;
+        this.valid = authCode.isValid();
+    }
+
+    AuthCode toAuthCode() {
+        AuthCode authCode = new AuthCode();
+        authCode.setId(id);
+        authCode.setCode(code);
+        authCode.setClientId(clientId);
+        authCode.setRedirectUri(redirectUri);
+        authCode.setState(state);
+        authCode.setScope(scope);
+        authCode.setType(type);
+        authCode.setUserId(userId);
+        authCode.setCreated(created);
+        authCode.setValid(valid);
+        return authCode;
+    }
+}
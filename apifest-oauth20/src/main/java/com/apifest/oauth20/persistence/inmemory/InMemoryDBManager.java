@@ -0,0 +1,560 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.inmemory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.apifest.oauth20.AccessToken;
+import com.apifest.oauth20.AuthCode;
+import com.apifest.oauth20.ClientCredentials;
+import com.apifest.oauth20.Scope;
+import com.apifest.oauth20.persistence.DBManager;
+import com.apifest.oauth20.persistence.ExpiringCounters;
+
+/**
+ * Non-persistent DBManager keeping all data in the heap of a single node. Access tokens are indexed by refresh
+ * token and by user and client; auth codes are keyed by code. Expired tokens and auth codes are treated as missing
+ * on read and removed by a {@link TimingWheel} advanced every second.
+ *
+ * @author Edouard De Oliveira
+ */
+public class InMemoryDBManager implements DBManager {
+
+    private static final long TICK_MILLIS = 1000;
+
+    private final ConcurrentMap<String, ClientCredentials> clients = new ConcurrentHashMap<String, ClientCredentials>();
+    private final ConcurrentMap<String, String> clientIdsByName = new ConcurrentHashMap<String, String>();
+    private final ConcurrentMap<String, Scope> scopes = new ConcurrentHashMap<String, Scope>();
+    private final ConcurrentMap<String, AuthCodeRecord> authCodes = new ConcurrentHashMap<String, AuthCodeRecord>();
+    private final ConcurrentMap<String, AccessTokenRecord> accessTokens = new ConcurrentHashMap<String, AccessTokenRecord>();
+
+    // refresh token + client id -> access token
+    private final ConcurrentMap<String, String> accessTokensByRefreshToken = new ConcurrentHashMap<String, String>();
+
+    // user id + client id -> access tokens
+    private final ConcurrentMap<String, Set<String>> accessTokensByUser = new ConcurrentHashMap<String, Set<String>>();
+
+    // client id + scope -> access token issued last with the client_credentials grant
+    private final ConcurrentMap<String, String> accessTokensByClient = new ConcurrentHashMap<String, String>();
+
+    // scope -> ids of the client apps registered with it, changed with the client apps under its lock
+    private final ConcurrentMap<String, Set<String>> clientIdsByScope = new ConcurrentHashMap<String, Set<String>>();
+
+    private final ExpiringCounters counters = new ExpiringCounters();
+
+    private final TimingWheel<String> accessTokenExpiry;
+    private final TimingWheel<String> authCodeExpiry;
+    private ScheduledExecutorService expiryExecutor;
+
+    public InMemoryDBManager() {
+        this(System.currentTimeMillis());
+        expiryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "inmemory-expiry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        expiryExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                removeExpired(System.currentTimeMillis());
+            }
+        }, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // used in tests, expired entries are only removed when removeExpired is called
+    InMemoryDBManager(long startMillis) {
+        accessTokenExpiry = new TimingWheel<String>(TICK_MILLIS, startMillis);
+        authCodeExpiry = new TimingWheel<String>(TICK_MILLIS, startMillis);
+    }
+
+    void removeExpired(final long now) {
+        accessTokenExpiry.advance(now, new TimingWheel.ExpiryListener<String>() {
+            @Override
+            public void expired(String token) {
+                AccessTokenRecord record = accessTokens.get(token);
+                if (record != null && record.expiresAt <= now) {
+                    removeAccessToken(token, record);
+                }
+            }
+        });
+        authCodeExpiry.advance(now, new TimingWheel.ExpiryListener<String>() {
+            @Override
+            public void expired(String code) {
+                AuthCodeRecord record = authCodes.get(code);
+                if (record != null && record.expiresAt <= now) {
+                    authCodes.remove(code, record);
+                }
+            }
+        });
+    }
+
+    int size() {
+        return accessTokens.size() + authCodes.size();
+    }
+
+    private static boolean isExpired(long expiresAt) {
+        return System.currentTimeMillis() >= expiresAt;
+    }
+
+    private static boolean equal(String s1, String s2) {
+        return (s1 == null) ? s2 == null : s1.equals(s2);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#validClient(java.lang.String, java.lang.String)
+     */
+    @Override
+    public boolean validClient(String clientId, String clientSecret) {
+        ClientCredentials clientCredentials = clients.get(clientId);
+        return ((clientCredentials != null)
+                && (clientCredentials.getSecret() != null && clientCredentials.getSecret().equals(clientSecret))
+                && (clientCredentials.getStatus() == ClientCredentials.ACTIVE_STATUS));
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#storeClientCredentials(com.apifest.oauth20.ClientCredentials)
+     */
+    @Override
+    public void storeClientCredentials(ClientCredentials clientCreds) {
+        synchronized (clientIdsByScope) {
+            ClientCredentials previous = clients.put(clientCreds.getId(), copy(clientCreds));
+            indexClientScope(clientCreds.getId(), (previous != null) ? previous.getScope() : null,
+                    clientCreds.getScope());
+        }
+        if (clientCreds.getName() != null) {
+            clientIdsByName.put(clientCreds.getName(), clientCreds.getId());
+        }
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#storeAuthCode(com.apifest.oauth20.AuthCode)
+     */
+    @Override
+    public void storeAuthCode(AuthCode authCode) {
+        long expiresAt = System.currentTimeMillis() + AuthCode.EXPIRES_IN_SEC * 1000L;
+        authCodes.put(authCode.getCode(), new AuthCodeRecord(authCode, expiresAt));
+        authCodeExpiry.schedule(authCode.getCode(), expiresAt);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#updateAuthCodeValidStatus(java.lang.String, boolean)
+     */
+    @Override
+    public void updateAuthCodeValidStatus(String authCode, boolean valid) {
+        AuthCodeRecord record = authCodes.get(authCode);
+        if (record != null) {
+            record.valid = valid;
+        }
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#storeAccessToken(com.apifest.oauth20.AccessToken)
+     */
+    @Override
+    public void storeAccessToken(AccessToken accessToken) {
+        String ttl = (accessToken.getRefreshExpiresIn() != null && !accessToken.getRefreshExpiresIn().isEmpty())
+                ? accessToken.getRefreshExpiresIn() : accessToken.getExpiresIn();
+        long expiresAt = System.currentTimeMillis() + Long.parseLong(ttl) * 1000L;
+        AccessTokenRecord record = new AccessTokenRecord(accessToken, expiresAt);
+        accessTokens.put(record.token, record);
+        if (record.hasRefreshToken()) {
+            accessTokensByRefreshToken.put(record.refreshToken + record.clientId, record.token);
+        }
+        if (record.hasUserId()) {
+            addUserToken(record.userId + record.clientId, record.token);
+        }
+        if (record.isClientToken()) {
+            accessTokensByClient.put(record.clientId + " " + record.scope, record.token);
+        }
+        accessTokenExpiry.schedule(record.token, expiresAt);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findAccessTokenByRefreshToken(java.lang.String, java.lang.String)
+     */
+    @Override
+    public AccessToken findAccessTokenByRefreshToken(String refreshToken, String clientId) {
+        String token = accessTokensByRefreshToken.get(refreshToken + clientId);
+        if (token == null) {
+            return null;
+        }
+        AccessTokenRecord record = accessTokens.get(token);
+        if (record == null || isExpired(record.expiresAt) || !equal(record.refreshToken, refreshToken)
+                || !equal(record.clientId, clientId)) {
+            return null;
+        }
+        return record.toAccessToken();
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#updateAccessTokenValidStatus(java.lang.String, boolean)
+     */
+    @Override
+    public void updateAccessTokenValidStatus(String accessToken, boolean valid) {
+        AccessTokenRecord record = accessTokens.get(accessToken);
+        if (record != null) {
+            record.valid = valid;
+        }
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findAccessToken(java.lang.String)
+     */
+    @Override
+    public AccessToken findAccessToken(String accessToken) {
+        AccessTokenRecord record = accessTokens.get(accessToken);
+        if (record == null || isExpired(record.expiresAt)) {
+            return null;
+        }
+        return record.toAccessToken();
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findAuthCode(java.lang.String, java.lang.String)
+     */
+    @Override
+    public AuthCode findAuthCode(String authCode, String redirectUri) {
+        AuthCodeRecord record = authCodes.get(authCode);
+        if (record == null || !record.valid || isExpired(record.expiresAt) || !equal(record.redirectUri, redirectUri)) {
+            return null;
+        }
+        return record.toAuthCode();
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#consumeAuthCode(java.lang.String, java.lang.String)
+     */
+    @Override
+    public AuthCode consumeAuthCode(String authCode, String redirectUri) {
+        AuthCodeRecord record = authCodes.get(authCode);
+        if (record == null || !record.valid || isExpired(record.expiresAt) || !equal(record.redirectUri, redirectUri)
+                || !authCodes.remove(authCode, record)) {
+            return null;
+        }
+        return record.toAuthCode();
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findClientCredentials(java.lang.String)
+     */
+    @Override
+    public ClientCredentials findClientCredentials(String clientId) {
+        ClientCredentials clientCredentials = clients.get(clientId);
+        return (clientCredentials != null) ? copy(clientCredentials) : null;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findClientCredentialsByName(java.lang.String)
+     */
+    @Override
+    public ClientCredentials findClientCredentialsByName(String clientName) {
+        String clientId = clientIdsByName.get(clientName);
+        return (clientId != null) ? findClientCredentials(clientId) : null;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#storeScope(com.apifest.oauth20.Scope)
+     */
+    @Override
+    public boolean storeScope(Scope scope) {
+        scopes.put(scope.getScope(), copy(scope));
+        return true;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#getAllScopes()
+     */
+    @Override
+    public List<Scope> getAllScopes() {
+        List<Scope> scopesList = new ArrayList<Scope>();
+        for (Scope scope : scopes.values()) {
+            scopesList.add(copy(scope));
+        }
+        return scopesList;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findScope(java.lang.String)
+     */
+    @Override
+    public Scope findScope(String scopeName) {
+        Scope scope = scopes.get(scopeName);
+        return (scope != null) ? copy(scope) : null;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#updateClientApp(java.lang.String, java.lang.String, java.lang.String, java.lang.Integer, java.util.Map)
+     */
+    @Override
+    public boolean updateClientApp(String clientId, String scope, String description, Integer status,
+            Map<String, String> applicationDetails) {
+        while (true) {
+            ClientCredentials current = clients.get(clientId);
+            if (current == null) {
+                return false;
+            }
+            ClientCredentials updated = copy(current);
+            if (scope != null && scope.length() > 0) {
+                updated.setScope(scope);
+            }
+            if (description != null && description.length() > 0) {
+                updated.setDescr(description);
+            }
+            if (status != null) {
+                updated.setStatus(status);
+            }
+            if (applicationDetails != null) {
+                updated.setApplicationDetails(new HashMap<String, String>(applicationDetails));
+            }
+            synchronized (clientIdsByScope) {
+                if (clients.replace(clientId, current, updated)) {
+                    indexClientScope(clientId, current.getScope(), updated.getScope());
+                    return true;
+                }
+            }
+        }
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#deleteClientApp(java.lang.String)
+     */
+    @Override
+    public boolean deleteClientApp(String clientId) {
+        ClientCredentials removed;
+        synchronized (clientIdsByScope) {
+            removed = clients.remove(clientId);
+            if (removed == null) {
+                return false;
+            }
+            indexClientScope(clientId, removed.getScope(), null);
+        }
+        if (removed.getName() != null) {
+            clientIdsByName.remove(removed.getName(), clientId);
+        }
+        return true;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#getAllApplications()
+     */
+    @Override
+    public List<ClientCredentials> getAllApplications() {
+        List<ClientCredentials> appsList = new ArrayList<ClientCredentials>();
+        for (ClientCredentials clientCredentials : clients.values()) {
+            appsList.add(copy(clientCredentials));
+        }
+        return appsList;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#isScopeUsed(java.lang.String)
+     */
+    @Override
+    public boolean isScopeUsed(String scopeName) {
+        return clientIdsByScope.containsKey(scopeName);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#deleteScope(java.lang.String)
+     */
+    @Override
+    public boolean deleteScope(String scopeName) {
+        return scopes.remove(scopeName) != null;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#getAccessTokenByUserIdAndClientApp(java.lang.String, java.lang.String)
+     */
+    @Override
+    public List<AccessToken> getAccessTokenByUserIdAndClientApp(String userId, String clientId) {
+        List<AccessToken> accessTokensList = new ArrayList<AccessToken>();
+        Set<String> tokens = accessTokensByUser.get(userId + clientId);
+        if (tokens != null) {
+            for (String token : tokens) {
+                AccessTokenRecord record = accessTokens.get(token);
+                if (record != null && record.valid && !isExpired(record.expiresAt)) {
+                    accessTokensList.add(record.toAccessToken());
+                }
+            }
+        }
+        return accessTokensList;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findClientAccessToken(java.lang.String, java.lang.String)
+     */
+    @Override
+    public AccessToken findClientAccessToken(String clientId, String scope) {
+        String token = accessTokensByClient.get(clientId + " " + scope);
+        if (token == null) {
+            return null;
+        }
+        AccessTokenRecord record = accessTokens.get(token);
+        if (record == null || !record.valid || isExpired(record.expiresAt)) {
+            return null;
+        }
+        return record.toAccessToken();
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#incrementCounter(java.lang.String, long, int)
+     */
+    @Override
+    public long incrementCounter(String key, long delta, int expiresIn) {
+        return counters.increment(key, delta, expiresIn, System.currentTimeMillis());
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#removeAccessToken(java.lang.String)
+     */
+    @Override
+    public void removeAccessToken(String accessToken) {
+        AccessTokenRecord record = accessTokens.get(accessToken);
+        if (record != null) {
+            removeAccessToken(accessToken, record);
+        }
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#rotateAccessToken(java.lang.String, com.apifest.oauth20.AccessToken)
+     */
+    @Override
+    public boolean rotateAccessToken(String oldAccessToken, AccessToken newAccessToken) {
+        AccessTokenRecord record = accessTokens.get(oldAccessToken);
+        if (record == null || !record.valid || isExpired(record.expiresAt)
+                || !removeAccessToken(oldAccessToken, record)) {
+            return false;
+        }
+        storeAccessToken(newAccessToken);
+        return true;
+    }
+
+    private boolean removeAccessToken(String accessToken, AccessTokenRecord record) {
+        if (!accessTokens.remove(accessToken, record)) {
+            return false;
+        }
+        if (record.hasRefreshToken()) {
+            // a refreshed token reuses the refresh token, so remove the mapping only if it still points to this token
+            accessTokensByRefreshToken.remove(record.refreshToken + record.clientId, accessToken);
+        }
+        if (record.hasUserId()) {
+            removeUserToken(record.userId + record.clientId, accessToken);
+        }
+        if (record.isClientToken()) {
+            accessTokensByClient.remove(record.clientId + " " + record.scope, accessToken);
+        }
+        return true;
+    }
+
+    // a set is only changed under its lock, so that a token is never added to a set removed once empty
+    private void addUserToken(String userKey, String token) {
+        while (true) {
+            Set<String> tokens = accessTokensByUser.get(userKey);
+            if (tokens == null) {
+                Set<String> newTokens = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                tokens = accessTokensByUser.putIfAbsent(userKey, newTokens);
+                if (tokens == null) {
+                    tokens = newTokens;
+                }
+            }
+            synchronized (tokens) {
+                if (accessTokensByUser.get(userKey) == tokens) {
+                    tokens.add(token);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void removeUserToken(String userKey, String token) {
+        Set<String> tokens = accessTokensByUser.get(userKey);
+        if (tokens != null) {
+            synchronized (tokens) {
+                tokens.remove(token);
+                if (tokens.isEmpty()) {
+                    accessTokensByUser.remove(userKey, tokens);
+                }
+            }
+        }
+    }
+
+    // empty sets are removed, so that a scope is in use as long as it has a set
+    private void indexClientScope(String clientId, String oldScope, String newScope) {
+        Set<String> oldNames = ClientCredentials.scopeNames(oldScope);
+        Set<String> newNames = ClientCredentials.scopeNames(newScope);
+        for (String name : oldNames) {
+            Set<String> clientIds = clientIdsByScope.get(name);
+            if (!newNames.contains(name) && clientIds != null) {
+                clientIds.remove(clientId);
+                if (clientIds.isEmpty()) {
+                    clientIdsByScope.remove(name);
+                }
+            }
+        }
+        for (String name : newNames) {
+            Set<String> clientIds = clientIdsByScope.get(name);
+            if (clientIds == null) {
+                clientIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                clientIdsByScope.put(name, clientIds);
+            }
+            clientIds.add(clientId);
+        }
+    }
+
+    private static ClientCredentials copy(ClientCredentials source) {
+        ClientCredentials clientCredentials = new ClientCredentials();
+        clientCredentials.setId(source.getId());
+        clientCredentials.setSecret(source.getSecret());
+        clientCredentials.setName(source.getName());
+        clientCredentials.setUri(source.getUri());
+        clientCredentials.setDescr(source.getDescr());
+        clientCredentials.setType(source.getType());
+        clientCredentials.setStatus(source.getStatus());
+        clientCredentials.setCreated(source.getCreated());
+        clientCredentials.setScope(source.getScope());
+        if (source.getApplicationDetails() != null) {
+            clientCredentials.setApplicationDetails(new HashMap<String, String>(source.getApplicationDetails()));
+        }
+        return clientCredentials;
+    }
+
+    private static Scope copy(Scope source) {
+        Scope scope = new Scope();
+        scope.setScope(source.getScope());
+        scope.setDescription(source.getDescription());
+        scope.setCcExpiresIn(source.getCcExpiresIn());
+        if (source.getPassExpiresIn() != null) {
+            scope.setPassExpiresIn(source.getPassExpiresIn());
+        }
+        scope.setRefreshExpiresIn(source.getRefreshExpiresIn());
+        return scope;
+    }
+}
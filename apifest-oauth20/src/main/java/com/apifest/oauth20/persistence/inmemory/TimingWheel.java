@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.inmemory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hierarchical timing wheel used to expire entries. Each of the {@value #LEVELS} levels has {@value #WHEEL_SIZE}
+ * slots and each slot of a level spans a whole turn of the level below, so that scheduling and expiring are O(1)
+ * whatever the TTL. Timeouts are scheduled from any thread but the wheel is only advanced by a single thread.
+ * Timeouts cannot be cancelled, the listener is expected to check whether the entry is still due to expire.
+ *
+ * @author Edouard De Oliveira
+ */
+public class TimingWheel<K> {
+
+    public interface ExpiryListener<K> {
+        void expired(K key);
+    }
+
+    static final int WHEEL_BITS = 6;
+    static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    static final int LEVELS = 4;
+
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final long MAX_TICKS = 1L << (WHEEL_BITS * LEVELS);
+
+    private final long tickMillis;
+    private final long startMillis;
+    private final List<List<Timeout<K>>> slots;
+    private final Queue<Timeout<K>> pending = new ConcurrentLinkedQueue<Timeout<K>>();
+
+    // only accessed by the thread advancing the wheel
+    private long currentTick;
+
+    public TimingWheel(long tickMillis, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.startMillis = startMillis;
+        this.slots = new ArrayList<List<Timeout<K>>>(LEVELS * WHEEL_SIZE);
+        for (int i = 0; i < LEVELS * WHEEL_SIZE; i++) {
+            slots.add(new ArrayList<Timeout<K>>());
+        }
+    }
+
+    /**
+     * Schedules the expiry of the given key, may be called from any thread.
+     */
+    public void schedule(K key, long deadlineMillis) {
+        long deadlineTick = (deadlineMillis - startMillis + tickMillis - 1) / tickMillis;
+        pending.add(new Timeout<K>(key, deadlineTick));
+    }
+
+    /**
+     * Moves the wheel up to the given time and notifies the listener of the expired keys.
+     * Must always be called from the same thread.
+     */
+    public void advance(long nowMillis, ExpiryListener<K> listener) {
+        long targetTick = (nowMillis - startMillis) / tickMillis;
+        List<Timeout<K>> expired = new ArrayList<Timeout<K>>();
+        Timeout<K> timeout;
+        while ((timeout = pending.poll()) != null) {
+            place(timeout, expired);
+        }
+        while (currentTick < targetTick) {
+            currentTick++;
+            cascade(expired);
+            List<Timeout<K>> slot = slots.get((int) (currentTick & WHEEL_MASK));
+            if (!slot.isEmpty()) {
+                List<Timeout<K>> due = new ArrayList<Timeout<K>>(slot);
+                slot.clear();
+                for (Timeout<K> t : due) {
+                    place(t, expired);
+                }
+            }
+        }
+        for (Timeout<K> t : expired) {
+            listener.expired(t.key);
+        }
+    }
+
+    long getCurrentTick() {
+        return currentTick;
+    }
+
+    // moves down the timeouts of the upper level slots reached by the current tick
+    private void cascade(List<Timeout<K>> expired) {
+        for (int level = 1; level < LEVELS; level++) {
+            if ((currentTick & ((1L << (WHEEL_BITS * level)) - 1)) != 0) {
+                return;
+            }
+            List<Timeout<K>> slot = slots.get(level * WHEEL_SIZE + (int) ((currentTick >> (WHEEL_BITS * level)) & WHEEL_MASK));
+            if (!slot.isEmpty()) {
+                List<Timeout<K>> moved = new ArrayList<Timeout<K>>(slot);
+                slot.clear();
+                for (Timeout<K> t : moved) {
+                    place(t, expired);
+                }
+            }
+        }
+    }
+
+    private void place(Timeout<K> timeout, List<Timeout<K>> expired) {
+        long delta = timeout.deadlineTick - currentTick;
+        if (delta <= 0) {
+            expired.add(timeout);
+            return;
+        }
+        // timeouts beyond the last level are parked in it and placed again when it cascades
+        long tick = (delta < MAX_TICKS) ? timeout.deadlineTick : currentTick + MAX_TICKS - 1;
+        delta = tick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (WHEEL_BITS * (level + 1)))) {
+            level++;
+        }
+        slots.get(level * WHEEL_SIZE + (int) ((tick >> (WHEEL_BITS * level)) & WHEEL_MASK)).add(timeout);
+    }
+
+    private static final class Timeout<K> {
+        private final K key;
+        private final long deadlineTick;
+
+        Timeout(K key, long deadlineTick) {
+            this.key = key;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.apifest.oauth20.persistence.mongodb;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -57,6 +58,9 @@ public class MongoDBManager implements DBManager {
     protected static final String CLIENTS_COLLECTION_NAME = "clients";
     protected static final String CLIENTS_ID = "_id";
     protected static final String CLIENTS_CLIENTID = "clientId";
+    protected static final String CLIENTS_SCOPE = "scope";
+    // the scope names of a client app as an array, to look up the client apps by scope with a multikey index
+    protected static final String CLIENTS_SCOPES = "scopes";
 
     protected static final String AUTH_CODE_COLLECTION_NAME = "authCodes";
     protected static final String AUTH_CODE = "code";
@@ -67,9 +71,15 @@ public class MongoDBManager implements DBManager {
     protected static final String ACCESS_TOKEN_VALID = "valid";
     protected static final String ACCESS_TOKEN_REDIRECT_URI = "redirectUri";
     protected static final String ACCESS_TOKEN_USER_ID = "userId";
+    protected static final String ACCESS_TOKEN_SCOPE = "scope";
+    protected static final String ACCESS_TOKEN_CREATED = "created";
 	
     protected static final String SCOPE_COLLECTION_NAME = "scopes";
 
+    protected static final String COUNTER_COLLECTION_NAME = "counters";
+    protected static final String COUNTER_VALUE = "value";
+    protected static final String COUNTER_EXPIRES_AT = "expiresAt";
+
     public MongoDBManager(String uri) {
         db = MongoUtil.getDB(uri);
     }
@@ -85,6 +95,35 @@ public class MongoDBManager implements DBManager {
         dbObject.put(CLIENTS_CLIENTID, 1);
         dbObject.put(ACCESS_TOKEN_VALID, 1);
         db.getCollection(ACCESS_TOKEN_COLLECTION_NAME).createIndex(dbObject);
+
+        dbObject = new BasicDBObject();
+        dbObject.put(CLIENTS_CLIENTID, 1);
+        dbObject.put(ACCESS_TOKEN_SCOPE, 1);
+        dbObject.put(ACCESS_TOKEN_VALID, 1);
+        dbObject.put(ACCESS_TOKEN_CREATED, -1);
+        db.getCollection(ACCESS_TOKEN_COLLECTION_NAME).createIndex(dbObject);
+
+        // counters are removed by the TTL monitor once expired
+        db.getCollection(COUNTER_COLLECTION_NAME).createIndex(new BasicDBObject(COUNTER_EXPIRES_AT, 1),
+                new BasicDBObject("expireAfterSeconds", 0));
+
+        DBCollection clients = db.getCollection(CLIENTS_COLLECTION_NAME);
+        clients.createIndex(new BasicDBObject(CLIENTS_SCOPES, 1));
+        // client apps stored before the scopes field existed
+        DBCursor cursor = clients.find(new BasicDBObject(CLIENTS_SCOPES, new BasicDBObject("$exists", false)));
+        try {
+            while (cursor.hasNext()) {
+                DBObject client = cursor.next();
+                clients.update(new BasicDBObject(CLIENTS_ID, client.get(CLIENTS_ID)), new BasicDBObject("$set",
+                        new BasicDBObject(CLIENTS_SCOPES, scopeNames((String) client.get(CLIENTS_SCOPE)))));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static List<String> scopeNames(String scope) {
+        return new ArrayList<String>(ClientCredentials.scopeNames(scope));
     }
 
     /*
@@ -172,6 +211,21 @@ public class MongoDBManager implements DBManager {
         return null;
     }
 
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#consumeAuthCode(java.lang.String, java.lang.String)
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public AuthCode consumeAuthCode(String authCode, String redirectUri) {
+        BasicDBObject query = new BasicDBObject();
+        query.put(AUTH_CODE, authCode);
+        query.put(ACCESS_TOKEN_REDIRECT_URI, redirectUri);
+        query.put(ACCESS_TOKEN_VALID, true);
+        DBObject removed = db.getCollection(AUTH_CODE_COLLECTION_NAME).findAndModify(query, null, null, true, null,
+                false, false);
+        return (removed != null) ? AuthCode.loadFromMap(removed.toMap()) : null;
+    }
+
     /*
      * @see com.apifest.oauth20.persistence.DBManager#storeAccessToken(com.apifest.oauth20.AccessToken)
      */
@@ -357,6 +411,9 @@ public class MongoDBManager implements DBManager {
         // use ObjectMapper in order to represent expiresIn as integer not as double - 100 instead of 100.00
         Map<String, Object> result = new ObjectMapper().readValue(json, Map.class);
         BasicDBObject dbObject = new BasicDBObject(result);
+        if (object instanceof ClientCredentials) {
+            dbObject.put(CLIENTS_SCOPES, scopeNames(((ClientCredentials) object).getScope()));
+        }
 
         DBCollection coll = db.getCollection(collectionName);
         coll.insert(dbObject);
@@ -412,7 +469,8 @@ public class MongoDBManager implements DBManager {
         if (list.size() > 0) {
             DBObject newObject = list.get(0);
             if (scope != null && scope.length() > 0) {
-                newObject.put("scope", scope);
+                newObject.put(CLIENTS_SCOPE, scope);
+                newObject.put(CLIENTS_SCOPES, scopeNames(scope));
             }
             if (description != null && description.length() > 0) {
                 newObject.put("descr", description);
@@ -457,6 +515,15 @@ public class MongoDBManager implements DBManager {
         return list;
     }
 
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#isScopeUsed(java.lang.String)
+     */
+    @Override
+    public boolean isScopeUsed(String scopeName) {
+        DBCollection coll = db.getCollection(CLIENTS_COLLECTION_NAME);
+        return coll.findOne(new BasicDBObject(CLIENTS_SCOPES, scopeName), new BasicDBObject(CLIENTS_ID, 1)) != null;
+    }
+
     /*
      * @see com.apifest.oauth20.persistence.DBManager#deleteScope(java.lang.String)
      */
@@ -494,10 +561,67 @@ public class MongoDBManager implements DBManager {
         return accessTokens;
     }
 
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findClientAccessToken(java.lang.String, java.lang.String)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public AccessToken findClientAccessToken(String clientId, String scope) {
+        BasicDBObject dbObject = new BasicDBObject();
+        dbObject.put(CLIENTS_CLIENTID, clientId);
+        dbObject.put(ACCESS_TOKEN_SCOPE, scope);
+        dbObject.put(ACCESS_TOKEN_VALID, true);
+        dbObject.put(ACCESS_TOKEN_USER_ID, "");
+        dbObject.put(ACCESS_TOKEN_REFRESH_TOKEN_ID, "");
+        DBCollection coll = db.getCollection(ACCESS_TOKEN_COLLECTION_NAME);
+        List<DBObject> list = coll.find(dbObject).sort(new BasicDBObject(ACCESS_TOKEN_CREATED, -1)).limit(1).toArray();
+        if (list.isEmpty()) {
+            return null;
+        }
+        Map<String, Object> mapLoaded = list.get(0).toMap();
+        // convert details map to String
+        if (mapLoaded.get("details") instanceof BasicDBObject) {
+            BasicDBObject details = (BasicDBObject) mapLoaded.get("details");
+            mapLoaded.put("details", details.toString());
+        }
+        AccessToken accessToken = AccessToken.loadFromMap(mapLoaded);
+        return accessToken.tokenExpired() ? null : accessToken;
+    }
+
     @Override
     public void removeAccessToken(String accessToken) {
         BasicDBObject dbObject = new BasicDBObject(ACCESS_TOKEN_ID, accessToken);
         DBCollection coll = db.getCollection(ACCESS_TOKEN_COLLECTION_NAME);
         coll.remove(dbObject);
     }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#rotateAccessToken(java.lang.String, com.apifest.oauth20.AccessToken)
+     */
+    @Override
+    public boolean rotateAccessToken(String oldAccessToken, AccessToken newAccessToken) {
+        BasicDBObject query = new BasicDBObject(ACCESS_TOKEN_ID, oldAccessToken);
+        query.put(ACCESS_TOKEN_VALID, true);
+        DBCollection coll = db.getCollection(ACCESS_TOKEN_COLLECTION_NAME);
+        // removing the old token is the claim, only one of several concurrent refreshes finds it
+        DBObject removed = coll.findAndModify(query, null, null, true, null, false, false);
+        if (removed == null) {
+            return false;
+        }
+        storeAccessToken(newAccessToken);
+        return true;
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#incrementCounter(java.lang.String, long, int)
+     */
+    @Override
+    public long incrementCounter(String key, long delta, int expiresIn) {
+        BasicDBObject update = new BasicDBObject("$inc", new BasicDBObject(COUNTER_VALUE, delta));
+        update.put("$setOnInsert", new BasicDBObject(COUNTER_EXPIRES_AT,
+                new Date(System.currentTimeMillis() + expiresIn * 1000L)));
+        DBObject counter = db.getCollection(COUNTER_COLLECTION_NAME).findAndModify(new BasicDBObject(CLIENTS_ID, key),
+                null, null, false, update, true, true);
+        return ((Number) counter.get(COUNTER_VALUE)).longValue();
+    }
 }
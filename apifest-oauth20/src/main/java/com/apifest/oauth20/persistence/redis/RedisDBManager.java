@@ -20,11 +20,13 @@
 package com.apifest.oauth20.persistence.redis;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisSentinelPool;
 import redis.clients.jedis.ScanParams;
 import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisDataException;
 
 import com.apifest.oauth20.AccessToken;
 import com.apifest.oauth20.AuthCode;
@@ -38,16 +40,55 @@ public class RedisDBManager implements DBManager {
     private static final String ACCESS_TOKEN_PREFIX_NAME = "at:";
     private static final String ACCESS_TOKEN_BY_USER_ID_PREFIX_NAME = "atuid:";
     private static final String ACCESS_TOKEN_BY_REFRESH_TOKEN_PREFIX_NAME = "atr:";
+    private static final String ACCESS_TOKEN_BY_CLIENT_PREFIX_NAME = "atc:";
     
     private static final String CLIENT_CREDENTIALS_PREFIX_NAME = "cc:";
     private static final String CLIENT_CREDENTIALS_BY_NAME_PREFIX_NAME = "ncc:";
+    private static final String CLIENT_IDS_BY_SCOPE_PREFIX_NAME = "scc:";
+    // set once the client apps stored before the scope index existed have been indexed
+    private static final String CLIENT_IDS_BY_SCOPE_BUILT_NAME = "scc";
     
     private static final String AUTH_CODE_PREFIX_NAME = "acc:";
     private static final String AUTH_CODE_MAP_PREFIX_NAME = "acuri:";
     
     private static final String SCOPE_PREFIX_NAME = "sc:";
 
+    private static final String COUNTER_PREFIX_NAME = "cnt:";
+
+    // KEYS: old token, new token, refresh token mapping, user mapping
+    // ARGV: token ttl, user mapping ttl, new token, then the fields and values of the new token
+    static final String ROTATE_ACCESS_TOKEN_SCRIPT =
+            "if redis.call('hget', KEYS[1], 'valid') ~= 'true' then return 0 end\n"
+            + "redis.call('del', KEYS[1])\n"
+            + "redis.call('hmset', KEYS[2], unpack(ARGV, 4))\n"
+            + "redis.call('expire', KEYS[2], ARGV[1])\n"
+            + "redis.call('hset', KEYS[3], 'access_token', ARGV[3])\n"
+            + "redis.call('expire', KEYS[3], ARGV[1])\n"
+            + "redis.call('hset', KEYS[4], 'access_token', ARGV[3])\n"
+            + "redis.call('expire', KEYS[4], ARGV[2])\n"
+            + "return 1";
+
+    // KEYS: auth code, auth code by redirect URI mapping
+    // Redis 2.8 has no GETDEL, the lookup and the removal run in one script so that a code is returned only once
+    static final String CONSUME_AUTH_CODE_SCRIPT =
+            "if redis.call('exists', KEYS[2]) == 0 then return nil end\n"
+            + "local authCode = redis.call('hgetall', KEYS[1])\n"
+            + "if #authCode == 0 then return nil end\n"
+            + "for i = 1, #authCode, 2 do\n"
+            + "  if authCode[i] == 'valid' and authCode[i + 1] == 'false' then return nil end\n"
+            + "end\n"
+            + "redis.call('del', KEYS[1], KEYS[2])\n"
+            + "return authCode";
+
+    // KEYS: counter
+    // ARGV: delta, ttl of a new counter
+    static final String INCREMENT_COUNTER_SCRIPT =
+            "local value = redis.call('incrby', KEYS[1], ARGV[1])\n"
+            + "if value == tonumber(ARGV[1]) then redis.call('expire', KEYS[1], ARGV[2]) end\n"
+            + "return value";
+
     private JedisSentinelPool pool;
+    private final Map<String, String> scriptSHAs = new ConcurrentHashMap<String, String>();
     //private static String storeAuthCodeScript = "";
     //private static String storeAuthCodeSHA;
 
@@ -65,6 +106,10 @@ public class RedisDBManager implements DBManager {
         //pool.returnResource(jedis);
     }
 
+    public JedisSentinelPool getPool() {
+        return pool;
+    }
+
     /*
      * @see com.apifest.oauth20.persistence.DBManager#validClient(java.lang.String, java.lang.String)
      */
@@ -97,8 +142,10 @@ public class RedisDBManager implements DBManager {
         credentials.put("scope", String.valueOf(clientCreds.getScope()));
         credentials.put("details", JSONUtils.convertMapToJSON(clientCreds.getApplicationDetails()));
 		Jedis jedis = pool.getResource();
+        String previousScope = jedis.hget(CLIENT_CREDENTIALS_PREFIX_NAME + clientCreds.getId(), "scope");
         jedis.hmset(CLIENT_CREDENTIALS_PREFIX_NAME + clientCreds.getId(), credentials);
         jedis.hmset(CLIENT_CREDENTIALS_BY_NAME_PREFIX_NAME + clientCreds.getName(), credentials);
+        indexClientScope(jedis, clientCreds.getId(), previousScope, clientCreds.getScope());
         pool.returnResource(jedis);
     }
 
@@ -147,19 +194,7 @@ public class RedisDBManager implements DBManager {
      */
     @Override
     public void storeAccessToken(AccessToken accessToken) {
-        Map<String, String> accessTokenMap = new HashMap<String, String>();
-        accessTokenMap.put("token", accessToken.getToken());
-        accessTokenMap.put("refreshToken", accessToken.getRefreshToken());
-        accessTokenMap.put("expiresIn", accessToken.getExpiresIn());
-        accessTokenMap.put("type", accessToken.getType());
-        accessTokenMap.put("scope", accessToken.getScope());
-        accessTokenMap.put("valid", String.valueOf(accessToken.isValid()));
-        accessTokenMap.put("clientId", accessToken.getClientId());
-        accessTokenMap.put("codeId", accessToken.getCodeId());
-        accessTokenMap.put("userId", accessToken.getUserId());
-        accessTokenMap.put("created", String.valueOf(accessToken.getCreated()));
-        accessTokenMap.put("details", JSONUtils.convertMapToJSON(accessToken.getDetails()));
-        accessTokenMap.put("refreshExpiresIn", accessToken.getRefreshExpiresIn());
+        Map<String, String> accessTokenMap = toStringMap(accessToken);
         Jedis jedis = pool.getResource();
         jedis.hmset(ACCESS_TOKEN_PREFIX_NAME + accessToken.getToken(), accessTokenMap);
         Integer tokenExpiration = Integer.valueOf((!accessToken.getRefreshExpiresIn().isEmpty()) ? accessToken.getRefreshExpiresIn() : accessToken.getExpiresIn());
@@ -175,9 +210,33 @@ public class RedisDBManager implements DBManager {
         	+ accessToken.getUserId() + ":" + accessToken.getClientId() + ":" + uniqueId;
         jedis.hset(key, "access_token", accessToken.getToken());
         jedis.expire(key, Integer.valueOf(accessToken.getExpiresIn()));
+
+        // store the client_credentials tokens by client app and scope
+        if ((accessToken.getUserId() == null || accessToken.getUserId().isEmpty()) && accessToken.getRefreshToken().isEmpty()) {
+            key = ACCESS_TOKEN_BY_CLIENT_PREFIX_NAME + accessToken.getClientId() + ":" + accessToken.getScope();
+            jedis.hset(key, "access_token", accessToken.getToken());
+            jedis.expire(key, tokenExpiration);
+        }
         pool.returnResource(jedis);
     }
 
+    private static Map<String, String> toStringMap(AccessToken accessToken) {
+        Map<String, String> accessTokenMap = new HashMap<String, String>();
+        accessTokenMap.put("token", accessToken.getToken());
+        accessTokenMap.put("refreshToken", accessToken.getRefreshToken());
+        accessTokenMap.put("expiresIn", accessToken.getExpiresIn());
+        accessTokenMap.put("type", accessToken.getType());
+        accessTokenMap.put("scope", accessToken.getScope());
+        accessTokenMap.put("valid", String.valueOf(accessToken.isValid()));
+        accessTokenMap.put("clientId", accessToken.getClientId());
+        accessTokenMap.put("codeId", accessToken.getCodeId());
+        accessTokenMap.put("userId", accessToken.getUserId());
+        accessTokenMap.put("created", String.valueOf(accessToken.getCreated()));
+        accessTokenMap.put("details", JSONUtils.convertMapToJSON(accessToken.getDetails()));
+        accessTokenMap.put("refreshExpiresIn", accessToken.getRefreshExpiresIn());
+        return accessTokenMap;
+    }
+
     /*
      * @see com.apifest.oauth20.persistence.DBManager#findAccessTokenByRefreshToken(java.lang.String, java.lang.String)
      */
@@ -217,6 +276,17 @@ public class RedisDBManager implements DBManager {
         return AccessToken.loadFromStringMap(accessTokenMap);
     }
 
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#findClientAccessToken(java.lang.String, java.lang.String)
+     */
+    @Override
+    public AccessToken findClientAccessToken(String clientId, String scope) {
+        Jedis jedis = pool.getResource();
+        String accessToken = jedis.hget(ACCESS_TOKEN_BY_CLIENT_PREFIX_NAME + clientId + ":" + scope, "access_token");
+        pool.returnResource(jedis);
+        return (accessToken != null) ? findAccessToken(accessToken) : null;
+    }
+
     /*
      * @see com.apifest.oauth20.persistence.DBManager#findAuthCode(java.lang.String, java.lang.String)
      */
@@ -327,6 +397,7 @@ public class RedisDBManager implements DBManager {
 		String key = CLIENT_CREDENTIALS_PREFIX_NAME + clientId;
         Jedis jedis = pool.getResource();
         Map<String, String> clientApp = jedis.hgetAll(key);
+        String previousScope = clientApp.get("scope");
         if (scope != null && scope.length() > 0) {
             clientApp.put("scope", scope);
         }
@@ -340,6 +411,7 @@ public class RedisDBManager implements DBManager {
             clientApp.put("details", JSONUtils.convertMapToJSON(applicationDetails));
         }
         jedis.hmset(key, clientApp);
+        indexClientScope(jedis, clientId, previousScope, clientApp.get("scope"));
 		pool.returnResource(jedis);
         return true;
     }
@@ -351,7 +423,9 @@ public class RedisDBManager implements DBManager {
     public boolean deleteClientApp(String clientId) {
         String key = CLIENT_CREDENTIALS_PREFIX_NAME + clientId;
         Jedis jedis = pool.getResource();
+        String previousScope = jedis.hget(key, "scope");
         Long deleted = jedis.del(key);
+        indexClientScope(jedis, clientId, previousScope, null);
         pool.returnResource(jedis);
 
         // 1 if deleted, 0 - nothing deleted
@@ -384,6 +458,24 @@ public class RedisDBManager implements DBManager {
         return list;
     }
 
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#isScopeUsed(java.lang.String)
+     */
+    @Override
+    public boolean isScopeUsed(String scopeName) {
+        Jedis jedis = pool.getResource();
+        if (!jedis.exists(CLIENT_IDS_BY_SCOPE_BUILT_NAME)) {
+            for (ClientCredentials clientCreds : getAllApplications()) {
+                indexClientScope(jedis, clientCreds.getId(), null, clientCreds.getScope());
+            }
+            jedis.set(CLIENT_IDS_BY_SCOPE_BUILT_NAME, "true");
+        }
+        // Redis removes a set once its last member is removed
+        boolean used = jedis.exists(CLIENT_IDS_BY_SCOPE_PREFIX_NAME + scopeName);
+        pool.returnResource(jedis);
+        return used;
+    }
+
     /*
      * @see com.apifest.oauth20.persistence.DBManager#deleteScope(java.lang.String)
      */
@@ -436,4 +528,103 @@ public class RedisDBManager implements DBManager {
         pool.returnResource(jedis);
     }
 
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#rotateAccessToken(java.lang.String, com.apifest.oauth20.AccessToken)
+     */
+    @Override
+    public boolean rotateAccessToken(String oldAccessToken, AccessToken newAccessToken) {
+        Integer tokenExpiration = Integer.valueOf((!newAccessToken.getRefreshExpiresIn().isEmpty())
+                ? newAccessToken.getRefreshExpiresIn() : newAccessToken.getExpiresIn());
+        List<String> keys = Arrays.asList(ACCESS_TOKEN_PREFIX_NAME + oldAccessToken,
+                ACCESS_TOKEN_PREFIX_NAME + newAccessToken.getToken(),
+                ACCESS_TOKEN_BY_REFRESH_TOKEN_PREFIX_NAME + newAccessToken.getRefreshToken() + newAccessToken.getClientId(),
+                ACCESS_TOKEN_BY_USER_ID_PREFIX_NAME + newAccessToken.getUserId() + ":" + newAccessToken.getClientId()
+                        + ":" + System.currentTimeMillis());
+        List<String> args = new ArrayList<String>();
+        args.add(String.valueOf(tokenExpiration));
+        args.add(newAccessToken.getExpiresIn());
+        args.add(newAccessToken.getToken());
+        for (Map.Entry<String, String> entry : toStringMap(newAccessToken).entrySet()) {
+            if (entry.getValue() != null) {
+                args.add(entry.getKey());
+                args.add(entry.getValue());
+            }
+        }
+        Jedis jedis = pool.getResource();
+        try {
+            return Long.valueOf(1).equals(evalScript(jedis, ROTATE_ACCESS_TOKEN_SCRIPT, keys, args));
+        } finally {
+            pool.returnResource(jedis);
+        }
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#consumeAuthCode(java.lang.String, java.lang.String)
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public AuthCode consumeAuthCode(String authCode, String redirectUri) {
+        List<String> keys = Arrays.asList(AUTH_CODE_PREFIX_NAME + authCode,
+                AUTH_CODE_MAP_PREFIX_NAME + authCode + redirectUri);
+        Object result;
+        Jedis jedis = pool.getResource();
+        try {
+            result = evalScript(jedis, CONSUME_AUTH_CODE_SCRIPT, keys, Collections.<String>emptyList());
+        } finally {
+            pool.returnResource(jedis);
+        }
+        if (result == null) {
+            return null;
+        }
+        List<String> fields = (List<String>) result;
+        Map<String, String> authCodeMap = new HashMap<String, String>();
+        for (int i = 0; i + 1 < fields.size(); i += 2) {
+            authCodeMap.put(fields.get(i), fields.get(i + 1));
+        }
+        return AuthCode.loadFromStringMap(authCodeMap);
+    }
+
+    /*
+     * @see com.apifest.oauth20.persistence.DBManager#incrementCounter(java.lang.String, long, int)
+     */
+    @Override
+    public long incrementCounter(String key, long delta, int expiresIn) {
+        Jedis jedis = pool.getResource();
+        try {
+            return (Long) evalScript(jedis, INCREMENT_COUNTER_SCRIPT, Collections.singletonList(COUNTER_PREFIX_NAME + key),
+                    Arrays.asList(String.valueOf(delta), String.valueOf(expiresIn)));
+        } finally {
+            pool.returnResource(jedis);
+        }
+    }
+
+    private static void indexClientScope(Jedis jedis, String clientId, String oldScope, String newScope) {
+        Set<String> newNames = ClientCredentials.scopeNames(newScope);
+        for (String name : ClientCredentials.scopeNames(oldScope)) {
+            if (!newNames.contains(name)) {
+                jedis.srem(CLIENT_IDS_BY_SCOPE_PREFIX_NAME + name, clientId);
+            }
+        }
+        for (String name : newNames) {
+            jedis.sadd(CLIENT_IDS_BY_SCOPE_PREFIX_NAME + name, clientId);
+        }
+    }
+
+    private Object evalScript(Jedis jedis, String script, List<String> keys, List<String> args) {
+        String sha = scriptSHAs.get(script);
+        if (sha != null) {
+            try {
+                return jedis.evalsha(sha, keys, args);
+            } catch (JedisDataException e) {
+                if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT")) {
+                    throw e;
+                }
+                // the script cache was flushed or the master failed over
+            }
+        }
+        sha = jedis.scriptLoad(script);
+        scriptSHAs.put(script, sha);
+        return jedis.evalsha(sha, keys, args);
+    }
+
 }
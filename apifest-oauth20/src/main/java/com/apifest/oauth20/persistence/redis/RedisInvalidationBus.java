@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.JedisSentinelPool;
+
+import com.apifest.oauth20.persistence.CacheInvalidationBus;
+import com.apifest.oauth20.persistence.CacheInvalidationListener;
+
+/**
+ * Broadcasts cache invalidations through a Redis pub/sub channel. The subscription holds a dedicated connection
+ * in a daemon thread and is re-established when the connection is lost; the whole cache is then invalidated
+ * since messages published in the meantime are not delivered.
+ *
+ * @author Edouard De Oliveira
+ */
+public class RedisInvalidationBus implements CacheInvalidationBus {
+
+    protected static Logger log = LoggerFactory.getLogger(RedisInvalidationBus.class);
+
+    public static final String CHANNEL = "apifest:cache:invalidation";
+
+    private static final long RECONNECT_DELAY_MS = 1000;
+
+    private final JedisSentinelPool pool;
+
+    public RedisInvalidationBus(JedisSentinelPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void publish(String key) {
+        Jedis jedis = pool.getResource();
+        try {
+            jedis.publish(CHANNEL, key);
+        } finally {
+            pool.returnResource(jedis);
+        }
+    }
+
+    @Override
+    public void subscribe(final CacheInvalidationListener listener) {
+        Thread subscriber = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Jedis jedis = null;
+                    try {
+                        jedis = pool.getResource();
+                        jedis.subscribe(new InvalidationPubSub(listener), CHANNEL);
+                        pool.returnResource(jedis);
+                    } catch (RuntimeException e) {
+                        log.warn("cache invalidation subscription lost, reconnecting", e);
+                        if (jedis != null) {
+                            pool.returnBrokenResource(jedis);
+                        }
+                        try {
+                            Thread.sleep(RECONNECT_DELAY_MS);
+                        } catch (InterruptedException ie) {
+                            return;
+                        }
+                    }
+                }
+            }
+        }, "redis-cache-invalidation");
+        subscriber.setDaemon(true);
+        subscriber.start();
+    }
+
+    private static class InvalidationPubSub extends JedisPubSub {
+
+        private final CacheInvalidationListener listener;
+
+        InvalidationPubSub(CacheInvalidationListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onMessage(String channel, String message) {
+            listener.invalidate(message);
+        }
+
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            // entries changed while not subscribed are unknown
+            listener.invalidateAll();
+        }
+
+        @Override
+        public void onPMessage(String pattern, String channel, String message) {
+        }
+
+        @Override
+        public void onUnsubscribe(String channel, int subscribedChannels) {
+        }
+
+        @Override
+        public void onPUnsubscribe(String pattern, int subscribedChannels) {
+        }
+
+        @Override
+        public void onPSubscribe(String pattern, int subscribedChannels) {
+        }
+    }
+}
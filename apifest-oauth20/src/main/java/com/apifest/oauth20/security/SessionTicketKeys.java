@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.security;
+
+import java.security.SecureRandom;
+
+import org.jboss.netty.handler.ssl.OpenSslServerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rotates the keys of the stateless TLS session tickets issued by an OpenSSL context. New tickets are encrypted
+ * with the newest key while the previous one still decrypts the tickets issued before the last rotation, so that a
+ * ticket is valid between one and two rotation periods.
+ *
+ * @author Edouard De Oliveira
+ */
+public class SessionTicketKeys implements Runnable {
+
+    // key name, HMAC secret and AES key, 16 bytes each
+    protected static final int KEY_LENGTH = 48;
+
+    private static Logger log = LoggerFactory.getLogger(SessionTicketKeys.class);
+
+    private final OpenSslServerContext context;
+    private final SecureRandom random = new SecureRandom();
+    private byte[] current;
+
+    public SessionTicketKeys(OpenSslServerContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public void run() {
+        try {
+            context.setTicketKeys(nextKeys());
+        } catch (Exception e) {
+            log.error("cannot rotate the session ticket keys", e);
+        }
+    }
+
+    protected synchronized byte[] nextKeys() {
+        byte[] next = new byte[KEY_LENGTH];
+        random.nextBytes(next);
+        byte[] keys = new byte[(current == null) ? KEY_LENGTH : 2 * KEY_LENGTH];
+        System.arraycopy(next, 0, keys, 0, KEY_LENGTH);
+        if (current != null) {
+            System.arraycopy(current, 0, keys, KEY_LENGTH, KEY_LENGTH);
+        }
+        current = next;
+        return keys;
+    }
+}
@@ -1,55 +1,180 @@
 package com.apifest.oauth20.security;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
 import java.util.regex.Pattern;
 
 /**
- *
+ * Whitelist of IPv4 and IPv6 subnets in CIDR notation, compiled into a binary prefix trie per address family.
+ * An address is checked on its raw bytes in O(address bits), whatever the number of subnets.
  *
  * @author Edouard De Oliveira
  */
 public class SubnetRange {
 	private static Pattern pattern = Pattern.compile("[\\p{Blank},]");
-	private List<SubnetUtils> ranges = new ArrayList<SubnetUtils>();
-	
-	private SubnetRange() {
+
+	private final PrefixTrie ipv4 = new PrefixTrie(32);
+	private final PrefixTrie ipv6 = new PrefixTrie(128);
+	private final boolean inclusiveHostCount;
+	private boolean empty = true;
+
+	private SubnetRange(boolean inclusiveHostCount) {
+		this.inclusiveHostCount = inclusiveHostCount;
 	}
-	
+
 	/**
 	 * Returns true if no allowedIPs set
 	 */
-	public boolean inRange(String addr) {
-		if (ranges.isEmpty()) {
+	public boolean inRange(InetAddress addr) {
+		if (empty) {
 			return true;
 		}
+		byte[] bytes = addr.getAddress();
+		return (bytes.length == 4 ? ipv4 : ipv6).contains(bytes, inclusiveHostCount);
+	}
 
-		for (SubnetUtils s : ranges) {
-			if (s.getInfo().isInRange(addr))
-				return true;
+	/**
+	 * Returns true if no allowedIPs set, false if addr is not an IP address
+	 */
+	public boolean inRange(String addr) {
+		if (empty) {
+			return true;
 		}
-
-		return false;
+		byte[] bytes = parseAddress(addr);
+		return bytes != null && (bytes.length == 4 ? ipv4 : ipv6).contains(bytes, inclusiveHostCount);
 	}
-	
+
 	public static SubnetRange parse(String text, boolean inclusiveHostCount) throws IllegalArgumentException {
 		String[] cidrs = pattern.split(text);
-		SubnetRange sr = new SubnetRange();
-		
+		SubnetRange sr = new SubnetRange(inclusiveHostCount);
+
 		for (String cidr : cidrs) {
-			if (cidr.indexOf('/') < 0) {
-				cidr = cidr + "/32";
+			if (cidr.length() == 0) {
+				continue;
 			}
-			SubnetUtils net = new SubnetUtils(cidr);
-			net.setInclusiveHostCount(inclusiveHostCount);
-
-			if (net == null) {
+			int slash = cidr.indexOf('/');
+			byte[] address = parseAddress((slash < 0) ? cidr : cidr.substring(0, slash));
+			if (address == null) {
 				throw new IllegalArgumentException("Invalid subnet : " + cidr);
 			}
-
-			sr.ranges.add(net);
+			int prefixLength = address.length * 8;
+			if (slash >= 0) {
+				try {
+					prefixLength = Integer.parseInt(cidr.substring(slash + 1));
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Invalid subnet : " + cidr);
+				}
+				if (prefixLength < 0 || prefixLength > address.length * 8) {
+					throw new IllegalArgumentException("Invalid subnet : " + cidr);
+				}
+			}
+			(address.length == 4 ? sr.ipv4 : sr.ipv6).add(address, prefixLength);
+			sr.empty = false;
 		}
 
 		return sr;
 	}
+
+	// literal addresses only, a host name is never resolved
+	private static byte[] parseAddress(String addr) {
+		if (addr.indexOf(':') >= 0) {
+			try {
+				// an address with a colon is parsed as an IPv6 literal, without lookup
+				return InetAddress.getByName(addr).getAddress();
+			} catch (UnknownHostException e) {
+				return null;
+			}
+		}
+		byte[] bytes = new byte[4];
+		int octet = 0;
+		int value = -1;
+		for (int i = 0; i < addr.length(); i++) {
+			char c = addr.charAt(i);
+			if (c >= '0' && c <= '9') {
+				value = (value < 0 ? 0 : value * 10) + (c - '0');
+				if (value > 255) {
+					return null;
+				}
+			} else if (c == '.' && value >= 0 && octet < 3) {
+				bytes[octet++] = (byte) value;
+				value = -1;
+			} else {
+				return null;
+			}
+		}
+		if (octet != 3 || value < 0) {
+			return null;
+		}
+		bytes[3] = (byte) value;
+		return bytes;
+	}
+
+	/**
+	 * Binary trie of the subnet prefixes, stored in arrays: the children of node i are at 2i and 2i + 1 in
+	 * children (0 when missing, the root is node 0 and never a child).
+	 */
+	private static final class PrefixTrie {
+		private final int bits;
+		private int[] children = new int[32];
+		private boolean[] terminal = new boolean[16];
+		private int size = 1;
+
+		private PrefixTrie(int bits) {
+			this.bits = bits;
+		}
+
+		private void add(byte[] address, int prefixLength) {
+			int node = 0;
+			for (int depth = 0; depth < prefixLength; depth++) {
+				int child = 2 * node + bit(address, depth);
+				if (children[child] == 0) {
+					if (size == terminal.length) {
+						terminal = Arrays.copyOf(terminal, size * 2);
+						children = Arrays.copyOf(children, size * 4);
+					}
+					children[child] = size++;
+				}
+				node = children[child];
+			}
+			terminal[node] = true;
+		}
+
+		private boolean contains(byte[] address, boolean inclusiveHostCount) {
+			int node = 0;
+			for (int depth = 0; ; depth++) {
+				if (terminal[node] && (inclusiveHostCount || isHost(address, depth))) {
+					return true;
+				}
+				if (depth == bits) {
+					return false;
+				}
+				node = children[2 * node + bit(address, depth)];
+				if (node == 0) {
+					return false;
+				}
+			}
+		}
+
+		// not the network or broadcast address of a subnet with a prefix of the given length
+		private boolean isHost(byte[] address, int prefixLength) {
+			if (bits - prefixLength < 2) {
+				return true;
+			}
+			boolean zeros = true;
+			boolean ones = true;
+			for (int depth = prefixLength; depth < bits && (zeros || ones); depth++) {
+				if (bit(address, depth) == 0) {
+					ones = false;
+				} else {
+					zeros = false;
+				}
+			}
+			return !zeros && !ones;
+		}
+
+		private static int bit(byte[] address, int index) {
+			return (address[index >>> 3] >>> (7 - (index & 7))) & 1;
+		}
+	}
 }
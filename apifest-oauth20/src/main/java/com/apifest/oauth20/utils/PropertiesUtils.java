@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.utils;
+
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Utility class for reading typed values from the configuration properties.
+ *
+ * @author Edouard De Oliveira
+ */
+public final class PropertiesUtils {
+
+    private static Logger log = LoggerFactory.getLogger(PropertiesUtils.class);
+
+    private PropertiesUtils() {
+    }
+
+    public static String getString(Properties props, String name, String defaultValue) {
+        String value = props.getProperty(name);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    public static int getInt(Properties props, String name, int defaultValue) {
+        String value = getString(props, name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            log.warn("{} must be an integer, using {}", name, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static long getLong(Properties props, String name, long defaultValue) {
+        String value = getString(props, name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            log.warn("{} must be an integer, using {}", name, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(Properties props, String name, boolean defaultValue) {
+        String value = getString(props, name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value);
+    }
+
+    public static <E extends Enum<E>> E getEnum(Properties props, String name, Class<E> enumType, E defaultValue) {
+        String value = getString(props, name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(enumType, value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("invalid {} value {}, using {}", new Object[] { name, value, defaultValue });
+            return defaultValue;
+        }
+    }
+}
@@ -90,6 +90,8 @@ public class AuthorizationServerTest {
         authServer.clientCredentialsService = spy(new ClientCredentialsService());
         authServer.clientCredentialsService.db = authServer.db;
         authServer.scopeService = mock(ScopeService.class);
+        authServer.tokenReuseService = mock(TokenReuseService.class);
+        authServer.quotaService = mock(TokenQuotaService.class);
         OAuthException.log = mock(Logger.class);
         ApplicationInfo.log = mock(Logger.class);
     }
@@ -287,7 +289,7 @@ public class AuthorizationServerTest {
 
         String authCode = "eWPoZNvLxVDxuoVBCnGurPXefa#ttxKfryNbLPDvPFsFSkXVhreWW=HvULXWANTnhR=UEtkiaCxsOxgv_nTpqNWQFB-zGkQBHVoqQkjiWkyRuAHZWkFfn#sNeBhJVgOsR=F_vA"
                 + "mJwoOh_ooe#ovaJVCOiZls_DzvkhOnRVrlDRSzZrbZIB_rwGXjpoeXdJlIjZQGhSR#";
-        given(authServer.db.findAuthCode(authCode, redirectUri)).willReturn(mock(AuthCode.class));
+        given(authServer.db.consumeAuthCode(authCode, redirectUri)).willReturn(mock(AuthCode.class));
 
         HttpRequest req = mock(HttpRequest.class);
         String content = "redirect_uri=" + redirectUri
@@ -307,7 +309,7 @@ public class AuthorizationServerTest {
         }
 
         // THEN
-        verify(authServer).findAuthCode(any(TokenRequest.class));
+        verify(authServer).consumeAuthCode(any(TokenRequest.class));
         assertEquals(errorMsg, new TokenError(TokenErrorTypes.INVALID_CLIENT_CREDENTIALS).toString());
     }
 
@@ -320,7 +322,7 @@ public class AuthorizationServerTest {
                 + "mJwoOh_ooe#ovaJVCOiZls_DzvkhOnRVrlDRSzZrbZIB_rwGXjpoeXdJlIjZQGhSR#";
         AuthCode authCode = mock(AuthCode.class);
         given(authCode.getClientId()).willReturn(clientId);
-        given(authServer.db.findAuthCode(code, redirectUri)).willReturn(authCode);
+        given(authServer.db.consumeAuthCode(code, redirectUri)).willReturn(authCode);
 
         HttpRequest req = mock(HttpRequest.class);
         String content = "redirect_uri="
@@ -336,7 +338,38 @@ public class AuthorizationServerTest {
         authServer.issueAccessToken(req);
 
         // THEN
-        verify(authServer).findAuthCode(any(TokenRequest.class));
+        verify(authServer).consumeAuthCode(any(TokenRequest.class));
+    }
+
+    @Test
+    public void when_auth_code_already_exchanged_return_invalid_auth_code_error() throws Exception {
+        // GIVEN
+        String redirectUri = "example.com";
+        willReturn(true).given(authServer.clientCredentialsService).isActiveClientId(clientId);
+        AuthCode authCode = mock(AuthCode.class);
+        given(authCode.getClientId()).willReturn(clientId);
+        given(authServer.db.consumeAuthCode("code", redirectUri)).willReturn(authCode).willReturn(null);
+        willReturn(true).given(authServer.clientCredentialsService).isActiveClient(clientId, clientSecret);
+        String content = "redirect_uri=" + redirectUri + "&grant_type=authorization_code&code=code";
+        HttpRequest firstReq = mock(HttpRequest.class);
+        given(firstReq.getContent()).willReturn(ChannelBuffers.copiedBuffer(content.getBytes(CharsetUtil.UTF_8)));
+        willReturn(getAuthorizationBasicHeader()).given(firstReq).headers();
+        HttpRequest secondReq = mock(HttpRequest.class);
+        given(secondReq.getContent()).willReturn(ChannelBuffers.copiedBuffer(content.getBytes(CharsetUtil.UTF_8)));
+        willReturn(getAuthorizationBasicHeader()).given(secondReq).headers();
+        authServer.issueAccessToken(firstReq);
+
+        // WHEN
+        String errorMsg = null;
+        try {
+            authServer.issueAccessToken(secondReq);
+        } catch (OAuthException e) {
+            errorMsg = e.getMessage();
+        }
+
+        // THEN
+        verify(authServer.db, times(1)).storeAccessToken(any(AccessToken.class));
+        assertEquals(errorMsg, new TokenError(TokenErrorTypes.INVALID_AUTH_CODE).toString());
     }
 
     @Test
@@ -373,8 +406,8 @@ public class AuthorizationServerTest {
                 + "mJwoOh_ooe#ovaJVCOiZls_DzvkhOnRVrlDRSzZrbZIB_rwGXjpoeXdJlIjZQGhSR#";
         AuthCode authCode = mock(AuthCode.class);
         given(authCode.getClientId()).willReturn(clientId);
-        willReturn(authCode).given(authServer.db).findAuthCode(code, redirectUri1);
-        willReturn(authCode).given(authServer.db).findAuthCode(code, redirectUri2);
+        willReturn(authCode).given(authServer.db).consumeAuthCode(code, redirectUri1);
+        willReturn(authCode).given(authServer.db).consumeAuthCode(code, redirectUri2);
 
         HttpRequest req = mock(HttpRequest.class);
         String content = "redirect_uri="
@@ -390,7 +423,7 @@ public class AuthorizationServerTest {
         AccessToken token = authServer.issueAccessToken(req);
 
         // THEN
-        verify(authServer.db).findAuthCode(code, redirectUri2);
+        verify(authServer.db).consumeAuthCode(code, redirectUri2);
         assertNotNull(token);
     }
 
@@ -674,7 +707,7 @@ public class AuthorizationServerTest {
         AuthCode loadedCode = mock(AuthCode.class);
         given(loadedCode.getClientId()).willReturn(clientId);
         given(loadedCode.getRedirectUri()).willReturn(redirectUri);
-        given(authServer.db.findAuthCode(authCode, redirectUri2)).willReturn(loadedCode);
+        given(authServer.db.consumeAuthCode(authCode, redirectUri2)).willReturn(loadedCode);
 
         HttpRequest req = mock(HttpRequest.class);
         String content = "redirect_uri="
@@ -695,12 +728,12 @@ public class AuthorizationServerTest {
         }
 
         // THEN
-        verify(authServer).findAuthCode(any(TokenRequest.class));
+        verify(authServer).consumeAuthCode(any(TokenRequest.class));
         assertEquals(errorMsg, new TokenError(TokenErrorTypes.INVALID_REDIRECT_URI).toString());
     }
 
     @Test
-    public void when_grant_type_refresh_token_update_original_access_token_status()
+    public void when_grant_type_refresh_token_rotate_original_access_token()
             throws Exception {
         // GIVEN
         HttpRequest req = mock(HttpRequest.class);
@@ -715,15 +748,44 @@ public class AuthorizationServerTest {
         willReturn("02d31ca13a0e448802b063ca2e16010b74b0e96ce9e05e953e").given(accessToken).getToken();
         willReturn(refreshToken).given(accessToken).getRefreshToken();
         willReturn(accessToken).given(authServer.db).findAccessTokenByRefreshToken(refreshToken, clientId);
-        willDoNothing().given(authServer.db).updateAccessTokenValidStatus(anyString(), anyBoolean());
-        willDoNothing().given(authServer.db).storeAccessToken(any(AccessToken.class));
+        willReturn(true).given(authServer.db).rotateAccessToken(anyString(), any(AccessToken.class));
 
         // WHEN
         AccessToken result = authServer.issueAccessToken(req);
 
         // THEN
         assertNotNull(result.getRefreshToken());
-        verify(authServer.db).updateAccessTokenValidStatus(accessToken.getToken(), false);
+        verify(authServer.db).rotateAccessToken(accessToken.getToken(), result);
+        verify(authServer.db, never()).storeAccessToken(any(AccessToken.class));
+    }
+
+    @Test
+    public void when_refresh_token_already_rotated_return_invalid_refresh_token_error() throws Exception {
+        // GIVEN
+        HttpRequest req = mock(HttpRequest.class);
+        String refreshToken = "403b510679013ea1813b6fb5f76e7ddfedb8852d9eb8eef73";
+        String content = "grant_type=" + TokenRequest.REFRESH_TOKEN + "&refresh_token=" + refreshToken;
+        ChannelBuffer buf = ChannelBuffers.copiedBuffer(content.getBytes(CharsetUtil.UTF_8));
+        given(req.getContent()).willReturn(buf);
+
+        willReturn(getAuthorizationBasicHeader()).given(req).headers();
+        willReturn(true).given(authServer.clientCredentialsService).isActiveClient(clientId, clientSecret);
+        AccessToken accessToken = mock(AccessToken.class);
+        willReturn("02d31ca13a0e448802b063ca2e16010b74b0e96ce9e05e953e").given(accessToken).getToken();
+        willReturn(refreshToken).given(accessToken).getRefreshToken();
+        willReturn(accessToken).given(authServer.db).findAccessTokenByRefreshToken(refreshToken, clientId);
+        willReturn(false).given(authServer.db).rotateAccessToken(anyString(), any(AccessToken.class));
+
+        // WHEN
+        String errorMsg = null;
+        try {
+            authServer.issueAccessToken(req);
+        } catch (OAuthException e) {
+            errorMsg = e.getMessage();
+        }
+
+        // THEN
+        assertEquals(errorMsg, new TokenError(TokenErrorTypes.INVALID_REFRESH_TOKEN).toString());
     }
 
     @Test
@@ -751,6 +813,58 @@ public class AuthorizationServerTest {
         assert ("".equals(result.getRefreshToken()));
     }
 
+    @Test
+    public void when_client_quota_exceeded_throw_exception_before_issuing_token() throws Exception {
+        // GIVEN
+        HttpRequest req = mock(HttpRequest.class);
+        String content = "grant_type=" + TokenRequest.CLIENT_CREDENTIALS + "&scope=basic";
+        ChannelBuffer buf = ChannelBuffers.copiedBuffer(content.getBytes(CharsetUtil.UTF_8));
+        given(req.getContent()).willReturn(buf);
+        willReturn(getAuthorizationBasicHeader()).given(req).headers();
+        willReturn(true).given(authServer.clientCredentialsService).isActiveClient(clientId, clientSecret);
+        willReturn(42L).given(authServer.quotaService).tryConsume(clientId);
+
+        // WHEN
+        QuotaExceededException exception = null;
+        try {
+            authServer.issueAccessToken(req);
+        } catch (QuotaExceededException e) {
+            exception = e;
+        }
+
+        // THEN
+        assertEquals(exception.getHttpStatus(), HttpResponseStatus.TOO_MANY_REQUESTS);
+        assertEquals(exception.getRetryAfter(), 42L);
+        verify(authServer.db, never()).storeAccessToken(any(AccessToken.class));
+    }
+
+    @Test
+    public void when_grant_type_client_credentials_and_token_reusable_do_not_store_new_token() throws Exception {
+        // GIVEN
+        HttpRequest req = mock(HttpRequest.class);
+        String content = "grant_type=" + TokenRequest.CLIENT_CREDENTIALS + "&scope=basic";
+        ChannelBuffer buf = ChannelBuffers.copiedBuffer(content.getBytes(CharsetUtil.UTF_8));
+        given(req.getContent()).willReturn(buf);
+
+        ClientCredentials clientCredentials = new ClientCredentials();
+        clientCredentials.setScope("basic");
+        clientCredentials.setId(clientId);
+        given(authServer.db.findClientCredentials(clientId)).willReturn(clientCredentials);
+        willReturn("basic").given(authServer.scopeService).getValidScopeByScope(anyString(), anyString());
+        AccessToken reusable = new AccessToken("Bearer", "1200", "basic", false, null);
+        willReturn(reusable).given(authServer.tokenReuseService).findReusableToken(clientId, "basic");
+        willReturn(getAuthorizationBasicHeader()).given(req).headers();
+        willReturn(true).given(authServer.clientCredentialsService).isActiveClient(clientId, clientSecret);
+
+        // WHEN
+        AccessToken result = authServer.issueAccessToken(req);
+
+        // THEN
+        assertEquals(result, reusable);
+        verify(authServer.db, never()).storeAccessToken(any(AccessToken.class));
+        verify(authServer.tokenReuseService, never()).tokenIssued(any(AccessToken.class));
+    }
+
     @Test
     public void when_grant_type_password_issue_access_token_with_refresh_token() throws Exception {
         // GIVEN
@@ -883,8 +997,7 @@ public class AuthorizationServerTest {
         willReturn("basic").given(accessToken).getScope();
         willReturn("02d31ca13a0e448802b063ca2e16010b74b0e96ce9e05e953e").given(accessToken).getToken();
         willReturn(accessToken).given(authServer.db).findAccessTokenByRefreshToken(refreshToken, clientId);
-        willDoNothing().given(authServer.db).updateAccessTokenValidStatus(anyString(), anyBoolean());
-        willDoNothing().given(authServer.db).storeAccessToken(any(AccessToken.class));
+        willReturn(true).given(authServer.db).rotateAccessToken(anyString(), any(AccessToken.class));
         willReturn(900).given(authServer.scopeService).getExpiresIn(TokenRequest.PASSWORD, "basic");
 
         // WHEN
@@ -1216,8 +1329,7 @@ public class AuthorizationServerTest {
         willReturn("02d31ca13a0e448802b063ca2e16010b74b0e96ce9e05e953e").given(accessToken).getToken();
         willReturn("basic").given(accessToken).getScope();
         willReturn(accessToken).given(authServer.db).findAccessTokenByRefreshToken(refreshToken, clientId);
-        willDoNothing().given(authServer.db).updateAccessTokenValidStatus(anyString(), anyBoolean());
-        willDoNothing().given(authServer.db).storeAccessToken(any(AccessToken.class));
+        willReturn(true).given(authServer.db).rotateAccessToken(anyString(), any(AccessToken.class));
 
         // WHEN
         AccessToken result = authServer.issueAccessToken(req);
@@ -1244,8 +1356,7 @@ public class AuthorizationServerTest {
         willReturn("basic, extended").given(accessToken).getScope();
         willReturn(true).given(authServer.scopeService).scopeAllowed(anyString(), anyString());
         willReturn(accessToken).given(authServer.db).findAccessTokenByRefreshToken(refreshToken, clientId);
-        willDoNothing().given(authServer.db).updateAccessTokenValidStatus(anyString(), anyBoolean());
-        willDoNothing().given(authServer.db).storeAccessToken(any(AccessToken.class));
+        willReturn(true).given(authServer.db).rotateAccessToken(anyString(), any(AccessToken.class));
 
         // WHEN
         AccessToken result = authServer.issueAccessToken(req);
@@ -1272,8 +1383,7 @@ public class AuthorizationServerTest {
         willReturn("basic, extended").given(accessToken).getScope();
         willReturn(false).given(authServer.scopeService).scopeAllowed(anyString(), anyString());
         willReturn(accessToken).given(authServer.db).findAccessTokenByRefreshToken(refreshToken, clientId);
-        willDoNothing().given(authServer.db).updateAccessTokenValidStatus(anyString(), anyBoolean());
-        willDoNothing().given(authServer.db).storeAccessToken(any(AccessToken.class));
+        willReturn(true).given(authServer.db).rotateAccessToken(anyString(), any(AccessToken.class));
 
         // WHEN
         String errorMsg = null;
@@ -1688,8 +1798,7 @@ public class AuthorizationServerTest {
         willReturn("02d31ca13a0e448802b063ca2e16010b74b0e96ce9e05e953e").given(accessToken).getToken();
         willReturn(refreshToken).given(accessToken).getRefreshToken();
         willReturn(accessToken).given(authServer.db).findAccessTokenByRefreshToken(refreshToken, clientId);
-        willDoNothing().given(authServer.db).updateAccessTokenValidStatus(anyString(), anyBoolean());
-        willDoNothing().given(authServer.db).storeAccessToken(any(AccessToken.class));
+        willReturn(true).given(authServer.db).rotateAccessToken(anyString(), any(AccessToken.class));
         willReturn(900).given(authServer.scopeService).getExpiresIn(TokenRequest.PASSWORD, "basic");
 
         // WHEN
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+/**
+ * @author Edouard De Oliveira
+ */
+public class ConcurrencyLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(1000);
+
+    private ConcurrencyLimiter limiter(int limit) {
+        return new ConcurrencyLimiter(new ConcurrencyLimitSettings().setLimit(limit).setMinLimit(2).setMaxLimit(20)
+                .setLatency(100).setAdminShare(50));
+    }
+
+    @Test
+    public void when_disabled_accept_all_requests() throws Exception {
+        // GIVEN
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(new ConcurrencyLimitSettings());
+
+        // WHEN
+        boolean accepted = true;
+        for (int i = 0; i < 1000; i++) {
+            accepted &= limiter.tryAcquire(ConcurrencyLimiter.Priority.ADMIN);
+        }
+
+        // THEN
+        assertTrue(accepted);
+        assertEquals(limiter.getInFlight(), 0);
+    }
+
+    @Test
+    public void when_admin_share_used_reject_admin_requests_first() throws Exception {
+        // GIVEN
+        ConcurrencyLimiter limiter = limiter(4);
+        limiter.tryAcquire(ConcurrencyLimiter.Priority.ADMIN);
+        limiter.tryAcquire(ConcurrencyLimiter.Priority.ADMIN);
+
+        // WHEN
+        boolean admin = limiter.tryAcquire(ConcurrencyLimiter.Priority.ADMIN);
+        boolean critical = limiter.tryAcquire(ConcurrencyLimiter.Priority.CRITICAL);
+
+        // THEN
+        assertFalse(admin);
+        assertTrue(critical);
+    }
+
+    @Test
+    public void when_limit_reached_reject_critical_requests() throws Exception {
+        // GIVEN
+        ConcurrencyLimiter limiter = limiter(2);
+        limiter.tryAcquire(ConcurrencyLimiter.Priority.CRITICAL);
+        limiter.tryAcquire(ConcurrencyLimiter.Priority.CRITICAL);
+
+        // WHEN
+        boolean rejected = !limiter.tryAcquire(ConcurrencyLimiter.Priority.CRITICAL);
+        limiter.release(ConcurrencyLimiter.Priority.CRITICAL, FAST);
+        boolean accepted = limiter.tryAcquire(ConcurrencyLimiter.Priority.CRITICAL);
+
+        // THEN
+        assertTrue(rejected);
+        assertTrue(accepted);
+    }
+
+    @Test
+    public void when_request_slow_decrease_limit_once() throws Exception {
+        // GIVEN
+        ConcurrencyLimiter limiter = limiter(10);
+        for (int i = 0; i < 5; i++) {
+            limiter.tryAcquire(ConcurrencyLimiter.Priority.CRITICAL);
+        }
+
+        // WHEN
+        for (int i = 0; i < 5; i++) {
+            limiter.release(ConcurrencyLimiter.Priority.CRITICAL, SLOW);
+        }
+
+        // THEN
+        assertEquals(limiter.getLimit(), 9);
+        assertEquals(limiter.getInFlight(), 0);
+    }
+
+    @Test
+    public void when_admin_request_slow_keep_limit() throws Exception {
+        // GIVEN
+        ConcurrencyLimiter limiter = limiter(10);
+        limiter.tryAcquire(ConcurrencyLimiter.Priority.ADMIN);
+
+        // WHEN
+        limiter.release(ConcurrencyLimiter.Priority.ADMIN, SLOW);
+
+        // THEN
+        assertEquals(limiter.getLimit(), 10);
+        assertEquals(limiter.getInFlight(), 0);
+    }
+
+    @Test
+    public void when_requests_fast_and_limit_used_increase_limit() throws Exception {
+        // GIVEN
+        ConcurrencyLimiter limiter = limiter(4);
+
+        // WHEN
+        for (int i = 0; i < 40; i++) {
+            for (int j = 0; j < 3; j++) {
+                limiter.tryAcquire(ConcurrencyLimiter.Priority.CRITICAL);
+            }
+            for (int j = 0; j < 3; j++) {
+                limiter.release(ConcurrencyLimiter.Priority.CRITICAL, FAST);
+            }
+        }
+
+        // THEN
+        assertTrue(limiter.getLimit() > 4);
+    }
+
+    @Test
+    public void when_requests_fast_and_limit_not_used_keep_limit() throws Exception {
+        // GIVEN
+        ConcurrencyLimiter limiter = limiter(10);
+
+        // WHEN
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire(ConcurrencyLimiter.Priority.CRITICAL);
+            limiter.release(ConcurrencyLimiter.Priority.CRITICAL, FAST);
+        }
+
+        // THEN
+        assertEquals(limiter.getLimit(), 10);
+    }
+}
@@ -25,6 +25,7 @@ import static org.mockito.Mockito.*;
 import static org.testng.Assert.*;
 
 import java.io.File;
+import java.net.InetAddress;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.List;
@@ -46,6 +47,7 @@ import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
 import org.jboss.netty.handler.codec.http.HttpVersion;
 import org.jboss.netty.util.CharsetUtil;
+import org.mockito.ArgumentCaptor;
 import org.slf4j.Logger;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -248,6 +250,63 @@ public class HttpRequestHandlerTest {
         verify(handler).handleUpdateScope(req);
     }
 
+    @Test
+    public void when_concurrency_limit_reached_reject_admin_request_with_503() throws Exception {
+        // GIVEN
+        ChannelHandlerContext ctx = mockChannelHandlerContext();
+        MessageEvent event = mock(MessageEvent.class);
+        HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, HttpRequestHandler.APPLICATION_URI);
+        willReturn(req).given(event).getMessage();
+        handler.concurrencyLimiter = mock(ConcurrencyLimiter.class);
+        willReturn(false).given(handler.concurrencyLimiter).tryAcquire(ConcurrencyLimiter.Priority.ADMIN);
+        willReturn(2L).given(handler.concurrencyLimiter).getRetryAfter();
+
+        // WHEN
+        handler.messageReceived(ctx, event);
+
+        // THEN
+        verify(handler, never()).handleGetAllClientApplications(req);
+        verify(handler.concurrencyLimiter, never()).release(any(ConcurrencyLimiter.Priority.class), anyLong());
+        ArgumentCaptor<HttpResponse> captor = ArgumentCaptor.forClass(HttpResponse.class);
+        verify(ctx.getChannel()).write(captor.capture());
+        assertEquals(captor.getValue().getStatus(), HttpResponseStatus.SERVICE_UNAVAILABLE);
+        assertEquals(captor.getValue().headers().get(HttpHeaders.Names.RETRY_AFTER), "2");
+    }
+
+    @Test
+    public void when_admin_route_requested_on_token_listener_return_not_found() throws Exception {
+        // GIVEN
+        ChannelHandlerContext ctx = mockChannelHandlerContext();
+        MessageEvent event = mock(MessageEvent.class);
+        HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, HttpRequestHandler.APPLICATION_URI);
+        willReturn(req).given(event).getMessage();
+        handler.concurrencyLimiter = mock(ConcurrencyLimiter.class);
+        handler.setPlane(ConcurrencyLimiter.Priority.CRITICAL);
+
+        // WHEN
+        handler.messageReceived(ctx, event);
+
+        // THEN
+        verify(handler, never()).handleGetAllClientApplications(req);
+        verify(handler.concurrencyLimiter, never()).tryAcquire(ConcurrencyLimiter.Priority.ADMIN);
+        ArgumentCaptor<HttpResponse> captor = ArgumentCaptor.forClass(HttpResponse.class);
+        verify(ctx.getChannel()).write(captor.capture());
+        assertEquals(captor.getValue().getStatus(), HttpResponseStatus.NOT_FOUND);
+    }
+
+    @Test
+    public void when_token_validated_use_critical_priority() throws Exception {
+        // WHEN
+        ConcurrencyLimiter.Priority validate = handler.getPriority(HttpMethod.GET, HttpRequestHandler.ACCESS_TOKEN_VALIDATE_URI);
+        ConcurrencyLimiter.Priority issue = handler.getPriority(HttpMethod.POST, HttpRequestHandler.ACCESS_TOKEN_URI);
+        ConcurrencyLimiter.Priority list = handler.getPriority(HttpMethod.GET, HttpRequestHandler.ACCESS_TOKEN_URI);
+
+        // THEN
+        assertEquals(validate, ConcurrencyLimiter.Priority.CRITICAL);
+        assertEquals(issue, ConcurrencyLimiter.Priority.CRITICAL);
+        assertEquals(list, ConcurrencyLimiter.Priority.ADMIN);
+    }
+
     @Test
     public void when_handle_updateScope_invoke_scope_service_update() throws Exception {
         // GIVEN
@@ -754,6 +813,23 @@ public class HttpRequestHandlerTest {
         assertEquals(response.getContent().toString(CharsetUtil.UTF_8), ClientCredentialsService.INACTIVE_CLIENT_CREDENTIALS);
     }
 
+    @Test
+    public void when_token_requests_are_rate_limited_return_429_without_issuing_token() throws Exception {
+        // GIVEN
+        HttpRequest req = testState(null, false);
+        handler.rateLimiter = mock(TokenRateLimiter.class);
+        willReturn(3L).given(handler.rateLimiter).tryAcquire(eq("218900b6c8d973881cf4185ecf"), any(InetAddress.class));
+
+        // WHEN
+        HttpResponse response = handler.handleToken(req);
+
+        // THEN
+        assertEquals(response.getStatus(), HttpResponseStatus.TOO_MANY_REQUESTS);
+        assertEquals(response.headers().get(HttpHeaders.Names.RETRY_AFTER), "3");
+        assertEquals(response.getContent().toString(CharsetUtil.UTF_8), Response.TOO_MANY_REQUESTS);
+        verifyZeroInteractions(handler.auth.db);
+    }
+
     private HttpRequest testState(String state, boolean raiseError) {
         // GIVEN
         HttpRequest req = mock(HttpRequest.class);
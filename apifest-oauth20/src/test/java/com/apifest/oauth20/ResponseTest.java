@@ -22,9 +22,12 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.testng.Assert.assertEquals;
 
+import java.nio.ReadOnlyBufferException;
+
 import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.util.CharsetUtil;
 import org.testng.annotations.Test;
 
 /**
@@ -159,4 +162,41 @@ public class ResponseTest {
         // THEN
         assertEquals(response.headers().get(HttpHeaders.Names.CONTENT_LENGTH), "0");
     }
+
+    @Test
+    public void when_constant_message_return_independent_views_of_the_encoded_body() throws Exception {
+        // GIVEN
+        HttpResponse first = Response.createNotFoundResponse();
+        HttpResponse second = Response.createNotFoundResponse();
+
+        // WHEN
+        first.getContent().skipBytes(first.getContent().readableBytes());
+
+        // THEN
+        assertEquals(first.getContent().readableBytes(), 0);
+        assertEquals(second.getContent().toString(CharsetUtil.UTF_8), Response.NOT_FOUND);
+        assertEquals(second.headers().get(HttpHeaders.Names.CONTENT_LENGTH), String.valueOf(Response.NOT_FOUND.length()));
+    }
+
+    @Test(expectedExceptions = ReadOnlyBufferException.class)
+    public void when_constant_message_body_cannot_be_modified() throws Exception {
+        // GIVEN
+        HttpResponse response = Response.createNotFoundResponse();
+
+        // WHEN
+        response.getContent().setByte(0, 'x');
+    }
+
+    @Test
+    public void when_dynamic_message_set_utf8_content_length() throws Exception {
+        // GIVEN
+        String message = "{\"description\":\"caf\u00e9\"}";
+
+        // WHEN
+        HttpResponse response = Response.createOkResponse(message);
+
+        // THEN
+        assertEquals(response.getContent().toString(CharsetUtil.UTF_8), message);
+        assertEquals(response.headers().get(HttpHeaders.Names.CONTENT_LENGTH), String.valueOf(message.length() + 1));
+    }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.mockito.BDDMockito.willReturn;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Edouard De Oliveira
+ */
+public class ScopeRegistryTest {
+
+    ScopeRegistry registry;
+
+    @BeforeMethod
+    public void setup() {
+        MockDBManagerFactory.install();
+        registry = new ScopeRegistry(60000L);
+    }
+
+    private static Scope scope(String name, Integer ccExpiresIn, int passExpiresIn, Integer refreshExpiresIn) {
+        Scope scope = new Scope();
+        scope.setScope(name);
+        scope.setCcExpiresIn(ccExpiresIn);
+        scope.setPassExpiresIn(passExpiresIn);
+        scope.setRefreshExpiresIn(refreshExpiresIn);
+        return scope;
+    }
+
+    @Test
+    public void when_all_scopes_allowed_return_true() throws Exception {
+        // WHEN
+        boolean allowed = registry.allowed("extended basic", "basic payment extended");
+
+        // THEN
+        assertTrue(allowed);
+    }
+
+    @Test
+    public void when_one_scope_not_allowed_return_false() throws Exception {
+        // WHEN
+        boolean allowed = registry.allowed("basic payment", "basic extended");
+
+        // THEN
+        assertFalse(allowed);
+    }
+
+    @Test
+    public void when_scope_is_prefix_of_allowed_scope_return_false() throws Exception {
+        // WHEN
+        boolean allowed = registry.allowed("basic", "basic_extended");
+
+        // THEN
+        assertFalse(allowed);
+    }
+
+    @Test
+    public void when_scope_is_empty_return_false() throws Exception {
+        // WHEN
+        boolean allowed = registry.allowed("", "basic");
+
+        // THEN
+        assertFalse(allowed);
+    }
+
+    @Test
+    public void when_many_scopes_interned_check_them_all() throws Exception {
+        // GIVEN
+        StringBuilder allowedScopes = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            allowedScopes.append("scope").append(i).append(' ');
+        }
+
+        // WHEN
+        boolean allowed = registry.allowed("scope0 scope64 scope199", allowedScopes.toString());
+        boolean notAllowed = registry.allowed("scope0 scope200", allowedScopes.toString());
+
+        // THEN
+        assertTrue(allowed);
+        assertFalse(notAllowed);
+    }
+
+    @Test
+    public void when_several_scopes_return_min_expires_in_per_grant_type() throws Exception {
+        // GIVEN
+        List<Scope> scopes = new ArrayList<Scope>();
+        scopes.add(scope("basic", 900, 300, 1800));
+        scopes.add(scope("extended", 600, 400, 3600));
+        willReturn(scopes).given(DBManagerFactory.dbManager).getAllScopes();
+
+        // THEN
+        assertEquals(registry.getExpiresIn(TokenRequest.CLIENT_CREDENTIALS, "basic extended"), 600);
+        assertEquals(registry.getExpiresIn(TokenRequest.PASSWORD, "basic extended"), 300);
+        assertEquals(registry.getExpiresIn(TokenRequest.REFRESH_TOKEN, "basic extended"), 1800);
+        verify(DBManagerFactory.dbManager, times(1)).getAllScopes();
+    }
+
+    @Test
+    public void when_scope_not_registered_or_expires_in_not_set_return_max_value() throws Exception {
+        // GIVEN
+        List<Scope> scopes = new ArrayList<Scope>();
+        scopes.add(scope("basic", null, 300, null));
+        willReturn(scopes).given(DBManagerFactory.dbManager).getAllScopes();
+
+        // THEN
+        assertEquals(registry.getExpiresIn(TokenRequest.CLIENT_CREDENTIALS, "basic"), Integer.MAX_VALUE);
+        assertEquals(registry.getExpiresIn(TokenRequest.PASSWORD, "unknown"), Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void when_invalidated_reload_scopes() throws Exception {
+        // GIVEN
+        List<Scope> scopes = new ArrayList<Scope>();
+        scopes.add(scope("basic", 900, 300, 1800));
+        List<Scope> updatedScopes = new ArrayList<Scope>();
+        updatedScopes.add(scope("basic", 120, 300, 1800));
+        willReturn(scopes).willReturn(updatedScopes).given(DBManagerFactory.dbManager).getAllScopes();
+        registry.getExpiresIn(TokenRequest.CLIENT_CREDENTIALS, "basic");
+
+        // WHEN
+        registry.invalidate();
+        int expiresIn = registry.getExpiresIn(TokenRequest.CLIENT_CREDENTIALS, "basic");
+
+        // THEN
+        assertEquals(expiresIn, 120);
+        verify(DBManagerFactory.dbManager, times(2)).getAllScopes();
+    }
+
+    @Test
+    public void when_reload_fails_keep_previous_scopes() throws Exception {
+        // GIVEN
+        List<Scope> scopes = new ArrayList<Scope>();
+        scopes.add(scope("basic", 900, 300, 1800));
+        willReturn(scopes).given(DBManagerFactory.dbManager).getAllScopes();
+        registry.getExpiresIn(TokenRequest.CLIENT_CREDENTIALS, "basic");
+        ScopeRegistry.log = mock(Logger.class);
+        willThrow(new RuntimeException("db down")).given(DBManagerFactory.dbManager).getAllScopes();
+
+        // WHEN
+        registry.invalidate();
+        int expiresIn = registry.getExpiresIn(TokenRequest.CLIENT_CREDENTIALS, "basic");
+
+        // THEN
+        assertEquals(expiresIn, 900);
+    }
+}
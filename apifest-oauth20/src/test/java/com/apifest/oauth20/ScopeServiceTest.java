@@ -50,6 +50,7 @@ public class ScopeServiceTest {
         ScopeService.log = mock(Logger.class);
         service = spy(new ScopeService());
         MockDBManagerFactory.install();
+        service.scopeRegistry = new ScopeRegistry(60000L);
     }
 
     @Test
@@ -228,7 +229,7 @@ public class ScopeServiceTest {
         scope.setPassExpiresIn(300);
         List<Scope> loadedScope = new ArrayList<Scope>();
         loadedScope.add(scope);
-        willReturn(loadedScope).given(service).loadScopes(scopeName);
+        willReturn(loadedScope).given(DBManagerFactory.dbManager).getAllScopes();
 
         // WHEN
         int result = service.getExpiresIn("client_credentials", scopeName);
@@ -247,7 +248,7 @@ public class ScopeServiceTest {
         scope.setPassExpiresIn(300);
         List<Scope> loadedScope = new ArrayList<Scope>();
         loadedScope.add(scope);
-        willReturn(loadedScope).given(service).loadScopes(scopeName);
+        willReturn(loadedScope).given(DBManagerFactory.dbManager).getAllScopes();
 
         // WHEN
         int result = service.getExpiresIn("password", scopeName);
@@ -274,7 +275,7 @@ public class ScopeServiceTest {
         scope2.setPassExpiresIn(180);
         loadedScope.add(scope2);
 
-        willReturn(loadedScope).given(service).loadScopes(scopeName);
+        willReturn(loadedScope).given(DBManagerFactory.dbManager).getAllScopes();
 
         // WHEN
         int result = service.getExpiresIn("password", scopeName);
@@ -301,7 +302,7 @@ public class ScopeServiceTest {
         scope2.setPassExpiresIn(180);
         loadedScope.add(scope2);
 
-        willReturn(loadedScope).given(service).loadScopes(scopeName);
+        willReturn(loadedScope).given(DBManagerFactory.dbManager).getAllScopes();
 
         // WHEN
         int result = service.getExpiresIn("client_credentials", scopeName);
@@ -314,7 +315,7 @@ public class ScopeServiceTest {
     public void when_no_loaded_scopes_and_CC_set_default_CC_expires_in() throws Exception {
         // GIVEN
         String scopeName = "not_existing";
-        willReturn(Collections.EMPTY_LIST).given(service).loadScopes(scopeName);
+        willReturn(Collections.EMPTY_LIST).given(DBManagerFactory.dbManager).getAllScopes();
 
         // WHEN
         int result = service.getExpiresIn("client_credentials", scopeName);
@@ -327,7 +328,7 @@ public class ScopeServiceTest {
     public void when_no_loaded_scopes_and_PASS_set_default_PASS_expires_in() throws Exception {
         // GIVEN
         String scopeName = "not_existing";
-        willReturn(Collections.EMPTY_LIST).given(service).loadScopes(scopeName);
+        willReturn(Collections.EMPTY_LIST).given(DBManagerFactory.dbManager).getAllScopes();
 
         // WHEN
         int result = service.getExpiresIn("password", scopeName);
@@ -772,31 +773,24 @@ public class ScopeServiceTest {
     }
 
     @Test
-    public void when_application_uses_scope_add_it_to_result() throws Exception {
+    public void when_application_uses_scope_return_true() throws Exception {
         // GIVEN
         String scope = "scope";
-        List<ClientCredentials> apps = new ArrayList<ClientCredentials>();
-        ClientCredentials app = mock(ClientCredentials.class);
-        willReturn("someScope" + " " + scope).given(app).getScope();
-        apps.add(app);
-        willReturn(apps).given(DBManagerFactory.dbManager).getAllApplications();
+        willReturn(true).given(DBManagerFactory.dbManager).isScopeUsed(scope);
 
         // WHEN
         boolean found = service.checkForClientAppByScope(scope);
 
         // THEN
         assertTrue(found);
+        verify(DBManagerFactory.dbManager, never()).getAllApplications();
     }
 
     @Test
     public void when_no_application_uses_scope_return_false() throws Exception {
         // GIVEN
         String scope = "scope";
-        List<ClientCredentials> apps = new ArrayList<ClientCredentials>();
-        ClientCredentials app = mock(ClientCredentials.class);
-        willReturn("someScope").given(app).getScope();
-        apps.add(app);
-        willReturn(apps).given(DBManagerFactory.dbManager).getAllApplications();
+        willReturn(false).given(DBManagerFactory.dbManager).isScopeUsed(scope);
 
         // WHEN
         boolean found = service.checkForClientAppByScope(scope);
@@ -860,7 +854,7 @@ public class ScopeServiceTest {
         scope.setRefreshExpiresIn(1800);
         List<Scope> loadedScope = new ArrayList<Scope>();
         loadedScope.add(scope);
-        willReturn(loadedScope).given(service).loadScopes(scopeName);
+        willReturn(loadedScope).given(DBManagerFactory.dbManager).getAllScopes();
 
         // WHEN
         int result = service.getExpiresIn("refresh_token", scopeName);
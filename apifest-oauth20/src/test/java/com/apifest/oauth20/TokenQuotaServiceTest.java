@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.mockito.BDDMockito.willReturn;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.oauth20.persistence.DBManager;
+
+/**
+ * @author Edouard De Oliveira
+ */
+public class TokenQuotaServiceTest {
+
+    private static final String CLIENT_ID = "218900b6c8d973881cf4185ecf";
+
+    private DBManager db;
+    private Map<String, Long> counters;
+
+    private final Executor directExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @BeforeMethod
+    public void setup() {
+        TokenQuotaService.log = mock(Logger.class);
+        db = mock(DBManager.class);
+        counters = new HashMap<String, Long>();
+        when(db.incrementCounter(anyString(), anyLong(), anyInt())).thenAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) throws Throwable {
+                String key = (String) invocation.getArguments()[0];
+                long value = (counters.containsKey(key) ? counters.get(key) : 0L) + (Long) invocation.getArguments()[1];
+                counters.put(key, value);
+                return value;
+            }
+        });
+        client(null);
+    }
+
+    private void client(Map<String, String> details) {
+        ClientCredentials creds = new ClientCredentials("app", "basic", "", "http://example.com", details);
+        willReturn(creds).given(db).findClientCredentials(CLIENT_ID);
+    }
+
+    private TokenQuotaService service(QuotaSettings settings, long now) {
+        TokenQuotaService service = spy(new TokenQuotaService(settings, directExecutor));
+        service.db = db;
+        willReturn(now).given(service).now();
+        return service;
+    }
+
+    @Test
+    public void when_no_quota_set_do_not_count_tokens() throws Exception {
+        // GIVEN
+        TokenQuotaService service = new TokenQuotaService(new QuotaSettings(), directExecutor);
+        service.db = db;
+
+        // WHEN
+        long retryAfter = service.tryConsume(CLIENT_ID);
+
+        // THEN
+        assertEquals(retryAfter, 0L);
+        verifyZeroInteractions(db);
+    }
+
+    @Test
+    public void when_minute_quota_reached_return_seconds_until_end_of_minute() throws Exception {
+        // GIVEN
+        TokenQuotaService service = service(new QuotaSettings().setMinute(3).setLeaseSize(2), 30000L);
+
+        // WHEN
+        long first = service.tryConsume(CLIENT_ID);
+        long second = service.tryConsume(CLIENT_ID);
+        long third = service.tryConsume(CLIENT_ID);
+        long fourth = service.tryConsume(CLIENT_ID);
+
+        // THEN
+        assertEquals(first + second + third, 0L);
+        assertEquals(fourth, 30L);
+    }
+
+    @Test
+    public void when_minute_ends_lease_quota_of_next_minute() throws Exception {
+        // GIVEN
+        TokenQuotaService service = service(new QuotaSettings().setMinute(1), 30000L);
+        service.tryConsume(CLIENT_ID);
+        assertEquals(service.tryConsume(CLIENT_ID), 30L);
+
+        // WHEN
+        willReturn(60000L).given(service).now();
+
+        // THEN
+        assertEquals(service.tryConsume(CLIENT_ID), 0L);
+    }
+
+    @Test
+    public void when_quota_shared_by_nodes_stop_when_shared_counter_reached() throws Exception {
+        // GIVEN
+        QuotaSettings settings = new QuotaSettings().setMinute(5).setLeaseSize(2);
+        TokenQuotaService node1 = service(settings, 0L);
+        TokenQuotaService node2 = service(settings, 0L);
+
+        // WHEN
+        int issued = 0;
+        for (int i = 0; i < 10; i++) {
+            if (node1.tryConsume(CLIENT_ID) == 0) {
+                issued++;
+            }
+            if (node2.tryConsume(CLIENT_ID) == 0) {
+                issued++;
+            }
+        }
+
+        // THEN
+        assertEquals(issued, 5);
+    }
+
+    @Test
+    public void when_lease_has_tokens_left_do_not_hit_db() throws Exception {
+        // GIVEN
+        TokenQuotaService service = service(new QuotaSettings().setMinute(100).setLeaseSize(10), 0L);
+
+        // WHEN
+        for (int i = 0; i < 4; i++) {
+            service.tryConsume(CLIENT_ID);
+        }
+
+        // THEN
+        verify(db, times(1)).incrementCounter(anyString(), anyLong(), anyInt());
+    }
+
+    @Test
+    public void when_client_has_quota_in_application_details_use_it() throws Exception {
+        // GIVEN
+        Map<String, String> details = new HashMap<String, String>();
+        details.put(QuotaSettings.DAY_DETAIL, "1");
+        client(details);
+        TokenQuotaService service = service(new QuotaSettings().setMinute(100).setDay(1000), 0L);
+
+        // WHEN
+        long first = service.tryConsume(CLIENT_ID);
+        long second = service.tryConsume(CLIENT_ID);
+
+        // THEN
+        assertEquals(first, 0L);
+        assertEquals(second, 86400L);
+    }
+
+    @Test
+    public void when_counter_cannot_be_incremented_issue_tokens() throws Exception {
+        // GIVEN
+        willThrow(new RuntimeException("connection refused")).given(db).incrementCounter(anyString(), anyLong(), anyInt());
+        TokenQuotaService service = service(new QuotaSettings().setMinute(1), 0L);
+
+        // WHEN
+        long first = service.tryConsume(CLIENT_ID);
+        long second = service.tryConsume(CLIENT_ID);
+
+        // THEN
+        assertEquals(first + second, 0L);
+    }
+}
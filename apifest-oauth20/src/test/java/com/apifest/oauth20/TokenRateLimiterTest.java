@@ -0,0 +1,231 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.mockito.BDDMockito.willReturn;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Edouard De Oliveira
+ */
+public class TokenRateLimiterTest {
+
+    private static final String CLIENT_ID = "218900b6c8d973881cf4185ecf";
+
+    private InetAddress address;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        MockDBManagerFactory.install();
+        TokenRateLimiter.log = mock(Logger.class);
+        address = InetAddress.getByName("10.0.0.1");
+    }
+
+    private TokenRateLimiter limiter(RateLimitSettings settings, long now) {
+        TokenRateLimiter limiter = spy(new TokenRateLimiter(settings));
+        willReturn(now).given(limiter).now();
+        return limiter;
+    }
+
+    private void client(Map<String, String> details) {
+        ClientCredentials creds = new ClientCredentials("app", "basic", "", "http://example.com", null);
+        creds.setApplicationDetails(details);
+        willReturn(creds).given(DBManagerFactory.dbManager).findClientCredentials(CLIENT_ID);
+    }
+
+    @Test
+    public void when_no_limit_set_allow_all_requests() throws Exception {
+        // GIVEN
+        TokenRateLimiter limiter = new TokenRateLimiter(new RateLimitSettings());
+
+        // WHEN
+        long wait = 0;
+        for (int i = 0; i < 1000; i++) {
+            wait += limiter.tryAcquire(CLIENT_ID, address);
+        }
+
+        // THEN
+        assertEquals(wait, 0L);
+    }
+
+    @Test
+    public void when_client_burst_exceeded_return_retry_after() throws Exception {
+        // GIVEN
+        client(null);
+        TokenRateLimiter limiter = limiter(new RateLimitSettings().setClientRate(1).setClientBurst(3), 1000L);
+
+        // WHEN
+        long first = limiter.tryAcquire(CLIENT_ID, address);
+        limiter.tryAcquire(CLIENT_ID, address);
+        limiter.tryAcquire(CLIENT_ID, address);
+        long fourth = limiter.tryAcquire(CLIENT_ID, address);
+
+        // THEN
+        assertEquals(first, 0L);
+        assertEquals(fourth, 1L);
+    }
+
+    @Test
+    public void when_time_passes_refill_client_bucket() throws Exception {
+        // GIVEN
+        client(null);
+        TokenRateLimiter limiter = limiter(new RateLimitSettings().setClientRate(2), 1000L);
+        limiter.tryAcquire(CLIENT_ID, address);
+        limiter.tryAcquire(CLIENT_ID, address);
+        assertTrue(limiter.tryAcquire(CLIENT_ID, address) > 0);
+
+        // WHEN
+        willReturn(1000L + TimeUnit.MILLISECONDS.toNanos(500)).given(limiter).now();
+
+        // THEN
+        assertEquals(limiter.tryAcquire(CLIENT_ID, address), 0L);
+    }
+
+    @Test
+    public void when_client_has_rate_limit_in_application_details_use_it() throws Exception {
+        // GIVEN
+        Map<String, String> details = new HashMap<String, String>();
+        details.put(RateLimitSettings.RATE_DETAIL, "1");
+        client(details);
+        TokenRateLimiter limiter = limiter(new RateLimitSettings().setClientRate(100), 1000L);
+        limiter.tryAcquire(CLIENT_ID, address);
+
+        // WHEN
+        limiter.clientAuthenticated(CLIENT_ID);
+        willReturn(1000L + TimeUnit.SECONDS.toNanos(1)).given(limiter).now();
+        long first = limiter.tryAcquire(CLIENT_ID, address);
+        long second = limiter.tryAcquire(CLIENT_ID, address);
+
+        // THEN
+        assertEquals(first, 0L);
+        assertEquals(second, 1L);
+    }
+
+    @Test
+    public void when_no_client_limit_set_use_rate_limit_in_application_details() throws Exception {
+        // GIVEN
+        Map<String, String> details = new HashMap<String, String>();
+        details.put(RateLimitSettings.RATE_DETAIL, "1");
+        client(details);
+        TokenRateLimiter limiter = limiter(new RateLimitSettings(), 1000L);
+        limiter.tryAcquire(CLIENT_ID, address);
+
+        // WHEN
+        limiter.clientAuthenticated(CLIENT_ID);
+        long first = limiter.tryAcquire(CLIENT_ID, address);
+        long second = limiter.tryAcquire(CLIENT_ID, address);
+
+        // THEN
+        assertEquals(first, 0L);
+        assertEquals(second, 1L);
+    }
+
+    @Test
+    public void when_client_not_authenticated_do_not_read_client() throws Exception {
+        // GIVEN
+        TokenRateLimiter limiter = limiter(new RateLimitSettings().setClientRate(100), 1000L);
+
+        // WHEN
+        for (int i = 0; i < 10; i++) {
+            limiter.tryAcquire(CLIENT_ID + i, address);
+        }
+
+        // THEN
+        verify(DBManagerFactory.dbManager, never()).findClientCredentials(anyString());
+    }
+
+    @Test
+    public void when_client_authenticated_again_do_not_read_client_again() throws Exception {
+        // GIVEN
+        client(null);
+        TokenRateLimiter limiter = limiter(new RateLimitSettings().setClientRate(100), 1000L);
+
+        // WHEN
+        for (int i = 0; i < 10; i++) {
+            limiter.tryAcquire(CLIENT_ID, address);
+            limiter.clientAuthenticated(CLIENT_ID);
+        }
+
+        // THEN
+        verify(DBManagerFactory.dbManager, times(1)).findClientCredentials(CLIENT_ID);
+    }
+
+    @Test
+    public void when_ip_limit_exceeded_limit_all_clients_of_address() throws Exception {
+        // GIVEN
+        TokenRateLimiter limiter = limiter(new RateLimitSettings().setIpRate(1), 1000L);
+        limiter.tryAcquire("client1", address);
+
+        // WHEN
+        long other = limiter.tryAcquire("client2", address);
+        long otherAddress = limiter.tryAcquire("client2", InetAddress.getByName("10.0.0.2"));
+
+        // THEN
+        assertEquals(other, 1L);
+        assertEquals(otherAddress, 0L);
+    }
+
+    @Test
+    public void when_max_keys_reached_drop_idle_buckets() throws Exception {
+        // GIVEN
+        TokenRateLimiter limiter = limiter(new RateLimitSettings().setIpRate(1).setMaxKeys(2), 1000L);
+        limiter.tryAcquire(null, InetAddress.getByName("10.0.0.2"));
+        limiter.tryAcquire(null, InetAddress.getByName("10.0.0.3"));
+        willReturn(1000L + TimeUnit.SECONDS.toNanos(2)).given(limiter).now();
+
+        // WHEN
+        limiter.tryAcquire(null, InetAddress.getByName("10.0.0.4"));
+
+        // THEN
+        assertEquals(limiter.tryAcquire(null, InetAddress.getByName("10.0.0.2")), 0L);
+        assertEquals(limiter.tryAcquire(null, InetAddress.getByName("10.0.0.4")), 1L);
+    }
+
+    @Test
+    public void when_max_keys_reached_without_idle_bucket_keep_limited_keys() throws Exception {
+        // GIVEN
+        TokenRateLimiter limiter = limiter(new RateLimitSettings().setIpRate(1).setMaxKeys(2), 1000L);
+        limiter.tryAcquire(null, InetAddress.getByName("10.0.0.2"));
+        limiter.tryAcquire(null, InetAddress.getByName("10.0.0.3"));
+
+        // WHEN
+        long firstNew = limiter.tryAcquire(null, InetAddress.getByName("10.0.0.4"));
+        long secondNew = limiter.tryAcquire(null, InetAddress.getByName("10.0.0.5"));
+
+        // THEN
+        assertEquals(firstNew, 0L);
+        assertEquals(secondNew, 1L);
+        assertEquals(limiter.tryAcquire(null, InetAddress.getByName("10.0.0.2")), 1L);
+        assertEquals(limiter.tryAcquire(null, InetAddress.getByName("10.0.0.3")), 1L);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.mockito.BDDMockito.willReturn;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Properties;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.oauth20.persistence.DBManager;
+
+/**
+ * @author Edouard De Oliveira
+ */
+public class TokenReuseServiceTest {
+
+    String clientId = "203598599234220";
+    DBManager db;
+    TokenReuseService service;
+
+    @BeforeMethod
+    public void setup() {
+        MockDBManagerFactory.install();
+        db = mock(DBManager.class);
+        service = new TokenReuseService(new TokenReuseSettings().setClients(Collections.singleton(clientId)));
+        service.db = db;
+    }
+
+    private AccessToken createToken(String expiresIn, long createdMillisAgo) {
+        AccessToken token = new AccessToken("Bearer", expiresIn, "basic", false, null);
+        token.setClientId(clientId);
+        token.setCreated(System.currentTimeMillis() - createdMillisAgo);
+        return token;
+    }
+
+    @Test
+    public void when_token_expires_later_than_threshold_reuse_it_with_remaining_expires_in() throws Exception {
+        // GIVEN
+        AccessToken token = createToken("1800", 600000L);
+        willReturn(token).given(db).findClientAccessToken(clientId, "basic");
+
+        // WHEN
+        AccessToken reused = service.findReusableToken(clientId, "basic");
+
+        // THEN
+        assertEquals(reused.getToken(), token.getToken());
+        assertTrue(Integer.parseInt(reused.getExpiresIn()) <= 1200);
+        assertTrue(Integer.parseInt(reused.getExpiresIn()) >= 1199);
+        assertEquals(token.getExpiresIn(), "1800");
+    }
+
+    @Test
+    public void when_token_expires_sooner_than_threshold_do_not_reuse_it() throws Exception {
+        // GIVEN
+        willReturn(createToken("1800", 1600000L)).given(db).findClientAccessToken(clientId, "basic");
+
+        // WHEN
+        AccessToken reused = service.findReusableToken(clientId, "basic");
+
+        // THEN
+        assertNull(reused);
+    }
+
+    @Test
+    public void when_token_found_is_revoked_do_not_reuse_nor_cache_it() throws Exception {
+        // GIVEN
+        AccessToken token = createToken("1800", 0L);
+        token.setValid(false);
+        willReturn(token).given(db).findClientAccessToken(clientId, "basic");
+
+        // WHEN
+        AccessToken first = service.findReusableToken(clientId, "basic");
+        AccessToken second = service.findReusableToken(clientId, "basic");
+
+        // THEN
+        assertNull(first);
+        assertNull(second);
+        verify(db, times(2)).findClientAccessToken(clientId, "basic");
+    }
+
+    @Test
+    public void when_cached_token_is_revoked_do_not_reuse_it() throws Exception {
+        // GIVEN
+        AccessToken token = createToken("1800", 0L);
+        service.tokenIssued(token);
+        token.setValid(false);
+
+        // WHEN
+        AccessToken reused = service.findReusableToken(clientId, "basic");
+
+        // THEN
+        assertNull(reused);
+        verify(db).findClientAccessToken(clientId, "basic");
+    }
+
+    @Test
+    public void when_token_found_cache_it_locally() throws Exception {
+        // GIVEN
+        willReturn(createToken("1800", 0L)).given(db).findClientAccessToken(clientId, "basic");
+
+        // WHEN
+        service.findReusableToken(clientId, "basic");
+        service.findReusableToken(clientId, "basic");
+
+        // THEN
+        verify(db, times(1)).findClientAccessToken(clientId, "basic");
+    }
+
+    @Test
+    public void when_token_issued_reuse_it_without_db_lookup() throws Exception {
+        // GIVEN
+        AccessToken token = createToken("1800", 0L);
+
+        // WHEN
+        service.tokenIssued(token);
+        AccessToken reused = service.findReusableToken(clientId, "basic");
+
+        // THEN
+        assertEquals(reused.getToken(), token.getToken());
+        verify(db, never()).findClientAccessToken(anyString(), anyString());
+    }
+
+    @Test
+    public void when_token_revoked_drop_it_from_cache() throws Exception {
+        // GIVEN
+        AccessToken token = createToken("1800", 0L);
+        service.tokenIssued(token);
+
+        // WHEN
+        service.tokenRevoked(token);
+        AccessToken reused = service.findReusableToken(clientId, "basic");
+
+        // THEN
+        assertNull(reused);
+        verify(db).findClientAccessToken(clientId, "basic");
+    }
+
+    @Test
+    public void when_client_not_opted_in_do_not_look_up_token() throws Exception {
+        // WHEN
+        AccessToken reused = service.findReusableToken("other", "basic");
+
+        // THEN
+        assertNull(reused);
+        verify(db, never()).findClientAccessToken(anyString(), anyString());
+    }
+
+    @Test
+    public void when_all_scopes_opted_in_reuse_tokens_of_any_client() throws Exception {
+        // GIVEN
+        Properties props = new Properties();
+        props.setProperty(TokenReuseSettings.SCOPES_PROPERTY, "basic, extended");
+
+        // WHEN
+        TokenReuseSettings settings = TokenReuseSettings.load(props);
+
+        // THEN
+        assertTrue(settings.isReused("other", "basic extended"));
+        assertFalse(settings.isReused("other", "basic admin"));
+        assertFalse(new TokenReuseSettings().isEnabled());
+    }
+}
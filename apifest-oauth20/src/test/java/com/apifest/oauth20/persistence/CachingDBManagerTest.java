@@ -0,0 +1,156 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence;
+
+import static org.mockito.BDDMockito.willReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Properties;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.oauth20.ClientCredentials;
+import com.apifest.oauth20.Scope;
+
+/**
+ * @author Edouard De Oliveira
+ */
+public class CachingDBManagerTest {
+
+    DBManager delegate;
+    CacheInvalidationBus bus;
+    CachingDBManager dbManager;
+
+    @BeforeMethod
+    public void setup() {
+        delegate = mock(DBManager.class);
+        bus = mock(CacheInvalidationBus.class);
+        dbManager = new CachingDBManager(delegate, new CacheSettings().setEnabled(true), bus);
+    }
+
+    @Test
+    public void when_find_client_credentials_twice_read_db_once() throws Exception {
+        // GIVEN
+        ClientCredentials creds = new ClientCredentials("app", "basic", "descr", "http://example.com", null);
+        willReturn(creds).given(delegate).findClientCredentials(creds.getId());
+
+        // WHEN
+        dbManager.findClientCredentials(creds.getId());
+        ClientCredentials result = dbManager.findClientCredentials(creds.getId());
+
+        // THEN
+        assertEquals(result, creds);
+        verify(delegate, times(1)).findClientCredentials(creds.getId());
+    }
+
+    @Test
+    public void when_client_not_found_do_not_cache_it() throws Exception {
+        // WHEN
+        dbManager.findClientCredentials("unknown");
+        ClientCredentials result = dbManager.findClientCredentials("unknown");
+
+        // THEN
+        assertNull(result);
+        verify(delegate, times(2)).findClientCredentials("unknown");
+    }
+
+    @Test
+    public void when_valid_client_use_cached_credentials() throws Exception {
+        // GIVEN
+        ClientCredentials creds = new ClientCredentials("app", "basic", "descr", "http://example.com", null);
+        willReturn(creds).given(delegate).findClientCredentials(creds.getId());
+
+        // WHEN
+        boolean valid = dbManager.validClient(creds.getId(), creds.getSecret());
+        boolean invalid = dbManager.validClient(creds.getId(), "wrong");
+
+        // THEN
+        assertTrue(valid);
+        assertFalse(invalid);
+        verify(delegate, times(1)).findClientCredentials(creds.getId());
+    }
+
+    @Test
+    public void when_update_client_app_invalidate_and_publish() throws Exception {
+        // GIVEN
+        ClientCredentials creds = new ClientCredentials("app", "basic", "descr", "http://example.com", null);
+        willReturn(creds).given(delegate).findClientCredentials(creds.getId());
+        dbManager.findClientCredentials(creds.getId());
+
+        // WHEN
+        dbManager.updateClientApp(creds.getId(), "extended", null, null, null);
+        dbManager.findClientCredentials(creds.getId());
+
+        // THEN
+        verify(bus).publish(CachingDBManager.CLIENT_KEY_PREFIX + creds.getId());
+        verify(delegate, times(2)).findClientCredentials(creds.getId());
+    }
+
+    @Test
+    public void when_invalidation_received_reload_scope() throws Exception {
+        // GIVEN
+        Scope scope = new Scope();
+        scope.setScope("basic");
+        willReturn(scope).given(delegate).findScope("basic");
+        dbManager.findScope("basic");
+
+        // WHEN
+        dbManager.invalidate(CachingDBManager.SCOPE_KEY_PREFIX + "basic");
+        dbManager.findScope("basic");
+
+        // THEN
+        verify(delegate, times(2)).findScope("basic");
+    }
+
+    @Test
+    public void when_subscribed_register_as_listener() throws Exception {
+        // THEN
+        verify(bus).subscribe(dbManager);
+    }
+
+    @Test
+    public void when_ttl_is_zero_do_not_cache() throws Exception {
+        // GIVEN
+        dbManager = new CachingDBManager(delegate, new CacheSettings().setTtl(0), null);
+        Scope scope = new Scope();
+        willReturn(scope).given(delegate).findScope("basic");
+
+        // WHEN
+        dbManager.findScope("basic");
+        dbManager.findScope("basic");
+
+        // THEN
+        verify(delegate, times(2)).findScope("basic");
+    }
+
+    @Test
+    public void when_cache_properties_not_set_disable_cache() throws Exception {
+        // WHEN
+        CacheSettings settings = CacheSettings.load(new Properties());
+
+        // THEN
+        assertFalse(settings.isEnabled());
+        assertEquals(settings.getTtl(), 60);
+    }
+}
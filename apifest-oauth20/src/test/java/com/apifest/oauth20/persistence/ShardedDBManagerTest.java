@@ -0,0 +1,237 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence;
+
+import static org.mockito.BDDMockito.willReturn;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.oauth20.AccessToken;
+import com.apifest.oauth20.ClientCredentials;
+
+/**
+ * @author Edouard De Oliveira
+ */
+public class ShardedDBManagerTest {
+
+    List<DBManager> shards;
+    ShardedDBManager dbManager;
+
+    @BeforeMethod
+    public void setup() {
+        shards = new ArrayList<DBManager>();
+        for (int i = 0; i < 3; i++) {
+            shards.add(mock(DBManager.class));
+        }
+        dbManager = new ShardedDBManager(shards);
+    }
+
+    @Test
+    public void when_store_access_token_store_it_on_its_shard_only() throws Exception {
+        // GIVEN
+        AccessToken token = new AccessToken("Bearer", "900", "basic", false, "3600");
+        DBManager owner = dbManager.getShard(token.getToken());
+
+        // WHEN
+        dbManager.storeAccessToken(token);
+
+        // THEN
+        for (DBManager shard : shards) {
+            if (shard == owner) {
+                verify(shard).storeAccessToken(token);
+            } else {
+                verify(shard, never()).storeAccessToken(token);
+            }
+        }
+    }
+
+    @Test
+    public void when_route_tokens_spread_them_over_all_shards() throws Exception {
+        // GIVEN
+        Map<DBManager, Integer> counts = new HashMap<DBManager, Integer>();
+
+        // WHEN
+        for (int i = 0; i < 3000; i++) {
+            DBManager shard = dbManager.getShard(new AccessToken("Bearer", "900", "basic", "3600").getToken());
+            counts.put(shard, counts.containsKey(shard) ? counts.get(shard) + 1 : 1);
+        }
+
+        // THEN
+        for (DBManager shard : shards) {
+            assertTrue(counts.get(shard) > 700, "unbalanced shard: " + counts.get(shard));
+        }
+    }
+
+    @Test
+    public void when_shard_added_move_only_a_fraction_of_tokens() throws Exception {
+        // GIVEN
+        List<DBManager> moreShards = new ArrayList<DBManager>(shards);
+        moreShards.add(mock(DBManager.class));
+        ShardedDBManager resharded = new ShardedDBManager(moreShards);
+
+        // WHEN
+        int moved = 0;
+        for (int i = 0; i < 2000; i++) {
+            String token = "token-" + i;
+            if (dbManager.getShard(token) != resharded.getShard(token)) {
+                moved++;
+            }
+        }
+
+        // THEN
+        assertTrue(moved < 800, "too many tokens moved: " + moved);
+    }
+
+    @Test
+    public void when_store_access_token_with_refresh_token_keep_it_on_shard_of_refresh_token() throws Exception {
+        // GIVEN
+        List<AccessToken> tokens = new ArrayList<AccessToken>();
+        for (int i = 0; i < 10; i++) {
+            tokens.add(new AccessToken("Bearer", "900", "basic", "3600"));
+        }
+
+        // WHEN
+        for (AccessToken token : tokens) {
+            dbManager.storeAccessToken(token);
+        }
+
+        // THEN
+        for (AccessToken token : tokens) {
+            DBManager owner = dbManager.getShard(token.getRefreshToken());
+            assertSame(dbManager.getShard(token.getToken()), owner);
+            verify(owner).storeAccessToken(token);
+        }
+    }
+
+    @Test
+    public void when_find_by_refresh_token_query_shard_of_refresh_token_only() throws Exception {
+        // GIVEN
+        AccessToken token = new AccessToken("Bearer", "900", "basic", "3600");
+        token.setClientId("203598599234220");
+        DBManager owner = dbManager.getShard(token.getRefreshToken());
+        willReturn(token).given(owner).findAccessTokenByRefreshToken(token.getRefreshToken(), "203598599234220");
+
+        // WHEN
+        AccessToken found = dbManager.findAccessTokenByRefreshToken(token.getRefreshToken(), "203598599234220");
+
+        // THEN
+        assertSame(found, token);
+        for (DBManager shard : shards) {
+            if (shard != owner) {
+                verify(shard, never()).findAccessTokenByRefreshToken(anyString(), anyString());
+            }
+        }
+    }
+
+    @Test
+    public void when_get_user_tokens_merge_results_of_all_shards() throws Exception {
+        // GIVEN
+        AccessToken token1 = new AccessToken("Bearer", "900", "basic", "3600");
+        AccessToken token2 = new AccessToken("Bearer", "900", "basic", "3600");
+        willReturn(Arrays.asList(token1)).given(shards.get(0)).getAccessTokenByUserIdAndClientApp("12345", "client");
+        willReturn(Arrays.asList(token2)).given(shards.get(1)).getAccessTokenByUserIdAndClientApp("12345", "client");
+        willReturn(Collections.emptyList()).given(shards.get(2)).getAccessTokenByUserIdAndClientApp("12345", "client");
+
+        // WHEN
+        List<AccessToken> tokens = dbManager.getAccessTokenByUserIdAndClientApp("12345", "client");
+
+        // THEN
+        assertEquals(tokens.size(), 2);
+        assertTrue(tokens.contains(token1));
+        assertTrue(tokens.contains(token2));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void when_shard_fails_during_scatter_gather_propagate_error() throws Exception {
+        // GIVEN
+        willThrow(new IllegalStateException("down")).given(shards.get(1)).getAccessTokenByUserIdAndClientApp("12345", "client");
+
+        // WHEN
+        dbManager.getAccessTokenByUserIdAndClientApp("12345", "client");
+    }
+
+    @Test
+    public void when_store_client_credentials_pin_them_on_first_shard() throws Exception {
+        // GIVEN
+        ClientCredentials creds = new ClientCredentials("app", "basic", "descr", "http://example.com", null);
+
+        // WHEN
+        dbManager.storeClientCredentials(creds);
+        dbManager.findClientCredentials(creds.getId());
+        dbManager.isScopeUsed("basic");
+
+        // THEN
+        verify(shards.get(0)).storeClientCredentials(creds);
+        verify(shards.get(0)).findClientCredentials(creds.getId());
+        verify(shards.get(0)).isScopeUsed("basic");
+        verify(shards.get(1), never()).storeClientCredentials(creds);
+        verify(shards.get(2), never()).storeClientCredentials(creds);
+    }
+
+    @Test
+    public void when_rotate_access_token_keep_new_token_on_shard_of_old_one() throws Exception {
+        // GIVEN
+        AccessToken oldToken = new AccessToken("Bearer", "900", "basic", "3600");
+        DBManager owner = dbManager.getShard(oldToken.getToken());
+        willReturn(true).given(owner).rotateAccessToken(anyString(), any(AccessToken.class));
+
+        // WHEN
+        boolean rotated = true;
+        for (int i = 0; i < 10; i++) {
+            AccessToken newToken = new AccessToken("Bearer", "900", "basic", oldToken.getRefreshToken(), "3600");
+            rotated &= dbManager.rotateAccessToken(oldToken.getToken(), newToken);
+            assertSame(dbManager.getShard(newToken.getToken()), owner);
+        }
+
+        // THEN
+        assertTrue(rotated);
+    }
+
+    @Test
+    public void when_find_client_access_token_return_last_issued_of_all_shards() throws Exception {
+        // GIVEN
+        AccessToken older = new AccessToken("Bearer", "1800", "basic", false, null);
+        older.setCreated(1000L);
+        AccessToken newer = new AccessToken("Bearer", "1800", "basic", false, null);
+        newer.setCreated(2000L);
+        willReturn(older).given(shards.get(0)).findClientAccessToken("client", "basic");
+        willReturn(newer).given(shards.get(2)).findClientAccessToken("client", "basic");
+
+        // WHEN
+        AccessToken found = dbManager.findClientAccessToken("client", "basic");
+
+        // THEN
+        assertSame(found, newer);
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.file;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.oauth20.AccessToken;
+import com.apifest.oauth20.AuthCode;
+import com.apifest.oauth20.ClientCredentials;
+import com.apifest.oauth20.Scope;
+
+/**
+ * @author Edouard De Oliveira
+ */
+public class FileDBManagerTest {
+
+    File dir;
+    FileStoreSettings settings;
+    FileDBManager dbManager;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        dir = File.createTempFile("apifest-file-store", "");
+        dir.delete();
+        settings = new FileStoreSettings().setDir(dir.getAbsolutePath()).setSegmentSize(4096).setFsyncInterval(0);
+        dbManager = new FileDBManager(settings, false);
+    }
+
+    @AfterMethod
+    public void cleanup() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    // simulates a crash, the store is reopened without being closed
+    private FileDBManager reopen() {
+        return new FileDBManager(settings, false);
+    }
+
+    private AccessToken createToken(String userId) {
+        AccessToken token = new AccessToken("Bearer", "900", "basic", "3600");
+        token.setUserId(userId);
+        token.setClientId("203598599234220");
+        return token;
+    }
+
+    private int countSegments() {
+        return dir.listFiles().length;
+    }
+
+    @Test
+    public void when_reopened_recover_entries_and_indexes() throws Exception {
+        // GIVEN
+        AccessToken token = createToken("12345");
+        dbManager.storeAccessToken(token);
+        ClientCredentials creds = new ClientCredentials("app", "basic", "descr", "http://example.com", null);
+        dbManager.storeClientCredentials(creds);
+        Scope scope = new Scope();
+        scope.setScope("basic");
+        scope.setCcExpiresIn(1800);
+        scope.setPassExpiresIn(900);
+        dbManager.storeScope(scope);
+        dbManager.storeAuthCode(new AuthCode("code", "203598599234220", "http://example.com", null, "basic", "code", "12345"));
+
+        // WHEN
+        FileDBManager recovered = reopen();
+
+        // THEN
+        assertEquals(recovered.findAccessToken(token.getToken()).getRefreshToken(), token.getRefreshToken());
+        assertEquals(recovered.findAccessTokenByRefreshToken(token.getRefreshToken(), "203598599234220").getToken(),
+                token.getToken());
+        assertEquals(recovered.getAccessTokenByUserIdAndClientApp("12345", "203598599234220").size(), 1);
+        assertEquals(recovered.findClientCredentialsByName("app").getSecret(), creds.getSecret());
+        assertEquals(recovered.findScope("basic").getPassExpiresIn(), Integer.valueOf(900));
+        assertNotNull(recovered.findAuthCode("code", "http://example.com"));
+    }
+
+    @Test
+    public void when_reopened_apply_updates_and_deletes_in_order() throws Exception {
+        // GIVEN
+        AccessToken removed = createToken("12345");
+        AccessToken revoked = createToken("12345");
+        dbManager.storeAccessToken(removed);
+        dbManager.storeAccessToken(revoked);
+        dbManager.removeAccessToken(removed.getToken());
+        dbManager.updateAccessTokenValidStatus(revoked.getToken(), false);
+        ClientCredentials creds = new ClientCredentials("app", "basic", "descr", "http://example.com", null);
+        dbManager.storeClientCredentials(creds);
+        dbManager.updateClientApp(creds.getId(), null, null, ClientCredentials.INACTIVE_STATUS, null);
+
+        // WHEN
+        FileDBManager recovered = reopen();
+
+        // THEN
+        assertNull(recovered.findAccessToken(removed.getToken()));
+        assertNull(recovered.findAccessTokenByRefreshToken(removed.getRefreshToken(), "203598599234220"));
+        assertFalse(recovered.findAccessToken(revoked.getToken()).isValid());
+        assertTrue(recovered.getAccessTokenByUserIdAndClientApp("12345", "203598599234220").isEmpty());
+        assertFalse(recovered.validClient(creds.getId(), creds.getSecret()));
+    }
+
+    @Test
+    public void when_expired_do_not_recover_access_token() throws Exception {
+        // GIVEN
+        AccessToken token = new AccessToken("Bearer", "0", "basic", false, "");
+        token.setClientId("203598599234220");
+        dbManager.storeAccessToken(token);
+
+        // WHEN
+        FileDBManager recovered = reopen();
+
+        // THEN
+        assertNull(recovered.findAccessToken(token.getToken()));
+    }
+
+    @Test
+    public void when_last_append_torn_recover_previous_records_and_append_after_them() throws Exception {
+        // GIVEN
+        AccessToken token = createToken("12345");
+        dbManager.storeAccessToken(token);
+        Segment active = dbManager.getSegmentLog().getSegments().get(0);
+        RandomAccessFile raf = new RandomAccessFile(active.getFile(), "rw");
+        raf.seek(active.getPosition());
+        // header of a record whose payload was never written
+        raf.writeInt(120);
+        raf.writeInt(0xCAFE);
+        raf.close();
+
+        // WHEN
+        FileDBManager recovered = reopen();
+        AccessToken next = createToken("12345");
+        recovered.storeAccessToken(next);
+        FileDBManager recoveredAgain = reopen();
+
+        // THEN
+        assertNotNull(recoveredAgain.findAccessToken(token.getToken()));
+        assertNotNull(recoveredAgain.findAccessToken(next.getToken()));
+        assertEquals(recoveredAgain.getAccessTokenByUserIdAndClientApp("12345", "203598599234220").size(), 2);
+    }
+
+    @Test
+    public void when_last_record_corrupted_discard_it() throws Exception {
+        // GIVEN
+        AccessToken token = createToken("12345");
+        AccessToken corrupted = createToken("12345");
+        dbManager.storeAccessToken(token);
+        dbManager.storeAccessToken(corrupted);
+        Segment active = dbManager.getSegmentLog().getSegments().get(0);
+        RandomAccessFile raf = new RandomAccessFile(active.getFile(), "rw");
+        raf.seek(active.getPosition() - 1);
+        int last = raf.readByte();
+        raf.seek(active.getPosition() - 1);
+        raf.writeByte(last ^ 0xFF);
+        raf.close();
+
+        // WHEN
+        FileDBManager recovered = reopen();
+
+        // THEN
+        assertNotNull(recovered.findAccessToken(token.getToken()));
+        assertNull(recovered.findAccessToken(corrupted.getToken()));
+    }
+
+    @Test
+    public void when_sealed_segment_corrupted_fail_to_open() throws Exception {
+        // GIVEN
+        for (int i = 0; i < 40; i++) {
+            dbManager.storeAccessToken(createToken("user" + i));
+        }
+        Segment sealed = dbManager.getSegmentLog().getSealedSegments().get(0);
+        RandomAccessFile raf = new RandomAccessFile(sealed.getFile(), "rw");
+        raf.seek(Segment.HEADER_SIZE);
+        int first = raf.readByte();
+        raf.seek(Segment.HEADER_SIZE);
+        raf.writeByte(first ^ 0xFF);
+        raf.close();
+
+        // WHEN
+        IllegalStateException error = null;
+        try {
+            reopen();
+        } catch (IllegalStateException e) {
+            error = e;
+        }
+
+        // THEN
+        assertNotNull(error);
+        assertTrue(error.getCause().getMessage().contains("offset 0 of sealed segment"));
+    }
+
+    @Test
+    public void when_segment_full_roll_to_next_segment() throws Exception {
+        // GIVEN
+        List<AccessToken> tokens = new ArrayList<AccessToken>();
+
+        // WHEN
+        for (int i = 0; i < 40; i++) {
+            AccessToken token = createToken("user" + i);
+            dbManager.storeAccessToken(token);
+            tokens.add(token);
+        }
+        FileDBManager recovered = reopen();
+
+        // THEN
+        assertTrue(countSegments() > 1);
+        for (AccessToken token : tokens) {
+            assertNotNull(recovered.findAccessToken(token.getToken()));
+        }
+    }
+
+    @Test
+    public void when_compact_delete_segments_and_keep_live_records() throws Exception {
+        // GIVEN
+        List<AccessToken> tokens = new ArrayList<AccessToken>();
+        for (int i = 0; i < 40; i++) {
+            AccessToken token = createToken("user" + i);
+            dbManager.storeAccessToken(token);
+            tokens.add(token);
+        }
+        for (int i = 0; i < 36; i++) {
+            dbManager.removeAccessToken(tokens.get(i).getToken());
+        }
+        int segmentsBefore = countSegments();
+
+        // WHEN
+        dbManager.compact();
+        FileDBManager recovered = reopen();
+
+        // THEN
+        assertTrue(countSegments() < segmentsBefore);
+        for (int i = 0; i < 40; i++) {
+            AccessToken found = recovered.findAccessToken(tokens.get(i).getToken());
+            if (i < 36) {
+                assertNull(found);
+            } else {
+                assertNotNull(found);
+                assertEquals(recovered.getAccessTokenByUserIdAndClientApp("user" + i, "203598599234220").size(), 1);
+            }
+        }
+    }
+
+    @Test
+    public void when_client_deleted_after_compaction_do_not_resurrect_it() throws Exception {
+        // GIVEN
+        ClientCredentials creds = new ClientCredentials("app", "basic", "descr", "http://example.com", null);
+        dbManager.storeClientCredentials(creds);
+        for (int i = 0; i < 20; i++) {
+            dbManager.storeAccessToken(createToken("user" + i));
+        }
+        dbManager.deleteClientApp(creds.getId());
+        for (int i = 0; i < 20; i++) {
+            AccessToken token = createToken("user" + i);
+            dbManager.storeAccessToken(token);
+            dbManager.removeAccessToken(token.getToken());
+        }
+
+        // WHEN
+        dbManager.compact();
+        FileDBManager recovered = reopen();
+
+        // THEN
+        assertNull(recovered.findClientCredentials(creds.getId()));
+        assertNull(recovered.findClientCredentialsByName("app"));
+    }
+
+    @Test
+    public void when_rotate_access_token_recover_new_token_only() throws Exception {
+        // GIVEN
+        AccessToken token = createToken("12345");
+        dbManager.storeAccessToken(token);
+        AccessToken refreshed = new AccessToken("Bearer", "900", "basic", token.getRefreshToken(), "3600");
+        refreshed.setUserId("12345");
+        refreshed.setClientId("203598599234220");
+
+        // WHEN
+        boolean rotated = dbManager.rotateAccessToken(token.getToken(), refreshed);
+        boolean rotatedAgain = dbManager.rotateAccessToken(token.getToken(), createToken("12345"));
+        FileDBManager recovered = reopen();
+
+        // THEN
+        assertTrue(rotated);
+        assertFalse(rotatedAgain);
+        assertNull(recovered.findAccessToken(token.getToken()));
+        assertEquals(recovered.findAccessTokenByRefreshToken(token.getRefreshToken(), "203598599234220").getToken(),
+                refreshed.getToken());
+        assertEquals(recovered.getAccessTokenByUserIdAndClientApp("12345", "203598599234220").size(), 1);
+    }
+
+    @Test
+    public void when_consume_auth_code_do_not_recover_it() throws Exception {
+        // GIVEN
+        dbManager.storeAuthCode(new AuthCode("code", "203598599234220", "http://example.com", null, "basic", "code", "12345"));
+
+        // WHEN
+        AuthCode first = dbManager.consumeAuthCode("code", "http://example.com");
+        AuthCode second = dbManager.consumeAuthCode("code", "http://example.com");
+        FileDBManager recovered = reopen();
+
+        // THEN
+        assertEquals(first.getUserId(), "12345");
+        assertNull(second);
+        assertNull(recovered.findAuthCode("code", "http://example.com"));
+    }
+
+    @Test
+    public void when_reopened_find_client_access_token() throws Exception {
+        // GIVEN
+        AccessToken token = new AccessToken("Bearer", "1800", "basic", false, null);
+        token.setClientId("203598599234220");
+        dbManager.storeAccessToken(token);
+        dbManager.storeAccessToken(createToken("12345"));
+
+        // WHEN
+        FileDBManager recovered = reopen();
+
+        // THEN
+        assertEquals(recovered.findClientAccessToken("203598599234220", "basic").getToken(), token.getToken());
+        assertNull(recovered.findClientAccessToken("203598599234220", "extended"));
+    }
+
+    @Test
+    public void when_reopened_rebuild_scope_index() throws Exception {
+        // GIVEN
+        ClientCredentials creds = new ClientCredentials("app", "basic extended", "descr", "http://example.com", null);
+        dbManager.storeClientCredentials(creds);
+        dbManager.updateClientApp(creds.getId(), "basic", null, null, null);
+
+        // WHEN
+        FileDBManager recovered = reopen();
+
+        // THEN
+        assertTrue(recovered.isScopeUsed("basic"));
+        assertFalse(recovered.isScopeUsed("extended"));
+        recovered.deleteClientApp(creds.getId());
+        assertFalse(recovered.isScopeUsed("basic"));
+    }
+}
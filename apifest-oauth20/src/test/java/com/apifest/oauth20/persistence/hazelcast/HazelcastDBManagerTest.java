@@ -0,0 +1,324 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.hazelcast;
+
+import static org.mockito.BDDMockito.willReturn;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.oauth20.AccessToken;
+import com.apifest.oauth20.AuthCode;
+import com.apifest.oauth20.ClientCredentials;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IExecutorService;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.MultiMap;
+import com.hazelcast.query.Predicate;
+
+/**
+ * @author Edouard De Oliveira
+ */
+public class HazelcastDBManagerTest {
+
+    HazelcastDBManager dbManager;
+    IMap<AccessTokenKey, PersistentAccessToken> accessTokens;
+    IMap<String, String> routes;
+    IMap<String, AccessTokenKey> refreshTokens;
+    IMap<String, AccessTokenKey> clientTokens;
+    IExecutorService executor;
+    IMap<String, PersistentAuthCode> authCodes;
+    IMap<String, PersistentClientCredentials> clients;
+    MultiMap<String, String> scopeClients;
+
+    @BeforeMethod
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        HazelcastInstance instance = mock(HazelcastInstance.class);
+        accessTokens = mock(IMap.class);
+        routes = mock(IMap.class);
+        executor = mock(IExecutorService.class);
+        refreshTokens = mock(IMap.class);
+        clientTokens = mock(IMap.class);
+        authCodes = mock(IMap.class);
+        clients = mock(IMap.class);
+        scopeClients = mock(MultiMap.class);
+        willReturn(accessTokens).given(instance).getMap(HazelcastConfigFactory.APIFEST_ACCESS_TOKEN_MAP);
+        willReturn(routes).given(instance).getMap(HazelcastConfigFactory.APIFEST_ACCESS_TOKEN_ROUTE_MAP);
+        willReturn(refreshTokens).given(instance).getMap(HazelcastConfigFactory.APIFEST_REFRESH_TOKEN_MAP);
+        willReturn(clientTokens).given(instance).getMap(HazelcastConfigFactory.APIFEST_CLIENT_TOKEN_MAP);
+        willReturn(executor).given(instance).getExecutorService(HazelcastConfigFactory.APIFEST_EXECUTOR);
+        willReturn(authCodes).given(instance).getMap(HazelcastConfigFactory.APIFEST_AUTH_CODE_MAP);
+        willReturn(clients).given(instance).getMap(HazelcastConfigFactory.APIFEST_CLIENT_MAP);
+        willReturn(scopeClients).given(instance).getMultiMap(HazelcastConfigFactory.APIFEST_SCOPE_CLIENTS_MULTIMAP);
+        dbManager = new HazelcastDBManager(instance);
+    }
+
+    private PersistentAccessToken createToken() {
+        AccessToken token = new AccessToken("Bearer", "900", "basic", "3600");
+        token.setClientId("203598599234220");
+        return PersistenceTransformations.toPersistentAccessToken(token);
+    }
+
+    @Test
+    public void when_store_access_token_map_refresh_token_with_same_ttl() throws Exception {
+        // GIVEN
+        AccessToken token = new AccessToken("Bearer", "900", "basic", "3600");
+        token.setClientId("203598599234220");
+
+        // WHEN
+        dbManager.storeAccessToken(token);
+
+        // THEN
+        verify(refreshTokens).put(token.getRefreshToken() + token.getClientId(),
+                new AccessTokenKey(token.getToken(), token.getToken()), 3600L, TimeUnit.SECONDS);
+        verify(routes).put(token.getToken(), token.getToken(), 3600L, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void when_store_access_token_without_refresh_token_do_not_map_it() throws Exception {
+        // GIVEN
+        AccessToken token = new AccessToken("Bearer", "900", "basic", false, "3600");
+
+        // WHEN
+        dbManager.storeAccessToken(token);
+
+        // THEN
+        verify(refreshTokens, never()).put(anyString(), any(AccessTokenKey.class), anyLong(), eq(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void when_find_by_refresh_token_get_token_by_key() throws Exception {
+        // GIVEN
+        PersistentAccessToken token = createToken();
+        willReturn(AccessTokenKey.of(token)).given(refreshTokens).get(token.getRefreshTokenByClient());
+        willReturn(token).given(accessTokens).get(AccessTokenKey.of(token));
+
+        // WHEN
+        AccessToken result = dbManager.findAccessTokenByRefreshToken(token.getRefreshToken(), token.getClientId());
+
+        // THEN
+        assertEquals(result.getToken(), token.getToken());
+    }
+
+    @Test
+    public void when_refresh_token_maps_to_expired_token_return_null() throws Exception {
+        // GIVEN
+        willReturn(new AccessTokenKey("a1b2c3", "a1b2c3")).given(refreshTokens).get("refresh" + "client");
+
+        // WHEN
+        AccessToken result = dbManager.findAccessTokenByRefreshToken("refresh", "client");
+
+        // THEN
+        assertNull(result);
+    }
+
+    @Test
+    public void when_remove_access_token_remove_refresh_token_only_if_mapped_to_it() throws Exception {
+        // GIVEN
+        PersistentAccessToken token = createToken();
+        AccessTokenKey key = AccessTokenKey.of(token);
+        willReturn(key.getPartitionKey()).given(routes).remove(token.getToken());
+        willReturn(token).given(accessTokens).remove(key);
+
+        // WHEN
+        dbManager.removeAccessToken(token.getToken());
+
+        // THEN
+        verify(refreshTokens).remove(token.getRefreshTokenByClient(), key);
+    }
+
+    @Test
+    public void when_auth_code_redirect_uri_differs_return_null() throws Exception {
+        // GIVEN
+        AuthCode authCode = new AuthCode("code", "clientId", "http://example.com", "state", "basic", "code", "12345");
+        willReturn(PersistenceTransformations.toPersistentAuthCode(authCode)).given(authCodes).get("code");
+
+        // WHEN
+        AuthCode result = dbManager.findAuthCode("code", "http://other.com");
+
+        // THEN
+        assertNull(result);
+    }
+
+    @Test
+    public void when_auth_code_valid_and_redirect_uri_matches_return_it() throws Exception {
+        // GIVEN
+        AuthCode authCode = new AuthCode("code", "clientId", "http://example.com", "state", "basic", "code", "12345");
+        willReturn(PersistenceTransformations.toPersistentAuthCode(authCode)).given(authCodes).get("code");
+
+        // WHEN
+        AuthCode result = dbManager.findAuthCode("code", "http://example.com");
+
+        // THEN
+        assertEquals(result.getCode(), "code");
+    }
+
+    @Test
+    public void when_store_auth_code_expire_it() throws Exception {
+        // GIVEN
+        AuthCode authCode = new AuthCode("code", "clientId", "http://example.com", "state", "basic", "code", "12345");
+
+        // WHEN
+        dbManager.storeAuthCode(authCode);
+
+        // THEN
+        verify(authCodes).put(eq("code"), any(PersistentAuthCode.class), eq((long) AuthCode.EXPIRES_IN_SEC),
+                eq(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void when_store_user_access_token_colocate_by_user_and_client() throws Exception {
+        // GIVEN
+        AccessToken token = new AccessToken("Bearer", "900", "basic", "3600");
+        token.setClientId("203598599234220");
+        token.setUserId("12345");
+
+        // WHEN
+        dbManager.storeAccessToken(token);
+
+        // THEN
+        verify(accessTokens).put(eq(new AccessTokenKey(token.getToken(), "12345203598599234220")),
+                any(PersistentAccessToken.class), eq(3600L), eq(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void when_find_access_token_route_to_its_partition_key() throws Exception {
+        // GIVEN
+        PersistentAccessToken token = createToken();
+        token.setUserId("12345");
+        AccessTokenKey key = AccessTokenKey.of(token);
+        willReturn(key.getPartitionKey()).given(routes).get(token.getToken());
+        willReturn(token).given(accessTokens).get(key);
+
+        // WHEN
+        AccessToken result = dbManager.findAccessToken(token.getToken());
+
+        // THEN
+        assertEquals(result.getToken(), token.getToken());
+    }
+
+    @Test
+    public void when_access_token_not_routed_return_null() throws Exception {
+        // WHEN
+        AccessToken result = dbManager.findAccessToken("a1b2c3");
+
+        // THEN
+        assertNull(result);
+        verify(accessTokens, never()).get(any(AccessTokenKey.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void when_get_user_access_tokens_query_partition_owner_only() throws Exception {
+        // GIVEN
+        PersistentAccessTokens tokens = new PersistentAccessTokens();
+        tokens.add(createToken());
+        Future<PersistentAccessTokens> future = mock(Future.class);
+        willReturn(tokens).given(future).get();
+        willReturn(future).given(executor).submitToKeyOwner(any(UserAccessTokensTask.class), eq("12345203598599234220"));
+
+        // WHEN
+        List<AccessToken> result = dbManager.getAccessTokenByUserIdAndClientApp("12345", "203598599234220");
+
+        // THEN
+        assertEquals(result.size(), 1);
+        verify(accessTokens, never()).values(any(Predicate.class));
+    }
+
+    @Test
+    public void when_store_client_credentials_token_map_it_by_client_and_scope() throws Exception {
+        // GIVEN
+        AccessToken token = new AccessToken("Bearer", "1800", "basic", false, null);
+        token.setClientId("203598599234220");
+        AccessTokenKey key = new AccessTokenKey(token.getToken(), token.getToken());
+
+        // WHEN
+        dbManager.storeAccessToken(token);
+
+        // THEN
+        verify(clientTokens).put("203598599234220 basic", key, 1800L, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void when_find_client_access_token_get_token_by_mapped_key() throws Exception {
+        // GIVEN
+        AccessToken token = new AccessToken("Bearer", "1800", "basic", false, null);
+        token.setClientId("203598599234220");
+        PersistentAccessToken persistent = PersistenceTransformations.toPersistentAccessToken(token);
+        AccessTokenKey key = AccessTokenKey.of(persistent);
+        willReturn(key).given(clientTokens).get("203598599234220 basic");
+        willReturn(persistent).given(accessTokens).get(key);
+
+        // WHEN
+        AccessToken found = dbManager.findClientAccessToken("203598599234220", "basic");
+
+        // THEN
+        assertEquals(found.getToken(), token.getToken());
+    }
+
+    @Test
+    public void when_store_client_credentials_replace_scopes_of_previous_ones_in_index() throws Exception {
+        // GIVEN
+        ClientCredentials creds = new ClientCredentials("app", "basic payment", "descr", "http://example.com", null);
+        ClientCredentials previous = new ClientCredentials("app", "basic extended", "descr", "http://example.com", null);
+        willReturn(PersistenceTransformations.toPersistentClientCredentials(previous)).given(clients)
+                .put(eq(creds.getId()), any(PersistentClientCredentials.class));
+
+        // WHEN
+        dbManager.storeClientCredentials(creds);
+
+        // THEN
+        verify(scopeClients).remove("extended", creds.getId());
+        verify(scopeClients, never()).remove("basic", creds.getId());
+        verify(scopeClients).put("basic", creds.getId());
+        verify(scopeClients).put("payment", creds.getId());
+    }
+
+    @Test
+    public void when_scope_index_empty_index_stored_client_apps_first() throws Exception {
+        // GIVEN
+        ClientCredentials creds = new ClientCredentials("app", "basic", "descr", "http://example.com", null);
+        willReturn(0).given(scopeClients).size();
+        willReturn(new HashSet<String>(Arrays.asList(creds.getId()))).given(clients).keySet();
+        willReturn(PersistenceTransformations.toPersistentClientCredentials(creds)).given(clients).get(creds.getId());
+        willReturn(true).given(scopeClients).containsKey("basic");
+
+        // WHEN
+        boolean used = dbManager.isScopeUsed("basic");
+
+        // THEN
+        assertTrue(used);
+        verify(scopeClients).put("basic", creds.getId());
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.hazelcast;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.AbstractMap;
+import java.util.Map;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.oauth20.AccessToken;
+import com.apifest.oauth20.AuthCode;
+import com.apifest.oauth20.ClientCredentials;
+import com.hazelcast.config.Config;
+import com.hazelcast.nio.serialization.SerializationService;
+import com.hazelcast.nio.serialization.SerializationServiceBuilder;
+
+/**
+ * @author Edouard De Oliveira
+ */
+public class HazelcastEntryProcessorsTest {
+
+    SerializationService serializationService;
+
+    @BeforeMethod
+    public void setup() {
+        Config config = HazelcastConfigFactory.buildConfig("test-pwd");
+        serializationService = new SerializationServiceBuilder().setConfig(config.getSerializationConfig()).build();
+    }
+
+    @Test
+    public void when_update_access_token_valid_status_set_only_valid_field() throws Exception {
+        // GIVEN
+        AccessToken token = new AccessToken("Bearer", "900", "basic", "3600");
+        PersistentAccessToken persistent = PersistenceTransformations.toPersistentAccessToken(token);
+        Map.Entry<AccessTokenKey, PersistentAccessToken> entry = new AbstractMap.SimpleEntry<AccessTokenKey, PersistentAccessToken>(
+                AccessTokenKey.of(persistent), persistent);
+
+        // WHEN
+        Object result = new AccessTokenValidStatusProcessor(false).process(entry);
+
+        // THEN
+        assertEquals(result, Boolean.TRUE);
+        assertFalse(entry.getValue().isValid());
+        assertEquals(entry.getValue().getRefreshToken(), token.getRefreshToken());
+    }
+
+    @Test
+    public void when_access_token_not_found_do_not_create_entry() throws Exception {
+        // GIVEN
+        Map.Entry<AccessTokenKey, PersistentAccessToken> entry = new AbstractMap.SimpleEntry<AccessTokenKey, PersistentAccessToken>(
+                new AccessTokenKey("a1b2c3", "a1b2c3"), null);
+
+        // WHEN
+        Object result = new AccessTokenValidStatusProcessor(false).process(entry);
+
+        // THEN
+        assertEquals(result, Boolean.FALSE);
+        assertNull(entry.getValue());
+    }
+
+    @Test
+    public void when_update_client_app_keep_fields_not_set() throws Exception {
+        // GIVEN
+        ClientCredentials creds = new ClientCredentials("app", "basic", "descr", "http://example.com", null);
+        Map.Entry<String, PersistentClientCredentials> entry = new AbstractMap.SimpleEntry<String, PersistentClientCredentials>(
+                creds.getId(), PersistenceTransformations.toPersistentClientCredentials(creds));
+
+        // WHEN
+        new ClientAppUpdateProcessor("extended", "", ClientCredentials.INACTIVE_STATUS, null).process(entry);
+
+        // THEN
+        assertEquals(entry.getValue().getScope(), "extended");
+        assertEquals(entry.getValue().getDescr(), "descr");
+        assertEquals(entry.getValue().getStatus(), ClientCredentials.INACTIVE_STATUS);
+    }
+
+    @Test
+    public void when_serialize_processors_read_same_fields() throws Exception {
+        // WHEN
+        AuthCodeValidStatusProcessor authCodeProcessor = serializationService.toObject(
+                serializationService.toData(new AuthCodeValidStatusProcessor(true)));
+        ClientAppUpdateProcessor clientAppProcessor = serializationService.toObject(
+                serializationService.toData(new ClientAppUpdateProcessor(null, "new descr", null, null)));
+        PersistentClientCredentials creds = new PersistentClientCredentials();
+        creds.setStatus(ClientCredentials.ACTIVE_STATUS);
+        clientAppProcessor.process(new AbstractMap.SimpleEntry<String, PersistentClientCredentials>("id", creds));
+
+        // THEN
+        assertTrue(authCodeProcessor.isValid());
+        assertEquals(creds.getDescr(), "new descr");
+        assertEquals(creds.getStatus(), ClientCredentials.ACTIVE_STATUS);
+    }
+
+    @Test
+    public void when_rotate_valid_access_token_remove_it() throws Exception {
+        // GIVEN
+        AccessToken token = new AccessToken("Bearer", "900", "basic", "3600");
+        PersistentAccessToken persistent = PersistenceTransformations.toPersistentAccessToken(token);
+        Map.Entry<AccessTokenKey, PersistentAccessToken> entry = new AbstractMap.SimpleEntry<AccessTokenKey, PersistentAccessToken>(
+                AccessTokenKey.of(persistent), persistent);
+
+        // WHEN
+        Object first = new AccessTokenRotateProcessor().process(entry);
+        Object second = new AccessTokenRotateProcessor().process(entry);
+
+        // THEN
+        assertEquals(first, Boolean.TRUE);
+        assertEquals(second, Boolean.FALSE);
+        assertNull(entry.getValue());
+    }
+
+    @Test
+    public void when_rotate_invalid_access_token_keep_it() throws Exception {
+        // GIVEN
+        AccessToken token = new AccessToken("Bearer", "900", "basic", "3600");
+        token.setValid(false);
+        PersistentAccessToken persistent = PersistenceTransformations.toPersistentAccessToken(token);
+        Map.Entry<AccessTokenKey, PersistentAccessToken> entry = new AbstractMap.SimpleEntry<AccessTokenKey, PersistentAccessToken>(
+                AccessTokenKey.of(persistent), persistent);
+
+        // WHEN
+        Object result = new AccessTokenRotateProcessor().process(entry);
+
+        // THEN
+        assertEquals(result, Boolean.FALSE);
+        assertEquals(entry.getValue(), persistent);
+    }
+
+    @Test
+    public void when_consume_auth_code_remove_and_return_it_once() throws Exception {
+        // GIVEN
+        AuthCode authCode = new AuthCode("code", "203598599234220", "http://example.com", null, "basic", "code", "12345");
+        Map.Entry<String, PersistentAuthCode> entry = new AbstractMap.SimpleEntry<String, PersistentAuthCode>(
+                authCode.getCode(), PersistenceTransformations.toPersistentAuthCode(authCode));
+        AuthCodeConsumeProcessor processor = serializationService.toObject(
+                serializationService.toData(new AuthCodeConsumeProcessor("http://example.com")));
+
+        // WHEN
+        Object first = processor.process(entry);
+        Object second = processor.process(entry);
+
+        // THEN
+        assertEquals(((PersistentAuthCode) first).getCode(), "code");
+        assertNull(second);
+        assertNull(entry.getValue());
+    }
+
+    @Test
+    public void when_consume_auth_code_with_other_redirect_uri_keep_it() throws Exception {
+        // GIVEN
+        AuthCode authCode = new AuthCode("code", "203598599234220", "http://example.com", null, "basic", "code", "12345");
+        PersistentAuthCode persistent = PersistenceTransformations.toPersistentAuthCode(authCode);
+        Map.Entry<String, PersistentAuthCode> entry = new AbstractMap.SimpleEntry<String, PersistentAuthCode>(
+                authCode.getCode(), persistent);
+
+        // WHEN
+        Object result = new AuthCodeConsumeProcessor("http://other.com").process(entry);
+
+        // THEN
+        assertNull(result);
+        assertEquals(entry.getValue(), persistent);
+    }
+
+    @Test
+    public void when_increment_counter_add_delta_to_existing_value() throws Exception {
+        // GIVEN
+        Map.Entry<String, Long> entry = new AbstractMap.SimpleEntry<String, Long>("quota:a:m:1", 10L);
+
+        // WHEN
+        Object result = new CounterIncrementProcessor(5).process(entry);
+
+        // THEN
+        assertEquals(result, 15L);
+        assertEquals(entry.getValue(), Long.valueOf(15L));
+    }
+
+    @Test
+    public void when_counter_not_found_do_not_create_it() throws Exception {
+        // GIVEN
+        Map.Entry<String, Long> entry = new AbstractMap.SimpleEntry<String, Long>("quota:a:m:1", null);
+
+        // WHEN
+        Object result = new CounterIncrementProcessor(5).process(entry);
+
+        // THEN
+        assertNull(result);
+        assertNull(entry.getValue());
+    }
+}
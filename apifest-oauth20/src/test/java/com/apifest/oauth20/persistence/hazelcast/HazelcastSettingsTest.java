@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.hazelcast;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Properties;
+
+import org.testng.annotations.Test;
+
+import com.hazelcast.client.config.ClientConfig;
+import com.hazelcast.config.Config;
+import com.hazelcast.config.MapConfig;
+import com.hazelcast.config.MapConfig.EvictionPolicy;
+import com.hazelcast.config.MaxSizeConfig.MaxSizePolicy;
+import com.hazelcast.config.NearCacheConfig;
+
+/**
+ * @author Edouard De Oliveira
+ */
+public class HazelcastSettingsTest {
+
+    @Test
+    public void when_near_cache_properties_set_load_them() throws Exception {
+        // GIVEN
+        Properties props = new Properties();
+        props.setProperty(HazelcastSettings.NEAR_CACHE_ACCESS_TOKENS_PROPERTY, "true");
+        props.setProperty(HazelcastSettings.NEAR_CACHE_MAX_SIZE_PROPERTY, "500");
+        props.setProperty(HazelcastSettings.NEAR_CACHE_TTL_PROPERTY, " 30 ");
+        props.setProperty(HazelcastSettings.NEAR_CACHE_EVICTION_POLICY_PROPERTY, "lfu");
+
+        // WHEN
+        HazelcastSettings settings = HazelcastSettings.load(props);
+
+        // THEN
+        assertTrue(settings.isNearCacheEnabled());
+        assertTrue(settings.isNearCacheAccessTokens());
+        assertEquals(settings.getNearCacheMaxSize(), 500);
+        assertEquals(settings.getNearCacheTtl(), 30);
+        assertEquals(settings.getNearCacheEvictionPolicy(), "LFU");
+    }
+
+    @Test
+    public void when_near_cache_property_invalid_use_default() throws Exception {
+        // GIVEN
+        Properties props = new Properties();
+        props.setProperty(HazelcastSettings.NEAR_CACHE_MAX_SIZE_PROPERTY, "many");
+
+        // WHEN
+        HazelcastSettings settings = HazelcastSettings.load(props);
+
+        // THEN
+        assertEquals(settings.getNearCacheMaxSize(), 10000);
+    }
+
+    @Test
+    public void when_near_cache_enabled_by_default_cache_clients_and_scopes_only() throws Exception {
+        // WHEN
+        List<String> maps = HazelcastConfigFactory.getNearCachedMaps(new HazelcastSettings());
+
+        // THEN
+        assertTrue(maps.contains(HazelcastConfigFactory.APIFEST_CLIENT_MAP));
+        assertTrue(maps.contains(HazelcastConfigFactory.APIFEST_SCOPE_MAP));
+        assertFalse(maps.contains(HazelcastConfigFactory.APIFEST_ACCESS_TOKEN_MAP));
+    }
+
+    @Test
+    public void when_near_cache_disabled_do_not_configure_near_cache() throws Exception {
+        // GIVEN
+        HazelcastSettings settings = new HazelcastSettings().setNearCacheEnabled(false);
+
+        // WHEN
+        Config config = HazelcastConfigFactory.buildConfig("apifest-oauth20", "test-pwd", "127.0.0.1", null, settings);
+
+        // THEN
+        assertTrue(HazelcastConfigFactory.getNearCachedMaps(settings).isEmpty());
+        assertNull(config.getMapConfig(HazelcastConfigFactory.APIFEST_CLIENT_MAP).getNearCacheConfig());
+    }
+
+    @Test
+    public void when_build_client_config_add_near_cache_for_token_map_if_enabled() throws Exception {
+        // GIVEN
+        HazelcastSettings settings = new HazelcastSettings().setNearCacheAccessTokens(true).setNearCacheTtl(60);
+
+        // WHEN
+        ClientConfig config = HazelcastConfigFactory.buildClientConfig("apifest-oauth20", "test-pwd", null, settings);
+
+        // THEN
+        NearCacheConfig nearCache = config.getNearCacheConfig(HazelcastConfigFactory.APIFEST_ACCESS_TOKEN_MAP);
+        assertNotNull(nearCache);
+        assertEquals(nearCache.getTimeToLiveSeconds(), 60);
+    }
+
+    @Test
+    public void when_no_near_cache_lookups_hit_ratio_is_zero() throws Exception {
+        // THEN
+        assertEquals(NearCacheStatsReporter.hitRatio(0, 0), 0d);
+        assertEquals(NearCacheStatsReporter.hitRatio(3, 1), 0.75d);
+    }
+
+    @Test
+    public void when_max_size_set_without_eviction_policy_evict_lru() throws Exception {
+        // GIVEN
+        Properties props = new Properties();
+        props.setProperty(HazelcastSettings.ACCESS_TOKENS_PREFIX + ".max.size", "70");
+        props.setProperty(HazelcastSettings.ACCESS_TOKENS_PREFIX + ".max.size.policy", "used_heap_percentage");
+
+        // WHEN
+        HazelcastSettings settings = HazelcastSettings.load(props);
+        Config config = HazelcastConfigFactory.buildConfig("apifest-oauth20", "test-pwd", "127.0.0.1", null, settings);
+
+        // THEN
+        MapConfig tokenConfig = config.getMapConfig(HazelcastConfigFactory.APIFEST_ACCESS_TOKEN_MAP);
+        assertEquals(tokenConfig.getEvictionPolicy(), EvictionPolicy.LRU);
+        assertEquals(tokenConfig.getMaxSizeConfig().getSize(), 70);
+        assertEquals(tokenConfig.getMaxSizeConfig().getMaxSizePolicy(), MaxSizePolicy.USED_HEAP_PERCENTAGE);
+        assertEquals(config.getMapConfig(HazelcastConfigFactory.APIFEST_REFRESH_TOKEN_MAP).getEvictionPolicy(),
+                EvictionPolicy.LRU);
+    }
+
+    @Test
+    public void when_max_size_not_set_do_not_evict() throws Exception {
+        // WHEN
+        HazelcastSettings settings = HazelcastSettings.load(new Properties());
+        Config config = HazelcastConfigFactory.buildConfig("apifest-oauth20", "test-pwd", "127.0.0.1", null, settings);
+
+        // THEN
+        assertEquals(config.getMapConfig(HazelcastConfigFactory.APIFEST_AUTH_CODE_MAP).getEvictionPolicy(),
+                EvictionPolicy.NONE);
+        assertEquals(config.getMapConfig(HazelcastConfigFactory.APIFEST_CLIENT_MAP).getMaxSizeConfig().getSize(), 0);
+    }
+}
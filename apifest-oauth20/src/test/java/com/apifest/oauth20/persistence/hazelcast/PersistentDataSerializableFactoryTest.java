@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.hazelcast;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.oauth20.AccessToken;
+import com.apifest.oauth20.ClientCredentials;
+import com.apifest.oauth20.Scope;
+import com.hazelcast.config.Config;
+import com.hazelcast.config.InMemoryFormat;
+import com.hazelcast.nio.serialization.Data;
+import com.hazelcast.nio.serialization.SerializationService;
+import com.hazelcast.nio.serialization.SerializationServiceBuilder;
+
+/**
+ * @author Edouard De Oliveira
+ */
+public class PersistentDataSerializableFactoryTest {
+
+    SerializationService serializationService;
+
+    @BeforeMethod
+    public void setup() {
+        Config config = HazelcastConfigFactory.buildConfig("test-pwd");
+        serializationService = new SerializationServiceBuilder().setConfig(config.getSerializationConfig()).build();
+    }
+
+    @Test
+    public void when_serialize_access_token_read_same_fields() throws Exception {
+        // GIVEN
+        AccessToken token = new AccessToken("Bearer", "900", "basic", "3600");
+        token.setClientId("203598599234220");
+        token.setUserId("12345");
+        Map<String, String> details = new HashMap<String, String>();
+        details.put("device", "mobile");
+        token.setDetails(details);
+        PersistentAccessToken persistent = PersistenceTransformations.toPersistentAccessToken(token);
+
+        // WHEN
+        Data data = serializationService.toData(persistent);
+        PersistentAccessToken result = serializationService.toObject(data);
+
+        // THEN
+        assertEquals(result.getToken(), token.getToken());
+        assertEquals(result.getRefreshToken(), token.getRefreshToken());
+        assertEquals(result.getRefreshTokenByClient(), persistent.getRefreshTokenByClient());
+        assertEquals(result.getCreated(), token.getCreated());
+        assertEquals(result.getDetails(), persistent.getDetails());
+        assertTrue(result.isValid());
+    }
+
+    @Test
+    public void when_serialize_client_credentials_keep_null_values() throws Exception {
+        // GIVEN
+        ClientCredentials creds = new ClientCredentials("app", "basic", "descr", "http://example.com", null);
+        creds.setCreated(null);
+        PersistentClientCredentials persistent = PersistenceTransformations.toPersistentClientCredentials(creds);
+
+        // WHEN
+        PersistentClientCredentials result = serializationService.toObject(serializationService.toData(persistent));
+
+        // THEN
+        assertEquals(result.getClientId(), creds.getId());
+        assertEquals(result.getStatus(), ClientCredentials.ACTIVE_STATUS);
+        assertNull(result.getCreated());
+        assertNull(result.getApplicationDetails());
+    }
+
+    @Test
+    public void when_serialize_scope_read_expires_in() throws Exception {
+        // GIVEN
+        Scope scope = new Scope();
+        scope.setScope("basic");
+        scope.setDescription("basic scope");
+        scope.setCcExpiresIn(1800);
+        scope.setPassExpiresIn(900);
+
+        // WHEN
+        PersistentScope result = serializationService.toObject(
+                serializationService.toData(PersistenceTransformations.toPersistentScope(scope)));
+
+        // THEN
+        assertEquals(result.getCcExpiresIn(), Integer.valueOf(1800));
+        assertEquals(result.getRefreshExpiresIn(), Integer.valueOf(900));
+    }
+
+    @Test
+    public void when_in_memory_format_not_set_use_binary() throws Exception {
+        // WHEN
+        Config config = HazelcastConfigFactory.buildConfig("test-pwd");
+
+        // THEN
+        assertEquals(config.getMapConfig(HazelcastConfigFactory.APIFEST_ACCESS_TOKEN_MAP).getInMemoryFormat(),
+                InMemoryFormat.BINARY);
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.inmemory;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.oauth20.AccessToken;
+import com.apifest.oauth20.AuthCode;
+import com.apifest.oauth20.ClientCredentials;
+
+/**
+ * @author Edouard De Oliveira
+ */
+public class InMemoryDBManagerTest {
+
+    InMemoryDBManager dbManager;
+    long start;
+
+    @BeforeMethod
+    public void setup() {
+        start = System.currentTimeMillis();
+        dbManager = new InMemoryDBManager(start);
+    }
+
+    private AccessToken createToken(String userId, String clientId) {
+        AccessToken token = new AccessToken("Bearer", "900", "basic", "3600");
+        token.setUserId(userId);
+        token.setClientId(clientId);
+        return token;
+    }
+
+    @Test
+    public void when_store_access_token_find_it_by_token_and_refresh_token() throws Exception {
+        // GIVEN
+        AccessToken token = createToken("12345", "203598599234220");
+
+        // WHEN
+        dbManager.storeAccessToken(token);
+
+        // THEN
+        assertEquals(dbManager.findAccessToken(token.getToken()).getRefreshToken(), token.getRefreshToken());
+        assertEquals(dbManager.findAccessTokenByRefreshToken(token.getRefreshToken(), "203598599234220").getToken(),
+                token.getToken());
+        assertNull(dbManager.findAccessTokenByRefreshToken(token.getRefreshToken(), "other"));
+    }
+
+    @Test
+    public void when_get_user_tokens_return_only_valid_ones() throws Exception {
+        // GIVEN
+        AccessToken token = createToken("12345", "203598599234220");
+        AccessToken revoked = createToken("12345", "203598599234220");
+        dbManager.storeAccessToken(token);
+        dbManager.storeAccessToken(revoked);
+        dbManager.storeAccessToken(createToken("other", "203598599234220"));
+
+        // WHEN
+        dbManager.updateAccessTokenValidStatus(revoked.getToken(), false);
+        List<AccessToken> tokens = dbManager.getAccessTokenByUserIdAndClientApp("12345", "203598599234220");
+
+        // THEN
+        assertEquals(tokens.size(), 1);
+        assertEquals(tokens.get(0).getToken(), token.getToken());
+    }
+
+    @Test
+    public void when_remove_access_token_remove_it_from_indexes() throws Exception {
+        // GIVEN
+        AccessToken token = createToken("12345", "203598599234220");
+        dbManager.storeAccessToken(token);
+
+        // WHEN
+        dbManager.removeAccessToken(token.getToken());
+
+        // THEN
+        assertNull(dbManager.findAccessToken(token.getToken()));
+        assertNull(dbManager.findAccessTokenByRefreshToken(token.getRefreshToken(), "203598599234220"));
+        assertTrue(dbManager.getAccessTokenByUserIdAndClientApp("12345", "203598599234220").isEmpty());
+    }
+
+    @Test
+    public void when_refreshed_token_removed_keep_refresh_token_of_new_one() throws Exception {
+        // GIVEN
+        AccessToken token = createToken("12345", "203598599234220");
+        dbManager.storeAccessToken(token);
+        AccessToken refreshed = new AccessToken("Bearer", "900", "basic", token.getRefreshToken(), "3600");
+        refreshed.setClientId("203598599234220");
+        dbManager.storeAccessToken(refreshed);
+
+        // WHEN
+        dbManager.removeAccessToken(token.getToken());
+
+        // THEN
+        assertEquals(dbManager.findAccessTokenByRefreshToken(token.getRefreshToken(), "203598599234220").getToken(),
+                refreshed.getToken());
+    }
+
+    @Test
+    public void when_auth_code_redirect_uri_differs_return_null() throws Exception {
+        // GIVEN
+        AuthCode authCode = new AuthCode("code", "203598599234220", "http://example.com", null, "basic", "code", "12345");
+        dbManager.storeAuthCode(authCode);
+
+        // WHEN
+        AuthCode found = dbManager.findAuthCode("code", "http://example.com");
+        AuthCode notFound = dbManager.findAuthCode("code", "http://other.com");
+
+        // THEN
+        assertNotNull(found);
+        assertNull(notFound);
+    }
+
+    @Test
+    public void when_auth_code_invalidated_return_null() throws Exception {
+        // GIVEN
+        AuthCode authCode = new AuthCode("code", "203598599234220", "http://example.com", null, "basic", "code", "12345");
+        dbManager.storeAuthCode(authCode);
+
+        // WHEN
+        dbManager.updateAuthCodeValidStatus("code", false);
+
+        // THEN
+        assertNull(dbManager.findAuthCode("code", "http://example.com"));
+    }
+
+    @Test
+    public void when_access_token_expired_remove_it_on_wheel_advance() throws Exception {
+        // GIVEN
+        AccessToken token = new AccessToken("Bearer", "1", "basic", false, "");
+        token.setUserId("12345");
+        token.setClientId("203598599234220");
+        dbManager.storeAccessToken(token);
+        AccessToken longLived = createToken("12345", "203598599234220");
+        dbManager.storeAccessToken(longLived);
+
+        // WHEN
+        dbManager.removeExpired(start + 5000);
+
+        // THEN
+        assertEquals(dbManager.size(), 1);
+        assertNotNull(dbManager.findAccessToken(longLived.getToken()));
+        assertEquals(dbManager.getAccessTokenByUserIdAndClientApp("12345", "203598599234220").size(), 1);
+    }
+
+    @Test
+    public void when_update_client_app_do_not_change_returned_copies() throws Exception {
+        // GIVEN
+        ClientCredentials creds = new ClientCredentials("app", "basic", "descr", "http://example.com", null);
+        dbManager.storeClientCredentials(creds);
+        ClientCredentials before = dbManager.findClientCredentials(creds.getId());
+
+        // WHEN
+        boolean updated = dbManager.updateClientApp(creds.getId(), null, null, ClientCredentials.INACTIVE_STATUS, null);
+
+        // THEN
+        assertTrue(updated);
+        assertEquals(before.getStatus(), ClientCredentials.ACTIVE_STATUS);
+        assertEquals(dbManager.findClientCredentials(creds.getId()).getStatus(), ClientCredentials.INACTIVE_STATUS);
+        assertFalse(dbManager.validClient(creds.getId(), creds.getSecret()));
+        assertEquals(dbManager.findClientCredentialsByName("app").getId(), creds.getId());
+    }
+
+    @Test
+    public void when_rotate_access_token_only_first_rotation_succeeds() throws Exception {
+        // GIVEN
+        AccessToken token = createToken("12345", "203598599234220");
+        dbManager.storeAccessToken(token);
+        AccessToken refreshed = new AccessToken("Bearer", "900", "basic", token.getRefreshToken(), "3600");
+        refreshed.setUserId("12345");
+        refreshed.setClientId("203598599234220");
+        AccessToken concurrent = new AccessToken("Bearer", "900", "basic", token.getRefreshToken(), "3600");
+        concurrent.setClientId("203598599234220");
+
+        // WHEN
+        boolean first = dbManager.rotateAccessToken(token.getToken(), refreshed);
+        boolean second = dbManager.rotateAccessToken(token.getToken(), concurrent);
+
+        // THEN
+        assertTrue(first);
+        assertFalse(second);
+        assertNull(dbManager.findAccessToken(token.getToken()));
+        assertNull(dbManager.findAccessToken(concurrent.getToken()));
+        assertEquals(dbManager.findAccessTokenByRefreshToken(token.getRefreshToken(), "203598599234220").getToken(),
+                refreshed.getToken());
+        assertEquals(dbManager.getAccessTokenByUserIdAndClientApp("12345", "203598599234220").size(), 1);
+    }
+
+    @Test
+    public void when_consume_auth_code_return_it_only_once() throws Exception {
+        // GIVEN
+        dbManager.storeAuthCode(new AuthCode("code", "203598599234220", "http://example.com", null, "basic", "code", "12345"));
+
+        // WHEN
+        AuthCode otherRedirectUri = dbManager.consumeAuthCode("code", "http://other.com");
+        AuthCode first = dbManager.consumeAuthCode("code", "http://example.com");
+        AuthCode second = dbManager.consumeAuthCode("code", "http://example.com");
+
+        // THEN
+        assertNull(otherRedirectUri);
+        assertEquals(first.getClientId(), "203598599234220");
+        assertNull(second);
+        assertNull(dbManager.findAuthCode("code", "http://example.com"));
+    }
+
+    @Test
+    public void when_find_client_access_token_return_last_client_credentials_token() throws Exception {
+        // GIVEN
+        AccessToken first = new AccessToken("Bearer", "1800", "basic", false, null);
+        first.setClientId("203598599234220");
+        AccessToken last = new AccessToken("Bearer", "1800", "basic", false, null);
+        last.setClientId("203598599234220");
+        dbManager.storeAccessToken(first);
+        dbManager.storeAccessToken(last);
+        dbManager.storeAccessToken(createToken("12345", "203598599234220"));
+
+        // WHEN
+        AccessToken found = dbManager.findClientAccessToken("203598599234220", "basic");
+        dbManager.removeAccessToken(last.getToken());
+        AccessToken afterRemoval = dbManager.findClientAccessToken("203598599234220", "basic");
+
+        // THEN
+        assertEquals(found.getToken(), last.getToken());
+        assertNull(afterRemoval);
+        assertNull(dbManager.findClientAccessToken("203598599234220", "extended"));
+    }
+
+    @Test
+    public void when_client_app_scope_changes_update_scope_index() throws Exception {
+        // GIVEN
+        ClientCredentials creds = new ClientCredentials("app", "basic extended", "descr", "http://example.com", null);
+        ClientCredentials other = new ClientCredentials("other", "basic", "descr", "http://example.com", null);
+        dbManager.storeClientCredentials(creds);
+        dbManager.storeClientCredentials(other);
+
+        // WHEN
+        dbManager.updateClientApp(creds.getId(), "basic payment", null, null, null);
+        boolean extendedUsed = dbManager.isScopeUsed("extended");
+        boolean paymentUsed = dbManager.isScopeUsed("payment");
+        dbManager.deleteClientApp(creds.getId());
+
+        // THEN
+        assertFalse(extendedUsed);
+        assertTrue(paymentUsed);
+        assertFalse(dbManager.isScopeUsed("payment"));
+        assertTrue(dbManager.isScopeUsed("basic"));
+        assertFalse(dbManager.isScopeUsed("bas"));
+    }
+
+    @Test
+    public void when_increment_counter_return_sum_per_key() throws Exception {
+        // WHEN
+        long first = dbManager.incrementCounter("quota:a:m:1", 10, 60);
+        long second = dbManager.incrementCounter("quota:a:m:1", 5, 60);
+        long other = dbManager.incrementCounter("quota:b:m:1", 3, 60);
+
+        // THEN
+        assertEquals(first, 10L);
+        assertEquals(second, 15L);
+        assertEquals(other, 3L);
+    }
+}
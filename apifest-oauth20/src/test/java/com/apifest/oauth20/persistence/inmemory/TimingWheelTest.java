@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.inmemory;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Edouard De Oliveira
+ */
+public class TimingWheelTest {
+
+    static final long START = 1000000L;
+
+    TimingWheel<String> wheel;
+    List<String> expired;
+    TimingWheel.ExpiryListener<String> listener;
+
+    @BeforeMethod
+    public void setup() {
+        wheel = new TimingWheel<String>(1000, START);
+        expired = new ArrayList<String>();
+        listener = new TimingWheel.ExpiryListener<String>() {
+            @Override
+            public void expired(String key) {
+                expired.add(key);
+            }
+        };
+    }
+
+    @Test
+    public void when_deadline_not_reached_do_not_expire() throws Exception {
+        // GIVEN
+        wheel.schedule("token", START + 5000);
+
+        // WHEN
+        wheel.advance(START + 4999, listener);
+
+        // THEN
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    public void when_deadline_reached_expire_once() throws Exception {
+        // GIVEN
+        wheel.schedule("token", START + 5000);
+
+        // WHEN
+        wheel.advance(START + 5000, listener);
+        wheel.advance(START + 10000, listener);
+
+        // THEN
+        assertEquals(expired.size(), 1);
+        assertEquals(expired.get(0), "token");
+    }
+
+    @Test
+    public void when_deadline_in_upper_level_cascade_and_expire_at_deadline() throws Exception {
+        // GIVEN
+        long ttl = 3L * TimingWheel.WHEEL_SIZE * TimingWheel.WHEEL_SIZE * 1000 + 7000;
+        wheel.schedule("token", START + ttl);
+
+        // WHEN
+        wheel.advance(START + ttl - 1000, listener);
+
+        // THEN
+        assertTrue(expired.isEmpty());
+
+        // WHEN
+        wheel.advance(START + ttl, listener);
+
+        // THEN
+        assertEquals(expired.size(), 1);
+    }
+
+    @Test
+    public void when_deadline_already_passed_expire_on_next_advance() throws Exception {
+        // GIVEN
+        wheel.advance(START + 20000, listener);
+        wheel.schedule("token", START + 10000);
+
+        // WHEN
+        wheel.advance(START + 21000, listener);
+
+        // THEN
+        assertEquals(expired.size(), 1);
+    }
+
+    @Test
+    public void when_deadline_beyond_wheel_range_expire_after_deadline() throws Exception {
+        // GIVEN
+        long range = 1L << (TimingWheel.WHEEL_BITS * TimingWheel.LEVELS);
+        long ttl = (range + 100) * 1000;
+        wheel.schedule("token", START + ttl);
+
+        // WHEN
+        wheel.advance(START + ttl - 1000, listener);
+
+        // THEN
+        assertTrue(expired.isEmpty());
+
+        // WHEN
+        wheel.advance(START + ttl + range * 1000, listener);
+
+        // THEN
+        assertEquals(expired.size(), 1);
+    }
+}
@@ -21,12 +21,14 @@ import static org.mockito.Mockito.*;
 import static org.mockito.BDDMockito.*;
 import static org.testng.Assert.*;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import com.apifest.oauth20.ClientCredentials;
 import com.apifest.oauth20.Scope;
 import org.bson.BSONObject;
+import org.mockito.ArgumentCaptor;
 import org.slf4j.Logger;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -244,4 +246,53 @@ public class MongoDBManagerTest {
         // THEN
         assertFalse(result);
     }
+
+    @Test
+    public void when_insert_client_credentials_store_scope_names_array() throws Exception {
+        // GIVEN
+        ClientCredentials cred = new ClientCredentials("Test", "basic extended", "descr", "http://example.com", null);
+        given(db.getCollection(MongoDBManager.CLIENTS_COLLECTION_NAME)).willReturn(coll);
+        ArgumentCaptor<DBObject> captor = ArgumentCaptor.forClass(DBObject.class);
+
+        // WHEN
+        dbManager.storeObject(cred, MongoDBManager.CLIENTS_COLLECTION_NAME);
+
+        // THEN
+        verify(coll).insert(captor.capture());
+        assertEquals(captor.getValue().get(MongoDBManager.CLIENTS_SCOPES), Arrays.asList("basic", "extended"));
+    }
+
+    @Test
+    public void when_check_scope_used_find_one_client_by_scope_names() throws Exception {
+        // GIVEN
+        given(db.getCollection(MongoDBManager.CLIENTS_COLLECTION_NAME)).willReturn(coll);
+        given(coll.findOne(new BasicDBObject(MongoDBManager.CLIENTS_SCOPES, "basic"),
+                new BasicDBObject(MongoDBManager.CLIENTS_ID, 1))).willReturn(new BasicDBObject());
+
+        // WHEN
+        boolean used = dbManager.isScopeUsed("basic");
+
+        // THEN
+        assertTrue(used);
+        verify(coll, never()).find();
+    }
+
+    @Test
+    public void when_increment_counter_upsert_it_and_return_new_value() throws Exception {
+        // GIVEN
+        given(db.getCollection(MongoDBManager.COUNTER_COLLECTION_NAME)).willReturn(coll);
+        ArgumentCaptor<DBObject> captor = ArgumentCaptor.forClass(DBObject.class);
+        given(coll.findAndModify(eq(new BasicDBObject(MongoDBManager.CLIENTS_ID, "quota:a:m:1")), isNull(DBObject.class),
+                isNull(DBObject.class), eq(false), captor.capture(), eq(true), eq(true)))
+                .willReturn(new BasicDBObject(MongoDBManager.COUNTER_VALUE, 15L));
+
+        // WHEN
+        long value = dbManager.incrementCounter("quota:a:m:1", 5, 60);
+
+        // THEN
+        assertEquals(value, 15L);
+        DBObject inc = (DBObject) captor.getValue().get("$inc");
+        assertEquals(inc.get(MongoDBManager.COUNTER_VALUE), 5L);
+        assertNotNull(captor.getValue().get("$setOnInsert"));
+    }
 }
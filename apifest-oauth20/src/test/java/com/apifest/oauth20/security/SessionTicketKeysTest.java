@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.security;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+/**
+ * @author Edouard De Oliveira
+ */
+public class SessionTicketKeysTest {
+
+    @Test
+    public void when_first_rotation_return_one_key() throws Exception {
+        // GIVEN
+        SessionTicketKeys keys = new SessionTicketKeys(null);
+
+        // WHEN
+        byte[] first = keys.nextKeys();
+
+        // THEN
+        assertEquals(first.length, SessionTicketKeys.KEY_LENGTH);
+    }
+
+    @Test
+    public void when_keys_rotated_keep_previous_key_after_new_one() throws Exception {
+        // GIVEN
+        SessionTicketKeys keys = new SessionTicketKeys(null);
+        byte[] first = keys.nextKeys();
+
+        // WHEN
+        byte[] second = keys.nextKeys();
+
+        // THEN
+        int length = SessionTicketKeys.KEY_LENGTH;
+        assertEquals(second.length, 2 * length);
+        assertEquals(Arrays.copyOfRange(second, length, 2 * length), first);
+        assertFalse(Arrays.equals(Arrays.copyOfRange(second, 0, length), first));
+    }
+
+    @Test
+    public void when_keys_rotated_twice_drop_oldest_key() throws Exception {
+        // GIVEN
+        SessionTicketKeys keys = new SessionTicketKeys(null);
+        byte[] first = keys.nextKeys();
+        byte[] second = keys.nextKeys();
+
+        // WHEN
+        byte[] third = keys.nextKeys();
+
+        // THEN
+        int length = SessionTicketKeys.KEY_LENGTH;
+        assertEquals(third.length, 2 * length);
+        assertEquals(Arrays.copyOfRange(third, length, 2 * length), Arrays.copyOfRange(second, 0, length));
+        assertFalse(Arrays.equals(Arrays.copyOfRange(third, length, 2 * length), first));
+    }
+}
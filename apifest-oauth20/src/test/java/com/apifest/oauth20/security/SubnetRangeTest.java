@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.security;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.net.InetAddress;
+
+import org.testng.annotations.Test;
+
+/**
+ * @author Edouard De Oliveira
+ */
+public class SubnetRangeTest {
+
+    @Test
+    public void when_address_in_one_of_subnets_return_true() throws Exception {
+        // GIVEN
+        SubnetRange range = SubnetRange.parse("10.0.0.1/24, 192.168.0.0/16,172.16.5.4", true);
+
+        // THEN
+        assertTrue(range.inRange(InetAddress.getByName("10.0.0.200")));
+        assertTrue(range.inRange(InetAddress.getByName("192.168.254.1")));
+        assertTrue(range.inRange(InetAddress.getByName("172.16.5.4")));
+        assertFalse(range.inRange(InetAddress.getByName("10.0.1.1")));
+        assertFalse(range.inRange(InetAddress.getByName("172.16.5.5")));
+    }
+
+    @Test
+    public void when_ipv6_subnet_check_ipv6_addresses() throws Exception {
+        // GIVEN
+        SubnetRange range = SubnetRange.parse("2001:db8::/32,::1", true);
+
+        // THEN
+        assertTrue(range.inRange(InetAddress.getByName("2001:db8:1::5")));
+        assertTrue(range.inRange("::1"));
+        assertFalse(range.inRange(InetAddress.getByName("2001:db9::1")));
+        assertFalse(range.inRange(InetAddress.getByName("127.0.0.1")));
+    }
+
+    @Test
+    public void when_host_count_not_inclusive_exclude_network_and_broadcast_addresses() throws Exception {
+        // GIVEN
+        SubnetRange range = SubnetRange.parse("10.0.0.0/24", false);
+
+        // THEN
+        assertTrue(range.inRange("10.0.0.1"));
+        assertFalse(range.inRange("10.0.0.0"));
+        assertFalse(range.inRange("10.0.0.255"));
+    }
+
+    @Test
+    public void when_no_subnet_allow_all() throws Exception {
+        // GIVEN
+        SubnetRange range = SubnetRange.parse("", true);
+
+        // THEN
+        assertTrue(range.inRange(InetAddress.getByName("8.8.8.8")));
+    }
+
+    @Test
+    public void when_address_is_not_ip_return_false() throws Exception {
+        // GIVEN
+        SubnetRange range = SubnetRange.parse("0.0.0.0/0", true);
+
+        // THEN
+        assertTrue(range.inRange("8.8.8.8"));
+        assertFalse(range.inRange("localhost"));
+        assertFalse(range.inRange("1.2.3.256"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void when_prefix_length_too_long_throw_exception() throws Exception {
+        SubnetRange.parse("10.0.0.0/33", true);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void when_subnet_is_host_name_throw_exception() throws Exception {
+        SubnetRange.parse("localhost/32", true);
+    }
+}